@@ -0,0 +1,174 @@
+package com.scarviz.sampleble;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * ベンチマーク結果の比較クラス
+ * JMHのCSV出力(-rf csv)を基準値と比べ、許容範囲を超えて遅くなったベンチマークがあれば終了コード1で終わる
+ * 使い方: BenchmarkBaseline <基準値.csv> <結果.csv> [許容する劣化率(%)]
+ */
+public class BenchmarkBaseline {
+	/**
+	 * 1件の結果
+	 */
+	static class Result {
+		String mMode;
+		double mScore;
+		String mUnit;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: BenchmarkBaseline <baseline.csv> <results.csv> [threshold%]");
+			System.exit(2);
+		}
+		File baselineFile = new File(args[0]);
+		if (!baselineFile.isFile()) {
+			System.err.println("no baseline: " + baselineFile + " (run jmh and jmhSaveBaseline first)");
+			System.exit(2);
+		}
+		Map<String, Result> baseline = Load(baselineFile);
+		Map<String, Result> current = Load(new File(args[1]));
+		double threshold = (args.length < 3 ? 10 : Double.parseDouble(args[2])) / 100;
+
+		int regressions = 0;
+		for (Map.Entry<String, Result> entry : current.entrySet()) {
+			Result now = entry.getValue();
+			Result base = baseline.get(entry.getKey());
+			if (base == null || !base.mMode.equals(now.mMode) || !base.mUnit.equals(now.mUnit)) {
+				System.out.println(String.format(Locale.US, "NEW   %s %.3f %s", entry.getKey(), now.mScore, now.mUnit));
+				continue;
+			}
+			double change = Change(base, now);
+			boolean regressed = threshold < -change;
+			if (regressed) {
+				regressions++;
+			}
+			System.out.println(String.format(Locale.US, "%s %s %.3f -> %.3f %s (%+.1f%%)",
+					regressed ? "WORSE" : (threshold < change ? "BETTER" : "SAME "),
+					entry.getKey(), base.mScore, now.mScore, now.mUnit, change * 100));
+		}
+		if (0 < regressions) {
+			System.out.println(regressions + " benchmark(s) regressed more than " + threshold * 100 + "%");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * 基準値からの改善率を計算する
+	 * スループットは大きいほど、時間は小さいほど良い
+	 * @param base
+	 * @param now
+	 * @return 改善した場合正、劣化した場合負
+	 */
+	static double Change(Result base, Result now) {
+		if (base.mScore <= 0 || now.mScore <= 0) {
+			return 0;
+		}
+		if ("thrpt".equals(now.mMode)) {
+			return now.mScore / base.mScore - 1;
+		}
+		return base.mScore / now.mScore - 1;
+	}
+
+	/**
+	 * CSVを読み込む
+	 * キーはベンチマーク名とパラメータ
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	static Map<String, Result> Load(File file) throws IOException {
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			List<String> header = Split(reader.readLine());
+			int benchmark = header.indexOf("Benchmark");
+			int mode = header.indexOf("Mode");
+			int score = header.indexOf("Score");
+			int unit = header.indexOf("Unit");
+			if (benchmark < 0 || mode < 0 || score < 0 || unit < 0) {
+				throw new IOException("not a JMH csv: " + file);
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				List<String> fields = Split(line);
+				if (fields.size() < header.size()) {
+					continue;
+				}
+				StringBuilder key = new StringBuilder(fields.get(benchmark));
+				for (int i = 0; i < header.size(); i++) {
+					if (header.get(i).startsWith("Param: ") && 0 < fields.get(i).length()) {
+						key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+					}
+				}
+				Result result = new Result();
+				result.mMode = fields.get(mode);
+				result.mScore = ParseNumber(fields.get(score));
+				result.mUnit = fields.get(unit);
+				results.put(key.toString(), result);
+			}
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+
+	/**
+	 * 数値を読み込む(ロケールによって小数点がカンマになる場合がある)
+	 * @param text
+	 * @return
+	 */
+	private static double ParseNumber(String text) {
+		try {
+			return Double.parseDouble(text.replace(',', '.'));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * CSVの1行を分割する
+	 * @param line
+	 * @return
+	 */
+	private static List<String> Split(String line) {
+		List<String> fields = new ArrayList<String>();
+		if (line == null) {
+			return fields;
+		}
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0, len = line.length(); i < len; i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < len && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
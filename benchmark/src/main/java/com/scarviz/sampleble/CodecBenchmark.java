@@ -0,0 +1,111 @@
+package com.scarviz.sampleble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ペイロード圧縮のベンチマーク
+ * 符号化/復号にかかる時間を計測する(圧縮後のサイズはbenchmark/README.mdに記録している)
+ * センサー値(3軸の16bit値、ゆっくり変化する)と文字列(同じ書式の行の繰り返し)を比べる
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+	/** 1=差分+varint 2=LZ(PayloadCodecs.CODEC_*) */
+	@Param({"1", "2"})
+	public int mCodec;
+
+	@Param({"sensor", "text"})
+	public String mData;
+
+	/** 通知1回分(20サンプル)と、まとめて送る場合(400サンプル) */
+	@Param({"120", "2400"})
+	public int mPayloadSize;
+
+	private PayloadCodec mPayloadCodec;
+	private byte[] mPayload;
+	private byte[] mEncoded;
+	private int mEncodedLength;
+	private byte[] mDecoded;
+
+	@Setup
+	public void Setup() {
+		mPayloadCodec = PayloadCodecs.Get(mCodec);
+		mPayload = "text".equals(mData) ? CreateText(mPayloadSize) : CreateSensor(mPayloadSize);
+		mEncoded = new byte[mPayloadCodec.MaxEncodedLength(mPayloadSize)];
+		mEncodedLength = mPayloadCodec.Encode(mPayload, 0, mPayload.length, mEncoded, 0);
+		mDecoded = new byte[mPayloadSize];
+	}
+
+	/**
+	 * 3軸の16bit値(LE)を生成する(前の値から±3の範囲で変化する)
+	 * @param length
+	 * @return
+	 */
+	private static byte[] CreateSensor(int length) {
+		Random random = new Random(0);
+		int[] axes = {0, 512, -1024};
+		byte[] data = new byte[length];
+		for (int i = 0; i + 1 < length; i += 2) {
+			int axis = i / 2 % 3;
+			axes[axis] += random.nextInt(7) - 3;
+			data[i] = (byte) axes[axis];
+			data[i + 1] = (byte) (axes[axis] >> 8);
+		}
+		return data;
+	}
+
+	/**
+	 * 同じ書式の行を繰り返した文字列を生成する
+	 * @param length
+	 * @return
+	 */
+	private static byte[] CreateText(int length) {
+		Random random = new Random(0);
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < length) {
+			sb.append("hr=").append(60 + random.nextInt(40))
+					.append(" steps=").append(random.nextInt(10000))
+					.append(" battery=").append(random.nextInt(100)).append('\n');
+		}
+		byte[] text = sb.toString().getBytes(Charset.forName("UTF-8"));
+		byte[] data = new byte[length];
+		System.arraycopy(text, 0, data, 0, length);
+		return data;
+	}
+
+	/**
+	 * 符号化する
+	 * @return
+	 */
+	@Benchmark
+	public int Encode() {
+		return mPayloadCodec.Encode(mPayload, 0, mPayload.length, mEncoded, 0);
+	}
+
+	/**
+	 * 復号する
+	 * @return
+	 */
+	@Benchmark
+	public int Decode() {
+		return mPayloadCodec.Decode(mEncoded, 0, mEncodedLength, mDecoded, 0);
+	}
+}
@@ -0,0 +1,76 @@
+package com.scarviz.sampleble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 状態通知の中継とコンソール更新のベンチマーク
+ * Handler間のメッセージ送信はAndroidの実機でしか動かないので、
+ * 中継の前後で行う文字列の組み立て、アドレスの取り出し、ConsoleEventBufferへの追加と表示行の取得を測る
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class ConsoleBenchmark {
+	/** コンソールに保持するイベント数(BLEActと同じ) */
+	private static final int MAX_EVENTS = 256;
+	/** 画面に見えている行数 */
+	private static final int VISIBLE_ROWS = 8;
+	private static final String[] ADDRESSES = {
+			"00:11:22:33:44:55", "00:11:22:33:44:56", "00:11:22:33:44:57", "00:11:22:33:44:58"
+	};
+
+	@Param({"false", "true"})
+	public boolean mFiltered;
+
+	private ConsoleEventBuffer mConsole;
+	private int mNext;
+
+	@Setup
+	public void Setup() {
+		mConsole = new ConsoleEventBuffer(MAX_EVENTS);
+		if (mFiltered) {
+			mConsole.SetFilter(ADDRESSES[0], null);
+		}
+	}
+
+	/**
+	 * 通知1件を中継してコンソールに追加する
+	 */
+	@Benchmark
+	public void Relay() {
+		int i = mNext++;
+		// GattConnection.SendResultMessage → BTServiceHandlerの順に通る文字列
+		String mes = ADDRESSES[i & 3] + " " + "notify payload " + i + " (12 notifications)";
+		String address = ConsoleEventBuffer.ExtractAddress(mes);
+		mConsole.Add(BluetoothStatus.NOTIFY_MES, address, i, mes);
+	}
+
+	/**
+	 * 中継したイベントを見えている行の分だけ読み出す(ListViewの再描画)
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void RelayAndRender(Blackhole blackhole) {
+		Relay();
+		int rows = Math.min(VISIBLE_ROWS, mConsole.Size());
+		for (int position = 0; position < rows; position++) {
+			blackhole.consume(mConsole.Get(position).mText);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.scarviz.sampleble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 機器一覧の重複排除のベンチマーク
+ * DeviceListAdapter.addDeviceと同じく、アドバタイズデータを解析してDeviceRegistryを更新する
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class DeviceRegistryBenchmark {
+	/** GattConnectionの対象サービス(GattConnectionはAndroid APIを使うので値だけ持つ) */
+	private static final UUID SERVICE = UUID.fromString("9E672755-C622-49E0-93B8-4BE76A97208B");
+	private static final UUID CHARACTERISTIC = UUID.fromString("E2CC9711-C6D2-464D-AC7C-25DC963F0BDE");
+
+	@Param({"10", "100", "500"})
+	public int mDeviceCount;
+
+	private DeviceRegistry mRegistry;
+	private AdvertisementRecord mAdvertisement;
+	private String[] mAddresses;
+	private byte[][] mScanRecords;
+	private int mNext;
+	private long mNow;
+
+	@Setup
+	public void Setup() {
+		mRegistry = new DeviceRegistry(30000, 500);
+		mAdvertisement = new AdvertisementRecord();
+		mAddresses = new String[mDeviceCount];
+		mScanRecords = new byte[mDeviceCount][];
+		for (int i = 0; i < mDeviceCount; i++) {
+			mAddresses[i] = String.format(Locale.US, "00:11:22:33:%02X:%02X", i >> 8, i & 0xFF);
+			SimulatedPeripheral peripheral = new SimulatedPeripheral(mAddresses[i], "Device" + i)
+					.AddCharacteristic(SERVICE, CHARACTERISTIC,
+							SimulatedPeripheral.PROPERTY_NOTIFY, null);
+			mScanRecords[i] = peripheral.GetScanRecord();
+		}
+	}
+
+	/**
+	 * 1件のスキャン結果を反映する
+	 * @return
+	 */
+	@Benchmark
+	public boolean AddDevice() {
+		int i = mNext;
+		mNext = i + 1 == mDeviceCount ? 0 : i + 1;
+		// 1件ごとに1ms進める
+		long now = ++mNow;
+		mAdvertisement.Wrap(mScanRecords[i]);
+		boolean added = mRegistry.Update(mAddresses[i], null, -60, mAdvertisement, now);
+		return added | 0 < mRegistry.Evict(now);
+	}
+}
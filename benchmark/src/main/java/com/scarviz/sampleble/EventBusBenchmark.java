@@ -0,0 +1,69 @@
+package com.scarviz.sampleble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * イベントバスの配送のベンチマーク
+ * Looperへの受け渡しはAndroidの実機でしか動かないので、発行したスレッドで配る購読者だけを使い、
+ * イベントの生成、購読者の走査とイベントIDの絞り込み、リスナーの呼び出しを測る
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class EventBusBenchmark {
+	/** 購読者の数(BLEAct、トースト、中継等) */
+	@Param({"1", "4"})
+	public int mSubscribers;
+
+	/** trueの場合、購読者は発行するイベントIDを受け取らない(イベントを生成せずに走査だけする) */
+	@Param({"false", "true"})
+	public boolean mFiltered;
+
+	private BluetoothEventBus mEventBus;
+	private BluetoothEvent mLast;
+	private int mDelivered;
+
+	@Setup
+	public void Setup() {
+		mEventBus = new BluetoothEventBus();
+		BluetoothEventBus.OnBluetoothEventListener listener = new BluetoothEventBus.OnBluetoothEventListener() {
+			@Override
+			public void onBluetoothEvent(BluetoothEvent event) {
+				mLast = event;
+				mDelivered++;
+			}
+		};
+		for (int i = 0; i < mSubscribers; i++) {
+			if (mFiltered) {
+				mEventBus.Subscribe(listener, null, BluetoothStatus.CONNECTED, BluetoothStatus.DISCONNECTED);
+			} else {
+				mEventBus.Subscribe(listener, null);
+			}
+		}
+	}
+
+	/**
+	 * 通知の中継と同じイベントを1件発行する
+	 * @return
+	 */
+	@Benchmark
+	public int Publish() {
+		mEventBus.Publish(BluetoothStatus.NOTIFY_MES, "00:11:22:33:44:55 notify payload");
+		return mDelivered;
+	}
+}
@@ -0,0 +1,122 @@
+package com.scarviz.sampleble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 送信データ分割のベンチマーク
+ * GattStreamWriterと同じく、MTUに合わせて分割し書き込み操作を生成する
+ * フレーム形式の場合は受信側の組み立てまで計測する
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class FragmentationBenchmark {
+	private static final UUID SERVICE = UUID.fromString("9E672755-C622-49E0-93B8-4BE76A97208B");
+	private static final UUID CHARACTERISTIC = UUID.fromString("E2CC9711-C6D2-464D-AC7C-25DC963F0BDE");
+	/** ATTヘッダ長(GattStreamWriter.ATT_HEADER_SIZE) */
+	private static final int ATT_HEADER_SIZE = 3;
+
+	@Param({"20", "512", "4096"})
+	public int mPayloadSize;
+
+	@Param({"23", "185", "517"})
+	public int mMtu;
+
+	@Param({"false", "true"})
+	public boolean mFramed;
+
+	private byte[] mPayload;
+	/** 組み立て用に分割済みのフレーム */
+	private byte[][] mFrames;
+	private int mSequence;
+	private MessageReassembler mReassembler;
+	private Blackhole mBlackhole;
+
+	@Setup
+	public void Setup() {
+		mPayload = new byte[mPayloadSize];
+		for (int i = 0; i < mPayloadSize; i++) {
+			mPayload[i] = (byte) i;
+		}
+		if (!mFramed) {
+			return;
+		}
+		List<byte[]> frames = new ArrayList<byte[]>();
+		PayloadFragmenter fragmenter = NewFragmenter(0);
+		while (fragmenter.HasNext()) {
+			frames.add(fragmenter.Next());
+		}
+		mFrames = frames.toArray(new byte[frames.size()][]);
+		mReassembler = new MessageReassembler(new MessageReassembler.OnMessageListener() {
+			@Override
+			public void onMessage(int sequence, int flags, byte[] data, int offset, int length) {
+				mBlackhole.consume(data);
+			}
+
+			@Override
+			public void onMessageLost(int count, int corrupted) {
+			}
+		});
+	}
+
+	/**
+	 * 分割クラスを生成する
+	 * @param sequence
+	 * @return
+	 */
+	private PayloadFragmenter NewFragmenter(int sequence) {
+		return mFramed
+				? new PayloadFragmenter(mPayload, mMtu - ATT_HEADER_SIZE, sequence)
+				: new PayloadFragmenter(mPayload, mMtu - ATT_HEADER_SIZE);
+	}
+
+	/**
+	 * 送信データ全体を書き込み操作に分割する
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void Fragment(Blackhole blackhole) {
+		PayloadFragmenter fragmenter = NewFragmenter(mSequence++);
+		while (fragmenter.HasNext()) {
+			blackhole.consume(GattOperation.Write(SERVICE, CHARACTERISTIC, fragmenter.Next(),
+					BleGattLink.WRITE_TYPE_NO_RESPONSE, null));
+		}
+	}
+
+	/**
+	 * 受信したフレームからメッセージを組み立てる(フレーム形式のみ)
+	 * 通し番号を進めながら同じフレームを使い回す
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void Reassemble(Blackhole blackhole) {
+		if (!mFramed) {
+			return;
+		}
+		mBlackhole = blackhole;
+		int sequence = mSequence++ & 0xFF;
+		for (byte[] frame : mFrames) {
+			frame[1] = (byte) sequence;
+			mReassembler.Offer(frame, frame.length);
+		}
+	}
+}
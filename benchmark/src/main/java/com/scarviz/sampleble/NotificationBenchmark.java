@@ -0,0 +1,96 @@
+package com.scarviz.sampleble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通知受信のベンチマーク
+ * onCharacteristicChangedでリングバッファへ積み、まとめて読み出して文字列にする処理を測る
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class NotificationBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** 1回の読み出しでまとめる通知数 */
+	private static final int BATCH = 64;
+
+	@Param({"20", "182"})
+	public int mPayloadLength;
+
+	private NotificationRingBuffer mRing;
+	private byte[] mPayload;
+	private BatchConsumer mConsumer;
+
+	/**
+	 * BluetoothHelperのNotificationBatchと同じく、件数と最後の通知だけを保持する
+	 */
+	private static class BatchConsumer implements NotificationRingBuffer.Consumer {
+		int mCount;
+		byte[] mLast = new byte[20];
+		int mLastLength;
+
+		@Override
+		public void onNotification(int deviceId, int characteristic, long timestamp, byte[] payload, int length) {
+			if (mLast.length < length) {
+				mLast = new byte[length];
+			}
+			System.arraycopy(payload, 0, mLast, 0, length);
+			mLastLength = length;
+			mCount++;
+		}
+	}
+
+	@Setup
+	public void Setup() {
+		mRing = new NotificationRingBuffer(1024);
+		mPayload = new byte[mPayloadLength];
+		Arrays.fill(mPayload, (byte) 'a');
+		mConsumer = new BatchConsumer();
+	}
+
+	/**
+	 * リングバッファへ積み、まとめて読み出して1回だけ文字列にする
+	 * @return
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public String OfferAndDrain() {
+		for (int i = 0; i < BATCH; i++) {
+			mRing.Offer(1, i, mPayload, 0, mPayload.length);
+		}
+		mConsumer.mCount = 0;
+		mRing.Drain(mConsumer, BATCH);
+		return new String(mConsumer.mLast, 0, mConsumer.mLastLength, UTF8) + " (" + mConsumer.mCount + " notifications)";
+	}
+
+	/**
+	 * 比較用：通知ごとに文字列にする(リングバッファ導入前の処理)
+	 * @param blackhole
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void DecodeEach(Blackhole blackhole) {
+		for (int i = 0; i < BATCH; i++) {
+			blackhole.consume(new String(mPayload, UTF8));
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+/**
+ * ベンチマーク用のスタブ
+ * Looperへの配送はAndroidでしか動かないので、生成すると例外にする
+ */
+public class Handler {
+	public interface Callback {
+		boolean handleMessage(Message msg);
+	}
+
+	public Handler(Looper looper, Callback callback) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public final void removeCallbacksAndMessages(Object token) {
+		throw new RuntimeException("Stub!");
+	}
+}
@@ -0,0 +1,9 @@
+package android.os;
+
+/**
+ * ベンチマーク用のスタブ
+ */
+public final class Looper {
+	private Looper() {
+	}
+}
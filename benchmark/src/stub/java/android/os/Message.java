@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * ベンチマーク用のスタブ
+ * Looperへの配送はAndroidでしか動かないので、使うと例外にする
+ */
+public final class Message {
+	public Object obj;
+
+	public static Message obtain(Handler h, int what, Object obj) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public void sendToTarget() {
+		throw new RuntimeException("Stub!");
+	}
+}
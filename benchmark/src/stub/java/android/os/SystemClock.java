@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * ベンチマーク用のスタブ
+ * BluetoothEventの時刻に使うので、JVMの単調増加の時計で代わりに返す
+ */
+public final class SystemClock {
+	private SystemClock() {
+	}
+
+	public static long elapsedRealtime() {
+		return System.nanoTime() / 1000000;
+	}
+}
@@ -0,0 +1,359 @@
+package com.scarviz.sampleble;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * アドバタイズデータ解析クラス
+ * onLeScanで渡されるscanRecordのAD構造を元の配列上でそのまま解析する
+ * 解析結果は位置と長さだけを保持するので、フィールドごとのオブジェクト生成はない
+ * 1インスタンスを使い回すこと(スレッドセーフではない)
+ */
+public class AdvertisementRecord {
+	/** AD Type：Flags */
+	public static final int TYPE_FLAGS = 0x01;
+	/** AD Type：16bitサービスUUID(一部) */
+	public static final int TYPE_UUID16_INCOMPLETE = 0x02;
+	/** AD Type：16bitサービスUUID(全部) */
+	public static final int TYPE_UUID16_COMPLETE = 0x03;
+	/** AD Type：32bitサービスUUID(一部) */
+	public static final int TYPE_UUID32_INCOMPLETE = 0x04;
+	/** AD Type：32bitサービスUUID(全部) */
+	public static final int TYPE_UUID32_COMPLETE = 0x05;
+	/** AD Type：128bitサービスUUID(一部) */
+	public static final int TYPE_UUID128_INCOMPLETE = 0x06;
+	/** AD Type：128bitサービスUUID(全部) */
+	public static final int TYPE_UUID128_COMPLETE = 0x07;
+	/** AD Type：短縮ローカル名 */
+	public static final int TYPE_NAME_SHORT = 0x08;
+	/** AD Type：完全ローカル名 */
+	public static final int TYPE_NAME_COMPLETE = 0x09;
+	/** AD Type：送信電力 */
+	public static final int TYPE_TX_POWER = 0x0A;
+	/** AD Type：16bitサービスデータ */
+	public static final int TYPE_SERVICE_DATA16 = 0x16;
+	/** AD Type：32bitサービスデータ */
+	public static final int TYPE_SERVICE_DATA32 = 0x20;
+	/** AD Type：128bitサービスデータ */
+	public static final int TYPE_SERVICE_DATA128 = 0x21;
+	/** AD Type：メーカー固有データ */
+	public static final int TYPE_MANUFACTURER_DATA = 0xFF;
+
+	/** 値がない場合の送信電力 */
+	public static final int TX_POWER_UNKNOWN = Integer.MIN_VALUE;
+
+	/** Bluetooth Base UUIDの下位64bit */
+	private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+	/** Bluetooth Base UUIDの上位64bit(16/32bit UUID部分を除く) */
+	private static final long BASE_UUID_MSB = 0x0000000000001000L;
+
+	/** AD構造の最大数(アドバタイズ31byte + スキャンレスポンス31byte、1構造最低2byte) */
+	private static final int MAX_STRUCTURES = 31;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private byte[] mData;
+	private int mCount;
+	private final int[] mTypes = new int[MAX_STRUCTURES];
+	private final int[] mOffsets = new int[MAX_STRUCTURES];
+	private final int[] mLengths = new int[MAX_STRUCTURES];
+
+	/**
+	 * scanRecordを解析する
+	 * @param data
+	 * @return 最後まで正しく解析できた場合true(途中で壊れていた場合はそこまでの構造が残る)
+	 */
+	public boolean Wrap(byte[] data) {
+		return Wrap(data, 0, data == null ? 0 : data.length);
+	}
+
+	/**
+	 * scanRecordの一部を解析する
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return 最後まで正しく解析できた場合true(途中で壊れていた場合はそこまでの構造が残る)
+	 */
+	public boolean Wrap(byte[] data, int offset, int length) {
+		mData = data;
+		mCount = 0;
+		int pos = offset;
+		int end = offset + length;
+		while (pos < end) {
+			int len = data[pos] & 0xFF;
+			// 長さ0以降は未使用領域
+			if (len == 0) {
+				return true;
+			}
+			if (end < pos + 1 + len || mCount == MAX_STRUCTURES) {
+				return false;
+			}
+			mTypes[mCount] = data[pos + 1] & 0xFF;
+			mOffsets[mCount] = pos + 2;
+			mLengths[mCount] = len - 1;
+			mCount++;
+			pos += 1 + len;
+		}
+		return true;
+	}
+
+	/**
+	 * 解析元の配列を取得する
+	 * @return
+	 */
+	public byte[] GetData() {
+		return mData;
+	}
+
+	/**
+	 * AD構造の数を取得する
+	 * @return
+	 */
+	public int Count() {
+		return mCount;
+	}
+
+	/**
+	 * AD構造の種別を取得する
+	 * @param index
+	 * @return
+	 */
+	public int GetType(int index) {
+		return mTypes[index];
+	}
+
+	/**
+	 * AD構造のデータ開始位置を取得する
+	 * @param index
+	 * @return
+	 */
+	public int GetOffset(int index) {
+		return mOffsets[index];
+	}
+
+	/**
+	 * AD構造のデータ長を取得する
+	 * @param index
+	 * @return
+	 */
+	public int GetLength(int index) {
+		return mLengths[index];
+	}
+
+	/**
+	 * 指定した種別のAD構造を探す
+	 * @param type
+	 * @param from 探し始める位置
+	 * @return 見つからない場合-1
+	 */
+	public int Find(int type, int from) {
+		for (int i = from; i < mCount; i++) {
+			if (mTypes[i] == type) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 指定した種別のAD構造を探す
+	 * @param type
+	 * @return 見つからない場合-1
+	 */
+	public int Find(int type) {
+		return Find(type, 0);
+	}
+
+	/**
+	 * Flagsを取得する
+	 * @return ない場合-1
+	 */
+	public int GetFlags() {
+		int i = Find(TYPE_FLAGS);
+		if (i < 0 || mLengths[i] < 1) {
+			return -1;
+		}
+		return mData[mOffsets[i]] & 0xFF;
+	}
+
+	/**
+	 * 送信電力(dBm)を取得する
+	 * @return ない場合TX_POWER_UNKNOWN
+	 */
+	public int GetTxPower() {
+		int i = Find(TYPE_TX_POWER);
+		if (i < 0 || mLengths[i] < 1) {
+			return TX_POWER_UNKNOWN;
+		}
+		return mData[mOffsets[i]];
+	}
+
+	/**
+	 * サービスUUIDを含むかどうか
+	 * 16/32bitのUUIDはBase UUIDに展開して比較する
+	 * @param msb
+	 * @param lsb
+	 * @return
+	 */
+	public boolean HasServiceUuid(long msb, long lsb) {
+		boolean isBase = lsb == BASE_UUID_LSB && (msb & 0xFFFFFFFFL) == BASE_UUID_MSB;
+		long shortUuid = msb >>> 32;
+		for (int i = 0; i < mCount; i++) {
+			int off = mOffsets[i];
+			int end = off + mLengths[i];
+			switch (mTypes[i]) {
+				case TYPE_UUID16_INCOMPLETE:
+				case TYPE_UUID16_COMPLETE:
+					if (isBase && shortUuid <= 0xFFFF) {
+						for (; off + 2 <= end; off += 2) {
+							if (ReadLE(mData, off, 2) == shortUuid) {
+								return true;
+							}
+						}
+					}
+					break;
+				case TYPE_UUID32_INCOMPLETE:
+				case TYPE_UUID32_COMPLETE:
+					if (isBase) {
+						for (; off + 4 <= end; off += 4) {
+							if (ReadLE(mData, off, 4) == shortUuid) {
+								return true;
+							}
+						}
+					}
+					break;
+				case TYPE_UUID128_INCOMPLETE:
+				case TYPE_UUID128_COMPLETE:
+					for (; off + 16 <= end; off += 16) {
+						if (ReadLE(mData, off, 8) == lsb && ReadLE(mData, off + 8, 8) == msb) {
+							return true;
+						}
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * サービスUUIDを含むかどうか
+	 * @param uuid
+	 * @return
+	 */
+	public boolean HasServiceUuid(UUID uuid) {
+		return HasServiceUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+	}
+
+	/**
+	 * メーカー固有データのAD構造を探す
+	 * データの先頭2byteがメーカーID(リトルエンディアン)
+	 * @return 見つからない場合-1
+	 */
+	public int FindManufacturerData() {
+		return FindManufacturerData(0);
+	}
+
+	/**
+	 * メーカー固有データのAD構造を探す
+	 * 複数のメーカーのデータを含む広告もあるので、続けて探す場合は見つかった位置+1から探す
+	 * メーカーIDのない(2byte未満の)構造は飛ばす
+	 * @param from 探し始める位置
+	 * @return 見つからない場合-1
+	 */
+	public int FindManufacturerData(int from) {
+		for (int i = Find(TYPE_MANUFACTURER_DATA, from); 0 <= i; i = Find(TYPE_MANUFACTURER_DATA, i + 1)) {
+			if (2 <= mLengths[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * メーカーIDを取得する
+	 * @return ない場合-1
+	 */
+	public int GetManufacturerId() {
+		int i = FindManufacturerData();
+		if (i < 0) {
+			return -1;
+		}
+		return (int) ReadLE(mData, mOffsets[i], 2);
+	}
+
+	/**
+	 * 16bitサービスデータのAD構造を探す
+	 * データの先頭2byteがサービスUUID(リトルエンディアン)
+	 * @param uuid16
+	 * @return 見つからない場合-1
+	 */
+	public int FindServiceData16(int uuid16) {
+		for (int i = Find(TYPE_SERVICE_DATA16); 0 <= i; i = Find(TYPE_SERVICE_DATA16, i + 1)) {
+			if (2 <= mLengths[i] && ReadLE(mData, mOffsets[i], 2) == uuid16) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * ローカル名のAD構造を探す(完全名を優先)
+	 * @return 見つからない場合-1
+	 */
+	public int FindLocalName() {
+		int i = Find(TYPE_NAME_COMPLETE);
+		if (i < 0) {
+			i = Find(TYPE_NAME_SHORT);
+		}
+		return i;
+	}
+
+	/**
+	 * ローカル名が指定したUTF-8バイト列で始まるかどうか
+	 * @param prefix
+	 * @return
+	 */
+	public boolean LocalNameStartsWith(byte[] prefix) {
+		int i = FindLocalName();
+		if (i < 0 || mLengths[i] < prefix.length) {
+			return false;
+		}
+		int off = mOffsets[i];
+		for (int j = 0; j < prefix.length; j++) {
+			if (mData[off + j] != prefix[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * ローカル名を取得する
+	 * 文字列を生成するので、表示など必要な時だけ呼ぶこと
+	 * @return ない場合null
+	 */
+	public String GetLocalName() {
+		int i = FindLocalName();
+		if (i < 0) {
+			return null;
+		}
+		return new String(mData, mOffsets[i], mLengths[i], UTF8);
+	}
+
+	/**
+	 * リトルエンディアンの値を読む
+	 * @param data
+	 * @param offset
+	 * @param size 1～8byte
+	 * @return
+	 */
+	static long ReadLE(byte[] data, int offset, int size) {
+		long v = 0;
+		for (int i = size - 1; 0 <= i; i--) {
+			v = (v << 8) | (data[offset + i] & 0xFF);
+		}
+		return v;
+	}
+}
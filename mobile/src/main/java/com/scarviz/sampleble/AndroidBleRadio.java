@@ -0,0 +1,95 @@
+package com.scarviz.sampleble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 実機のBluetooth無線
+ * BluetoothAdapterとBluetoothDevice.connectGattをBleRadioとして使えるようにする
+ */
+public class AndroidBleRadio implements BleRadio {
+	private final Context mContext;
+	private BluetoothAdapter mBluetoothAdapter;
+
+	/** リスナーごとのスキャンコールバック */
+	private final ConcurrentHashMap<BleScanListener, BluetoothAdapter.LeScanCallback> mScanCallbacks =
+			new ConcurrentHashMap<BleScanListener, BluetoothAdapter.LeScanCallback>();
+
+	/**
+	 * コンストラクタ
+	 * @param context
+	 */
+	public AndroidBleRadio(Context context) {
+		mContext = context;
+		GenBluetoothAdapter();
+	}
+
+	/**
+	 * BluetoothAdapterの生成
+	 */
+	private void GenBluetoothAdapter() {
+		BluetoothManager bluetoothManager = (BluetoothManager) mContext.getSystemService(Context.BLUETOOTH_SERVICE);
+		mBluetoothAdapter = bluetoothManager.getAdapter();
+	}
+
+	@Override
+	public boolean IsEnabled() {
+		if (mBluetoothAdapter == null) {
+			GenBluetoothAdapter();
+		}
+		return mBluetoothAdapter != null && mBluetoothAdapter.isEnabled();
+	}
+
+	@Override
+	public boolean StartScan(final BleScanListener listener) {
+		BluetoothAdapter.LeScanCallback callback = mScanCallbacks.get(listener);
+		if (callback == null) {
+			callback = new BluetoothAdapter.LeScanCallback() {
+				/** 機器名の取得はプロセス間通信になるので、アドレスごとに1回だけにする */
+				private final HashMap<String, String> mNames = new HashMap<String, String>();
+
+				@Override
+				public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+					String address = device.getAddress();
+					String name = mNames.get(address);
+					if (name == null && !mNames.containsKey(address)) {
+						name = device.getName();
+						mNames.put(address, name);
+					}
+					listener.onScanResult(address, name, rssi, scanRecord);
+				}
+			};
+			mScanCallbacks.put(listener, callback);
+		}
+		return mBluetoothAdapter.startLeScan(callback);
+	}
+
+	@Override
+	public void StopScan(BleScanListener listener) {
+		BluetoothAdapter.LeScanCallback callback = mScanCallbacks.remove(listener);
+		if (callback != null) {
+			mBluetoothAdapter.stopLeScan(callback);
+		}
+	}
+
+	@Override
+	public boolean IsBonded(String address) {
+		BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
+		return device.getBondState() == BluetoothDevice.BOND_BONDED;
+	}
+
+	@Override
+	public BleGattLink Connect(String address, boolean autoConnect, BleGattListener listener) {
+		BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
+		AndroidGattLink link = new AndroidGattLink(address, listener);
+		if (!link.Connect(mContext, device, autoConnect)) {
+			return null;
+		}
+		return link;
+	}
+}
@@ -1,23 +1,56 @@
 package com.scarviz.sampleble;
 
 import android.app.Service;
-import android.bluetooth.BluetoothAdapter;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Message;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.lang.ref.WeakReference;
+import java.io.File;
+import java.util.List;
+import java.util.UUID;
 
 public class BTService extends Service {
 	private final static String TAG = "BTService";
+	/** 受信データの記録先 */
+	private final static String SESSION_DIR = "sessions";
+	/** シミュレータの機器アドレス */
+	private final static String SIMULATED_ADDRESS = "00:11:22:33:44:55";
+	/** シミュレータの機器の通知レート(回/秒) */
+	private final static int SIMULATED_NOTIFY_RATE = 10;
+	/** シミュレータの機器がフレーム形式で送る1メッセージの長さ(複数フレームに分割される) */
+	private final static int SIMULATED_FRAMED_LENGTH = 200;
+	/** Batteryサービス */
+	private final static UUID BATTERY_SERVICE = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+	/** Battery Levelキャラクタリスティック */
+	private final static UUID BATTERY_LEVEL = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
 
 	private BluetoothHelper mBtHelper;
-	private BtProcHandler mBtProcHandler;
-	private Handler mHandlerAct;
+	private BleRadio mRadio;
+	/** Bluetooth処理用のワーカースレッド */
+	private HandlerThread mBtThread;
+	/** ワーカースレッドのHandler(スキャンのタイマー、GATTの後処理、通知の復号、送信) */
+	private Handler mBtProcHandler;
+	/** 状態や受信データを配るイベントバス(BluetoothHelperを作り直しても購読は残る) */
+	private final BluetoothEventBus mEventBus = new BluetoothEventBus();
+
+	/** 中継しない */
+	public static final int RELAY_NONE = 0;
+	/** 受信データをウォッチへ中継する */
+	public static final int RELAY_SEND = 1;
+	/** スマートフォンから中継されたデータを受け取る */
+	public static final int RELAY_RECEIVE = 2;
+	/** 中継の送受信路(中継しない場合null) */
+	private RelayTransport mRelayTransport;
+	/** 中継データのまとめ送り(送る側の場合だけ) */
+	private RelayBatcher mRelayBatcher;
+	/** 中継データの受信(受け取る側の場合だけ) */
+	private RelayReceiver mRelayReceiver;
 
 	@Override
 	public void onCreate() {
@@ -29,10 +62,40 @@ public class BTService extends Service {
 		Log.d(TAG, "onStartCommand");
 
 		if(mBtProcHandler == null) {
-			mBtProcHandler = new BtProcHandler(this);
+			// 画面の描画と無線の処理が互いに待たされないよう、Bluetoothの処理はメインスレッドで行わない
+			mBtThread = new HandlerThread(TAG + "Worker");
+			mBtThread.start();
+			mBtProcHandler = new Handler(mBtThread.getLooper());
+			// 受信メッセージはToastでも表示する(一覧には全て表示されるので、Toastは間引く)
+			mEventBus.Subscribe(mToastListener, Looper.getMainLooper(), BluetoothStatus.NOTIFY_MES);
+			CreateRelay(getResources().getInteger(R.integer.relay_role));
+		}
+		if(mRadio == null) {
+			// 無線(シミュレータの場合はそのスレッド)はサービスで1つだけ作り、切断後に作り直すBluetoothHelperでも使い回す
+			mRadio = CreateRadio();
 		}
 		if(mBtHelper == null) {
-			mBtHelper = new BluetoothHelper(this, mBtProcHandler);
+			mBtHelper = new BluetoothHelper(this, mBtProcHandler, mEventBus, mRadio);
+			final int scanProfile = getResources().getInteger(R.integer.scan_profile);
+			final int linkProfile = getResources().getInteger(R.integer.link_profile);
+			final boolean framed = getResources().getBoolean(R.bool.use_framed_messages);
+			final int codec = getResources().getInteger(R.integer.payload_codec);
+			final RelayBatcher relay = mRelayBatcher;
+			final GattProfile profile = GattProfile.Load(this, R.raw.gatt_profile);
+			// 設定もワーカースレッドで行う(後から予約した接続より先に済む)
+			PostBtTask(new BtTask() {
+				@Override
+				public void Run(BluetoothHelper btHelper) {
+					btHelper.SetScanProfile(scanProfile);
+					btHelper.SetLinkProfile(linkProfile, true);
+					btHelper.SetFramedMessages(framed);
+					btHelper.SetCodec(codec);
+					btHelper.SetRelay(relay);
+					if (profile != null) {
+						btHelper.SetProfile(profile);
+					}
+				}
+			});
 		}
 
 		return START_STICKY;
@@ -42,10 +105,88 @@ public class BTService extends Service {
 	public void onDestroy() {
 		Log.d(TAG, "onDestroy");
 		DisConnect();
+		mEventBus.Unsubscribe(mToastListener);
+		if (mRelayTransport != null) {
+			// 溜めている中継データを送ってから閉じる
+			final RelayBatcher batcher = mRelayBatcher;
+			final RelayTransport transport = mRelayTransport;
+			mBtProcHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (batcher != null) {
+						batcher.Flush();
+					}
+					transport.Close();
+				}
+			});
+			mRelayTransport = null;
+			mRelayBatcher = null;
+			mRelayReceiver = null;
+		}
+		if (mRadio instanceof SimulatedBleRadio) {
+			// 予約済みの切断処理が済んでからシミュレータを止める
+			final SimulatedBleRadio radio = (SimulatedBleRadio) mRadio;
+			mBtProcHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					radio.Shutdown();
+				}
+			});
+		}
+		mRadio = null;
+		if (mBtThread != null) {
+			// 切断処理を済ませてから止める
+			mBtThread.quitSafely();
+			mBtThread = null;
+			mBtProcHandler = null;
+		}
 
 		super.onDestroy();
 	}
 
+	/**
+	 * ウォッチとの中継を生成する
+	 * 送る側は受信データをまとめて圧縮し、受け取る側は読み出してRELAY_MESとして発行する
+	 * @param role RELAY_*
+	 */
+	private void CreateRelay(int role) {
+		if (role == RELAY_NONE) {
+			return;
+		}
+		mRelayTransport = new WearableRelayTransport(this);
+		if (role == RELAY_SEND) {
+			mRelayBatcher = new RelayBatcher(mBtProcHandler, mRelayTransport, PayloadCodecs.CODEC_LZ);
+		} else {
+			mRelayReceiver = new RelayReceiver(mEventBus);
+			mRelayTransport.SetListener(mRelayReceiver);
+		}
+	}
+
+	/**
+	 * Bluetooth無線を生成する
+	 * 設定によって実機の代わりにシミュレータの機器を使う
+	 * @return
+	 */
+	private BleRadio CreateRadio() {
+		if (!getResources().getBoolean(R.bool.use_simulated_radio)) {
+			return new AndroidBleRadio(this);
+		}
+		Log.d(TAG, "use simulated radio");
+		boolean framed = getResources().getBoolean(R.bool.use_framed_messages);
+		SimulatedPeripheral peripheral = new SimulatedPeripheral(SIMULATED_ADDRESS, "SimulatedBLE")
+				.AddCharacteristic(GattConnection.DEVICE_SERVICE, GattConnection.DEVICE_CHARACTERISTIC,
+						SimulatedPeripheral.PROPERTY_READ | SimulatedPeripheral.PROPERTY_WRITE
+								| SimulatedPeripheral.PROPERTY_WRITE_NO_RESPONSE | SimulatedPeripheral.PROPERTY_NOTIFY,
+						null)
+				.SetNotification(GattConnection.DEVICE_SERVICE, GattConnection.DEVICE_CHARACTERISTIC,
+						SIMULATED_NOTIFY_RATE, framed ? SIMULATED_FRAMED_LENGTH : 20)
+				.AddCharacteristic(BATTERY_SERVICE, BATTERY_LEVEL,
+						SimulatedPeripheral.PROPERTY_READ | SimulatedPeripheral.PROPERTY_NOTIFY, new byte[] {100})
+				.SetFramed(framed)
+				.SetCodecs(PayloadCodecs.SUPPORTED);
+		return new SimulatedBleRadio().AddPeripheral(peripheral);
+	}
+
 	/**
 	 * Bind処理
 	 * @param intent
@@ -71,11 +212,53 @@ public class BTService extends Service {
 	}
 
 	/**
-	 * Handlerの設定
-	 * @param handlerAct
+	 * イベントを購読する
+	 * @param listener
+	 * @param looper 配送先のスレッド(nullの場合は発行したスレッドで配る)
+	 * @param ids 受け取るイベントID(省略した場合は全て)
 	 */
-	public void SetHandlerAct(Handler handlerAct){
-		mHandlerAct = handlerAct;
+	public void Subscribe(BluetoothEventBus.OnBluetoothEventListener listener, Looper looper, int... ids){
+		mEventBus.Subscribe(listener, looper, ids);
+	}
+
+	/**
+	 * イベントの購読をやめる
+	 * @param listener
+	 */
+	public void Unsubscribe(BluetoothEventBus.OnBluetoothEventListener listener){
+		mEventBus.Unsubscribe(listener);
+	}
+
+	/**
+	 * ワーカースレッドで行うBluetooth処理
+	 */
+	private interface BtTask {
+		/**
+		 * 処理を行う
+		 * @param btHelper 予約した時点のBluetoothHelper
+		 */
+		void Run(BluetoothHelper btHelper);
+	}
+
+	/**
+	 * Bluetooth処理をワーカースレッドへ予約する
+	 * 切断後(BluetoothHelperがない)やサービス終了後は予約しない
+	 * @param task
+	 * @return 予約できた場合true
+	 */
+	private boolean PostBtTask(final BtTask task) {
+		final BluetoothHelper btHelper = mBtHelper;
+		Handler handler = mBtProcHandler;
+		if (btHelper == null || handler == null) {
+			Log.d(TAG, "bluetooth is not started");
+			return false;
+		}
+		return handler.post(new Runnable() {
+			@Override
+			public void run() {
+				task.Run(btHelper);
+			}
+		});
 	}
 
 	/**
@@ -88,19 +271,83 @@ public class BTService extends Service {
 
 	/**
 	 * Bluetooth機器のスキャン
-	 * @param mLeScanCallback
+	 * @param listener
+	 */
+	public void ScanDevice(final BleScanListener listener){
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.ScanDevice(listener);
+			}
+		});
+	}
+
+	/**
+	 * スキャンフィルタを設定する
+	 * @param filters
 	 */
-	public void ScanDevice(final BluetoothAdapter.LeScanCallback mLeScanCallback){
-		mBtHelper.ScanDevice(mLeScanCallback);
+	public void SetScanFilters(final List<ScanFilter> filters){
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.SetScanFilters(filters);
+			}
+		});
+	}
+
+	/**
+	 * スキャンのプロファイルを設定する
+	 * @param profile
+	 */
+	public void SetScanProfile(final int profile){
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.SetScanProfile(profile);
+			}
+		});
+	}
+
+	/**
+	 * 接続のプロファイルを設定する
+	 * @param profile LinkProfile.PROFILE_HIGH_THROUGHPUT / PROFILE_BALANCED / PROFILE_LOW_POWER
+	 * @param adaptive 送受信量に応じてプロファイルを切り替えるかどうか
+	 */
+	public void SetLinkProfile(final int profile, final boolean adaptive){
+		// 接続優先度の要求やMTUの要求を伴い、接続プロファイルの見直しとも重ならないようワーカースレッドで行う
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.SetLinkProfile(profile, adaptive);
+			}
+		});
+	}
+
+	/**
+	 * 送信データの圧縮方式を設定する
+	 * @param codec PayloadCodecs.CODEC_*
+	 */
+	public void SetCodec(final int codec){
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.SetCodec(codec);
+			}
+		});
 	}
 
 	/**
 	 * Bluetooth機器の接続
 	 * @param address
 	 */
-	public void Connect(String address){
-		// 手動で接続するのでautoConnectはfalse
-		mBtHelper.Connect(this, false, address);
+	public void Connect(final String address){
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				// 手動で接続するのでautoConnectはfalse
+				btHelper.Connect(false, address);
+			}
+		});
 	}
 
 	/**
@@ -108,89 +355,194 @@ public class BTService extends Service {
 	 */
 	public void DisConnect(){
 		Log.d(TAG, "DisConnect");
-		if(mBtHelper != null) {
-			mBtHelper.DisConnect();
+		final BluetoothHelper btHelper = mBtHelper;
+		if(btHelper != null) {
 			mBtHelper = null;
+			// 予約済みの接続や送信の後に切断する
+			mBtProcHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					btHelper.DisConnect();
+					btHelper.StopRecording();
+				}
+			});
 		}
 	}
 
 	/**
-	 * 接続中かどうか
+	 * 指定したBluetooth機器の切断
+	 * @param address
+	 */
+	public void DisConnect(final String address){
+		Log.d(TAG, "DisConnect: " + address);
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.DisConnect(address);
+			}
+		});
+	}
+
+	/**
+	 * いずれかの機器と接続中かどうか
 	 * @return
 	 */
 	public boolean IsConnected() {
-		return mBtHelper.IsConnected();
+		BluetoothHelper btHelper = mBtHelper;
+		return btHelper != null && btHelper.IsConnected();
+	}
+
+	/**
+	 * 指定した機器と接続中かどうか
+	 * @param address
+	 * @return
+	 */
+	public boolean IsConnected(String address) {
+		BluetoothHelper btHelper = mBtHelper;
+		return btHelper != null && btHelper.IsConnected(address);
 	}
 
 	/**
 	 * メッセージを送信する
 	 * @param message
 	 */
-	public void sendMessage(String message) {
-		//mBtHelper.sendMessage(message);
+	public void sendMessage(final String message) {
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.SendMessage(message);
+			}
+		});
 	}
 
 	/**
-	 * Bluetooth通信処理のハンドラ
+	 * データを送信する
+	 * @param address
+	 * @param data
+	 * @return 接続中で送信を予約できた場合true
 	 */
-	private static class BtProcHandler extends Handler {
-		WeakReference<BTService> ref;
-
-		public BtProcHandler(BTService r) {
-			ref = new WeakReference<BTService>(r);
+	public boolean SendData(final String address, final byte[] data) {
+		if (!IsConnected(address)) {
+			return false;
 		}
+		// 分割と圧縮はワーカースレッドで行う
+		return PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.SendData(address, data);
+			}
+		});
+	}
 
-		@Override
-		public void handleMessage(Message msg) {
-			final BTService btSrv = ref.get();
-			if (btSrv == null) {
-				return;
+	/**
+	 * 受信データの記録を開始する
+	 * アプリのファイル領域のsessionsディレクトリに保存する
+	 * 開始できなかった場合はFAILUREを発行する
+	 */
+	public void StartRecording() {
+		final File dir = new File(getFilesDir(), SESSION_DIR);
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				if (!btHelper.StartRecording(dir)) {
+					mEventBus.Publish(BluetoothStatus.FAILURE, "Start Recording Failure");
+				}
 			}
+		});
+	}
 
-			switch (msg.what) {
-				case BluetoothStatus.START_SCAN:
-				case BluetoothStatus.STOP_SCAN:
-				case BluetoothStatus.CONNECTING:
-				case BluetoothStatus.CONNECTED:
-				case BluetoothStatus.DISCONNECTED:
-					if(btSrv.mHandlerAct != null) {
-						btSrv.mHandlerAct.sendMessage(btSrv.GetMessage(msg.what));
-					}
-					break;
-				case BluetoothStatus.NOTIFY_MES:
-					String message = (String)msg.obj;
-					Toast.makeText(btSrv.getApplicationContext(), message, Toast.LENGTH_SHORT).show();
-					break;
-				case BluetoothStatus.SUCCESS:
-				case BluetoothStatus.FAILURE:
-					if(btSrv.mHandlerAct != null) {
-						btSrv.mHandlerAct.sendMessage(btSrv.GetMessage(msg.what, msg.obj));
-					}
-					break;
-				default:
-					super.handleMessage(msg);
-					break;
+	/**
+	 * 受信データの記録を終了する
+	 */
+	public void StopRecording() {
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.StopRecording();
 			}
-		}
+		});
+	}
+
+	/**
+	 * 記録中かどうか
+	 * @return
+	 */
+	public boolean IsRecording() {
+		BluetoothHelper btHelper = mBtHelper;
+		return btHelper != null && btHelper.IsRecording();
+	}
+
+	/**
+	 * 記録したセッションを再生する
+	 * @param name セッション名
+	 * @param speed 再生速度の倍率(SessionReplayer.SPEED_UNLIMITEDの場合は待たない)
+	 */
+	public void StartReplay(final String name, final double speed) {
+		final File dir = new File(getFilesDir(), SESSION_DIR);
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.StartReplay(dir, name, speed);
+			}
+		});
 	}
 
 	/**
-	 * Messageを取得する
-	 * @param id
+	 * セッションの再生を止める
 	 */
-	private Message GetMessage(int id){
-		return GetMessage(id, null);
+	public void StopReplay() {
+		PostBtTask(new BtTask() {
+			@Override
+			public void Run(BluetoothHelper btHelper) {
+				btHelper.StopReplay();
+			}
+		});
 	}
 
 	/**
-	 * Messageを取得する
-	 * @param id
-	 * @param obj
+	 * 指定した機器の計測結果を取得する
+	 * @param address
+	 * @return 接続したことがない場合null
 	 */
-	private Message GetMessage(int id, Object obj){
-		Message mes = Message.obtain();
-		mes.what = id;
-		mes.obj = obj;
-		return mes;
+	public GattMetrics GetMetrics(String address) {
+		BluetoothHelper btHelper = mBtHelper;
+		return btHelper != null ? btHelper.GetMetrics(address) : null;
 	}
+
+	/**
+	 * 全ての機器の計測結果を文字列で取得する
+	 * @return
+	 */
+	public String GetMetricsReport() {
+		BluetoothHelper btHelper = mBtHelper;
+		String report = btHelper != null ? btHelper.GetMetricsReport() : "";
+		String relay = mRelayBatcher != null ? mRelayBatcher.GetReport()
+				: mRelayReceiver != null ? mRelayReceiver.GetReport() : null;
+		if (relay != null) {
+			report += (report.isEmpty() ? "" : "\n") + relay;
+		}
+		return report;
+	}
+
+	/** Toastを表示する最小間隔(ms)。Toast.LENGTH_SHORTの表示時間 */
+	private static final long TOAST_INTERVAL = 2000;
+	/** 最後にToastを表示した時刻(uptimeMillis、メインスレッドだけで使う) */
+	private long mLastToastTime;
+
+	/**
+	 * 受信メッセージのToast表示
+	 * 受信は接続ごとに頻繁に届くので、表示中のToastが消えるまでは次を表示しない
+	 */
+	private final BluetoothEventBus.OnBluetoothEventListener mToastListener =
+			new BluetoothEventBus.OnBluetoothEventListener() {
+				@Override
+				public void onBluetoothEvent(BluetoothEvent event) {
+					long now = SystemClock.uptimeMillis();
+					if (mLastToastTime != 0 && now - mLastToastTime < TOAST_INTERVAL) {
+						return;
+					}
+					mLastToastTime = now;
+					Toast.makeText(getApplicationContext(), event.GetText(), Toast.LENGTH_SHORT).show();
+				}
+			};
 }
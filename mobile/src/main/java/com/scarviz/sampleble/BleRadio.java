@@ -0,0 +1,43 @@
+package com.scarviz.sampleble;
+
+/**
+ * Bluetooth無線のインタフェース
+ * スキャンとGATT接続をまとめ、実機(AndroidBleRadio)とシミュレータ(SimulatedBleRadio)を切り替えられるようにする
+ */
+public interface BleRadio {
+	/**
+	 * Bluetoothを使用できるかどうか
+	 * @return
+	 */
+	boolean IsEnabled();
+
+	/**
+	 * スキャンを開始する
+	 * @param listener
+	 * @return 開始できた場合true
+	 */
+	boolean StartScan(BleScanListener listener);
+
+	/**
+	 * スキャンを停止する
+	 * @param listener StartScanに渡したもの
+	 */
+	void StopScan(BleScanListener listener);
+
+	/**
+	 * ペアリング済みの機器かどうか
+	 * @param address
+	 * @return
+	 */
+	boolean IsBonded(String address);
+
+	/**
+	 * GATT接続を開始する
+	 * 結果はlistenerのonConnectionStateChangeで通知する
+	 * @param address
+	 * @param autoConnect
+	 * @param listener
+	 * @return 接続を開始できなかった場合null
+	 */
+	BleGattLink Connect(String address, boolean autoConnect, BleGattListener listener);
+}
@@ -0,0 +1,15 @@
+package com.scarviz.sampleble;
+
+/**
+ * スキャン結果のリスナー
+ */
+public interface BleScanListener {
+	/**
+	 * 機器が見つかった時(スキャンのコールバックスレッド)
+	 * @param address
+	 * @param name 機器名(分からない場合null)
+	 * @param rssi
+	 * @param scanRecord
+	 */
+	void onScanResult(String address, String name, int rssi, byte[] scanRecord);
+}
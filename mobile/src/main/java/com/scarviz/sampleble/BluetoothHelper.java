@@ -1,22 +1,24 @@
 package com.scarviz.sampleble;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.os.Handler;
-import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.util.UUID;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Bluetoothヘルパークラス
@@ -26,280 +28,832 @@ public class BluetoothHelper {
 
 	private Context mContext;
 	private Handler mHandler;
-	private BluetoothAdapter.LeScanCallback mLeScanCallback;
+	/** 状態や受信データを購読者へ配るイベントバス */
+	private final BluetoothEventBus mEventBus;
+	private volatile BleScanListener mScanListener;
+	private volatile ScanFilterEngine mScanFilterEngine;
 
-	private BluetoothManager mBluetoothManager;
-	private BluetoothAdapter mBluetoothAdapter;
+	private final BleRadio mRadio;
+	/** 切断された時の再接続の方針(再接続しない場合null) */
+	private volatile ReconnectPolicy mReconnectPolicy = ReconnectPolicy.DEFAULT;
+	/** 機器ごとのGATT属性キャッシュ */
+	private final GattAttributeCache mAttributeCache;
+	/** 属性キャッシュの保存先 */
+	private static final String ATTRIBUTE_CACHE_DIR = "gatt_cache";
 
-	private boolean mIsScanning = false;
-	private boolean mIsConnected = false;
+	private ScanScheduler mScanScheduler;
+	private int mScanProfile = ScanScheduler.PROFILE_AGGRESSIVE;
+	private volatile int mLinkProfile = LinkProfile.PROFILE_BALANCED;
+	private volatile boolean mAdaptiveLinkProfile = true;
+	/** MessageFrame形式で送受信するかどうか */
+	private volatile boolean mFramedMessages;
+	/** 送信データの圧縮方式(相手が対応している場合だけ使う) */
+	private volatile int mCodec = PayloadCodecs.CODEC_NONE;
+	/** 受信データの中継先(中継しない場合null) */
+	private volatile RelayBatcher mRelay;
+	/** 接続時に設定するキャラクタリスティックの一覧 */
+	private volatile GattProfile mProfile = GattProfile.CreateDefault();
+	/** プロファイルのpollのキャラクタリスティックを全ての接続から定期的に読み取る */
+	private final GattReadScheduler mReadScheduler;
 
-	private BluetoothGatt mBluetoothGatt;
-	private BluetoothGattCharacteristic mCharacteristic;
+	/** 機器アドレスごとのGATT接続 */
+	private final ConcurrentHashMap<String, GattConnection> mConnections =
+			new ConcurrentHashMap<String, GattConnection>();
+	/** 機器アドレスごとの計測結果(切断後も保持する) */
+	private final ConcurrentHashMap<String, GattMetrics> mMetrics =
+			new ConcurrentHashMap<String, GattMetrics>();
+	private final AtomicInteger mNextDeviceId = new AtomicInteger();
 	/** スキャンを始めてからSCAN_PERIOD ms後にスキャンを自動停止 */
 	private static final long SCAN_PERIOD = 10000;
 
-	/** 対象のサービスUUID */
-	private static final String DEVICE_SERVICE_UUID = "9E672755-C622-49E0-93B8-4BE76A97208B";
-	/** 対象のキャラクタリスティックUUID */
-	private static final String DEVICE_CHARACTERISTIC_UUID = "E2CC9711-C6D2-464D-AC7C-25DC963F0BDE";
-	/** Descriptor設定UUID */
-	private static final String CHARACTERISTIC_CONFIG = "00002902-0000-1000-8000-00805f9b34fb";
+	/** 通知を溜めてからまとめて処理するまでの時間(ms) */
+	private static final long NOTIFY_DRAIN_INTERVAL = 50;
+	/** 1接続から1回に読み出す通知の最大数 */
+	private static final int NOTIFY_DRAIN_BATCH = 256;
+	private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+	private final NotificationBatch mNotificationBatch = new NotificationBatch();
+	/** 受信データの記録(記録していない場合null) */
+	private volatile SessionRecorder mRecorder;
+	/** 再生中のセッション(再生していない場合null) */
+	private volatile SessionReplayer mReplayer;
 
 	/**
 	 * コンストラクタ
 	 * @param context
-	 * @param handler
+	 * @param handler タイマー処理用のHandler
+	 * @param eventBus イベントの発行先
 	 */
-	public BluetoothHelper(Context context, Handler handler){
+	public BluetoothHelper(Context context, Handler handler, BluetoothEventBus eventBus){
+		this(context, handler, eventBus, new AndroidBleRadio(context));
+	}
+
+	/**
+	 * コンストラクタ
+	 * @param context
+	 * @param handler タイマー処理用のHandler
+	 * @param eventBus イベントの発行先
+	 * @param radio 実機(AndroidBleRadio)またはシミュレータ(SimulatedBleRadio)
+	 */
+	public BluetoothHelper(Context context, Handler handler, BluetoothEventBus eventBus, BleRadio radio){
 		Log.d(TAG, "BluetoothHelper Constructor");
 		mContext = context;
 		mHandler = handler;
+		mEventBus = eventBus;
+		mRadio = radio;
+		mAttributeCache = new GattAttributeCache(new File(context.getFilesDir(), ATTRIBUTE_CACHE_DIR));
+		mScanScheduler = new ScanScheduler(handler, mScanRadio, mScheduleListener);
+		mReadScheduler = new GattReadScheduler(handler, mConnections.values());
+	}
 
-		GenBluetoothAdapter();
+	/**
+	 * 端末がBluetoothを使用できるかチェックする
+	 * @return
+	 */
+	public boolean IsEnabledBluetooth() {
+		return mRadio.IsEnabled();
 	}
 
 	/**
-	 * BluetoothAdapterの生成
+	 * スキャンフィルタを設定する
+	 * 一致しないスキャン結果は呼び出し元のコールバックへ渡さない
+	 * @param filters nullまたは空の場合は全て通す
 	 */
-	private void GenBluetoothAdapter() {
-		mBluetoothManager = (BluetoothManager) mContext.getSystemService(Context.BLUETOOTH_SERVICE);
-		mBluetoothAdapter = mBluetoothManager.getAdapter();
+	public void SetScanFilters(List<ScanFilter> filters) {
+		if (filters == null || filters.isEmpty()) {
+			mScanFilterEngine = null;
+		} else {
+			mScanFilterEngine = new ScanFilterEngine(filters);
+		}
 	}
 
 	/**
-	 * 端末がBluetoothを使用できるかチェックする
-	 * @return
+	 * フィルタを通すスキャンのコールバック
 	 */
-	public boolean IsEnabledBluetooth() {
-		if(mBluetoothAdapter == null) {
-			GenBluetoothAdapter();
+	private final BleScanListener mFilterScanListener = new BleScanListener() {
+		@Override
+		public void onScanResult(String address, String name, int rssi, byte[] scanRecord) {
+			ScanFilterEngine engine = mScanFilterEngine;
+			if (engine != null && !engine.Match(rssi, scanRecord)) {
+				return;
+			}
+			mScanScheduler.OnDeviceFound(address);
+			BleScanListener listener = mScanListener;
+			if (listener != null) {
+				listener.onScanResult(address, name, rssi, scanRecord);
+			}
 		}
+	};
 
-		if(mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()){
-			return false;
+	/**
+	 * スキャンの無線操作
+	 */
+	private final ScanScheduler.ScanRadio mScanRadio = new ScanScheduler.ScanRadio() {
+		@Override
+		public boolean StartRadioScan() {
+			return mRadio.StartScan(mFilterScanListener);
+		}
+
+		@Override
+		public void StopRadioScan() {
+			mRadio.StopScan(mFilterScanListener);
+		}
+	};
+
+	/**
+	 * スキャンスケジュールのリスナー
+	 */
+	private final ScanScheduler.OnScheduleListener mScheduleListener = new ScanScheduler.OnScheduleListener() {
+		@Override
+		public void onFirstDevice(long elapsed) {
+			SendEvent(BluetoothStatus.FIRST_DEVICE, elapsed);
 		}
-		else{
-			return true;
+
+		@Override
+		public void onScanFinished() {
+			SendEvent(BluetoothStatus.STOP_SCAN);
 		}
+	};
+
+	/**
+	 * スキャンのプロファイルを設定する
+	 * 次のスキャンから反映する
+	 * @param profile ScanScheduler.PROFILE_AGGRESSIVE / PROFILE_BALANCED / PROFILE_LOW_POWER
+	 */
+	public void SetScanProfile(int profile) {
+		mScanProfile = profile;
+	}
+
+	/**
+	 * 接続のプロファイルを設定する
+	 * 接続後にプロファイルのMTUと接続優先度を要求する。接続中の機器にもすぐ反映する
+	 * @param profile LinkProfile.PROFILE_HIGH_THROUGHPUT / PROFILE_BALANCED / PROFILE_LOW_POWER
+	 * @param adaptive 送受信量に応じてプロファイルを切り替えるかどうか
+	 */
+	public void SetLinkProfile(int profile, boolean adaptive) {
+		mLinkProfile = profile;
+		mAdaptiveLinkProfile = adaptive;
+		for (GattConnection connection : mConnections.values()) {
+			connection.SetLinkProfile(CreateLinkProfile());
+		}
+	}
+
+	/**
+	 * 接続ごとの接続プロファイルを生成する
+	 * @return
+	 */
+	LinkProfile CreateLinkProfile() {
+		return new LinkProfile(mLinkProfile, mAdaptiveLinkProfile);
+	}
+
+	/**
+	 * MessageFrame形式で送受信するかどうかを設定する
+	 * 機器側も同じ形式に対応している必要がある。次の接続から反映する
+	 * @param framed
+	 */
+	public void SetFramedMessages(boolean framed) {
+		mFramedMessages = framed;
+	}
+
+	/**
+	 * 送信データの圧縮方式を設定する
+	 * フレーム形式の場合だけ使い、接続ごとに相手が対応しているかを取り決める
+	 * @param codec PayloadCodecs.CODEC_*
+	 */
+	public void SetCodec(int codec) {
+		mCodec = codec;
+	}
+
+	/**
+	 * 送信データの圧縮方式を取得する
+	 * @return
+	 */
+	public int GetCodec() {
+		return mCodec;
+	}
+
+	/**
+	 * GATTプロファイルを設定する
+	 * 次に接続した機器から使う
+	 * @param profile
+	 */
+	public void SetProfile(GattProfile profile) {
+		mProfile = profile;
+	}
+
+	/**
+	 * GATTプロファイルを取得する
+	 * @return
+	 */
+	public GattProfile GetProfile() {
+		return mProfile;
+	}
+
+	/**
+	 * 定期読み取りスケジューラを取得する
+	 * @return
+	 */
+	GattReadScheduler GetReadScheduler() {
+		return mReadScheduler;
+	}
+
+	/**
+	 * 受信データの中継先を設定する
+	 * 通知の読み出し(ワーカースレッド)で復号したデータを渡す
+	 * @param relay 中継しない場合null
+	 */
+	public void SetRelay(RelayBatcher relay) {
+		mRelay = relay;
+	}
+
+	/**
+	 * 接続ごとのフレーム組み立てを生成する
+	 * @return フレーム形式でない場合null
+	 */
+	MessageReassembler CreateReassembler() {
+		return mFramedMessages ? new MessageReassembler(mNotificationBatch) : null;
 	}
 
 	/**
 	 * Bluetooth機器のスキャン
-	 * @param leScanCallback
+	 * スキャン中に呼んだ場合は最初からやり直す
+	 * @param listener
 	 */
-	public void ScanDevice(BluetoothAdapter.LeScanCallback leScanCallback){
-		mLeScanCallback = leScanCallback;
+	public void ScanDevice(BleScanListener listener){
+		mScanListener = listener;
 		// 一定時間後にスキャンを停止
-		mHandler.postDelayed(new Runnable() {
-			@Override
-			public void run() {
-				StopScan();
-			}
-		}, SCAN_PERIOD);
-
-		mBluetoothAdapter.startLeScan(mLeScanCallback);
-		mIsScanning = true;
-		SendHandlerMessage(BluetoothStatus.START_SCAN);
+		mScanScheduler.Start(mScanProfile, SCAN_PERIOD, true);
+		SendEvent(BluetoothStatus.START_SCAN);
 	}
 
 	/**
 	 * Bluetooth機器のスキャンを停止する
 	 */
 	public void StopScan(){
-		if(mIsScanning) {
-			mBluetoothAdapter.stopLeScan(mLeScanCallback);
-			SendHandlerMessage(BluetoothStatus.STOP_SCAN);
+		if(mScanScheduler.IsRunning()) {
+			mScanScheduler.Stop();
+			SendEvent(BluetoothStatus.STOP_SCAN);
 		}
-		mIsScanning = false;
 	}
 
 	/**
 	 * Bluetooth機器の接続
-	 * @param context
 	 * @param autoConnect
 	 * @param address
 	 */
-	public void Connect(Context context, boolean autoConnect, String address) {
-		BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-		mBluetoothGatt = device.connectGatt(context, autoConnect, mBleGattCallback);
+	public void Connect(boolean autoConnect, String address) {
+		GattConnection connection = mConnections.get(address);
+		if (connection != null && connection.GetState() != GattConnection.STATE_DISCONNECTED) {
+			Log.d(TAG, "already connecting: " + address);
+			return;
+		}
+
+		connection = new GattConnection(this, address, mNextDeviceId.incrementAndGet(), GetOrCreateMetrics(address));
+		mConnections.put(address, connection);
+		if (!connection.Connect(mRadio, autoConnect)) {
+			mConnections.remove(address);
+			SendEvent(BluetoothStatus.FAILURE, address + " Connect Failure");
+			return;
+		}
 		StopScan();
-		SendHandlerMessage(BluetoothStatus.CONNECTING);
+		SendEvent(BluetoothStatus.CONNECTING, address);
 	}
 
 	/**
-	 * BLE 機器との接続を解除する
+	 * 全てのBLE 機器との接続を解除する
 	 */
 	public void DisConnect() {
 		StopScan();
-		if (mBluetoothGatt != null) {
-			mBluetoothGatt.close();
-			mBluetoothGatt = null;
-			mCharacteristic = null;
+		StopReplay();
+		for (String address : mConnections.keySet()) {
+			DisConnect(address);
 		}
-		mIsConnected = false;
-		SendHandlerMessage(BluetoothStatus.DISCONNECTED);
 	}
 
 	/**
-	 * GATTコールバック
+	 * 指定したBLE 機器との接続を解除する
+	 * @param address
 	 */
-	private BluetoothGattCallback mBleGattCallback = new BluetoothGattCallback() {
-		/**
-		 * 接続状態変更時処理
-		 * @param gatt
-		 * @param status
-		 * @param newState
-		 */
-		@Override
-		public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-			Log.d(TAG, "onConnectionStateChange: " + status + " -> " + newState);
-			if (newState == BluetoothProfile.STATE_CONNECTED) {	// GATT接続成功
-				Log.d(TAG, "Connected");
-				// Serviceを検索する
-				gatt.discoverServices();
-				mIsConnected = true;
-				SendHandlerMessage(BluetoothStatus.CONNECTED);
-			} else if (newState == BluetoothProfile.STATE_DISCONNECTED) {	// GATT通信が切断
-				Log.d(TAG, "DisConnected");
-				DisConnect();
+	public void DisConnect(String address) {
+		GattConnection connection = mConnections.remove(address);
+		if (connection == null) {
+			return;
+		}
+		connection.Close();
+		Log.d(TAG, connection.GetMetrics().GetReport(SystemClock.elapsedRealtimeNanos()));
+		SendEvent(BluetoothStatus.DISCONNECTED, address);
+	}
+
+	/**
+	 * いずれかの機器と接続中かどうか
+	 * @return
+	 */
+	public boolean IsConnected() {
+		for (GattConnection connection : mConnections.values()) {
+			if (connection.IsConnected()) {
+				return true;
 			}
 		}
+		return false;
+	}
 
-		/**
-		 * Service発見時処理
-		 * @param gatt
-		 * @param status
-		 */
-		@Override
-		public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-			Log.d(TAG, "onServicesDiscovered received: " + status);
-			if (status != BluetoothGatt.GATT_SUCCESS) {
-				Log.d(TAG, "onServicesDiscovered GATT failure");
-				SendHandlerMessage(BluetoothStatus.FAILURE, "onServicesDiscovered GATT failure:" + status);
-				return;
+	/**
+	 * 指定した機器と接続中かどうか
+	 * @param address
+	 * @return
+	 */
+	public boolean IsConnected(String address) {
+		GattConnection connection = mConnections.get(address);
+		return connection != null && connection.IsConnected();
+	}
+
+	/**
+	 * 接続中の全ての機器にメッセージを送信する
+	 * 制御メッセージとして応答ありで書き込む
+	 * @param message
+	 */
+	public void SendMessage(String message) {
+		byte[] data;
+		try {
+			data = message.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+			return;
+		}
+		for (GattConnection connection : mConnections.values()) {
+			if (connection.IsConnected()) {
+				connection.Send(data, true);
 			}
+		}
+	}
 
-			// サービス
-			BluetoothGattService service = gatt.getService(UUID.fromString(DEVICE_SERVICE_UUID));
-			// サービスが見つからなかった場合
-			if (service == null) {
-				Log.d(TAG, "service is null");
-				SendHandlerMessage(BluetoothStatus.FAILURE, "service is null");
-				return;
+	/**
+	 * 指定した機器にデータを送信する
+	 * 大量データとして応答なしで書き込む
+	 * @param address
+	 * @param data
+	 * @return 接続中で送信を開始できた場合true
+	 */
+	public boolean SendData(String address, byte[] data) {
+		GattConnection connection = mConnections.get(address);
+		if (connection == null || !connection.IsConnected()) {
+			return false;
+		}
+		connection.Send(data, false);
+		return true;
+	}
+
+	/**
+	 * 接続を取得する
+	 * @param address
+	 * @return
+	 */
+	public GattConnection GetConnection(String address) {
+		return mConnections.get(address);
+	}
+
+	/**
+	 * 接続中の機器のアドレス一覧を取得する
+	 * @return
+	 */
+	public Set<String> GetConnectedAddresses() {
+		Set<String> addresses = new HashSet<String>();
+		for (GattConnection connection : mConnections.values()) {
+			if (connection.IsConnected()) {
+				addresses.add(connection.GetAddress());
 			}
+		}
+		return addresses;
+	}
 
-			// キャラクタリスティック
-			mCharacteristic = service.getCharacteristic(UUID.fromString(DEVICE_CHARACTERISTIC_UUID));
-			// キャラクタリスティックが見つからなかった場合
-			if (mCharacteristic == null) {
-				Log.d(TAG, "characteristic is null");
-				SendHandlerMessage(BluetoothStatus.FAILURE, "characteristic is null");
-				return;
+	/**
+	 * 機器の計測結果を取得する(なければ作る)
+	 * @param address
+	 * @return
+	 */
+	private GattMetrics GetOrCreateMetrics(String address) {
+		GattMetrics metrics = mMetrics.get(address);
+		if (metrics == null) {
+			GattMetrics created = new GattMetrics(address, SystemClock.elapsedRealtimeNanos());
+			metrics = mMetrics.putIfAbsent(address, created);
+			if (metrics == null) {
+				metrics = created;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * 機器の計測結果を取得する
+	 * @param address
+	 * @return 接続したことがない場合null
+	 */
+	public GattMetrics GetMetrics(String address) {
+		return mMetrics.get(address);
+	}
+
+	/**
+	 * 全ての機器の計測結果を文字列にする
+	 * @return
+	 */
+	public String GetMetricsReport() {
+		long now = SystemClock.elapsedRealtimeNanos();
+		StringBuilder sb = new StringBuilder();
+		for (GattMetrics metrics : mMetrics.values()) {
+			if (0 < sb.length()) {
+				sb.append("\n");
 			}
+			sb.append(metrics.GetReport(now));
+		}
+		String poll = mReadScheduler.GetReport();
+		if (poll != null) {
+			sb.append(0 < sb.length() ? "\n" : "").append(poll);
+		}
+		return sb.toString();
+	}
 
-			// Notificationを要求する
-			boolean registered = gatt.setCharacteristicNotification(mCharacteristic, true);
-			// Notificationを有効化
-			BluetoothGattDescriptor descriptor = mCharacteristic.getDescriptor(
-					UUID.fromString(CHARACTERISTIC_CONFIG));
-			descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-			gatt.writeDescriptor(descriptor);
-
-			// キャラクタリスティック通知設定が成功
-			if (registered) {
-				Log.d(TAG, "CharacteristicNotification success");
-				SendHandlerMessage(BluetoothStatus.SUCCESS, "CharacteristicNotification Success");
-			} else {
-				Log.d(TAG, "CharacteristicNotification failure");
-				SendHandlerMessage(BluetoothStatus.FAILURE, "CharacteristicNotification Failure");
+	/**
+	 * 受信データの記録を開始する
+	 * 記録中の場合は今の記録を終了してから新しく開始する
+	 * @param dir 保存先ディレクトリ
+	 * @return 開始できなかった場合false
+	 */
+	public boolean StartRecording(File dir) {
+		StopRecording();
+		String name = "session-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+		try {
+			mRecorder = new SessionRecorder(dir, name, SessionRecorder.DEFAULT_SEGMENT_SIZE);
+		} catch (IOException e) {
+			Log.e(TAG, "cannot start recording: " + name, e);
+			return false;
+		}
+		Log.d(TAG, "start recording: " + name);
+		// 接続中の機器は記録の最初に接続状態を残しておく
+		for (GattConnection connection : mConnections.values()) {
+			if (connection.IsConnected()) {
+				connection.RecordConnectionState(GattConnection.STATE_CONNECTED);
 			}
 		}
+		return true;
+	}
+
+	/**
+	 * 受信データの記録を終了する
+	 */
+	public void StopRecording() {
+		SessionRecorder recorder = mRecorder;
+		if (recorder == null) {
+			return;
+		}
+		mRecorder = null;
+		recorder.Close();
+		Log.d(TAG, "stop recording: " + recorder.GetRecordCount() + " records "
+				+ recorder.GetByteCount() + " bytes " + recorder.GetFailureCount() + " failures");
+	}
+
+	/**
+	 * 記録中かどうか
+	 * @return
+	 */
+	public boolean IsRecording() {
+		return mRecorder != null;
+	}
+
+	/**
+	 * 記録したセッションを再生する
+	 * 再生用のスレッドから、実機のGATTコールバックと同じ処理経路・スレッドへイベントを流す
+	 * @param dir 保存先ディレクトリ
+	 * @param name セッション名
+	 * @param speed 再生速度の倍率(SessionReplayer.SPEED_UNLIMITEDの場合は待たない)
+	 */
+	public void StartReplay(File dir, String name, double speed) {
+		StopReplay();
+		final ReplayEventHandler handler = new ReplayEventHandler();
+		final SessionReplayer replayer = new SessionReplayer(new SessionReader(dir, name), handler, speed);
+		mReplayer = replayer;
+		Log.d(TAG, "start replay: " + name + " x" + speed);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					replayer.Run();
+					SendEvent(BluetoothStatus.SUCCESS, "Replay finished " + replayer.GetNotificationCount()
+							+ " notifications " + (long) replayer.GetNotificationsPerSecond() + " /sec");
+				} catch (IOException e) {
+					Log.e(TAG, "replay failure", e);
+					SendEvent(BluetoothStatus.FAILURE, "Replay failure " + e.getMessage());
+				} finally {
+					handler.DisConnectAll();
+				}
+			}
+		}, "SessionReplayer").start();
+	}
+
+	/**
+	 * セッションの再生を止める
+	 */
+	public void StopReplay() {
+		SessionReplayer replayer = mReplayer;
+		if (replayer != null) {
+			mReplayer = null;
+			replayer.Stop();
+		}
+	}
+
+	/**
+	 * 再生したイベントを接続へ渡す処理
+	 * 記録時の機器IDを再生用の接続に対応付ける
+	 * 実機のGATTコールバックと同じく、通知だけを再生スレッドで渡し、それ以外はHandlerのスレッドで処理する
+	 * (接続が登録されるまでに届いた通知は捨てる)
+	 */
+	private class ReplayEventHandler implements GattEventHandler {
+		private final ConcurrentHashMap<Integer, GattConnection> mReplayConnections =
+				new ConcurrentHashMap<Integer, GattConnection>();
 
-		/**
-		 * キャラクタリスティック変更時処理
-		 * @param gatt
-		 * @param characteristic
-		 */
 		@Override
-		public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-			Log.d(TAG, "onCharacteristicChanged");
-			Log.d(TAG, characteristic.getUuid().toString());
-			// Characteristicの値更新通知
-			if (DEVICE_CHARACTERISTIC_UUID.equalsIgnoreCase(characteristic.getUuid().toString())) {
-				Log.d(TAG, "device characteristic changed");
-
-				final byte[] data = characteristic.getValue();
-				if (data != null && data.length > 0) {
-					String mes = null;
-					try {
-						mes = new String(data, "UTF-8");
-					} catch (UnsupportedEncodingException e) {
-						e.printStackTrace();
+		public void onConnectionStateChange(final int deviceId, final String address, final int newState) {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (newState == GattConnection.STATE_CONNECTED) {
+						if (mReplayConnections.containsKey(deviceId) || mConnections.containsKey(address)) {
+							// 実機と接続中の機器は再生しない
+							return;
+						}
+						GattConnection connection = new GattConnection(BluetoothHelper.this, address,
+								mNextDeviceId.incrementAndGet(), GetOrCreateMetrics(address));
+						connection.ConnectReplay();
+						mConnections.put(address, connection);
+						mReplayConnections.put(deviceId, connection);
+						connection.OnConnected(null);
+					} else if (newState == GattConnection.STATE_DISCONNECTED) {
+						GattConnection connection = mReplayConnections.remove(deviceId);
+						if (connection != null) {
+							connection.OnDisconnected();
+						}
 					}
-					if(mes == null || mes.isEmpty()) {
-						mes = "Notify is empty";
+				}
+			});
+		}
+
+		@Override
+		public void onServicesDiscovered(final int deviceId, final int status) {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					GattConnection connection = mReplayConnections.get(deviceId);
+					if (connection != null) {
+						connection.OnServicesDiscovered(null, status);
 					}
-					Log.d(TAG, mes);
-					SendHandlerMessage(BluetoothStatus.NOTIFY_MES, mes);
 				}
-			}
+			});
 		}
 
-		/**
-		 * 読み取り処理
-		 * @param gatt
-		 * @param characteristic
-		 * @param status
-		 */
 		@Override
-		public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-			Log.d(TAG, "onCharacteristicRead");
-			if (status == BluetoothGatt.GATT_SUCCESS) {
-				Log.d(TAG, "Characteristic read success");
+		public void onNotification(int deviceId, long uuidMsb, long uuidLsb, long timestamp, byte[] data, int length) {
+			GattConnection connection = mReplayConnections.get(deviceId);
+			if (connection != null) {
+				connection.OnNotification(uuidMsb, uuidLsb, data, length);
 			}
 		}
 
 		/**
-		 * 書き込み処理
-		 * @param gatt
-		 * @param characteristic
-		 * @param status
+		 * 再生で接続した機器を全て切断する
 		 */
+		void DisConnectAll() {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					for (GattConnection connection : mReplayConnections.values()) {
+						connection.OnDisconnected();
+					}
+					mReplayConnections.clear();
+				}
+			});
+		}
+	}
+
+	/**
+	 * 再接続の方針を設定する
+	 * @param policy 再接続しない場合null
+	 */
+	public void SetReconnectPolicy(ReconnectPolicy policy) {
+		mReconnectPolicy = policy;
+	}
+
+	/**
+	 * 再接続の方針を取得する
+	 * @return 再接続しない場合null
+	 */
+	ReconnectPolicy GetReconnectPolicy() {
+		return mReconnectPolicy;
+	}
+
+	/**
+	 * GATT属性キャッシュを取得する
+	 * @return
+	 */
+	GattAttributeCache GetAttributeCache() {
+		return mAttributeCache;
+	}
+
+	/**
+	 * 全ての機器のGATT属性キャッシュを破棄する
+	 * 次の接続ではサービスを検索し直す
+	 */
+	public void ClearAttributeCache() {
+		mAttributeCache.Clear();
+	}
+
+	/**
+	 * 受信データの記録を取得する
+	 * @return 記録していない場合null
+	 */
+	SessionRecorder GetRecorder() {
+		return mRecorder;
+	}
+
+	/**
+	 * 通知がリングバッファに積まれた時(GATTのコールバックスレッド)
+	 * 読み出しは一定間隔でまとめて行う
+	 */
+	void OnNotificationQueued() {
+		if (mDrainScheduled.compareAndSet(false, true)) {
+			mHandler.postDelayed(mDrainRunnable, NOTIFY_DRAIN_INTERVAL);
+		}
+	}
+
+	/**
+	 * 通知の読み出し処理
+	 */
+	private final Runnable mDrainRunnable = new Runnable() {
 		@Override
-		public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-			Log.d(TAG, "onCharacteristicWrite");
-			if (status == BluetoothGatt.GATT_SUCCESS) {
-				Log.d(TAG, "Characteristic write success");
+		public void run() {
+			// 読み出し中に積まれた通知で次の読み出しを予約できるよう、先にフラグを戻す
+			mDrainScheduled.set(false);
+			boolean remaining = false;
+			for (GattConnection connection : mConnections.values()) {
+				mNotificationBatch.Reset(connection, mRecorder, mRelay, SystemClock.elapsedRealtimeNanos());
+				connection.DrainNotifications(mNotificationBatch, NOTIFY_DRAIN_BATCH);
+				if (0 < mNotificationBatch.mCount) {
+					SendEvent(BluetoothStatus.NOTIFY_MES,
+							connection.GetAddress() + " " + mNotificationBatch.GetMessage());
+				}
+				remaining |= connection.HasNotifications();
+			}
+			if (remaining) {
+				OnNotificationQueued();
 			}
 		}
 	};
 
 	/**
-	 * 接続中かどうか
+	 * まとめて読み出した通知
+	 * 件数と最後の通知(フレーム形式の場合は最後に揃ったメッセージ)だけを保持し、文字列はまとめて1回だけ生成する
+	 * フレーム形式はプロファイルのstreamのキャラクタリスティックにだけ使い、それ以外の通知はそのまま扱う
+	 */
+	private static class NotificationBatch implements NotificationRingBuffer.Consumer,
+			MessageReassembler.OnMessageListener {
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+
+		int mCount;
+		int mLost;
+		byte[] mLast = new byte[20];
+		int mLastLength;
+		/** 復号用の作業領域 */
+		byte[] mDecoded = new byte[64];
+		GattConnection mConnection;
+		GattMetrics mMetrics;
+		MessageReassembler mReassembler;
+		SessionRecorder mRecorder;
+		RelayBatcher mRelay;
+		String mAddress;
+		GattProfile mProfile;
+		/** 最後の通知のキャラクタリスティック */
+		GattProfile.Entry mLastEntry;
+		long mNow;
+		/** 最後に読み出した通知の受信時刻 */
+		long mTimestamp;
+
+		void Reset(GattConnection connection, SessionRecorder recorder, RelayBatcher relay, long now) {
+			mCount = 0;
+			mLost = 0;
+			mLastLength = 0;
+			mConnection = connection;
+			mMetrics = connection.GetMetrics();
+			mReassembler = connection.GetReassembler();
+			mRecorder = recorder;
+			mRelay = relay;
+			mAddress = connection.GetAddress();
+			mProfile = connection.GetProfile();
+			mLastEntry = null;
+			mNow = now;
+		}
+
+		@Override
+		public void onNotification(int deviceId, int characteristic, long timestamp, byte[] payload, int length) {
+			GattProfile.Entry entry = mProfile.Get(characteristic);
+			mMetrics.OnNotification(length, mNow - timestamp);
+			mTimestamp = timestamp;
+			if (mRecorder != null) {
+				mRecorder.RecordNotification(deviceId, entry.mUuid.getMostSignificantBits(),
+						entry.mUuid.getLeastSignificantBits(), timestamp, payload, length);
+			}
+			if (mReassembler != null && entry.mStream) {
+				mReassembler.Offer(payload, length);
+				return;
+			}
+			SetLast(entry, payload, 0, length);
+		}
+
+		@Override
+		public void onMessage(int sequence, int flags, byte[] data, int offset, int length) {
+			if ((flags & MessageFrame.FLAG_CONTROL) != 0) {
+				mConnection.OnControlMessage(data, offset, length);
+				return;
+			}
+			int codec = MessageFrame.GetCodec(flags);
+			if (codec != PayloadCodecs.CODEC_NONE) {
+				PayloadCodec decoder = PayloadCodecs.Get(codec);
+				int decodedLength = PayloadCodecs.DecodedLength(data, offset, length);
+				if (decoder == null || decodedLength < 0 || MessageFrame.MAX_MESSAGE_LENGTH < decodedLength) {
+					onMessageLost(1, 1);
+					return;
+				}
+				if (mDecoded.length < decodedLength) {
+					mDecoded = new byte[Math.max(mDecoded.length * 2, decodedLength)];
+				}
+				if (decoder.Decode(data, offset, length, mDecoded, 0) < 0) {
+					onMessageLost(1, 1);
+					return;
+				}
+				mMetrics.OnDecoded(length, decodedLength);
+				data = mDecoded;
+				offset = 0;
+				length = decodedLength;
+			}
+			mMetrics.OnMessage();
+			SetLast(mProfile.GetStream(), data, offset, length);
+		}
+
+		@Override
+		public void onMessageLost(int count, int corrupted) {
+			mMetrics.OnMessagesLost(count, corrupted);
+			mLost += count;
+		}
+
+		private void SetLast(GattProfile.Entry entry, byte[] data, int offset, int length) {
+			if (mLast.length < length) {
+				mLast = new byte[length];
+			}
+			System.arraycopy(data, offset, mLast, 0, length);
+			mLastLength = length;
+			mLastEntry = entry;
+			mCount++;
+			if (mRelay != null) {
+				mRelay.Add(mAddress, mTimestamp, data, offset, length);
+			}
+		}
+
+		String GetMessage() {
+			String mes = new String(mLast, 0, mLastLength, UTF8);
+			if (mes.isEmpty()) {
+				mes = "Notify is empty";
+			}
+			if (mLastEntry != null && !mLastEntry.mStream) {
+				mes = mLastEntry.mName + ": " + mes;
+			}
+			if (1 < mCount) {
+				mes += " (" + mCount + (mReassembler != null ? " messages)" : " notifications)");
+			}
+			if (0 < mLost) {
+				mes += " (" + mLost + " lost)";
+			}
+			return mes;
+		}
+	}
+
+	/**
+	 * Handlerを取得する
 	 * @return
 	 */
-	public boolean IsConnected() {
-		return mIsConnected;
+	Handler GetHandler() {
+		return mHandler;
 	}
 
 	/**
-	 * HandlerMessageを送る
+	 * イベントを発行する
 	 * @param id
 	 */
-	private void SendHandlerMessage(int id){
-		SendHandlerMessage(id, null);
+	void SendEvent(int id){
+		SendEvent(id, null);
 	}
 
 	/**
-	 * HandlerMessageを送る
+	 * イベントを発行する(任意のスレッドから呼べる)
 	 * @param id
 	 * @param obj
 	 */
-	private void SendHandlerMessage(int id, Object obj){
-		Message mes = Message.obtain();
-		mes.what = id;
-		mes.obj = obj;
-		mHandler.sendMessage(mes);
+	void SendEvent(int id, Object obj){
+		mEventBus.Publish(id, obj);
 	}
 }
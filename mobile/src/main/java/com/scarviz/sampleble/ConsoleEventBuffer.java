@@ -0,0 +1,191 @@
+package com.scarviz.sampleble;
+
+/**
+ * コンソールイベントバッファクラス
+ * 固定容量のリングバッファにイベントを保持し、古いものから上書きする
+ * イベントのオブジェクトは使い回すので、追加してもバッファ自体の確保は発生しない
+ * UIスレッドからだけ使う
+ */
+public class ConsoleEventBuffer {
+	/** プレビューとして保持する最大文字数 */
+	public static final int PREVIEW_LENGTH = 80;
+
+	/**
+	 * コンソールイベント
+	 */
+	public static class Event {
+		/** BluetoothStatusの値 */
+		public int mStatus;
+		/** 機器アドレス(機器に関係しない場合null) */
+		public String mAddress;
+		/** 発生時刻(ms) */
+		public long mTime;
+		/** メッセージ(PREVIEW_LENGTH文字まで) */
+		public String mText;
+	}
+
+	private final int mMask;
+	private final Event[] mEvents;
+	/** 次に書き込むイベントの通し番号 */
+	private long mNext;
+
+	/** フィルタに一致したイベントの通し番号(古い順) */
+	private final long[] mFiltered;
+	private long mFilteredHead;
+	private long mFilteredTail;
+
+	/** 表示する機器(nullの場合は全て) */
+	private String mFilterAddress;
+	/** 表示するステータス(nullの場合は全て) */
+	private int[] mFilterStatuses;
+
+	/**
+	 * コンストラクタ
+	 * @param capacity 2のべき乗に切り上げる
+	 */
+	public ConsoleEventBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mMask = size - 1;
+		mEvents = new Event[size];
+		mFiltered = new long[size];
+		for (int i = 0; i < size; i++) {
+			mEvents[i] = new Event();
+		}
+	}
+
+	/**
+	 * イベントを追加する
+	 * @param status
+	 * @param address
+	 * @param time
+	 * @param text
+	 */
+	public void Add(int status, String address, long time, String text) {
+		long seq = mNext++;
+		Event event = mEvents[(int) seq & mMask];
+		event.mStatus = status;
+		event.mAddress = address;
+		event.mTime = time;
+		event.mText = Preview(text);
+
+		// 上書きされたイベントを表示対象から外す
+		long oldest = mNext - mEvents.length;
+		while (mFilteredHead < mFilteredTail && mFiltered[(int) mFilteredHead & mMask] < oldest) {
+			mFilteredHead++;
+		}
+		if (Matches(event)) {
+			mFiltered[(int) mFilteredTail++ & mMask] = seq;
+		}
+	}
+
+	/**
+	 * 表示対象を絞り込む
+	 * @param address nullの場合は全ての機器
+	 * @param statuses nullの場合は全てのステータス
+	 */
+	public void SetFilter(String address, int[] statuses) {
+		mFilterAddress = address;
+		mFilterStatuses = statuses == null ? null : statuses.clone();
+
+		mFilteredHead = 0;
+		mFilteredTail = 0;
+		for (long seq = Math.max(0, mNext - mEvents.length); seq < mNext; seq++) {
+			if (Matches(mEvents[(int) seq & mMask])) {
+				mFiltered[(int) mFilteredTail++ & mMask] = seq;
+			}
+		}
+	}
+
+	/**
+	 * 絞り込み中の機器を取得する
+	 * @return
+	 */
+	public String GetFilterAddress() {
+		return mFilterAddress;
+	}
+
+	/**
+	 * 表示対象のイベント数を取得する
+	 * @return
+	 */
+	public int Size() {
+		return (int) (mFilteredTail - mFilteredHead);
+	}
+
+	/**
+	 * 表示対象のイベントを取得する
+	 * @param position 0が最新
+	 * @return
+	 */
+	public Event Get(int position) {
+		long seq = mFiltered[(int) (mFilteredTail - 1 - position) & mMask];
+		return mEvents[(int) seq & mMask];
+	}
+
+	/**
+	 * 全てのイベントを消去する
+	 */
+	public void Clear() {
+		for (Event event : mEvents) {
+			event.mAddress = null;
+			event.mText = null;
+		}
+		mNext = 0;
+		mFilteredHead = 0;
+		mFilteredTail = 0;
+	}
+
+	/**
+	 * イベントがフィルタに一致するかどうか
+	 * @param event
+	 * @return
+	 */
+	private boolean Matches(Event event) {
+		if (mFilterAddress != null && !mFilterAddress.equals(event.mAddress)) {
+			return false;
+		}
+		if (mFilterStatuses == null) {
+			return true;
+		}
+		for (int status : mFilterStatuses) {
+			if (status == event.mStatus) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * プレビュー用に切り詰める
+	 * @param text
+	 * @return
+	 */
+	private static String Preview(String text) {
+		if (text == null || text.length() <= PREVIEW_LENGTH) {
+			return text;
+		}
+		return text.substring(0, PREVIEW_LENGTH - 1) + "…";
+	}
+
+	/**
+	 * "アドレス メッセージ"形式のメッセージから機器アドレスを取り出す
+	 * @param mes
+	 * @return アドレスで始まらない場合null
+	 */
+	public static String ExtractAddress(String mes) {
+		// XX:XX:XX:XX:XX:XX
+		final int length = 17;
+		if (mes == null || mes.length() < length) {
+			return null;
+		}
+		for (int i = 2; i < length; i += 3) {
+			if (mes.charAt(i) != ':') {
+				return null;
+			}
+		}
+		if (length < mes.length() && mes.charAt(length) != ' ') {
+			return null;
+		}
+		return mes.substring(0, length);
+	}
+}
@@ -0,0 +1,316 @@
+package com.scarviz.sampleble;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 機器レジストリクラス
+ * スキャンで見つかった機器を48bitのMACアドレスをlongに詰めたキーで保持する
+ * 最後に見つかった順に並べ、一定時間広告が途絶えた機器や上限を超えた古い機器を取り除く
+ * スキャン結果ごとに引くので、キーはボクシングせずにlongのままオープンアドレス法の表で引き、
+ * 最後に見つかった順は機器情報どうしを双方向につないだリストで持つ(見つけ直しても割り当てなし)
+ * UIスレッドからのみ使用すること
+ */
+public class DeviceRegistry {
+	/**
+	 * 機器情報
+	 */
+	public static class DeviceRecord {
+		/** MACアドレスのキー */
+		public final long mKey;
+		/** 機器アドレス */
+		public String mAddress;
+		/** 機器名(分からない場合null) */
+		public String mName;
+		/** アドバタイズされたローカル名 */
+		public String mAdvertisedName;
+		/** 最後のRSSI */
+		public int mRssi;
+		/** 最後に見つかった時刻(ms) */
+		public long mLastSeen;
+		/** 広告を受信した回数 */
+		public int mCount;
+		/** 最後に表示してから更新されたかどうか */
+		public boolean mChanged;
+
+		private boolean mEvicted;
+		/** 最後に見つかった順のリストの前後(mPrevが古い方) */
+		private DeviceRecord mPrev;
+		private DeviceRecord mNext;
+
+		DeviceRecord(long key) {
+			mKey = key;
+		}
+	}
+
+	private final long mTtl;
+	private final int mMaxSize;
+	/** キーから機器情報を引く表(線形探索、空きはmSlotsがnull) */
+	private final long[] mKeys;
+	private final DeviceRecord[] mSlots;
+	private final int mMask;
+	private int mCount;
+	/** 最も古く見つかった機器と、最も新しく見つかった機器 */
+	private DeviceRecord mEldest;
+	private DeviceRecord mNewest;
+	/** 表示順(見つかった順)の機器情報 */
+	private final ArrayList<DeviceRecord> mOrdered = new ArrayList<DeviceRecord>();
+
+	/**
+	 * コンストラクタ
+	 * @param ttl この時間(ms)広告がない機器は取り除く
+	 * @param maxSize 保持する最大の機器数
+	 */
+	public DeviceRegistry(long ttl, int maxSize) {
+		mTtl = ttl;
+		mMaxSize = maxSize;
+		// 上限を1件超えてから取り除くので、その時でも半分以上空くようにする
+		int capacity = 8;
+		while (capacity < (maxSize + 1) * 2) {
+			capacity <<= 1;
+		}
+		mKeys = new long[capacity];
+		mSlots = new DeviceRecord[capacity];
+		mMask = capacity - 1;
+	}
+
+	/**
+	 * MACアドレス(XX:XX:XX:XX:XX:XX)をlongのキーに変換する
+	 * @param address
+	 * @return
+	 */
+	public static long AddressToKey(String address) {
+		long key = 0;
+		for (int i = 0, len = address.length(); i < len; i++) {
+			int v = Character.digit(address.charAt(i), 16);
+			if (v >= 0) {
+				key = (key << 4) | v;
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * 広告の受信を記録する
+	 * @param address
+	 * @param name
+	 * @param rssi
+	 * @param now
+	 * @return 新しい機器の場合true
+	 */
+	public boolean Update(String address, String name, int rssi, long now) {
+		return Update(address, name, rssi, null, now);
+	}
+
+	/**
+	 * 広告の受信を記録する
+	 * ローカル名は機器ごとに初回だけアドバタイズデータから取り出す
+	 * @param address
+	 * @param name 機器名(分からない場合null)
+	 * @param rssi
+	 * @param advertisement 解析済みのアドバタイズデータ(ない場合null)
+	 * @param now
+	 * @return 新しい機器の場合true
+	 */
+	public boolean Update(String address, String name, int rssi, AdvertisementRecord advertisement, long now) {
+		long key = AddressToKey(address);
+		DeviceRecord record = Find(key);
+		boolean added = record == null;
+		if (added) {
+			record = new DeviceRecord(key);
+			Insert(record);
+			mOrdered.add(record);
+		} else {
+			Unlink(record);
+		}
+		Link(record);
+		record.mAddress = address;
+		if (name != null) {
+			record.mName = name;
+		}
+		record.mRssi = rssi;
+		record.mLastSeen = now;
+		record.mCount++;
+		record.mChanged = true;
+		if (record.mAdvertisedName == null && advertisement != null) {
+			record.mAdvertisedName = advertisement.GetLocalName();
+		}
+
+		if (mMaxSize < mCount) {
+			RemoveEldest(mCount - mMaxSize);
+		}
+		return added;
+	}
+
+	/**
+	 * 一定時間広告がない機器を取り除く
+	 * 最後に見つかった順に並んでいるので、新しい機器に当たった時点で打ち切る
+	 * @param now
+	 * @return 取り除いた数
+	 */
+	public int Evict(long now) {
+		int evicted = 0;
+		while (mEldest != null && mTtl <= now - mEldest.mLastSeen) {
+			Remove(mEldest);
+			evicted++;
+		}
+		if (0 < evicted) {
+			CompactOrdered();
+		}
+		return evicted;
+	}
+
+	/**
+	 * 機器数を取得する
+	 * @return
+	 */
+	public int Size() {
+		return mOrdered.size();
+	}
+
+	/**
+	 * 表示位置の機器情報を取得する
+	 * @param position
+	 * @return
+	 */
+	public DeviceRecord Get(int position) {
+		return mOrdered.get(position);
+	}
+
+	/**
+	 * 全ての機器を取り除く
+	 */
+	public void Clear() {
+		Arrays.fill(mSlots, null);
+		mCount = 0;
+		mEldest = null;
+		mNewest = null;
+		mOrdered.clear();
+	}
+
+	/**
+	 * 最も古い機器を取り除く
+	 * @param count
+	 */
+	private void RemoveEldest(int count) {
+		for (int i = 0; i < count && mEldest != null; i++) {
+			Remove(mEldest);
+		}
+		CompactOrdered();
+	}
+
+	/**
+	 * キーの表の位置を求める
+	 * @param key
+	 * @return
+	 */
+	private int SlotOf(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mMask;
+	}
+
+	/**
+	 * キーから機器情報を引く
+	 * @param key
+	 * @return ない場合null
+	 */
+	private DeviceRecord Find(long key) {
+		for (int slot = SlotOf(key); mSlots[slot] != null; slot = (slot + 1) & mMask) {
+			if (mKeys[slot] == key) {
+				return mSlots[slot];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 機器情報を表に加える
+	 * @param record
+	 */
+	private void Insert(DeviceRecord record) {
+		int slot = SlotOf(record.mKey);
+		while (mSlots[slot] != null) {
+			slot = (slot + 1) & mMask;
+		}
+		mKeys[slot] = record.mKey;
+		mSlots[slot] = record;
+		mCount++;
+	}
+
+	/**
+	 * 機器情報を表とリストから取り除く(表示順のリストはCompactOrderedで詰める)
+	 * 表は墓標を残さず、後ろに続く要素を本来の位置に近づくよう詰め直す
+	 * @param record
+	 */
+	private void Remove(DeviceRecord record) {
+		Unlink(record);
+		record.mEvicted = true;
+		int slot = SlotOf(record.mKey);
+		while (mSlots[slot] != record) {
+			slot = (slot + 1) & mMask;
+		}
+		int next = (slot + 1) & mMask;
+		while (mSlots[next] != null) {
+			int home = SlotOf(mKeys[next]);
+			// homeが(slot, next]の外にあれば空いた位置へ移せる
+			if (((next - home) & mMask) >= ((next - slot) & mMask)) {
+				mKeys[slot] = mKeys[next];
+				mSlots[slot] = mSlots[next];
+				slot = next;
+			}
+			next = (next + 1) & mMask;
+		}
+		mSlots[slot] = null;
+		mCount--;
+	}
+
+	/**
+	 * 最後に見つかった機器としてリストの末尾につなぐ
+	 * @param record
+	 */
+	private void Link(DeviceRecord record) {
+		record.mPrev = mNewest;
+		record.mNext = null;
+		if (mNewest == null) {
+			mEldest = record;
+		} else {
+			mNewest.mNext = record;
+		}
+		mNewest = record;
+	}
+
+	/**
+	 * リストから外す
+	 * @param record
+	 */
+	private void Unlink(DeviceRecord record) {
+		if (record.mPrev == null) {
+			mEldest = record.mNext;
+		} else {
+			record.mPrev.mNext = record.mNext;
+		}
+		if (record.mNext == null) {
+			mNewest = record.mPrev;
+		} else {
+			record.mNext.mPrev = record.mPrev;
+		}
+		record.mPrev = null;
+		record.mNext = null;
+	}
+
+	/**
+	 * 取り除いた機器を表示順のリストから詰める
+	 */
+	private void CompactOrdered() {
+		int dst = 0;
+		for (int src = 0, size = mOrdered.size(); src < size; src++) {
+			DeviceRecord record = mOrdered.get(src);
+			if (!record.mEvicted) {
+				mOrdered.set(dst++, record);
+			}
+		}
+		for (int i = mOrdered.size() - 1; dst <= i; i--) {
+			mOrdered.remove(i);
+		}
+	}
+}
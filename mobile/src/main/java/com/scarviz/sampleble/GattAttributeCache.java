@@ -0,0 +1,137 @@
+package com.scarviz.sampleble;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GATT属性キャッシュクラス
+ * 機器アドレスごとの属性テーブルをメモリとファイルに保持する
+ * Service Changedを受けた場合や、キャッシュの属性が使えなかった場合は破棄する
+ * 実機(AndroidGattLink)でキャッシュを使えるのは、検索結果が残った同じBluetoothGattで自動再接続した場合だけで、
+ * これはメモリの属性テーブルで足りる。新しく接続した時は必ず検索し直すので、
+ * ファイルに保存した属性テーブルで検索を省けるのはシミュレータ(SimulatedGattLink)でアプリを起動し直した場合だけになる
+ * (実機ではファイルは保存と破棄をするだけ)
+ */
+public class GattAttributeCache {
+	private static final String SUFFIX = ".gatt";
+
+	private final File mDir;
+	private final ConcurrentHashMap<String, GattAttributeTable> mTables =
+			new ConcurrentHashMap<String, GattAttributeTable>();
+
+	/**
+	 * コンストラクタ
+	 * @param dir 保存先ディレクトリ(nullの場合はメモリにだけ保持する)
+	 */
+	public GattAttributeCache(File dir) {
+		mDir = dir;
+	}
+
+	/**
+	 * 属性テーブルを取得する
+	 * メモリになければファイルから読み込む
+	 * @param address
+	 * @return キャッシュがない場合null
+	 */
+	public GattAttributeTable Get(String address) {
+		GattAttributeTable table = mTables.get(address);
+		if (table != null || mDir == null) {
+			return table;
+		}
+		File file = FileOf(address);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				table = GattAttributeTable.Read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// 壊れたキャッシュは捨てて検索し直す
+			e.printStackTrace();
+			file.delete();
+			return null;
+		}
+		GattAttributeTable existing = mTables.putIfAbsent(address, table);
+		return existing == null ? table : existing;
+	}
+
+	/**
+	 * 属性テーブルを保存する
+	 * @param address
+	 * @param table
+	 */
+	public void Put(String address, GattAttributeTable table) {
+		mTables.put(address, table);
+		if (mDir == null || (!mDir.isDirectory() && !mDir.mkdirs())) {
+			return;
+		}
+		// 書き込み途中で落ちても壊れたファイルが残らないよう、一時ファイルから置き換える
+		File file = FileOf(address);
+		File temp = new File(mDir, file.getName() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				table.Write(out);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				throw new IOException("rename failed: " + file);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			temp.delete();
+		}
+	}
+
+	/**
+	 * 属性テーブルを破棄する
+	 * @param address
+	 */
+	public void Invalidate(String address) {
+		mTables.remove(address);
+		if (mDir != null) {
+			FileOf(address).delete();
+		}
+	}
+
+	/**
+	 * 全ての属性テーブルを破棄する
+	 */
+	public void Clear() {
+		mTables.clear();
+		if (mDir == null) {
+			return;
+		}
+		File[] files = mDir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.getName().endsWith(SUFFIX)) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * 保存先のファイルを取得する
+	 * @param address
+	 * @return
+	 */
+	private File FileOf(String address) {
+		// ファイル名に使えない':'を取り除く
+		return new File(mDir, address.replace(":", "") + SUFFIX);
+	}
+}
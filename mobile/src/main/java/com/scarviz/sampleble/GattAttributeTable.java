@@ -0,0 +1,190 @@
+package com.scarviz.sampleble;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * GATT属性テーブルクラス
+ * サービス検索で見つかったサービス、キャラクタリスティック(プロパティ)、Descriptorを保持する
+ * GattAttributeCacheに保持し、再接続時のサービス検索を省く(使える条件はGattAttributeCacheを参照)
+ */
+public class GattAttributeTable {
+	/** 保存形式のバージョン */
+	static final int FORMAT_VERSION = 1;
+
+	/**
+	 * キャラクタリスティック
+	 */
+	public static class Characteristic {
+		public final UUID mService;
+		public final UUID mUuid;
+		public final int mProperties;
+		public final List<UUID> mDescriptors = new ArrayList<UUID>();
+
+		Characteristic(UUID service, UUID uuid, int properties) {
+			mService = service;
+			mUuid = uuid;
+			mProperties = properties;
+		}
+	}
+
+	private final List<UUID> mServices = new ArrayList<UUID>();
+	private final List<Characteristic> mCharacteristics = new ArrayList<Characteristic>();
+
+	/**
+	 * サービスを追加する
+	 * @param service
+	 */
+	public void AddService(UUID service) {
+		if (!mServices.contains(service)) {
+			mServices.add(service);
+		}
+	}
+
+	/**
+	 * キャラクタリスティックを追加する(サービスも追加する)
+	 * @param service
+	 * @param characteristic
+	 * @param properties
+	 * @return 追加したキャラクタリスティック(Descriptorを追加する)
+	 */
+	public Characteristic AddCharacteristic(UUID service, UUID characteristic, int properties) {
+		AddService(service);
+		Characteristic added = new Characteristic(service, characteristic, properties);
+		mCharacteristics.add(added);
+		return added;
+	}
+
+	/**
+	 * サービスの一覧を取得する
+	 * @return
+	 */
+	public List<UUID> GetServices() {
+		return mServices;
+	}
+
+	/**
+	 * キャラクタリスティックの一覧を取得する
+	 * @return
+	 */
+	public List<Characteristic> GetCharacteristics() {
+		return mCharacteristics;
+	}
+
+	/**
+	 * サービスがあるかどうか
+	 * @param service
+	 * @return
+	 */
+	public boolean HasService(UUID service) {
+		return mServices.contains(service);
+	}
+
+	/**
+	 * キャラクタリスティックを取得する
+	 * @param service
+	 * @param characteristic
+	 * @return 見つからない場合null
+	 */
+	public Characteristic Find(UUID service, UUID characteristic) {
+		for (Characteristic target : mCharacteristics) {
+			if (target.mService.equals(service) && target.mUuid.equals(characteristic)) {
+				return target;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * キャラクタリスティックにDescriptorがあるかどうか
+	 * @param service
+	 * @param characteristic
+	 * @param descriptor
+	 * @return
+	 */
+	public boolean HasDescriptor(UUID service, UUID characteristic, UUID descriptor) {
+		Characteristic target = Find(service, characteristic);
+		return target != null && target.mDescriptors.contains(descriptor);
+	}
+
+	/**
+	 * 書き出す
+	 * @param out
+	 * @throws IOException
+	 */
+	public void Write(DataOutputStream out) throws IOException {
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(mServices.size());
+		for (UUID service : mServices) {
+			WriteUuid(out, service);
+		}
+		out.writeInt(mCharacteristics.size());
+		for (Characteristic characteristic : mCharacteristics) {
+			WriteUuid(out, characteristic.mService);
+			WriteUuid(out, characteristic.mUuid);
+			out.writeInt(characteristic.mProperties);
+			out.writeInt(characteristic.mDescriptors.size());
+			for (UUID descriptor : characteristic.mDescriptors) {
+				WriteUuid(out, descriptor);
+			}
+		}
+	}
+
+	/**
+	 * 読み込む
+	 * @param in
+	 * @return
+	 * @throws IOException 形式が違う場合
+	 */
+	public static GattAttributeTable Read(DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("unsupported attribute table version " + version);
+		}
+		GattAttributeTable table = new GattAttributeTable();
+		int services = ReadCount(in);
+		for (int i = 0; i < services; i++) {
+			table.AddService(ReadUuid(in));
+		}
+		int characteristics = ReadCount(in);
+		for (int i = 0; i < characteristics; i++) {
+			UUID service = ReadUuid(in);
+			UUID uuid = ReadUuid(in);
+			Characteristic characteristic = table.AddCharacteristic(service, uuid, in.readInt());
+			int descriptors = ReadCount(in);
+			for (int j = 0; j < descriptors; j++) {
+				characteristic.mDescriptors.add(ReadUuid(in));
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * 件数を読み込む
+	 * @param in
+	 * @return
+	 * @throws IOException 壊れている場合
+	 */
+	private static int ReadCount(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		// 1台の機器の属性数はハンドルの範囲(16bit)を超えない
+		if (count < 0 || 0xFFFF < count) {
+			throw new IOException("broken attribute table");
+		}
+		return count;
+	}
+
+	private static void WriteUuid(DataOutputStream out, UUID uuid) throws IOException {
+		out.writeLong(uuid.getMostSignificantBits());
+		out.writeLong(uuid.getLeastSignificantBits());
+	}
+
+	private static UUID ReadUuid(DataInputStream in) throws IOException {
+		long msb = in.readLong();
+		return new UUID(msb, in.readLong());
+	}
+}
@@ -0,0 +1,1034 @@
+package com.scarviz.sampleble;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * GATT接続クラス
+ * Bluetooth機器1台分のGATTセッション(状態、キャラクタリスティック、コールバック)を保持する
+ */
+public class GattConnection {
+	private final static String TAG = "GattConnection";
+	/** 記録する機器アドレスの文字コード(SessionReplayerと合わせる) */
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/** 状態：切断 */
+	public final static int STATE_DISCONNECTED = 0;
+	/** 状態：接続中 */
+	public final static int STATE_CONNECTING = 1;
+	/** 状態：接続 */
+	public final static int STATE_CONNECTED = 2;
+	/** 状態：再接続待ち */
+	public final static int STATE_RECONNECTING = 3;
+
+	/** ATTのデフォルトMTU */
+	public final static int DEFAULT_MTU = 23;
+
+	/** 既定のプロファイルで使うサービスUUID */
+	private static final String DEVICE_SERVICE_UUID = "9E672755-C622-49E0-93B8-4BE76A97208B";
+	/** 既定のプロファイルで使うキャラクタリスティックUUID */
+	private static final String DEVICE_CHARACTERISTIC_UUID = "E2CC9711-C6D2-464D-AC7C-25DC963F0BDE";
+	/** Descriptor設定UUID */
+	private static final String CHARACTERISTIC_CONFIG = "00002902-0000-1000-8000-00805f9b34fb";
+	/** Notification有効化の値 */
+	private static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+	/** Indication有効化の値 */
+	private static final byte[] ENABLE_INDICATION_VALUE = {0x02, 0x00};
+	/** Generic Attributeサービス */
+	private static final UUID GENERIC_ATTRIBUTE_SERVICE = UUID.fromString("00001801-0000-1000-8000-00805f9b34fb");
+	/** Service Changedキャラクタリスティック */
+	private static final UUID SERVICE_CHANGED = UUID.fromString("00002a05-0000-1000-8000-00805f9b34fb");
+	/** 既定のプロファイルのサービス */
+	public static final UUID DEVICE_SERVICE = UUID.fromString(DEVICE_SERVICE_UUID);
+	/** 既定のプロファイルのキャラクタリスティック */
+	public static final UUID DEVICE_CHARACTERISTIC = UUID.fromString(DEVICE_CHARACTERISTIC_UUID);
+
+	/** 通知リングバッファの容量 */
+	private static final int NOTIFICATION_CAPACITY = 1024;
+	/** 送受信量から接続プロファイルを見直す間隔(ms) */
+	private static final long LINK_ADAPT_INTERVAL = 2000;
+
+	private final BluetoothHelper mBtHelper;
+	private final String mAddress;
+	private final int mDeviceId;
+	private final NotificationRingBuffer mNotifications = new NotificationRingBuffer(NOTIFICATION_CAPACITY);
+
+	private final GattOperationQueue mOperationQueue;
+	private final GattMetrics mMetrics;
+	/** 接続時に設定するキャラクタリスティックの一覧 */
+	private final GattProfile mProfile;
+	/** 実行中の接続時の設定(検索し直した場合は古い設定の結果を無視する) */
+	private volatile SetupSequence mSetup;
+	/** 接続時の設定が済んだかどうか(済むまで定期読み取りをしない) */
+	private volatile boolean mProfileReady;
+	/** 機器が持っている定期読み取りのキャラクタリスティックの番号 */
+	private volatile int[] mPolledIndexes = new int[0];
+	/** キャラクタリスティックごとの最後に値が届いた時刻(elapsedRealtimeNanos、届いていない場合0) */
+	private final AtomicLongArray mValueTimes;
+	/** 接続/サービス検索を開始した時刻(ns) */
+	private long mConnectStart;
+	private long mDiscoveryStart;
+
+	private BleRadio mRadio;
+	private volatile BleGattLink mLink;
+	/** 続けて再接続を試みた回数(接続できたら0に戻す) */
+	private int mReconnectAttempts;
+	private final Random mRandom = new Random();
+	/** 閉じたかどうか(閉じた後は再接続しない) */
+	private volatile boolean mClosed;
+	/** キャッシュした属性を使って検索を省いたかどうか */
+	private volatile boolean mAttributesCached;
+	private volatile int mState = STATE_DISCONNECTED;
+	private volatile int mMtu = DEFAULT_MTU;
+	private volatile LinkProfile mLinkProfile;
+	/** 受信したフレームの組み立て(フレーム形式でない場合null。読み出し側スレッドで使う) */
+	private final MessageReassembler mReassembler;
+	/** 再接続したので組み立て中のメッセージを捨てる */
+	private volatile boolean mFlushMessages;
+	/** 送信するメッセージの通し番号 */
+	private final AtomicInteger mMessageSequence = new AtomicInteger();
+	/** 相手が対応する圧縮方式のビットマスク(通知が来るまで0 = 圧縮しない) */
+	private volatile int mPeerCodecs;
+
+	/**
+	 * コンストラクタ
+	 * @param btHelper
+	 * @param address
+	 * @param deviceId 通知に付ける機器ID
+	 * @param metrics 計測結果の記録先
+	 */
+	GattConnection(BluetoothHelper btHelper, String address, int deviceId, GattMetrics metrics) {
+		mBtHelper = btHelper;
+		mAddress = address;
+		mDeviceId = deviceId;
+		mMetrics = metrics;
+		mOperationQueue = new GattOperationQueue(btHelper.GetHandler(), metrics);
+		mLinkProfile = btHelper.CreateLinkProfile();
+		mProfile = btHelper.GetProfile();
+		mValueTimes = new AtomicLongArray(mProfile.GetEntries().length);
+		mReassembler = btHelper.CreateReassembler();
+	}
+
+	/**
+	 * アドレスを取得する
+	 * @return
+	 */
+	public String GetAddress() {
+		return mAddress;
+	}
+
+	/**
+	 * 機器IDを取得する
+	 * @return
+	 */
+	public int GetDeviceId() {
+		return mDeviceId;
+	}
+
+	/**
+	 * 計測結果を取得する
+	 * @return
+	 */
+	public GattMetrics GetMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * GATTプロファイルを取得する
+	 * @return
+	 */
+	public GattProfile GetProfile() {
+		return mProfile;
+	}
+
+	/**
+	 * 接続状態を記録する(記録中の場合のみ)
+	 * @param state STATE_CONNECTED等
+	 */
+	void RecordConnectionState(int state) {
+		SessionRecorder recorder = mBtHelper.GetRecorder();
+		if (recorder != null) {
+			byte[] address = mAddress.getBytes(ASCII);
+			recorder.Record(SessionRecorder.RECORD_CONNECTION_STATE, mDeviceId, 0, 0,
+					SystemClock.elapsedRealtimeNanos(), state, address, address.length);
+		}
+	}
+
+	/**
+	 * 受信した通知をまとめて読み出す(読み出し側スレッド)
+	 * @param consumer
+	 * @param maxBatch
+	 * @return 読み出した数
+	 */
+	int DrainNotifications(NotificationRingBuffer.Consumer consumer, int maxBatch) {
+		if (mFlushMessages && mReassembler != null) {
+			mFlushMessages = false;
+			int lost = mReassembler.Flush();
+			if (0 < lost) {
+				mMetrics.OnMessagesLost(lost, 0);
+			}
+		}
+		return mNotifications.Drain(consumer, maxBatch);
+	}
+
+	/**
+	 * 接続時の設定が済んで、定期読み取りができるかどうか
+	 * @return
+	 */
+	boolean IsProfileReady() {
+		return mProfileReady && IsConnected();
+	}
+
+	/**
+	 * 定期的に読み取るキャラクタリスティックの番号の一覧を取得する
+	 * @return 機器が持っているものだけ
+	 */
+	int[] GetPolledIndexes() {
+		return mPolledIndexes;
+	}
+
+	/**
+	 * キャラクタリスティックに最後に値が届いた時刻を取得する
+	 * @param index GattProfile.IndexOf
+	 * @return elapsedRealtime(ms)。届いていない場合0
+	 */
+	long GetLastValueTime(int index) {
+		return mValueTimes.get(index) / 1000000;
+	}
+
+	/**
+	 * 待っているGATT操作の数を取得する
+	 * @return
+	 */
+	int GetPendingOperations() {
+		return mOperationQueue.Size();
+	}
+
+	/**
+	 * 読み出し待ちの通知の数を取得する
+	 * @return
+	 */
+	int GetPendingNotifications() {
+		return mNotifications.Size();
+	}
+
+	/**
+	 * 受信したフレームの組み立てを取得する(読み出し側スレッド)
+	 * @return フレーム形式でない場合null
+	 */
+	MessageReassembler GetReassembler() {
+		return mReassembler;
+	}
+
+	/**
+	 * フレーム形式で送受信するかどうか
+	 * @return
+	 */
+	public boolean IsFramed() {
+		return mReassembler != null;
+	}
+
+	/**
+	 * 相手が対応する圧縮方式のビットマスクを取得する
+	 * @return
+	 */
+	public int GetPeerCodecs() {
+		return mPeerCodecs;
+	}
+
+	/**
+	 * 制御メッセージ受信時処理(読み出し側スレッド)
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	void OnControlMessage(byte[] data, int offset, int length) {
+		if (!PayloadCodecs.IsOffer(data, offset, length)) {
+			Log.d(TAG, "unknown control message: " + (data[offset] & 0xFF));
+			return;
+		}
+		mPeerCodecs = data[offset + 1] & 0xFF;
+		Log.d(TAG, mAddress + " peer codecs: " + mPeerCodecs);
+		if (data[offset + 2] != 0) {
+			SendControl(PayloadCodecs.CreateOffer(PayloadCodecs.SUPPORTED, false));
+		}
+	}
+
+	/**
+	 * 制御メッセージを送信する
+	 * @param data
+	 */
+	private void SendControl(byte[] data) {
+		GattProfile.Entry stream = mProfile.GetStream();
+		new GattStreamWriter(this, stream.mService, stream.mUuid, data, true,
+				MessageFrame.FLAG_CONTROL, null).Start();
+	}
+
+	/**
+	 * 送信するメッセージの通し番号を払い出す
+	 * @return
+	 */
+	int NextMessageSequence() {
+		return mMessageSequence.getAndIncrement() & 0xFF;
+	}
+
+	/**
+	 * 読み出し待ちの通知があるかどうか
+	 * @return
+	 */
+	boolean HasNotifications() {
+		return 0 < mNotifications.Size();
+	}
+
+	/**
+	 * バッファ満杯で捨てた通知の数を取得する
+	 * @return
+	 */
+	public long GetDroppedNotifications() {
+		return mNotifications.GetDroppedCount();
+	}
+
+	/**
+	 * 状態を取得する
+	 * @return
+	 */
+	public int GetState() {
+		return mState;
+	}
+
+	/**
+	 * 接続中かどうか
+	 * @return
+	 */
+	public boolean IsConnected() {
+		return mState == STATE_CONNECTED;
+	}
+
+	/**
+	 * MTUを取得する
+	 * @return
+	 */
+	public int GetMtu() {
+		return mMtu;
+	}
+
+	/**
+	 * 接続プロファイルを取得する
+	 * @return
+	 */
+	public LinkProfile GetLinkProfile() {
+		return mLinkProfile;
+	}
+
+	/**
+	 * 接続プロファイルを変更する
+	 * 接続中の場合はすぐに要求し直す
+	 * @param profile
+	 */
+	void SetLinkProfile(LinkProfile profile) {
+		mLinkProfile = profile;
+		BleGattLink link = mLink;
+		if (link != null && IsConnected()) {
+			ApplyLinkProfile(link);
+			StartLinkAdapt();
+		}
+	}
+
+	/**
+	 * 接続を開始する
+	 * @param radio
+	 * @param autoConnect
+	 * @return 接続を開始できた場合true
+	 */
+	boolean Connect(BleRadio radio, boolean autoConnect) {
+		mState = STATE_CONNECTING;
+		mConnectStart = SystemClock.elapsedRealtimeNanos();
+		mRadio = radio;
+		mLink = radio.Connect(mAddress, autoConnect, mGattListener);
+		if (mLink == null) {
+			mState = STATE_DISCONNECTED;
+			return false;
+		}
+		mOperationQueue.SetLink(mLink);
+		return true;
+	}
+
+	/**
+	 * GATT操作をキューに追加する
+	 * @param operation
+	 */
+	public void Enqueue(GattOperation operation) {
+		mOperationQueue.Enqueue(operation);
+	}
+
+	/**
+	 * キャラクタリスティックを読み取る
+	 * @param serviceUuid
+	 * @param characteristicUuid
+	 * @param listener
+	 */
+	public void Read(UUID serviceUuid, UUID characteristicUuid, GattOperation.OnCompleteListener listener) {
+		Enqueue(GattOperation.Read(serviceUuid, characteristicUuid, listener));
+	}
+
+	/**
+	 * キャラクタリスティックに書き込む
+	 * @param serviceUuid
+	 * @param characteristicUuid
+	 * @param value
+	 * @param writeType
+	 * @param listener
+	 */
+	public void Write(UUID serviceUuid, UUID characteristicUuid, byte[] value, int writeType,
+					  GattOperation.OnCompleteListener listener) {
+		Enqueue(GattOperation.Write(serviceUuid, characteristicUuid, value, writeType, listener));
+	}
+
+	/**
+	 * データを送信する
+	 * MTUに合わせて分割し、プロファイルのstreamのキャラクタリスティックへ書き込む
+	 * フレーム形式の場合はMessageFrame.MAX_MESSAGE_LENGTHまで送れる
+	 * 相手が対応していれば設定した方式で圧縮する(小さくならない場合はそのまま送る)
+	 * @param data
+	 * @param withResponse 制御メッセージはtrue、大量データはfalse
+	 */
+	public void Send(byte[] data, boolean withResponse) {
+		if (IsFramed() && MessageFrame.MAX_MESSAGE_LENGTH < data.length) {
+			SendResultMessage(BluetoothStatus.FAILURE, "Send Failure message too long: " + data.length + " bytes");
+			return;
+		}
+		int frameFlags = IsFramed() ? 0 : GattStreamWriter.UNFRAMED;
+		int codec = mBtHelper.GetCodec();
+		if (IsFramed() && PayloadCodecs.IsAvailable(mPeerCodecs, codec)) {
+			byte[] encoded = PayloadCodecs.Encode(codec, data);
+			if (encoded != null) {
+				mMetrics.OnEncoded(data.length, encoded.length);
+				data = encoded;
+				frameFlags = MessageFrame.WithCodec(frameFlags, codec);
+			}
+		}
+		GattProfile.Entry stream = mProfile.GetStream();
+		GattStreamWriter writer = new GattStreamWriter(this, stream.mService,
+				stream.mUuid, data, withResponse, frameFlags,
+				new GattStreamWriter.OnWriteListener() {
+					@Override
+					public void onWriteComplete(GattStreamWriter writer, boolean success) {
+						String mes = writer.GetWrittenBytes() + " bytes " + writer.GetElapsed() + " ms "
+								+ writer.GetBytesPerSecond() + " bytes/sec";
+						Log.d(TAG, "send " + (success ? "complete: " : "failure: ") + mes);
+						SendResultMessage(success ? BluetoothStatus.SEND_COMPLETE : BluetoothStatus.FAILURE,
+								(success ? "Send Complete " : "Send Failure ") + mes);
+					}
+				});
+		writer.Start();
+	}
+
+	/**
+	 * GATTセッションを閉じる
+	 */
+	void Close() {
+		mClosed = true;
+		mProfileReady = false;
+		mBtHelper.GetHandler().removeCallbacks(mReconnectRunnable);
+		mBtHelper.GetHandler().removeCallbacks(mLinkAdaptRunnable);
+		mOperationQueue.Clear();
+		if (mLink != null) {
+			mLink.Close();
+			mLink = null;
+		}
+		if (mState == STATE_CONNECTED) {
+			mMetrics.OnDisconnected();
+		}
+		mState = STATE_DISCONNECTED;
+	}
+
+	/**
+	 * 再生用に接続を開始する(GATTなし)
+	 */
+	void ConnectReplay() {
+		mState = STATE_CONNECTING;
+		mConnectStart = SystemClock.elapsedRealtimeNanos();
+	}
+
+	/**
+	 * 接続時処理
+	 * @param link 再生の場合null
+	 */
+	void OnConnected(BleGattLink link) {
+		Log.d(TAG, "Connected");
+		long now = SystemClock.elapsedRealtimeNanos();
+		mMetrics.OnConnected(now - mConnectStart);
+		mReconnectAttempts = 0;
+		// 機器側も通し番号を数え直すので、前の接続で組み立て中のメッセージは捨てる
+		mFlushMessages = true;
+		// 圧縮方式は接続ごとに取り決め直す
+		mPeerCodecs = 0;
+		mProfileReady = false;
+		mMtu = DEFAULT_MTU;
+		mMetrics.OnMtuChanged(DEFAULT_MTU);
+		mState = STATE_CONNECTED;
+		RecordConnectionState(STATE_CONNECTED);
+		mBtHelper.SendEvent(BluetoothStatus.CONNECTED, mAddress);
+		if (link == null) {
+			return;
+		}
+
+		// 接続間隔はサービス検索の速さにも効くので、検索前に要求する
+		RequestConnectionPriority(link);
+		StartLinkAdapt();
+
+		// 前回の属性が使える場合は検索せずにすぐ通知を設定する
+		GattAttributeTable cached = mBtHelper.GetAttributeCache().Get(mAddress);
+		if (cached != null && link.UseAttributes(cached)) {
+			Log.d(TAG, "use cached attributes");
+			mAttributesCached = true;
+			mMetrics.OnAttributeCacheHit();
+			SetupProfile(link, cached);
+			return;
+		}
+		// Serviceを検索する
+		mAttributesCached = false;
+		mDiscoveryStart = now;
+		link.DiscoverServices();
+	}
+
+	/**
+	 * キャッシュした属性を捨てて検索し直す
+	 * @param link
+	 */
+	private void Rediscover(BleGattLink link) {
+		Log.d(TAG, "rediscover services");
+		mSetup = null;
+		mProfileReady = false;
+		mAttributesCached = false;
+		mBtHelper.GetAttributeCache().Invalidate(mAddress);
+		mDiscoveryStart = SystemClock.elapsedRealtimeNanos();
+		link.DiscoverServices();
+	}
+
+	/**
+	 * 切断時処理
+	 */
+	void OnDisconnected() {
+		Log.d(TAG, "DisConnected");
+		mProfileReady = false;
+		RecordConnectionState(STATE_DISCONNECTED);
+		// 自分で切断していなければ再接続する
+		if (mLink != null && !mClosed && ScheduleReconnect()) {
+			return;
+		}
+		mBtHelper.DisConnect(mAddress);
+	}
+
+	/**
+	 * 再接続を予約する
+	 * ペアリング済みの機器は同じ接続のままバックグラウンドで待ち(検索した属性も残る)、
+	 * それ以外はバックオフしてから直接接続し直す
+	 * @return 再接続しない場合false
+	 */
+	private boolean ScheduleReconnect() {
+		ReconnectPolicy policy = mBtHelper.GetReconnectPolicy();
+		if (policy == null) {
+			return false;
+		}
+		if (mState == STATE_CONNECTED) {
+			mMetrics.OnDisconnected();
+		}
+		mState = STATE_RECONNECTING;
+		// 送信待ちの操作は失敗させ、再接続後に通知の設定からやり直す
+		mOperationQueue.Clear();
+
+		if (mRadio.IsBonded(mAddress) && mLink.Reconnect()) {
+			Log.d(TAG, "wait for auto reconnect");
+			mConnectStart = SystemClock.elapsedRealtimeNanos();
+			mOperationQueue.SetLink(mLink);
+			mMetrics.OnReconnectAttempt();
+			mBtHelper.SendEvent(BluetoothStatus.RECONNECTING, mAddress);
+			return true;
+		}
+
+		long delay = policy.NextDelay(mReconnectAttempts, mRandom);
+		if (delay < 0) {
+			Log.d(TAG, "reconnect gave up");
+			SendResultMessage(BluetoothStatus.FAILURE, "Reconnect gave up after " + mReconnectAttempts + " attempts");
+			return false;
+		}
+		mReconnectAttempts++;
+		Log.d(TAG, "reconnect " + mReconnectAttempts + " in " + delay + " ms");
+		mMetrics.OnReconnectAttempt();
+		mBtHelper.SendEvent(BluetoothStatus.RECONNECTING, mAddress);
+		mBtHelper.GetHandler().postDelayed(mReconnectRunnable, delay);
+		return true;
+	}
+
+	/**
+	 * 再接続処理
+	 */
+	private final Runnable mReconnectRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (mClosed || mState != STATE_RECONNECTING) {
+				return;
+			}
+			// 直接接続の方が早くつながるので、古い接続は閉じてautoConnectなしで接続し直す
+			BleGattLink old = mLink;
+			if (old != null) {
+				old.Close();
+			}
+			mConnectStart = SystemClock.elapsedRealtimeNanos();
+			mLink = mRadio.Connect(mAddress, false, mGattListener);
+			if (mLink == null) {
+				if (!ScheduleReconnect()) {
+					mBtHelper.DisConnect(mAddress);
+				}
+				return;
+			}
+			mOperationQueue.SetLink(mLink);
+		}
+	};
+
+	/**
+	 * Service発見時処理
+	 * @param link 再生の場合null
+	 * @param status
+	 */
+	void OnServicesDiscovered(BleGattLink link, int status) {
+		Log.d(TAG, "onServicesDiscovered received: " + status);
+		SessionRecorder recorder = mBtHelper.GetRecorder();
+		if (recorder != null) {
+			recorder.Record(SessionRecorder.RECORD_SERVICES_DISCOVERED, mDeviceId, 0, 0,
+					SystemClock.elapsedRealtimeNanos(), status, null, 0);
+		}
+		if (status != BleGattLink.GATT_SUCCESS) {
+			Log.d(TAG, "onServicesDiscovered GATT failure");
+			SendResultMessage(BluetoothStatus.FAILURE, "onServicesDiscovered GATT failure:" + status);
+			return;
+		}
+		mMetrics.Record(GattMetrics.METRIC_DISCOVERY, SystemClock.elapsedRealtimeNanos() - mDiscoveryStart);
+		if (link == null) {
+			// 再生の場合は通知の設定は記録済みとみなす
+			SendResultMessage(BluetoothStatus.SUCCESS, "Replay Services Discovered");
+			return;
+		}
+
+		GattAttributeTable attributes = link.GetAttributes();
+		if (attributes != null) {
+			mBtHelper.GetAttributeCache().Put(mAddress, attributes);
+		}
+		SetupProfile(link, attributes);
+	}
+
+	/**
+	 * プロファイルの通知、Indication、読み取りを設定する
+	 * Descriptorの書き込みと読み取りは1件ごとの結果を待たずに全てキューに積み、
+	 * キューが間を空けずに続けて発行するので、キャラクタリスティックが多くても1回の流れで設定が済む
+	 * @param link
+	 * @param attributes 検索結果またはキャッシュした属性
+	 */
+	private void SetupProfile(final BleGattLink link, GattAttributeTable attributes) {
+		GattProfile.Entry stream = mProfile.GetStream();
+		// サービスが見つからなかった場合
+		if (attributes == null || !attributes.HasService(stream.mService)) {
+			Log.d(TAG, "service is null");
+			SendResultMessage(BluetoothStatus.FAILURE, "service is null");
+			return;
+		}
+
+		// キャラクタリスティックが見つからなかった場合
+		if (attributes.Find(stream.mService, stream.mUuid) == null) {
+			Log.d(TAG, "characteristic is null");
+			SendResultMessage(BluetoothStatus.FAILURE, "characteristic is null");
+			return;
+		}
+
+		// MTUは通知の設定より先に合意しておく(通知のデータ長はMTUで決まる)
+		RequestMtu();
+
+		// 機器の属性が変わったらキャッシュを捨てられるよう、Service Changedを受け取る
+		UUID config = UUID.fromString(CHARACTERISTIC_CONFIG);
+		if (attributes.HasDescriptor(GENERIC_ATTRIBUTE_SERVICE, SERVICE_CHANGED, config)
+				&& link.SetCharacteristicNotification(GENERIC_ATTRIBUTE_SERVICE, SERVICE_CHANGED, true)) {
+			Enqueue(GattOperation.WriteDescriptor(GENERIC_ATTRIBUTE_SERVICE, SERVICE_CHANGED, config,
+					ENABLE_INDICATION_VALUE, null));
+		}
+
+		// 機器が持っていないキャラクタリスティックは定期的に読み取らない
+		int[] polled = mProfile.GetPolledIndexes();
+		int found = 0;
+		for (int index : polled) {
+			GattProfile.Entry entry = mProfile.Get(index);
+			if (attributes.Find(entry.mService, entry.mUuid) != null) {
+				polled[found++] = index;
+			}
+		}
+		mPolledIndexes = Arrays.copyOf(polled, found);
+
+		SetupSequence sequence = new SetupSequence(link);
+		mSetup = sequence;
+		for (GattProfile.Entry entry : mProfile.GetEntries()) {
+			// stream以外は機器が持っていなければ飛ばす
+			if (attributes.Find(entry.mService, entry.mUuid) == null) {
+				Log.d(TAG, entry.mName + " is not found");
+				continue;
+			}
+			if (entry.IsSubscribed()) {
+				// Notificationを要求する
+				if (!link.SetCharacteristicNotification(entry.mService, entry.mUuid, true)) {
+					if (mAttributesCached) {
+						Rediscover(link);
+						return;
+					}
+					Log.d(TAG, entry.mName + " CharacteristicNotification failure");
+					if (entry.mStream) {
+						SendResultMessage(BluetoothStatus.FAILURE, "CharacteristicNotification Failure");
+						mSetup = null;
+						return;
+					}
+					sequence.mFailed.incrementAndGet();
+					continue;
+				}
+				// Notification/Indicationを有効化(Descriptorの書き込み完了をまとめて待ってから結果を通知する)
+				byte[] value = (entry.mMode & GattProfile.MODE_NOTIFY) != 0
+						? ENABLE_NOTIFICATION_VALUE : ENABLE_INDICATION_VALUE;
+				sequence.Add(GattOperation.WriteDescriptor(entry.mService, entry.mUuid, config, value, sequence));
+			}
+			if ((entry.mMode & GattProfile.MODE_READ) != 0) {
+				sequence.Add(GattOperation.Read(entry.mService, entry.mUuid, sequence));
+			}
+		}
+		sequence.Start();
+	}
+
+	/**
+	 * 接続時の設定
+	 * 積んだDescriptorの書き込みと読み取りが全て終わったら、まとめて結果を通知する
+	 */
+	private class SetupSequence implements GattOperation.OnCompleteListener {
+		private final BleGattLink mLink;
+		/** 終わっていない操作の数(積み終わるまでは1多くしておく) */
+		private final AtomicInteger mPending = new AtomicInteger(1);
+		private final AtomicInteger mFailed = new AtomicInteger();
+		private int mCount;
+		private volatile boolean mStreamFailed;
+
+		SetupSequence(BleGattLink link) {
+			mLink = link;
+		}
+
+		/**
+		 * 操作を積む
+		 * @param operation
+		 */
+		void Add(GattOperation operation) {
+			mPending.incrementAndGet();
+			mCount++;
+			Enqueue(operation);
+		}
+
+		/**
+		 * 積み終わった
+		 */
+		void Start() {
+			if (mPending.decrementAndGet() == 0) {
+				Finish();
+			}
+		}
+
+		@Override
+		public void onComplete(GattOperation operation, int status, byte[] value) {
+			UUID characteristic = operation.GetCharacteristicUuid();
+			if (status != BleGattLink.GATT_SUCCESS) {
+				Log.d(TAG, characteristic + " setup failure: " + status);
+				mFailed.incrementAndGet();
+				if (mProfile.GetStream().mUuid.equals(characteristic)) {
+					mStreamFailed = true;
+				}
+			} else if (operation.GetType() == GattOperation.TYPE_READ_CHARACTERISTIC && value != null) {
+				// 読み取った値は通知と同じ経路で処理する
+				OnNotification(characteristic.getMostSignificantBits(), characteristic.getLeastSignificantBits(),
+						value, value.length);
+			}
+			if (mPending.decrementAndGet() == 0) {
+				Finish();
+			}
+		}
+
+		/**
+		 * 全ての操作の完了時処理
+		 */
+		private void Finish() {
+			if (mSetup != this) {
+				return;
+			}
+			mSetup = null;
+			int failed = mFailed.get();
+			if (0 < failed && mAttributesCached && IsConnected()) {
+				// キャッシュした属性が古かった
+				Rediscover(mLink);
+				return;
+			}
+			if (mStreamFailed) {
+				Log.d(TAG, "CharacteristicNotification failure");
+				SendResultMessage(BluetoothStatus.FAILURE, "CharacteristicNotification Failure");
+				return;
+			}
+			// キャラクタリスティック通知設定が成功
+			Log.d(TAG, "CharacteristicNotification success");
+			SendResultMessage(BluetoothStatus.SUCCESS, "CharacteristicNotification Success (" + mCount + " operations"
+					+ (0 < failed ? ", " + failed + " failed)" : ")"));
+			// 通知を受け取れるようになったので、対応する圧縮方式を知らせて返事をもらう
+			if (IsFramed()) {
+				SendControl(PayloadCodecs.CreateOffer(PayloadCodecs.SUPPORTED, true));
+			}
+			mProfileReady = true;
+			mBtHelper.GetReadScheduler().Wake();
+		}
+	}
+
+	/**
+	 * 接続プロファイルを適用する
+	 * @param link
+	 */
+	private void ApplyLinkProfile(BleGattLink link) {
+		RequestConnectionPriority(link);
+		RequestMtu();
+	}
+
+	/**
+	 * 接続プロファイルの接続優先度を要求する
+	 * 実際の接続間隔は機器側が決めるので、要求を受け付けたかどうかだけ記録する
+	 * @param link
+	 */
+	private void RequestConnectionPriority(BleGattLink link) {
+		LinkProfile profile = mLinkProfile;
+		int priority = profile.GetConnectionPriority();
+		boolean accepted = link.RequestConnectionPriority(priority);
+		Log.d(TAG, "connection priority " + priority + (accepted ? " requested" : " not supported"));
+		mMetrics.OnConnectionPriority(priority, accepted);
+		mMetrics.OnLinkProfile(profile.GetProfile());
+	}
+
+	/**
+	 * 接続プロファイルのMTUを要求する
+	 * MTUは接続中に小さくできないので、今より大きくする場合だけ要求する
+	 */
+	private void RequestMtu() {
+		final int mtu = mLinkProfile.GetMtu();
+		if (mtu <= mMtu) {
+			return;
+		}
+		Enqueue(GattOperation.RequestMtu(mtu, new GattOperation.OnCompleteListener() {
+			@Override
+			public void onComplete(GattOperation operation, int status, byte[] value) {
+				Log.d(TAG, "request mtu " + mtu + (status == BleGattLink.GATT_SUCCESS ? " -> " + mMtu : " failure: " + status));
+			}
+		}));
+	}
+
+	/**
+	 * 送受信量による接続プロファイルの見直しを始める
+	 */
+	private void StartLinkAdapt() {
+		Handler handler = mBtHelper.GetHandler();
+		handler.removeCallbacks(mLinkAdaptRunnable);
+		LinkProfile profile = mLinkProfile;
+		if (!profile.IsAdaptive()) {
+			return;
+		}
+		profile.Reset();
+		profile.Adapt(mMetrics.GetBytesIn() + mMetrics.GetBytesOut(), SystemClock.elapsedRealtime());
+		handler.postDelayed(mLinkAdaptRunnable, LINK_ADAPT_INTERVAL);
+	}
+
+	/**
+	 * 接続プロファイルの見直し処理
+	 */
+	private final Runnable mLinkAdaptRunnable = new Runnable() {
+		@Override
+		public void run() {
+			BleGattLink link = mLink;
+			if (mClosed || link == null || !IsConnected()) {
+				return;
+			}
+			if (mLinkProfile.Adapt(mMetrics.GetBytesIn() + mMetrics.GetBytesOut(), SystemClock.elapsedRealtime())) {
+				ApplyLinkProfile(link);
+			}
+			mBtHelper.GetHandler().postDelayed(this, LINK_ADAPT_INTERVAL);
+		}
+	};
+
+	/**
+	 * 通知受信時処理(GATTのコールバックスレッド、または再生スレッド)
+	 * 高頻度で呼ばれるので、ここではリングバッファへコピーするだけにする
+	 * @param uuidMsb キャラクタリスティックUUIDの上位
+	 * @param uuidLsb キャラクタリスティックUUIDの下位
+	 * @param data
+	 * @param length
+	 */
+	void OnNotification(long uuidMsb, long uuidLsb, byte[] data, int length) {
+		int characteristic = mProfile.IndexOf(uuidMsb, uuidLsb);
+		if (characteristic < 0 || length <= 0) {
+			return;
+		}
+		long now = SystemClock.elapsedRealtimeNanos();
+		mValueTimes.lazySet(characteristic, now);
+		if (!mNotifications.Offer(mDeviceId, characteristic, now, data, 0, length)) {
+			mMetrics.OnNotificationDropped();
+		}
+		mBtHelper.OnNotificationQueued();
+	}
+
+	/**
+	 * GATTコールバック
+	 */
+	private BleGattListener mGattListener = new BleGattListener() {
+		/**
+		 * 接続状態変更時処理
+		 * @param link
+		 * @param status
+		 * @param newState
+		 */
+		@Override
+		public void onConnectionStateChange(final BleGattLink link, int status, final int newState) {
+			Log.d(TAG, mAddress + " onConnectionStateChange: " + status + " -> " + newState);
+			// 接続後の処理(検索、プロファイル適用、再接続)はBluetoothのワーカースレッドで行う
+			mBtHelper.GetHandler().post(new Runnable() {
+				@Override
+				public void run() {
+					if (newState == BleGattLink.STATE_CONNECTED) {	// GATT接続成功
+						if (!mClosed) {
+							OnConnected(link);
+						}
+					} else if (newState == BleGattLink.STATE_DISCONNECTED) {	// GATT通信が切断
+						OnDisconnected();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Service発見時処理
+		 * @param link
+		 * @param status
+		 */
+		@Override
+		public void onServicesDiscovered(final BleGattLink link, final int status) {
+			// 属性の解析とキャッシュの保存はBluetoothのワーカースレッドで行う
+			mBtHelper.GetHandler().post(new Runnable() {
+				@Override
+				public void run() {
+					if (!mClosed) {
+						OnServicesDiscovered(link, status);
+					}
+				}
+			});
+		}
+
+		/**
+		 * キャラクタリスティック変更時処理
+		 * @param link
+		 * @param characteristic
+		 * @param value
+		 */
+		@Override
+		public void onCharacteristicChanged(BleGattLink link, UUID characteristic, byte[] value) {
+			// 機器の属性が変わった
+			if (SERVICE_CHANGED.equals(characteristic)) {
+				Log.d(TAG, "service changed");
+				final BleGattLink changed = link;
+				mBtHelper.GetHandler().post(new Runnable() {
+					@Override
+					public void run() {
+						if (!mClosed) {
+							Rediscover(changed);
+						}
+					}
+				});
+				return;
+			}
+			// Characteristicの値更新通知
+			if (value != null) {
+				OnNotification(characteristic.getMostSignificantBits(), characteristic.getLeastSignificantBits(),
+						value, value.length);
+			}
+		}
+
+		/**
+		 * MTU変更時処理
+		 * @param link
+		 * @param mtu
+		 * @param status
+		 */
+		@Override
+		public void onMtuChanged(BleGattLink link, int mtu, int status) {
+			Log.d(TAG, "onMtuChanged: " + mtu + " status: " + status);
+			if (status == BleGattLink.GATT_SUCCESS) {
+				mMtu = mtu;
+				mMetrics.OnMtuChanged(mtu);
+			}
+			mOperationQueue.OnComplete(GattOperation.TYPE_REQUEST_MTU, null, status, null);
+		}
+
+		/**
+		 * 読み取り処理
+		 * @param link
+		 * @param characteristic
+		 * @param value
+		 * @param status
+		 */
+		@Override
+		public void onCharacteristicRead(BleGattLink link, UUID characteristic, byte[] value, int status) {
+			Log.d(TAG, "onCharacteristicRead");
+			if (status == BleGattLink.GATT_SUCCESS) {
+				Log.d(TAG, "Characteristic read success");
+			}
+			// 読み取った値は読み取りを要求した側(接続時の設定、定期読み取り)が通知と同じ経路へ渡す
+			mOperationQueue.OnComplete(GattOperation.TYPE_READ_CHARACTERISTIC, characteristic, status, value);
+		}
+
+		/**
+		 * 書き込み処理
+		 * @param link
+		 * @param characteristic
+		 * @param status
+		 */
+		@Override
+		public void onCharacteristicWrite(BleGattLink link, UUID characteristic, int status) {
+			Log.d(TAG, "onCharacteristicWrite");
+			if (status == BleGattLink.GATT_SUCCESS) {
+				Log.d(TAG, "Characteristic write success");
+			}
+			mOperationQueue.OnComplete(GattOperation.TYPE_WRITE_CHARACTERISTIC, characteristic, status, null);
+		}
+
+		/**
+		 * Descriptor書き込み処理
+		 * @param link
+		 * @param characteristic
+		 * @param descriptor
+		 * @param status
+		 */
+		@Override
+		public void onDescriptorWrite(BleGattLink link, UUID characteristic, UUID descriptor, int status) {
+			Log.d(TAG, "onDescriptorWrite: " + status);
+			mOperationQueue.OnComplete(GattOperation.TYPE_WRITE_DESCRIPTOR, characteristic, status, null);
+		}
+	};
+
+	/**
+	 * 結果メッセージを送る(どの機器の結果か分かるようにアドレスを付ける)
+	 * @param id
+	 * @param mes
+	 */
+	private void SendResultMessage(int id, String mes) {
+		mBtHelper.SendEvent(id, mAddress + " " + mes);
+	}
+}
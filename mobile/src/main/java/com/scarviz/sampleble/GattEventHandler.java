@@ -0,0 +1,34 @@
+package com.scarviz.sampleble;
+
+/**
+ * GATTイベントの処理
+ * 実機のGATTコールバックと、記録したセッションの再生の両方から呼ばれる
+ */
+public interface GattEventHandler {
+	/**
+	 * 接続状態変更時処理
+	 * @param deviceId
+	 * @param address
+	 * @param newState GattConnection.STATE_CONNECTED等
+	 */
+	void onConnectionStateChange(int deviceId, String address, int newState);
+
+	/**
+	 * Service発見時処理
+	 * @param deviceId
+	 * @param status
+	 */
+	void onServicesDiscovered(int deviceId, int status);
+
+	/**
+	 * 通知受信時処理
+	 * dataはこの呼び出しの間だけ有効
+	 * @param deviceId
+	 * @param uuidMsb キャラクタリスティックUUIDの上位
+	 * @param uuidLsb キャラクタリスティックUUIDの下位
+	 * @param timestamp
+	 * @param data
+	 * @param length
+	 */
+	void onNotification(int deviceId, long uuidMsb, long uuidLsb, long timestamp, byte[] data, int length);
+}
@@ -0,0 +1,172 @@
+package com.scarviz.sampleble;
+
+import java.util.UUID;
+
+/**
+ * GATT操作クラス
+ * GattOperationQueueで1件ずつ実行される読み取り/書き込み要求
+ */
+public class GattOperation {
+	/** キャラクタリスティック読み取り */
+	public final static int TYPE_READ_CHARACTERISTIC = 1;
+	/** キャラクタリスティック書き込み */
+	public final static int TYPE_WRITE_CHARACTERISTIC = 2;
+	/** Descriptor書き込み */
+	public final static int TYPE_WRITE_DESCRIPTOR = 3;
+	/** MTU要求 */
+	public final static int TYPE_REQUEST_MTU = 4;
+
+	/**
+	 * 完了通知リスナー
+	 */
+	public interface OnCompleteListener {
+		/**
+		 * 操作完了時処理
+		 * @param operation
+		 * @param status
+		 * @param value
+		 */
+		void onComplete(GattOperation operation, int status, byte[] value);
+	}
+
+	private final int mType;
+	private final UUID mServiceUuid;
+	private final UUID mCharacteristicUuid;
+	private final UUID mDescriptorUuid;
+	private final byte[] mValue;
+	private final int mWriteType;
+	private int mMtu;
+	private final OnCompleteListener mListener;
+
+	/**
+	 * コンストラクタ
+	 * @param type
+	 * @param serviceUuid
+	 * @param characteristicUuid
+	 * @param descriptorUuid
+	 * @param value
+	 * @param writeType
+	 * @param listener
+	 */
+	private GattOperation(int type, UUID serviceUuid, UUID characteristicUuid, UUID descriptorUuid,
+						  byte[] value, int writeType, OnCompleteListener listener) {
+		mType = type;
+		mServiceUuid = serviceUuid;
+		mCharacteristicUuid = characteristicUuid;
+		mDescriptorUuid = descriptorUuid;
+		mValue = value;
+		mWriteType = writeType;
+		mListener = listener;
+	}
+
+	/**
+	 * キャラクタリスティック読み取り操作を生成する
+	 * @param serviceUuid
+	 * @param characteristicUuid
+	 * @param listener
+	 * @return
+	 */
+	public static GattOperation Read(UUID serviceUuid, UUID characteristicUuid, OnCompleteListener listener) {
+		return new GattOperation(TYPE_READ_CHARACTERISTIC, serviceUuid, characteristicUuid, null,
+				null, 0, listener);
+	}
+
+	/**
+	 * キャラクタリスティック書き込み操作を生成する
+	 * @param serviceUuid
+	 * @param characteristicUuid
+	 * @param value
+	 * @param writeType BleGattLink.WRITE_TYPE_DEFAULT / WRITE_TYPE_NO_RESPONSE
+	 * @param listener
+	 * @return
+	 */
+	public static GattOperation Write(UUID serviceUuid, UUID characteristicUuid, byte[] value,
+									  int writeType, OnCompleteListener listener) {
+		return new GattOperation(TYPE_WRITE_CHARACTERISTIC, serviceUuid, characteristicUuid, null,
+				value, writeType, listener);
+	}
+
+	/**
+	 * Descriptor書き込み操作を生成する
+	 * @param serviceUuid
+	 * @param characteristicUuid
+	 * @param descriptorUuid
+	 * @param value
+	 * @param listener
+	 * @return
+	 */
+	public static GattOperation WriteDescriptor(UUID serviceUuid, UUID characteristicUuid,
+												UUID descriptorUuid, byte[] value,
+												OnCompleteListener listener) {
+		return new GattOperation(TYPE_WRITE_DESCRIPTOR, serviceUuid, characteristicUuid, descriptorUuid,
+				value, 0, listener);
+	}
+
+	/**
+	 * MTU要求操作を生成する
+	 * 他の操作と重ならないようキューで順番に実行する
+	 * @param mtu
+	 * @param listener
+	 * @return
+	 */
+	public static GattOperation RequestMtu(int mtu, OnCompleteListener listener) {
+		GattOperation operation = new GattOperation(TYPE_REQUEST_MTU, null, null, null, null, 0, listener);
+		operation.mMtu = mtu;
+		return operation;
+	}
+
+	/**
+	 * 操作種別を取得する
+	 * @return
+	 */
+	public int GetType() {
+		return mType;
+	}
+
+	/**
+	 * キャラクタリスティックUUIDを取得する
+	 * @return
+	 */
+	public UUID GetCharacteristicUuid() {
+		return mCharacteristicUuid;
+	}
+
+	/**
+	 * 書き込む値の長さを取得する
+	 * @return
+	 */
+	public int GetValueLength() {
+		return mValue == null ? 0 : mValue.length;
+	}
+
+	/**
+	 * 操作を実行する
+	 * @param link
+	 * @return 要求を発行できた場合true
+	 */
+	boolean Execute(BleGattLink link) {
+		switch (mType) {
+			case TYPE_READ_CHARACTERISTIC:
+				return link.ReadCharacteristic(mServiceUuid, mCharacteristicUuid);
+			case TYPE_WRITE_CHARACTERISTIC:
+				return link.WriteCharacteristic(mServiceUuid, mCharacteristicUuid, mValue, mWriteType);
+			case TYPE_WRITE_DESCRIPTOR:
+				return link.WriteDescriptor(mServiceUuid, mCharacteristicUuid, mDescriptorUuid, mValue);
+			case TYPE_REQUEST_MTU:
+				return link.RequestMtu(mMtu);
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * 完了を通知する
+	 * @param status
+	 * @param value
+	 */
+	void Complete(int status, byte[] value) {
+		if (mListener != null) {
+			mListener.onComplete(this, status, value);
+		}
+	}
+}
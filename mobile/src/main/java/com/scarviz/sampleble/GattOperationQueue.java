@@ -0,0 +1,215 @@
+package com.scarviz.sampleble;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * GATT操作キュークラス
+ * Androidのスタックは同時に1つのGATT操作しか受け付けないため、
+ * 接続ごとに操作を直列化し、完了コールバックを受けたら間を空けずに次の操作を発行する
+ */
+public class GattOperationQueue {
+	private final static String TAG = "GattOperationQueue";
+
+	/** 完了コールバックが来ない場合にキューを進めるまでの時間(ms) */
+	private static final long OPERATION_TIMEOUT = 5000;
+
+	private final Handler mHandler;
+	private final GattMetrics mMetrics;
+	private final LinkedList<GattOperation> mQueue = new LinkedList<GattOperation>();
+	private BleGattLink mLink;
+	private GattOperation mCurrent;
+	/** 実行中の操作を発行した時刻(ns) */
+	private long mCurrentStart;
+	/** 発行した操作の通し番号(タイムアウトがどの操作のものか見分ける) */
+	private long mSequence;
+	/** 実行中の操作のタイムアウト処理 */
+	private TimeoutRunnable mTimeout;
+
+	/**
+	 * タイムアウト処理
+	 * 発行した操作ごとに作り、別の操作が実行中なら何もしない
+	 */
+	private class TimeoutRunnable implements Runnable {
+		private final long mTimeoutSequence;
+
+		TimeoutRunnable(long sequence) {
+			mTimeoutSequence = sequence;
+		}
+
+		@Override
+		public void run() {
+			OnTimeout(mTimeoutSequence);
+		}
+	}
+
+	/**
+	 * コンストラクタ
+	 * @param handler タイムアウト監視用のHandler
+	 * @param metrics
+	 */
+	GattOperationQueue(Handler handler, GattMetrics metrics) {
+		mHandler = handler;
+		mMetrics = metrics;
+	}
+
+	/**
+	 * 操作対象のGATT接続を設定する
+	 * @param link
+	 */
+	synchronized void SetLink(BleGattLink link) {
+		mLink = link;
+	}
+
+	/**
+	 * 操作を追加する
+	 * 実行中の操作がなければすぐに発行する
+	 * @param operation
+	 */
+	public void Enqueue(GattOperation operation) {
+		List<GattOperation> failed;
+		synchronized (this) {
+			mQueue.add(operation);
+			if (mCurrent != null) {
+				return;
+			}
+			failed = ExecuteNext();
+		}
+		CompleteFailed(failed);
+	}
+
+	/**
+	 * 待機中の操作数を取得する
+	 * @return
+	 */
+	public synchronized int Size() {
+		return mQueue.size() + (mCurrent == null ? 0 : 1);
+	}
+
+	/**
+	 * 実行中の操作の完了を通知する(GATTコールバックから呼ぶ)
+	 * 種類とキャラクタリスティックが実行中の操作と違う場合(タイムアウトした操作の遅れた完了等)は捨てる
+	 * @param type
+	 * @param characteristic MTU要求の場合null
+	 * @param status
+	 * @param value
+	 */
+	void OnComplete(int type, UUID characteristic, int status, byte[] value) {
+		GattOperation completed;
+		List<GattOperation> failed;
+		synchronized (this) {
+			if (mCurrent == null || mCurrent.GetType() != type
+					|| (characteristic != null && !characteristic.equals(mCurrent.GetCharacteristicUuid()))) {
+				Log.d(TAG, "unexpected completion: " + type + " " + characteristic);
+				return;
+			}
+			completed = mCurrent;
+			mCurrent = null;
+			CancelTimeout();
+			mMetrics.OnOperationComplete(completed, status == BleGattLink.GATT_SUCCESS,
+					SystemClock.elapsedRealtimeNanos() - mCurrentStart);
+			// 無線を遊ばせないよう、完了通知より先に次の操作を発行する
+			failed = ExecuteNext();
+		}
+		completed.Complete(status, value);
+		CompleteFailed(failed);
+	}
+
+	/**
+	 * 全ての操作を破棄する
+	 */
+	void Clear() {
+		LinkedList<GattOperation> pending;
+		synchronized (this) {
+			CancelTimeout();
+			pending = new LinkedList<GattOperation>(mQueue);
+			if (mCurrent != null) {
+				pending.addFirst(mCurrent);
+			}
+			mQueue.clear();
+			mCurrent = null;
+			mLink = null;
+		}
+		for (GattOperation operation : pending) {
+			operation.Complete(BleGattLink.GATT_FAILURE, null);
+		}
+	}
+
+	/**
+	 * タイムアウト時処理
+	 * @param sequence タイムアウトした操作の通し番号
+	 */
+	private void OnTimeout(long sequence) {
+		GattOperation timedOut;
+		List<GattOperation> failed;
+		synchronized (this) {
+			// 取り消す前に取り出されていたタイムアウトは、完了済みの操作のもの
+			if (mCurrent == null || mSequence != sequence) {
+				return;
+			}
+			Log.d(TAG, "operation timeout: " + mCurrent.GetType());
+			timedOut = mCurrent;
+			mCurrent = null;
+			mTimeout = null;
+			failed = ExecuteNext();
+		}
+		mMetrics.OnOperationTimeout();
+		timedOut.Complete(BleGattLink.GATT_FAILURE, null);
+		CompleteFailed(failed);
+	}
+
+	/**
+	 * 実行中の操作のタイムアウトを取り消す
+	 */
+	private void CancelTimeout() {
+		if (mTimeout != null) {
+			mHandler.removeCallbacks(mTimeout);
+			mTimeout = null;
+		}
+	}
+
+	/**
+	 * 次の操作を発行する
+	 * 発行に失敗した操作は飛ばして次を試す
+	 * @return 発行に失敗した操作(なければnull)
+	 */
+	private List<GattOperation> ExecuteNext() {
+		List<GattOperation> failed = null;
+		while (mCurrent == null && !mQueue.isEmpty()) {
+			GattOperation operation = mQueue.poll();
+			if (mLink != null && operation.Execute(mLink)) {
+				mCurrent = operation;
+				mCurrentStart = SystemClock.elapsedRealtimeNanos();
+				mTimeout = new TimeoutRunnable(++mSequence);
+				mHandler.postDelayed(mTimeout, OPERATION_TIMEOUT);
+			} else {
+				Log.d(TAG, "operation failed to start: " + operation.GetType());
+				if (failed == null) {
+					failed = new ArrayList<GattOperation>();
+				}
+				failed.add(operation);
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * 発行に失敗した操作に失敗を通知する
+	 * @param failed
+	 */
+	private void CompleteFailed(List<GattOperation> failed) {
+		if (failed == null) {
+			return;
+		}
+		for (GattOperation operation : failed) {
+			mMetrics.OnOperationComplete(operation, false, 0);
+			operation.Complete(BleGattLink.GATT_FAILURE, null);
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package com.scarviz.sampleble;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * GATTプロファイルクラス
+ * 接続時に通知/Indicationを有効にする、または読み取るキャラクタリスティックの一覧を保持する
+ * データの送受信に使うキャラクタリスティック(stream)は1つだけで、フレーム形式と圧縮はこれにだけ使う
+ *
+ * 定義(JSON)：
+ * {"services": [{"uuid": "...", "characteristics": [
+ *     {"uuid": "...", "name": "...", "stream": true, "notify": true, "indicate": false, "read": false, "poll": 0}]}]}
+ * pollは接続中に定期的に読み取る間隔(ms)。0の場合は読み取らない。streamには使えない
+ */
+public class GattProfile {
+	private final static String TAG = "GattProfile";
+
+	/** 接続時に通知を有効にする */
+	public final static int MODE_NOTIFY = 0x01;
+	/** 接続時にIndicationを有効にする */
+	public final static int MODE_INDICATE = 0x02;
+	/** 接続時に読み取る */
+	public final static int MODE_READ = 0x04;
+
+	/**
+	 * キャラクタリスティックの定義
+	 */
+	public static class Entry {
+		public final UUID mService;
+		public final UUID mUuid;
+		public final String mName;
+		/** MODE_*の組み合わせ */
+		public final int mMode;
+		/** データの送受信に使うかどうか */
+		public final boolean mStream;
+		/** 定期的に読み取る間隔(ms)。0の場合は読み取らない */
+		public final long mPollInterval;
+
+		Entry(UUID service, UUID uuid, String name, int mode, boolean stream, long pollInterval) {
+			mService = service;
+			mUuid = uuid;
+			mName = name;
+			mMode = mode;
+			mStream = stream;
+			mPollInterval = pollInterval;
+		}
+
+		/**
+		 * 通知またはIndicationを受け取るかどうか
+		 * @return
+		 */
+		public boolean IsSubscribed() {
+			return (mMode & (MODE_NOTIFY | MODE_INDICATE)) != 0;
+		}
+	}
+
+	private final Entry[] mEntries;
+	private final Entry mStream;
+
+	/**
+	 * コンストラクタ
+	 * @param entries
+	 */
+	private GattProfile(Entry[] entries) {
+		mEntries = entries;
+		Entry stream = null;
+		for (Entry entry : entries) {
+			if (entry.mStream) {
+				stream = entry;
+				break;
+			}
+		}
+		mStream = stream;
+	}
+
+	/**
+	 * 既定のプロファイルを生成する
+	 * 対象のキャラクタリスティック1つだけに通知を設定する
+	 * @return
+	 */
+	public static GattProfile CreateDefault() {
+		return new GattProfile(new Entry[] {
+				new Entry(GattConnection.DEVICE_SERVICE, GattConnection.DEVICE_CHARACTERISTIC, "stream",
+						MODE_NOTIFY, true, 0)});
+	}
+
+	/**
+	 * リソースからプロファイルを読み込む
+	 * @param context
+	 * @param resId R.raw.*
+	 * @return 読み込めない場合null
+	 */
+	public static GattProfile Load(Context context, int resId) {
+		try {
+			InputStream in = context.getResources().openRawResource(resId);
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[1024];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+				return Parse(new String(out.toByteArray(), "UTF-8"));
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (JSONException e) {
+			Log.d(TAG, "invalid profile: " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			// UUIDの形式が不正
+			Log.d(TAG, "invalid profile: " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * JSONからプロファイルを生成する
+	 * @param json
+	 * @return
+	 * @throws JSONException streamのキャラクタリスティックがない場合も含む
+	 */
+	public static GattProfile Parse(String json) throws JSONException {
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		JSONArray services = new JSONObject(json).getJSONArray("services");
+		for (int i = 0; i < services.length(); i++) {
+			JSONObject service = services.getJSONObject(i);
+			UUID serviceUuid = UUID.fromString(service.getString("uuid"));
+			JSONArray characteristics = service.getJSONArray("characteristics");
+			for (int j = 0; j < characteristics.length(); j++) {
+				JSONObject characteristic = characteristics.getJSONObject(j);
+				int mode = (characteristic.optBoolean("notify") ? MODE_NOTIFY : 0)
+						| (characteristic.optBoolean("indicate") ? MODE_INDICATE : 0)
+						| (characteristic.optBoolean("read") ? MODE_READ : 0);
+				String uuid = characteristic.getString("uuid");
+				boolean stream = characteristic.optBoolean("stream");
+				int poll = characteristic.optInt("poll", 0);
+				if (poll < 0 || (stream && 0 < poll)) {
+					// streamの値はフレームとして組み立てるので、読み取った値は混ぜられない
+					throw new JSONException("invalid poll interval: " + uuid);
+				}
+				entries.add(new Entry(serviceUuid, UUID.fromString(uuid),
+						characteristic.optString("name", uuid), mode, stream, poll));
+			}
+		}
+		GattProfile profile = new GattProfile(entries.toArray(new Entry[entries.size()]));
+		if (profile.mStream == null) {
+			throw new JSONException("no stream characteristic");
+		}
+		return profile;
+	}
+
+	/**
+	 * キャラクタリスティックの定義の一覧を取得する
+	 * @return
+	 */
+	public Entry[] GetEntries() {
+		return mEntries;
+	}
+
+	/**
+	 * 定義を取得する
+	 * @param index
+	 * @return
+	 */
+	public Entry Get(int index) {
+		return mEntries[index];
+	}
+
+	/**
+	 * 定期的に読み取るキャラクタリスティックの番号の一覧を取得する
+	 * @return
+	 */
+	public int[] GetPolledIndexes() {
+		int count = 0;
+		for (Entry entry : mEntries) {
+			if (0 < entry.mPollInterval) {
+				count++;
+			}
+		}
+		int[] indexes = new int[count];
+		count = 0;
+		for (int i = 0; i < mEntries.length; i++) {
+			if (0 < mEntries[i].mPollInterval) {
+				indexes[count++] = i;
+			}
+		}
+		return indexes;
+	}
+
+	/**
+	 * データの送受信に使うキャラクタリスティックを取得する
+	 * @return
+	 */
+	public Entry GetStream() {
+		return mStream;
+	}
+
+	/**
+	 * 通知を受け取るキャラクタリスティックの番号を取得する
+	 * 通知ごとに呼ばれるので、UUIDを生成せずに比べる
+	 * @param uuidMsb
+	 * @param uuidLsb
+	 * @return 定義にない場合-1
+	 */
+	public int IndexOf(long uuidMsb, long uuidLsb) {
+		for (int i = 0; i < mEntries.length; i++) {
+			UUID uuid = mEntries[i].mUuid;
+			if (uuid.getMostSignificantBits() == uuidMsb && uuid.getLeastSignificantBits() == uuidLsb) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,271 @@
+package com.scarviz.sampleble;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 定期読み取りスケジューラクラス
+ * 通知に対応していないキャラクタリスティックを、プロファイルのpoll間隔で全ての接続から読み取る
+ * ・1回の処理で発行する読み取り数に上限を設け、先頭にする接続を毎回ずらして公平に回す
+ * ・接続ごとに同時に1件だけ読み取り、間隔内に通知や読み取りで新しい値が届いていれば読み取らない
+ * ・GATT操作や通知が溜まっている接続は間隔を広げ、通知の処理を待たせない
+ * 処理は全てBluetoothのワーカースレッドで行う
+ */
+public class GattReadScheduler {
+	private final static String TAG = "GattReadScheduler";
+
+	/** 1回の処理で発行する読み取りの最大数(全接続の合計) */
+	private static final int MAX_READS_PER_TICK = 4;
+	/** 待っているGATT操作がこの数以上ある接続は混んでいるとみなす */
+	private static final int SATURATED_OPERATIONS = 2;
+	/** 読み出し待ちの通知がこの数以上ある接続は混んでいるとみなす */
+	private static final int SATURATED_NOTIFICATIONS = 64;
+	/** 混んでいる場合に読み取りの間隔を広げる最大倍率 */
+	private static final int MAX_BACKOFF = 8;
+	/** 処理の最小間隔(ms) */
+	private static final long MIN_TICK_INTERVAL = 20;
+
+	/**
+	 * 接続ごとの読み取り状態
+	 */
+	private class Poller {
+		final GattConnection mConnection;
+		/** 読み取るキャラクタリスティックの番号(GattProfile.IndexOf) */
+		final int[] mIndexes;
+		/** 次に読み取る時刻(elapsedRealtime) */
+		final long[] mNextTimes;
+		/** 間隔の倍率(混んでいると倍にし、空いていると半分に戻す) */
+		int mBackoff = 1;
+		boolean mReading;
+
+		Poller(GattConnection connection, int[] indexes) {
+			mConnection = connection;
+			mIndexes = indexes;
+			mNextTimes = new long[indexes.length];
+		}
+
+		/**
+		 * 読み取り間隔を取得する
+		 * @param i
+		 * @return
+		 */
+		long Interval(int i) {
+			return mConnection.GetProfile().Get(mIndexes[i]).mPollInterval * mBackoff;
+		}
+
+		/**
+		 * 読み取り完了時処理(GATTのコールバックスレッド)
+		 */
+		final GattOperation.OnCompleteListener mReadListener = new GattOperation.OnCompleteListener() {
+			@Override
+			public void onComplete(GattOperation operation, final int status, byte[] value) {
+				if (status == BleGattLink.GATT_SUCCESS && value != null) {
+					// 読み取った値は通知と同じ経路で処理する
+					mConnection.OnNotification(operation.GetCharacteristicUuid().getMostSignificantBits(),
+							operation.GetCharacteristicUuid().getLeastSignificantBits(), value, value.length);
+				}
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						mReading = false;
+						if (status == BleGattLink.GATT_SUCCESS) {
+							mBackoff = Math.max(1, mBackoff / 2);
+						} else {
+							mFailed.incrementAndGet();
+							mBackoff = Math.min(MAX_BACKOFF, mBackoff * 2);
+						}
+						Wake();
+					}
+				});
+			}
+		};
+	}
+
+	private final Handler mHandler;
+	private final Collection<GattConnection> mConnections;
+	private final HashMap<GattConnection, Poller> mPollers = new HashMap<GattConnection, Poller>();
+	/** 最初に回す接続の位置(毎回ずらす) */
+	private int mCursor;
+
+	/** 統計(失敗は読み取り結果のコールバックから、その他はワーカースレッドから数え、どのスレッドからでも読む) */
+	private final AtomicLong mReads = new AtomicLong();
+	private final AtomicLong mSuperseded = new AtomicLong();
+	private final AtomicLong mDeferred = new AtomicLong();
+	private final AtomicLong mFailed = new AtomicLong();
+
+	/**
+	 * コンストラクタ
+	 * @param handler Bluetoothのワーカースレッドのハンドラ
+	 * @param connections 接続の一覧(変更はそのまま反映される)
+	 */
+	GattReadScheduler(Handler handler, Collection<GattConnection> connections) {
+		mHandler = handler;
+		mConnections = connections;
+	}
+
+	/**
+	 * すぐに次の処理を行う
+	 * 接続の設定が済んだ時や読み取りが終わった時に呼ぶ(どのスレッドからでもよい)
+	 */
+	public void Wake() {
+		mHandler.removeCallbacks(mTickRunnable);
+		mHandler.post(mTickRunnable);
+	}
+
+	/**
+	 * 停止する
+	 */
+	public void Stop() {
+		mHandler.removeCallbacks(mTickRunnable);
+	}
+
+	/**
+	 * 読み取り数、新しい値があって省いた数、混んでいて延ばした数を文字列で取得する
+	 * @return 読み取っていない場合null
+	 */
+	public String GetReport() {
+		long reads = mReads.get();
+		long superseded = mSuperseded.get();
+		long deferred = mDeferred.get();
+		long failed = mFailed.get();
+		if (reads + superseded + deferred + failed == 0) {
+			return null;
+		}
+		return "poll reads=" + reads + " superseded=" + superseded + " deferred=" + deferred
+				+ " failed=" + failed;
+	}
+
+	/**
+	 * 定期処理
+	 */
+	private final Runnable mTickRunnable = new Runnable() {
+		@Override
+		public void run() {
+			Tick();
+		}
+	};
+
+	/**
+	 * 期限の来た読み取りを発行し、次の期限に合わせて処理を予約する
+	 */
+	private void Tick() {
+		long now = SystemClock.elapsedRealtime();
+		ArrayList<Poller> ready = UpdatePollers();
+		if (ready.isEmpty()) {
+			return;
+		}
+
+		int budget = MAX_READS_PER_TICK;
+		long next = Long.MAX_VALUE;
+		int count = ready.size();
+		for (int n = 0; n < count; n++) {
+			Poller poller = ready.get((mCursor + n) % count);
+			if (poller.mReading) {
+				// 読み取りが終わったら呼ばれる
+				continue;
+			}
+			// 接続の中では一番遅れているものから読む
+			int due = -1;
+			for (int i = 0; i < poller.mIndexes.length; i++) {
+				long time = poller.mNextTimes[i];
+				if (time <= now && (due < 0 || time < poller.mNextTimes[due])) {
+					due = i;
+				}
+			}
+			if (due < 0) {
+				next = Math.min(next, Earliest(poller));
+				continue;
+			}
+			if (budget == 0) {
+				// 次の処理で先に回す
+				next = now;
+				continue;
+			}
+
+			GattConnection connection = poller.mConnection;
+			if (SATURATED_OPERATIONS <= connection.GetPendingOperations()
+					|| SATURATED_NOTIFICATIONS <= connection.GetPendingNotifications()) {
+				poller.mBackoff = Math.min(MAX_BACKOFF, poller.mBackoff * 2);
+				poller.mNextTimes[due] = now + poller.Interval(due);
+				mDeferred.incrementAndGet();
+				next = Math.min(next, Earliest(poller));
+				continue;
+			}
+			// 間隔内に通知(または前回の読み取り)で値が届いていれば、その時刻から数え直す
+			long interval = poller.Interval(due);
+			long last = connection.GetLastValueTime(poller.mIndexes[due]);
+			if (0 < last && now < last + interval) {
+				poller.mNextTimes[due] = last + interval;
+				mSuperseded.incrementAndGet();
+				next = Math.min(next, Earliest(poller));
+				continue;
+			}
+
+			GattProfile.Entry entry = connection.GetProfile().Get(poller.mIndexes[due]);
+			poller.mReading = true;
+			poller.mNextTimes[due] = now + interval;
+			budget--;
+			mReads.incrementAndGet();
+			connection.Read(entry.mService, entry.mUuid, poller.mReadListener);
+		}
+		mCursor = (mCursor + 1) % count;
+
+		if (next != Long.MAX_VALUE) {
+			mHandler.postDelayed(mTickRunnable, Math.max(MIN_TICK_INTERVAL, next - now));
+		}
+	}
+
+	/**
+	 * 設定の済んだ接続に合わせて読み取り状態を作り直す
+	 * @return 読み取り対象のある接続の読み取り状態
+	 */
+	private ArrayList<Poller> UpdatePollers() {
+		ArrayList<Poller> ready = new ArrayList<Poller>();
+		for (GattConnection connection : mConnections) {
+			if (!connection.IsProfileReady()) {
+				continue;
+			}
+			Poller poller = mPollers.get(connection);
+			if (poller == null) {
+				int[] indexes = connection.GetPolledIndexes();
+				if (indexes.length == 0) {
+					continue;
+				}
+				// 接続時の読み取りや通知で値が届いていれば、最初の読み取りは省かれる
+				poller = new Poller(connection, indexes);
+				mPollers.put(connection, poller);
+			}
+			ready.add(poller);
+		}
+		// 切断した接続の状態は捨てる(再接続したら作り直す)
+		Iterator<GattConnection> iterator = mPollers.keySet().iterator();
+		while (iterator.hasNext()) {
+			GattConnection connection = iterator.next();
+			if (!connection.IsProfileReady() || !mConnections.contains(connection)) {
+				Log.d(TAG, connection.GetAddress() + " stop polling");
+				iterator.remove();
+			}
+		}
+		return ready;
+	}
+
+	/**
+	 * 次に読み取る一番早い時刻を取得する
+	 * @param poller
+	 * @return
+	 */
+	private static long Earliest(Poller poller) {
+		long earliest = Long.MAX_VALUE;
+		for (long time : poller.mNextTimes) {
+			earliest = Math.min(earliest, time);
+		}
+		return earliest;
+	}
+}
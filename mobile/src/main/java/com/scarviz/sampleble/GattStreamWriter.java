@@ -0,0 +1,186 @@
+package com.scarviz.sampleble;
+
+import android.os.SystemClock;
+
+import java.util.UUID;
+
+/**
+ * ストリーム書き込みクラス
+ * 任意長のデータをMTUに合わせて分割し、GATT操作キューへ流し込む
+ */
+public class GattStreamWriter implements GattOperation.OnCompleteListener {
+	/** ATTヘッダ長(opcode + handle) */
+	public static final int ATT_HEADER_SIZE = 3;
+	/** Write Without Responseで同時にキューへ積んでおく最大数 */
+	private static final int NO_RESPONSE_WINDOW = 4;
+	/** フレーム形式で送らない場合のフラグ */
+	public static final int UNFRAMED = -1;
+
+	/**
+	 * 送信完了リスナー
+	 */
+	public interface OnWriteListener {
+		/**
+		 * 送信完了時処理
+		 * @param writer
+		 * @param success
+		 */
+		void onWriteComplete(GattStreamWriter writer, boolean success);
+	}
+
+	private final GattConnection mConnection;
+	private final UUID mServiceUuid;
+	private final UUID mCharacteristicUuid;
+	private final boolean mWithResponse;
+	private final PayloadFragmenter mFragmenter;
+	private final OnWriteListener mListener;
+
+	private int mInFlight;
+	private int mWrittenBytes;
+	private boolean mFinished;
+	private boolean mFailed;
+	private long mStartTime;
+	private long mElapsed;
+
+	/**
+	 * コンストラクタ
+	 * @param connection
+	 * @param serviceUuid
+	 * @param characteristicUuid
+	 * @param data
+	 * @param withResponse 制御メッセージはtrue(Write With Response)、大量データはfalse
+	 * @param frameFlags MessageFrame形式で送る場合に全フレームに付けるフラグ(圧縮方式等)。送らない場合UNFRAMED
+	 * @param listener
+	 */
+	public GattStreamWriter(GattConnection connection, UUID serviceUuid, UUID characteristicUuid,
+							byte[] data, boolean withResponse, int frameFlags, OnWriteListener listener) {
+		mConnection = connection;
+		mServiceUuid = serviceUuid;
+		mCharacteristicUuid = characteristicUuid;
+		mWithResponse = withResponse;
+		mFragmenter = frameFlags != UNFRAMED
+				? new PayloadFragmenter(data, connection.GetMtu() - ATT_HEADER_SIZE,
+						connection.NextMessageSequence(), frameFlags)
+				: new PayloadFragmenter(data, connection.GetMtu() - ATT_HEADER_SIZE);
+		mListener = listener;
+	}
+
+	/**
+	 * 送信を開始する
+	 */
+	public void Start() {
+		synchronized (this) {
+			mStartTime = SystemClock.elapsedRealtime();
+		}
+		// フレーム形式の場合は長さ0でもフレームを1つ送る
+		if (!mFragmenter.HasNext()) {
+			synchronized (this) {
+				Finish();
+			}
+			if (mListener != null) {
+				mListener.onWriteComplete(this, true);
+			}
+			return;
+		}
+		Fill();
+	}
+
+	/**
+	 * 書き込み済みバイト数(フレーム形式の場合はヘッダ込み)を取得する
+	 * @return
+	 */
+	public synchronized int GetWrittenBytes() {
+		return mWrittenBytes;
+	}
+
+	/**
+	 * 送信にかかった時間(ms)を取得する
+	 * @return
+	 */
+	public synchronized long GetElapsed() {
+		return mFinished ? mElapsed : SystemClock.elapsedRealtime() - mStartTime;
+	}
+
+	/**
+	 * 送信速度(bytes/sec)を取得する
+	 * @return
+	 */
+	public synchronized long GetBytesPerSecond() {
+		long elapsed = GetElapsed();
+		if (elapsed <= 0) {
+			return mWrittenBytes * 1000L;
+		}
+		return mWrittenBytes * 1000L / elapsed;
+	}
+
+	/**
+	 * 送信が成功で終わったかどうか
+	 * @return
+	 */
+	public synchronized boolean IsSucceeded() {
+		return mFinished && !mFailed;
+	}
+
+	/**
+	 * 書き込み完了時処理(GATT操作キューから呼ばれる)
+	 * @param operation
+	 * @param status
+	 * @param value
+	 */
+	@Override
+	public void onComplete(GattOperation operation, int status, byte[] value) {
+		boolean finished;
+		synchronized (this) {
+			mInFlight--;
+			if (mFinished) {
+				return;
+			}
+			if (status == BleGattLink.GATT_SUCCESS) {
+				mWrittenBytes += operation.GetValueLength();
+			} else {
+				mFailed = true;
+			}
+			finished = mFailed || (mInFlight == 0 && !mFragmenter.HasNext());
+			if (finished) {
+				Finish();
+			}
+		}
+		if (finished) {
+			if (mListener != null) {
+				mListener.onWriteComplete(this, IsSucceeded());
+			}
+			return;
+		}
+		Fill();
+	}
+
+	/**
+	 * 送信を終了する
+	 */
+	private void Finish() {
+		mFinished = true;
+		mElapsed = SystemClock.elapsedRealtime() - mStartTime;
+	}
+
+	/**
+	 * 送信ウィンドウが空いている分だけ分割データをキューに積む
+	 * Write With Responseは1件ずつ、Write Without ResponseはNO_RESPONSE_WINDOW件まで先行させる
+	 */
+	private void Fill() {
+		int window = mWithResponse ? 1 : NO_RESPONSE_WINDOW;
+		int writeType = mWithResponse
+				? BleGattLink.WRITE_TYPE_DEFAULT
+				: BleGattLink.WRITE_TYPE_NO_RESPONSE;
+		while (true) {
+			byte[] chunk;
+			synchronized (this) {
+				if (mFinished || mInFlight >= window || !mFragmenter.HasNext()) {
+					return;
+				}
+				chunk = mFragmenter.Next();
+				mInFlight++;
+			}
+			mConnection.Enqueue(GattOperation.Write(mServiceUuid, mCharacteristicUuid, chunk, writeType, this));
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.scarviz.sampleble;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 遅延ヒストグラムクラス
+ * マイクロ秒単位の2のべき乗区切りで件数を数える
+ * 記録はロックを取らないので、GATTのコールバックスレッドから直接呼んでよい
+ */
+public class LatencyHistogram {
+	/** 区間の数(2^0 us ～ 2^31 us 以上) */
+	public static final int BUCKET_COUNT = 32;
+
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mTotalMicros = new AtomicLong();
+	private final AtomicLong mMaxMicros = new AtomicLong();
+
+	/**
+	 * 遅延を記録する
+	 * @param nanos
+	 */
+	public void Record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		mBuckets.incrementAndGet(BucketOf(micros));
+		mCount.incrementAndGet();
+		mTotalMicros.addAndGet(micros);
+		long max = mMaxMicros.get();
+		while (max < micros && !mMaxMicros.compareAndSet(max, micros)) {
+			max = mMaxMicros.get();
+		}
+	}
+
+	/**
+	 * 記録した件数を取得する
+	 * @return
+	 */
+	public long GetCount() {
+		return mCount.get();
+	}
+
+	/**
+	 * 平均(us)を取得する
+	 * @return
+	 */
+	public long GetMeanMicros() {
+		long count = mCount.get();
+		return count == 0 ? 0 : mTotalMicros.get() / count;
+	}
+
+	/**
+	 * 最大(us)を取得する
+	 * @return
+	 */
+	public long GetMaxMicros() {
+		return mMaxMicros.get();
+	}
+
+	/**
+	 * 区間ごとの件数を取得する
+	 * @param bucket
+	 * @return
+	 */
+	public long GetBucketCount(int bucket) {
+		return mBuckets.get(bucket);
+	}
+
+	/**
+	 * パーセンタイル(us)を取得する
+	 * 該当する区間の上限を返すので、実際の値以上になる
+	 * @param percentile 0～100
+	 * @return
+	 */
+	public long GetPercentileMicros(double percentile) {
+		long count = 0;
+		long[] buckets = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = mBuckets.get(i);
+			count += buckets[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets[i];
+			if (rank <= seen) {
+				return Math.min(UpperBound(i), mMaxMicros.get());
+			}
+		}
+		return mMaxMicros.get();
+	}
+
+	/**
+	 * 記録を消去する
+	 */
+	public void Reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mBuckets.set(i, 0);
+		}
+		mCount.set(0);
+		mTotalMicros.set(0);
+		mMaxMicros.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + GetCount() + " mean=" + GetMeanMicros() + "us p50=" + GetPercentileMicros(50)
+				+ "us p99=" + GetPercentileMicros(99) + "us max=" + GetMaxMicros() + "us";
+	}
+
+	/**
+	 * 値が入る区間を取得する
+	 * @param micros
+	 * @return
+	 */
+	static int BucketOf(long micros) {
+		int bucket = 63 - Long.numberOfLeadingZeros(micros | 1);
+		return Math.min(bucket, BUCKET_COUNT - 1);
+	}
+
+	/**
+	 * 区間の上限(us)を取得する
+	 * @param bucket
+	 * @return
+	 */
+	static long UpperBound(int bucket) {
+		return (1L << (bucket + 1)) - 1;
+	}
+}
@@ -0,0 +1,158 @@
+package com.scarviz.sampleble;
+
+/**
+ * メッセージフレーム形式クラス
+ * 1回の書き込み/通知に収まらないメッセージを分割して送るためのヘッダを定義する
+ *
+ * 全フレーム共通(4byte)：フラグ(1) メッセージ通し番号(1) メッセージ内のオフセット(2, LE)
+ * 先頭フレームのみ追加(4byte)：メッセージ長(2, LE) メッセージ全体のCRC-16/CCITT(2, LE)
+ * フラグのbit4-5には圧縮方式(PayloadCodecs.CODEC_*)を入れる。長さとCRCは圧縮後のデータのもの
+ */
+public class MessageFrame {
+	/** フラグ：メッセージの先頭フレーム */
+	public static final int FLAG_FIRST = 0x01;
+	/** フラグ：メッセージの最後のフレーム */
+	public static final int FLAG_LAST = 0x02;
+	/** フラグ：制御メッセージ(圧縮方式の取り決め等。アプリには渡さない) */
+	public static final int FLAG_CONTROL = 0x04;
+	/** フラグ内の圧縮方式の位置 */
+	public static final int CODEC_SHIFT = 4;
+	/** フラグ内の圧縮方式のマスク */
+	public static final int CODEC_MASK = 0x30;
+
+	/** 共通ヘッダ長 */
+	public static final int HEADER_SIZE = 4;
+	/** 先頭フレームのヘッダ長 */
+	public static final int FIRST_HEADER_SIZE = HEADER_SIZE + 4;
+	/** メッセージの最大長(長さとオフセットは16bit) */
+	public static final int MAX_MESSAGE_LENGTH = 0xFFFF;
+
+	/** CRC-16/CCITTの表 */
+	private static final char[] CRC_TABLE = new char[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i << 8;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+			}
+			CRC_TABLE[i] = (char) crc;
+		}
+	}
+
+	private MessageFrame() {
+	}
+
+	/**
+	 * ヘッダ長を取得する
+	 * @param flags
+	 * @return
+	 */
+	public static int HeaderSize(int flags) {
+		return (flags & FLAG_FIRST) != 0 ? FIRST_HEADER_SIZE : HEADER_SIZE;
+	}
+
+	/**
+	 * ヘッダを書き込む
+	 * @param frame
+	 * @param flags
+	 * @param sequence メッセージ通し番号(下位8bitを使う)
+	 * @param offset
+	 * @param length メッセージ長(先頭フレームのみ)
+	 * @param crc メッセージ全体のCRC(先頭フレームのみ)
+	 * @return ヘッダ長
+	 */
+	public static int WriteHeader(byte[] frame, int flags, int sequence, int offset, int length, int crc) {
+		frame[0] = (byte) flags;
+		frame[1] = (byte) sequence;
+		frame[2] = (byte) offset;
+		frame[3] = (byte) (offset >>> 8);
+		if ((flags & FLAG_FIRST) == 0) {
+			return HEADER_SIZE;
+		}
+		frame[4] = (byte) length;
+		frame[5] = (byte) (length >>> 8);
+		frame[6] = (byte) crc;
+		frame[7] = (byte) (crc >>> 8);
+		return FIRST_HEADER_SIZE;
+	}
+
+	/**
+	 * フラグを読み込む
+	 * @param frame
+	 * @return
+	 */
+	public static int GetFlags(byte[] frame) {
+		return frame[0] & 0xFF;
+	}
+
+	/**
+	 * フラグから圧縮方式を取り出す
+	 * @param flags
+	 * @return PayloadCodecs.CODEC_*
+	 */
+	public static int GetCodec(int flags) {
+		return (flags & CODEC_MASK) >>> CODEC_SHIFT;
+	}
+
+	/**
+	 * フラグに圧縮方式を設定する
+	 * @param flags
+	 * @param codec PayloadCodecs.CODEC_*
+	 * @return
+	 */
+	public static int WithCodec(int flags, int codec) {
+		return (flags & ~CODEC_MASK) | (codec << CODEC_SHIFT & CODEC_MASK);
+	}
+
+	/**
+	 * メッセージ通し番号を読み込む
+	 * @param frame
+	 * @return 0～255
+	 */
+	public static int GetSequence(byte[] frame) {
+		return frame[1] & 0xFF;
+	}
+
+	/**
+	 * メッセージ内のオフセットを読み込む
+	 * @param frame
+	 * @return
+	 */
+	public static int GetOffset(byte[] frame) {
+		return (frame[2] & 0xFF) | (frame[3] & 0xFF) << 8;
+	}
+
+	/**
+	 * メッセージ長を読み込む(先頭フレームのみ)
+	 * @param frame
+	 * @return
+	 */
+	public static int GetLength(byte[] frame) {
+		return (frame[4] & 0xFF) | (frame[5] & 0xFF) << 8;
+	}
+
+	/**
+	 * メッセージ全体のCRCを読み込む(先頭フレームのみ)
+	 * @param frame
+	 * @return
+	 */
+	public static int GetCrc(byte[] frame) {
+		return (frame[6] & 0xFF) | (frame[7] & 0xFF) << 8;
+	}
+
+	/**
+	 * CRC-16/CCITT(初期値0xFFFF)を計算する
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static int Crc16(byte[] data, int offset, int length) {
+		int crc = 0xFFFF;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			crc = (crc << 8 ^ CRC_TABLE[(crc >>> 8 ^ data[i]) & 0xFF]) & 0xFFFF;
+		}
+		return crc;
+	}
+}
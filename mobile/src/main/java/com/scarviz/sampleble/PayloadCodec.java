@@ -0,0 +1,42 @@
+package com.scarviz.sampleble;
+
+/**
+ * ペイロード圧縮のインタフェース
+ * 符号化したデータの先頭には元の長さ(varint)を置く(PayloadCodecs.DecodedLengthで読める)
+ */
+public interface PayloadCodec {
+	/**
+	 * 圧縮方式のIDを取得する
+	 * @return PayloadCodecs.CODEC_DELTA_VARINT等
+	 */
+	int GetId();
+
+	/**
+	 * 符号化後の最大長を取得する
+	 * @param length 元の長さ
+	 * @return
+	 */
+	int MaxEncodedLength(int length);
+
+	/**
+	 * 符号化する
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @param dst MaxEncodedLength以上の空きがあること
+	 * @param dstOffset
+	 * @return 符号化後の長さ
+	 */
+	int Encode(byte[] src, int offset, int length, byte[] dst, int dstOffset);
+
+	/**
+	 * 復号する
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @param dst PayloadCodecs.DecodedLength以上の空きがあること
+	 * @param dstOffset
+	 * @return 復号後の長さ。データが壊れている場合-1
+	 */
+	int Decode(byte[] src, int offset, int length, byte[] dst, int dstOffset);
+}
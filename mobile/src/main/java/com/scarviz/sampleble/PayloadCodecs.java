@@ -0,0 +1,166 @@
+package com.scarviz.sampleble;
+
+import java.util.Arrays;
+
+/**
+ * ペイロード圧縮方式クラス
+ * 圧縮方式のID、接続ごとの方式の取り決め(制御メッセージ)、varintの読み書きをまとめる
+ *
+ * 方式の取り決め：フレーム形式の制御メッセージ(MessageFrame.FLAG_CONTROL)で
+ * [CONTROL_CODEC_OFFER(1) 対応する方式のビットマスク(1) 返事が欲しいか(1)]を送り合い、
+ * 両方が対応する方式だけを使う。返事がない機器には圧縮せずに送る
+ */
+public class PayloadCodecs {
+	/** 圧縮方式：なし */
+	public static final int CODEC_NONE = 0;
+	/** 圧縮方式：16bit値の差分をvarintで符号化(センサー値向け) */
+	public static final int CODEC_DELTA_VARINT = 1;
+	/** 圧縮方式：LZ方式のブロック圧縮(文字列等の繰り返し向け) */
+	public static final int CODEC_LZ = 2;
+
+	/** この端末が復号できる方式のビットマスク */
+	public static final int SUPPORTED = 1 << CODEC_DELTA_VARINT | 1 << CODEC_LZ;
+
+	/** 制御メッセージ：対応する圧縮方式の通知 */
+	public static final int CONTROL_CODEC_OFFER = 0x01;
+	/** 対応する圧縮方式の通知の長さ */
+	public static final int CODEC_OFFER_LENGTH = 3;
+
+	private static final PayloadCodec DELTA_VARINT = new DeltaVarintCodec();
+	private static final PayloadCodec LZ = new LzBlockCodec();
+
+	private PayloadCodecs() {
+	}
+
+	/**
+	 * 圧縮方式を取得する
+	 * @param codec
+	 * @return 対応していない場合null
+	 */
+	public static PayloadCodec Get(int codec) {
+		switch (codec) {
+			case CODEC_DELTA_VARINT:
+				return DELTA_VARINT;
+			case CODEC_LZ:
+				return LZ;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * 圧縮方式が使えるかどうか
+	 * @param codecs 相手が対応する方式のビットマスク
+	 * @param codec
+	 * @return
+	 */
+	public static boolean IsAvailable(int codecs, int codec) {
+		return codec != CODEC_NONE && (codecs & SUPPORTED & 1 << codec) != 0;
+	}
+
+	/**
+	 * 符号化する
+	 * @param codec
+	 * @param data
+	 * @return 符号化後のデータ。対応していない方式、または小さくならない場合null
+	 */
+	public static byte[] Encode(int codec, byte[] data) {
+		PayloadCodec encoder = Get(codec);
+		if (encoder == null) {
+			return null;
+		}
+		byte[] encoded = new byte[encoder.MaxEncodedLength(data.length)];
+		int length = encoder.Encode(data, 0, data.length, encoded, 0);
+		if (data.length <= length) {
+			return null;
+		}
+		return Arrays.copyOf(encoded, length);
+	}
+
+	/**
+	 * 復号後の長さを読み込む
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @return データが壊れている場合-1
+	 */
+	public static int DecodedLength(byte[] src, int offset, int length) {
+		long value = ReadVarint(src, offset, offset + length);
+		return value < 0 ? -1 : (int) value;
+	}
+
+	/**
+	 * 対応する圧縮方式の通知を生成する
+	 * @param codecs 対応する方式のビットマスク
+	 * @param replyRequested 返事が欲しいかどうか
+	 * @return
+	 */
+	public static byte[] CreateOffer(int codecs, boolean replyRequested) {
+		return new byte[] {CONTROL_CODEC_OFFER, (byte) codecs, (byte) (replyRequested ? 1 : 0)};
+	}
+
+	/**
+	 * 対応する圧縮方式の通知かどうか
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static boolean IsOffer(byte[] data, int offset, int length) {
+		return CODEC_OFFER_LENGTH <= length && data[offset] == CONTROL_CODEC_OFFER;
+	}
+
+	/**
+	 * varintを書き込む(7bitずつ下位から、続きがある場合は最上位bitを立てる)
+	 * @param dst
+	 * @param offset
+	 * @param value 0以上
+	 * @return 書き込んだ後の位置
+	 */
+	static int WriteVarint(byte[] dst, int offset, int value) {
+		while ((value & ~0x7F) != 0) {
+			dst[offset++] = (byte) (value | 0x80);
+			value >>>= 7;
+		}
+		dst[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * varintを読み込む
+	 * 読み込んだ長さは上位32bitに、値は下位32bitに入れて返す
+	 * @param src
+	 * @param offset
+	 * @param end
+	 * @return 壊れている場合-1
+	 */
+	static long ReadVarint(byte[] src, int offset, int end) {
+		int value = 0;
+		for (int i = 0, shift = 0; shift < 35 && offset + i < end; i++, shift += 7) {
+			int b = src[offset + i];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value < 0 ? -1 : (long) (i + 1) << 32 | value;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * ReadVarintの結果から値を取り出す
+	 * @param result
+	 * @return
+	 */
+	static int VarintValue(long result) {
+		return (int) result;
+	}
+
+	/**
+	 * ReadVarintの結果から読み込んだ長さを取り出す
+	 * @param result
+	 * @return
+	 */
+	static int VarintSize(long result) {
+		return (int) (result >>> 32);
+	}
+}
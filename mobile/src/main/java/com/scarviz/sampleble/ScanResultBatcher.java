@@ -0,0 +1,209 @@
+package com.scarviz.sampleble;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * スキャン結果まとめ送りクラス
+ * スキャンのコールバックスレッドで受けた結果をバッファに溜め、
+ * UIスレッドへは1フレーム(または指定間隔)に1回だけまとめて渡す
+ */
+public class ScanResultBatcher implements BleScanListener {
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * まとめ受信リスナー(UIスレッドで呼ばれる)
+	 */
+	public interface OnScanBatchListener {
+		/**
+		 * スキャン結果受信時処理
+		 * 配列はこの呼び出しの間だけ有効
+		 * @param addresses
+		 * @param names
+		 * @param rssis
+		 * @param scanRecords
+		 * @param count
+		 */
+		void onScanBatch(String[] addresses, String[] names, int[] rssis, byte[][] scanRecords, int count);
+	}
+
+	private final Handler mHandler;
+	private final long mInterval;
+	private final OnScanBatchListener mListener;
+
+	/** スキャンスレッドが書き込むバッファ */
+	private String[] mAddresses = new String[INITIAL_CAPACITY];
+	private String[] mNames = new String[INITIAL_CAPACITY];
+	private int[] mRssis = new int[INITIAL_CAPACITY];
+	private byte[][] mScanRecords = new byte[INITIAL_CAPACITY][];
+	private int mCount;
+	/** UIスレッドが読み出すバッファ(書き込み側と入れ替える) */
+	private String[] mDrainAddresses = new String[INITIAL_CAPACITY];
+	private String[] mDrainNames = new String[INITIAL_CAPACITY];
+	private int[] mDrainRssis = new int[INITIAL_CAPACITY];
+	private byte[][] mDrainScanRecords = new byte[INITIAL_CAPACITY][];
+
+	private boolean mScheduled;
+	private Choreographer mChoreographer;
+
+	/**
+	 * フレームコールバック
+	 */
+	private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			Drain();
+		}
+	};
+
+	/**
+	 * 配信予約処理(UIスレッドで実行)
+	 */
+	private final Runnable mScheduleRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (mChoreographer == null) {
+				mChoreographer = Choreographer.getInstance();
+			}
+			mChoreographer.postFrameCallback(mFrameCallback);
+		}
+	};
+
+	/**
+	 * 配信処理(間隔指定時)
+	 */
+	private final Runnable mDrainRunnable = new Runnable() {
+		@Override
+		public void run() {
+			Drain();
+		}
+	};
+
+	/**
+	 * コンストラクタ
+	 * @param interval 配信間隔(ms)。0以下の場合は表示フレームごとに配信する
+	 * @param listener
+	 */
+	public ScanResultBatcher(long interval, OnScanBatchListener listener) {
+		mHandler = new Handler(Looper.getMainLooper());
+		mInterval = interval;
+		mListener = listener;
+	}
+
+	/**
+	 * デバイスが発見された時(スキャンのコールバックスレッド)
+	 * @param address
+	 * @param name
+	 * @param rssi
+	 * @param scanRecord
+	 */
+	@Override
+	public void onScanResult(String address, String name, int rssi, byte[] scanRecord) {
+		boolean schedule;
+		synchronized (this) {
+			if (mCount == mAddresses.length) {
+				Grow();
+			}
+			mAddresses[mCount] = address;
+			mNames[mCount] = name;
+			mRssis[mCount] = rssi;
+			mScanRecords[mCount] = scanRecord;
+			mCount++;
+
+			schedule = !mScheduled;
+			mScheduled = true;
+		}
+		if (schedule) {
+			if (0 < mInterval) {
+				mHandler.postDelayed(mDrainRunnable, mInterval);
+			} else {
+				mHandler.post(mScheduleRunnable);
+			}
+		}
+	}
+
+	/**
+	 * 溜まっている結果と配信予約を破棄する
+	 */
+	public void Clear() {
+		synchronized (this) {
+			for (int i = 0; i < mCount; i++) {
+				mAddresses[i] = null;
+				mNames[i] = null;
+				mScanRecords[i] = null;
+			}
+			mCount = 0;
+			mScheduled = false;
+		}
+		mHandler.removeCallbacks(mDrainRunnable);
+		mHandler.removeCallbacks(mScheduleRunnable);
+		if (mChoreographer != null) {
+			mChoreographer.removeFrameCallback(mFrameCallback);
+		}
+	}
+
+	/**
+	 * 溜まった結果をリスナーへ渡す(UIスレッド)
+	 */
+	private void Drain() {
+		String[] addresses;
+		String[] names;
+		int[] rssis;
+		byte[][] scanRecords;
+		int count;
+		synchronized (this) {
+			if (!mScheduled) {
+				return;
+			}
+			addresses = mAddresses;
+			names = mNames;
+			rssis = mRssis;
+			scanRecords = mScanRecords;
+			count = mCount;
+			// バッファを入れ替えて、配信中もスキャンスレッドが書き込めるようにする
+			if (mDrainAddresses.length < addresses.length) {
+				mDrainAddresses = new String[addresses.length];
+				mDrainNames = new String[addresses.length];
+				mDrainRssis = new int[addresses.length];
+				mDrainScanRecords = new byte[addresses.length][];
+			}
+			mAddresses = mDrainAddresses;
+			mNames = mDrainNames;
+			mRssis = mDrainRssis;
+			mScanRecords = mDrainScanRecords;
+			mDrainAddresses = addresses;
+			mDrainNames = names;
+			mDrainRssis = rssis;
+			mDrainScanRecords = scanRecords;
+			mCount = 0;
+			mScheduled = false;
+		}
+
+		mListener.onScanBatch(addresses, names, rssis, scanRecords, count);
+		for (int i = 0; i < count; i++) {
+			addresses[i] = null;
+			names[i] = null;
+			scanRecords[i] = null;
+		}
+	}
+
+	/**
+	 * 書き込みバッファを拡張する
+	 */
+	private void Grow() {
+		int capacity = mAddresses.length * 2;
+		String[] addresses = new String[capacity];
+		String[] names = new String[capacity];
+		int[] rssis = new int[capacity];
+		byte[][] scanRecords = new byte[capacity][];
+		System.arraycopy(mAddresses, 0, addresses, 0, mCount);
+		System.arraycopy(mNames, 0, names, 0, mCount);
+		System.arraycopy(mRssis, 0, rssis, 0, mCount);
+		System.arraycopy(mScanRecords, 0, scanRecords, 0, mCount);
+		mAddresses = addresses;
+		mNames = names;
+		mRssis = rssis;
+		mScanRecords = scanRecords;
+	}
+}
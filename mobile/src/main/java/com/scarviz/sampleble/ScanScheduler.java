@@ -0,0 +1,272 @@
+package com.scarviz.sampleble;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashSet;
+
+/**
+ * スキャンスケジューラクラス
+ * スキャン窓(window)とスキャン間隔(interval)でスキャンを間欠実行し、
+ * 新しい機器の発見数に応じてプロファイルを切り替える
+ */
+public class ScanScheduler {
+	private final static String TAG = "ScanScheduler";
+
+	/** プロファイル：常時スキャン(発見が早い) */
+	public final static int PROFILE_AGGRESSIVE = 0;
+	/** プロファイル：バランス */
+	public final static int PROFILE_BALANCED = 1;
+	/** プロファイル：省電力 */
+	public final static int PROFILE_LOW_POWER = 2;
+
+	/** プロファイルごとのスキャン窓(ms) */
+	private static final long[] SCAN_WINDOWS = {4000, 1000, 300};
+	/** プロファイルごとのスキャン間隔(ms)。窓と同じ場合は止めずにスキャンし続ける */
+	private static final long[] SCAN_INTERVALS = {4000, 3000, 3000};
+
+	/** 1窓でこの数以上の新しい機器が見つかったら1段階積極的にする */
+	private static final int BUSY_DISCOVERIES = 2;
+	/** この数の窓連続で新しい機器が見つからなければ1段階省電力にする */
+	private static final int IDLE_WINDOWS = 2;
+
+	/**
+	 * スキャンの開始/停止を行う無線
+	 */
+	public interface ScanRadio {
+		/**
+		 * スキャンを開始する
+		 * @return
+		 */
+		boolean StartRadioScan();
+
+		/**
+		 * スキャンを停止する
+		 */
+		void StopRadioScan();
+	}
+
+	/**
+	 * スケジュールのリスナー
+	 */
+	public interface OnScheduleListener {
+		/**
+		 * 最初の機器が見つかった時
+		 * @param elapsed スキャン開始からの時間(ms)
+		 */
+		void onFirstDevice(long elapsed);
+
+		/**
+		 * スキャン期間が終わった時
+		 */
+		void onScanFinished();
+	}
+
+	private final Handler mHandler;
+	private final ScanRadio mRadio;
+	private final OnScheduleListener mListener;
+
+	private int mProfile = PROFILE_AGGRESSIVE;
+	private boolean mAdaptive;
+	private boolean mRunning;
+	private boolean mRadioOn;
+	private long mStartTime;
+	private long mEndTime;
+	private int mIdleWindows;
+
+	/** スキャンスレッドから更新する値(mSeenで同期) */
+	private final HashSet<String> mSeen = new HashSet<String>();
+	private int mWindowDiscoveries;
+	private long mFirstDeviceTime = -1;
+
+	/**
+	 * 窓の切り替え処理(1つのRunnableを使い回す)
+	 */
+	private final Runnable mTickRunnable = new Runnable() {
+		@Override
+		public void run() {
+			Tick();
+		}
+	};
+
+	/**
+	 * コンストラクタ
+	 * @param handler
+	 * @param radio
+	 * @param listener
+	 */
+	public ScanScheduler(Handler handler, ScanRadio radio, OnScheduleListener listener) {
+		mHandler = handler;
+		mRadio = radio;
+		mListener = listener;
+	}
+
+	/**
+	 * スキャンを開始する
+	 * スキャン中に呼んだ場合は最初からやり直す
+	 * @param profile
+	 * @param duration スキャン全体の時間(ms)
+	 * @param adaptive 発見数に応じてプロファイルを切り替えるかどうか
+	 */
+	public synchronized void Start(int profile, long duration, boolean adaptive) {
+		StopInternal();
+		synchronized (mSeen) {
+			mSeen.clear();
+			mWindowDiscoveries = 0;
+			mFirstDeviceTime = -1;
+		}
+		mProfile = profile;
+		mAdaptive = adaptive;
+		mIdleWindows = 0;
+		mStartTime = SystemClock.elapsedRealtime();
+		mEndTime = mStartTime + duration;
+		mRunning = true;
+		Tick();
+	}
+
+	/**
+	 * スキャンを停止する
+	 */
+	public synchronized void Stop() {
+		StopInternal();
+	}
+
+	/**
+	 * スキャン中かどうか
+	 * @return
+	 */
+	public synchronized boolean IsRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * 現在のプロファイルを取得する
+	 * @return
+	 */
+	public synchronized int GetProfile() {
+		return mProfile;
+	}
+
+	/**
+	 * 最初の機器が見つかるまでの時間(ms)を取得する
+	 * @return まだ見つかっていない場合-1
+	 */
+	public long GetTimeToFirstDevice() {
+		synchronized (mSeen) {
+			return mFirstDeviceTime;
+		}
+	}
+
+	/**
+	 * 機器が見つかった時(スキャンのコールバックスレッド)
+	 * @param address
+	 */
+	public void OnDeviceFound(String address) {
+		long firstDeviceTime = -1;
+		synchronized (mSeen) {
+			if (!mSeen.add(address)) {
+				return;
+			}
+			mWindowDiscoveries++;
+			if (mFirstDeviceTime < 0) {
+				mFirstDeviceTime = SystemClock.elapsedRealtime() - mStartTime;
+				firstDeviceTime = mFirstDeviceTime;
+			}
+		}
+		if (0 <= firstDeviceTime) {
+			Log.d(TAG, "first device: " + firstDeviceTime + " ms");
+			mListener.onFirstDevice(firstDeviceTime);
+		}
+	}
+
+	/**
+	 * 窓の切り替え
+	 */
+	private void Tick() {
+		boolean finished = false;
+		synchronized (this) {
+			if (!mRunning) {
+				return;
+			}
+			long now = SystemClock.elapsedRealtime();
+			if (mEndTime <= now) {
+				StopInternal();
+				finished = true;
+			} else if (!mRadioOn) {
+				// 窓の開始
+				mRadioOn = mRadio.StartRadioScan();
+				PostTick(now, SCAN_WINDOWS[mProfile]);
+			} else {
+				// 窓の終了
+				Adapt();
+				long window = SCAN_WINDOWS[mProfile];
+				long interval = SCAN_INTERVALS[mProfile];
+				if (window < interval) {
+					mRadio.StopRadioScan();
+					mRadioOn = false;
+					PostTick(now, interval - window);
+				} else {
+					PostTick(now, window);
+				}
+			}
+		}
+		if (finished) {
+			mListener.onScanFinished();
+		}
+	}
+
+	/**
+	 * 次の切り替えを予約する(スキャン終了時刻を超えない)
+	 * @param now
+	 * @param delay
+	 */
+	private void PostTick(long now, long delay) {
+		mHandler.removeCallbacks(mTickRunnable);
+		mHandler.postDelayed(mTickRunnable, Math.min(delay, mEndTime - now));
+	}
+
+	/**
+	 * 直前の窓の発見数でプロファイルを切り替える
+	 */
+	private void Adapt() {
+		int discoveries;
+		synchronized (mSeen) {
+			discoveries = mWindowDiscoveries;
+			mWindowDiscoveries = 0;
+		}
+		if (!mAdaptive) {
+			return;
+		}
+
+		int profile = mProfile;
+		if (BUSY_DISCOVERIES <= discoveries) {
+			mIdleWindows = 0;
+			profile = Math.max(PROFILE_AGGRESSIVE, profile - 1);
+		} else if (discoveries == 0) {
+			mIdleWindows++;
+			if (IDLE_WINDOWS <= mIdleWindows) {
+				mIdleWindows = 0;
+				profile = Math.min(PROFILE_LOW_POWER, profile + 1);
+			}
+		} else {
+			mIdleWindows = 0;
+		}
+		if (profile != mProfile) {
+			Log.d(TAG, "profile " + mProfile + " -> " + profile);
+			mProfile = profile;
+		}
+	}
+
+	/**
+	 * スキャンを停止する(ロック取得済み)
+	 */
+	private void StopInternal() {
+		mHandler.removeCallbacks(mTickRunnable);
+		if (mRadioOn) {
+			mRadio.StopRadioScan();
+			mRadioOn = false;
+		}
+		mRunning = false;
+	}
+}
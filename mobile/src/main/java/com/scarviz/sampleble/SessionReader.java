@@ -0,0 +1,172 @@
+package com.scarviz.sampleble;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * セッション読み込みクラス
+ * SessionRecorderが書いたセグメントファイルを順に読み込む
+ * 読み込んだ値はフィールドに保持し、データの配列は使い回す
+ */
+public class SessionReader {
+	private final File mDir;
+	private final String mName;
+
+	private MappedByteBuffer mSegment;
+	private int mSegmentIndex = -1;
+
+	/** 読み込んだレコード */
+	private byte mType;
+	private long mTimestamp;
+	private int mDeviceId;
+	private long mUuidMsb;
+	private long mUuidLsb;
+	private int mArg;
+	private byte[] mData = new byte[32];
+	private int mLength;
+
+	/**
+	 * コンストラクタ
+	 * @param dir 保存先ディレクトリ
+	 * @param name セッション名
+	 */
+	public SessionReader(File dir, String name) {
+		mDir = dir;
+		mName = name;
+	}
+
+	/**
+	 * 次のレコードを読み込む
+	 * @return 最後まで読んだ場合false
+	 * @throws IOException
+	 */
+	public boolean Next() throws IOException {
+		while (true) {
+			if (mSegment == null && !OpenSegment(mSegmentIndex + 1)) {
+				return false;
+			}
+			int length = mSegment.remaining() < 4 ? 0 : mSegment.getInt();
+			if (length == 0) {
+				// このセグメントの終わり
+				mSegment = null;
+				continue;
+			}
+			if (length < SessionRecorder.RECORD_HEADER_SIZE || mSegment.remaining() < length) {
+				throw new IOException("broken record in segment " + mSegmentIndex);
+			}
+			mType = mSegment.get();
+			mTimestamp = mSegment.getLong();
+			mDeviceId = mSegment.getInt();
+			mUuidMsb = mSegment.getLong();
+			mUuidLsb = mSegment.getLong();
+			mArg = mSegment.getInt();
+			mLength = length - SessionRecorder.RECORD_HEADER_SIZE;
+			if (mData.length < mLength) {
+				mData = new byte[mLength];
+			}
+			mSegment.get(mData, 0, mLength);
+			return true;
+		}
+	}
+
+	/**
+	 * セグメントを開く
+	 * @param index
+	 * @return ファイルがない場合false
+	 * @throws IOException
+	 */
+	private boolean OpenSegment(int index) throws IOException {
+		File path = SessionRecorder.SegmentFile(mDir, mName, index);
+		if (!path.isFile()) {
+			return false;
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			mSegment = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+		mSegment.order(ByteOrder.LITTLE_ENDIAN);
+		if (mSegment.remaining() < SessionRecorder.FILE_HEADER_SIZE
+				|| mSegment.getInt() != SessionRecorder.MAGIC) {
+			throw new IOException("not a session file: " + path);
+		}
+		int version = mSegment.getInt();
+		if (version != SessionRecorder.VERSION) {
+			throw new IOException("unsupported version " + version + ": " + path);
+		}
+		mSegment.getInt();
+		mSegment.getInt();
+		mSegmentIndex = index;
+		return true;
+	}
+
+	/**
+	 * レコード種別を取得する
+	 * @return
+	 */
+	public byte GetType() {
+		return mType;
+	}
+
+	/**
+	 * 時刻(ns)を取得する
+	 * @return
+	 */
+	public long GetTimestamp() {
+		return mTimestamp;
+	}
+
+	/**
+	 * 機器IDを取得する
+	 * @return
+	 */
+	public int GetDeviceId() {
+		return mDeviceId;
+	}
+
+	/**
+	 * UUIDの上位を取得する
+	 * @return
+	 */
+	public long GetUuidMsb() {
+		return mUuidMsb;
+	}
+
+	/**
+	 * UUIDの下位を取得する
+	 * @return
+	 */
+	public long GetUuidLsb() {
+		return mUuidLsb;
+	}
+
+	/**
+	 * 引数を取得する
+	 * @return
+	 */
+	public int GetArg() {
+		return mArg;
+	}
+
+	/**
+	 * データを取得する
+	 * 次のレコードを読み込むと上書きされる
+	 * @return
+	 */
+	public byte[] GetData() {
+		return mData;
+	}
+
+	/**
+	 * データの長さを取得する
+	 * @return
+	 */
+	public int GetLength() {
+		return mLength;
+	}
+}
@@ -0,0 +1,150 @@
+package com.scarviz.sampleble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * シミュレータのBluetooth無線
+ * 登録したSimulatedPeripheralのアドバタイズとGATT接続をJVM上で再現する
+ * コールバックは全て1本のシミュレータスレッドから呼ぶ(実機のBinderスレッドに相当)
+ */
+public class SimulatedBleRadio implements BleRadio {
+	private final ScheduledExecutorService mExecutor;
+	private final CopyOnWriteArrayList<SimulatedPeripheral> mPeripherals =
+			new CopyOnWriteArrayList<SimulatedPeripheral>();
+	/** 接続中のGATT接続 */
+	private final CopyOnWriteArrayList<SimulatedGattLink> mLinks = new CopyOnWriteArrayList<SimulatedGattLink>();
+	/** リスナーごとのアドバタイズ処理 */
+	private final ConcurrentHashMap<BleScanListener, List<ScheduledFuture<?>>> mScans =
+			new ConcurrentHashMap<BleScanListener, List<ScheduledFuture<?>>>();
+
+	/**
+	 * コンストラクタ
+	 */
+	public SimulatedBleRadio() {
+		mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SimulatedBleRadio");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * 周辺機器を追加する
+	 * 追加した後のスキャンから見つかるようになる
+	 * @param peripheral
+	 * @return
+	 */
+	public SimulatedBleRadio AddPeripheral(SimulatedPeripheral peripheral) {
+		mPeripherals.add(peripheral);
+		return this;
+	}
+
+	/**
+	 * 電波の途切れを再現する
+	 * 機器を一定時間圏外にし、接続中のGATT接続を監視タイムアウトで切断する
+	 * @param address
+	 * @param duration 圏外の時間(ms)
+	 */
+	public void SimulateDropout(String address, long duration) {
+		SimulatedPeripheral peripheral = Find(address);
+		if (peripheral == null) {
+			return;
+		}
+		peripheral.SetOutOfRange(duration);
+		for (SimulatedGattLink link : mLinks) {
+			if (link.IsClosed()) {
+				mLinks.remove(link);
+			} else if (link.GetAddress().equalsIgnoreCase(address)) {
+				link.Drop();
+			}
+		}
+	}
+
+	/**
+	 * シミュレータを終了する
+	 */
+	public void Shutdown() {
+		mExecutor.shutdownNow();
+	}
+
+	@Override
+	public boolean IsEnabled() {
+		return !mExecutor.isShutdown();
+	}
+
+	@Override
+	public boolean StartScan(final BleScanListener listener) {
+		if (!IsEnabled() || mScans.containsKey(listener)) {
+			return false;
+		}
+		List<ScheduledFuture<?>> futures = new ArrayList<ScheduledFuture<?>>();
+		for (final SimulatedPeripheral peripheral : mPeripherals) {
+			final byte[] scanRecord = peripheral.GetScanRecord();
+			long interval = peripheral.GetAdvertisingInterval();
+			futures.add(mExecutor.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					if (peripheral.GetOutOfRangeRemaining() == 0) {
+						listener.onScanResult(peripheral.GetAddress(), peripheral.GetName(),
+								peripheral.GetRssi(), scanRecord);
+					}
+				}
+			}, (long) (Math.random() * interval), interval, TimeUnit.MILLISECONDS));
+		}
+		mScans.put(listener, futures);
+		return true;
+	}
+
+	@Override
+	public void StopScan(BleScanListener listener) {
+		List<ScheduledFuture<?>> futures = mScans.remove(listener);
+		if (futures == null) {
+			return;
+		}
+		for (ScheduledFuture<?> future : futures) {
+			future.cancel(false);
+		}
+	}
+
+	@Override
+	public boolean IsBonded(String address) {
+		SimulatedPeripheral peripheral = Find(address);
+		return peripheral != null && peripheral.IsBonded();
+	}
+
+	@Override
+	public BleGattLink Connect(String address, boolean autoConnect, BleGattListener listener) {
+		if (!IsEnabled()) {
+			return null;
+		}
+		SimulatedGattLink link = new SimulatedGattLink(mExecutor, address, Find(address), listener);
+		mLinks.add(link);
+		link.Connect(autoConnect);
+		return link;
+	}
+
+	/**
+	 * 周辺機器を探す
+	 * @param address
+	 * @return 見つからない場合null
+	 */
+	private SimulatedPeripheral Find(String address) {
+		for (SimulatedPeripheral peripheral : mPeripherals) {
+			if (peripheral.GetAddress().equalsIgnoreCase(address)) {
+				return peripheral;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,487 @@
+package com.scarviz.sampleble;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * シミュレータのGATT接続
+ * 要求を受けると周辺機器の遅延だけ後にシミュレータスレッドから結果を通知する
+ */
+class SimulatedGattLink implements BleGattLink {
+	/** サービス検索にかかる往復回数 */
+	private static final int DISCOVERY_ROUND_TRIPS = 4;
+	/** ATTヘッダ長 */
+	private static final int ATT_HEADER_SIZE = 3;
+	/** ATTのデフォルトMTU */
+	private static final int DEFAULT_MTU = 23;
+	/** 接続優先度ごとの遅延の倍率(CONNECTION_PRIORITY_BALANCED / HIGH / LOW_POWER) */
+	private static final double[] PRIORITY_LATENCY_SCALES = {1.0, 0.25, 4.0};
+
+	private final ScheduledExecutorService mExecutor;
+	private final String mAddress;
+	private final SimulatedPeripheral mPeripheral;
+	private final BleGattListener mListener;
+
+	private volatile boolean mConnected;
+	private volatile boolean mDiscovered;
+	private volatile boolean mClosed;
+	/** 合意したMTU(接続ごとにデフォルトから始まる) */
+	private volatile int mMtu = DEFAULT_MTU;
+	private volatile int mConnectionPriority = CONNECTION_PRIORITY_BALANCED;
+	/** 送信したメッセージの通し番号(フレーム形式、シミュレータスレッドで参照) */
+	private int mMessageSequence;
+	/** 接続相手と合意した圧縮方式のビットマスク(シミュレータスレッドで参照) */
+	private int mPeerCodecs;
+	/** 通知の受け取りを有効にしたキャラクタリスティック(シミュレータスレッドで参照) */
+	private final HashSet<UUID> mNotificationEnabled = new HashSet<UUID>();
+	/** キャラクタリスティックごとの通知処理 */
+	private final HashMap<UUID, ScheduledFuture<?>> mNotifications = new HashMap<UUID, ScheduledFuture<?>>();
+
+	/**
+	 * コンストラクタ
+	 * @param executor
+	 * @param address
+	 * @param peripheral 見つからない機器の場合null
+	 * @param listener
+	 */
+	SimulatedGattLink(ScheduledExecutorService executor, String address, SimulatedPeripheral peripheral,
+					  BleGattListener listener) {
+		mExecutor = executor;
+		mAddress = address;
+		mPeripheral = peripheral;
+		mListener = listener;
+	}
+
+	/**
+	 * 接続を開始する
+	 * @param autoConnect trueの場合は圏内に戻るまで待つ。falseの場合は圏外なら失敗する
+	 */
+	void Connect(final boolean autoConnect) {
+		long wait = mPeripheral == null ? 0 : mPeripheral.GetOutOfRangeRemaining();
+		Schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (mPeripheral == null) {
+					mListener.onConnectionStateChange(SimulatedGattLink.this, GATT_FAILURE, STATE_DISCONNECTED);
+					return;
+				}
+				if (mConnected) {
+					return;
+				}
+				if (!autoConnect && 0 < mPeripheral.GetOutOfRangeRemaining()) {
+					mListener.onConnectionStateChange(SimulatedGattLink.this, GATT_ERROR, STATE_DISCONNECTED);
+					return;
+				}
+				mConnected = true;
+				mMtu = DEFAULT_MTU;
+				mConnectionPriority = CONNECTION_PRIORITY_BALANCED;
+				mMessageSequence = 0;
+				mPeerCodecs = 0;
+				mListener.onConnectionStateChange(SimulatedGattLink.this, GATT_SUCCESS, STATE_CONNECTED);
+			}
+		}, (autoConnect ? wait : 0) + Latency());
+	}
+
+	/**
+	 * 電波が途切れたものとして切断する
+	 */
+	void Drop() {
+		Schedule(new Runnable() {
+			@Override
+			public void run() {
+				StopAllNotifications();
+				if (mConnected) {
+					mConnected = false;
+					mListener.onConnectionStateChange(SimulatedGattLink.this, GATT_CONNECTION_TIMEOUT, STATE_DISCONNECTED);
+				}
+			}
+		}, 0);
+	}
+
+	/**
+	 * 閉じたかどうか
+	 * @return
+	 */
+	boolean IsClosed() {
+		return mClosed;
+	}
+
+	@Override
+	public String GetAddress() {
+		return mAddress;
+	}
+
+	@Override
+	public boolean DiscoverServices() {
+		if (!mConnected) {
+			return false;
+		}
+		Schedule(new Runnable() {
+			@Override
+			public void run() {
+				mDiscovered = true;
+				mListener.onServicesDiscovered(SimulatedGattLink.this, GATT_SUCCESS);
+			}
+		}, Latency() * DISCOVERY_ROUND_TRIPS);
+		return true;
+	}
+
+	@Override
+	public boolean HasService(UUID service) {
+		return mDiscovered && mPeripheral.HasService(service);
+	}
+
+	@Override
+	public boolean HasCharacteristic(UUID service, UUID characteristic) {
+		return mDiscovered && mPeripheral.Find(service, characteristic) != null;
+	}
+
+	@Override
+	public GattAttributeTable GetAttributes() {
+		if (!mDiscovered) {
+			return null;
+		}
+		return mPeripheral.GetAttributes();
+	}
+
+	/**
+	 * 実機と同じく、キャッシュの内容は確かめずにハンドルが分かっているものとして扱う
+	 * 機器側の属性が変わっていた場合は操作が失敗する
+	 * @param table
+	 * @return
+	 */
+	@Override
+	public boolean UseAttributes(GattAttributeTable table) {
+		if (!mConnected) {
+			return false;
+		}
+		mDiscovered = true;
+		return true;
+	}
+
+	@Override
+	public boolean SetCharacteristicNotification(UUID service, final UUID characteristic, final boolean enable) {
+		if (!HasCharacteristic(service, characteristic)) {
+			return false;
+		}
+		Schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (enable) {
+					mNotificationEnabled.add(characteristic);
+				} else {
+					mNotificationEnabled.remove(characteristic);
+				}
+			}
+		}, 0);
+		return true;
+	}
+
+	@Override
+	public boolean ReadCharacteristic(UUID service, UUID characteristic) {
+		final SimulatedPeripheral.Characteristic target = FindConnected(service, characteristic);
+		if (target == null || (target.mProperties & SimulatedPeripheral.PROPERTY_READ) == 0) {
+			return false;
+		}
+		Schedule(new Runnable() {
+			@Override
+			public void run() {
+				mListener.onCharacteristicRead(SimulatedGattLink.this, target.mUuid, target.mValue.clone(), GATT_SUCCESS);
+			}
+		}, Latency());
+		return true;
+	}
+
+	@Override
+	public boolean WriteCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+		final SimulatedPeripheral.Characteristic target = FindConnected(service, characteristic);
+		int property = writeType == WRITE_TYPE_NO_RESPONSE
+				? SimulatedPeripheral.PROPERTY_WRITE_NO_RESPONSE
+				: SimulatedPeripheral.PROPERTY_WRITE;
+		if (target == null || (target.mProperties & property) == 0
+				|| mMtu - ATT_HEADER_SIZE < value.length) {
+			return false;
+		}
+		final byte[] written = value.clone();
+		// 応答なしの書き込みは送信キューに積まれた時点で完了とする
+		Schedule(new Runnable() {
+			@Override
+			public void run() {
+				target.mValue = written;
+				OnWritten(target, written);
+				mListener.onCharacteristicWrite(SimulatedGattLink.this, target.mUuid, GATT_SUCCESS);
+			}
+		}, writeType == WRITE_TYPE_NO_RESPONSE ? 0 : Latency());
+		return true;
+	}
+
+	@Override
+	public boolean WriteDescriptor(UUID service, UUID characteristic, final UUID descriptor, final byte[] value) {
+		final SimulatedPeripheral.Characteristic target = FindConnected(service, characteristic);
+		if (target == null || !SimulatedPeripheral.CLIENT_CHARACTERISTIC_CONFIG.equals(descriptor)) {
+			return false;
+		}
+		Schedule(new Runnable() {
+			@Override
+			public void run() {
+				boolean enable = value != null && 0 < value.length && (value[0] & 0x01) != 0;
+				if (enable) {
+					StartNotification(target);
+				} else {
+					StopNotification(target.mUuid);
+				}
+				mListener.onDescriptorWrite(SimulatedGattLink.this, target.mUuid, descriptor, GATT_SUCCESS);
+			}
+		}, Latency());
+		return true;
+	}
+
+	/**
+	 * 要求と機器の最大値の小さい方で合意する
+	 * @param mtu
+	 * @return
+	 */
+	@Override
+	public boolean RequestMtu(final int mtu) {
+		if (!mConnected) {
+			return false;
+		}
+		Schedule(new Runnable() {
+			@Override
+			public void run() {
+				mMtu = Math.max(DEFAULT_MTU, Math.min(mtu, mPeripheral.GetMtu()));
+				mListener.onMtuChanged(SimulatedGattLink.this, mMtu, GATT_SUCCESS);
+			}
+		}, Latency());
+		return true;
+	}
+
+	/**
+	 * 接続優先度に応じて以降の操作の遅延を変える
+	 * @param priority
+	 * @return
+	 */
+	@Override
+	public boolean RequestConnectionPriority(int priority) {
+		if (!mConnected || priority < 0 || PRIORITY_LATENCY_SCALES.length <= priority) {
+			return false;
+		}
+		mConnectionPriority = priority;
+		return true;
+	}
+
+	/**
+	 * 実機と同じく、検索した属性は切断後も残る
+	 * @return
+	 */
+	@Override
+	public boolean Reconnect() {
+		if (mClosed || mConnected) {
+			return false;
+		}
+		Connect(true);
+		return true;
+	}
+
+	@Override
+	public void Disconnect() {
+		Schedule(new Runnable() {
+			@Override
+			public void run() {
+				StopAllNotifications();
+				if (mConnected) {
+					mConnected = false;
+					mListener.onConnectionStateChange(SimulatedGattLink.this, GATT_SUCCESS, STATE_DISCONNECTED);
+				}
+			}
+		}, Latency());
+	}
+
+	@Override
+	public void Close() {
+		mClosed = true;
+		mConnected = false;
+		Schedule(new Runnable() {
+			@Override
+			public void run() {
+				StopAllNotifications();
+			}
+		}, 0);
+	}
+
+	/**
+	 * 接続中の周辺機器のキャラクタリスティックを取得する
+	 * @param service
+	 * @param characteristic
+	 * @return
+	 */
+	private SimulatedPeripheral.Characteristic FindConnected(UUID service, UUID characteristic) {
+		if (!mConnected || !mDiscovered) {
+			return null;
+		}
+		return mPeripheral.Find(service, characteristic);
+	}
+
+	/**
+	 * 通知を開始する(シミュレータスレッド)
+	 * @param target
+	 */
+	private void StartNotification(final SimulatedPeripheral.Characteristic target) {
+		if (target.mNotifyRate <= 0 || mNotifications.containsKey(target.mUuid)) {
+			return;
+		}
+		final boolean framed = mPeripheral.IsFramed();
+		int length = Math.max(4, framed
+				? Math.min(target.mNotifyLength, MessageFrame.MAX_MESSAGE_LENGTH)
+				: Math.min(target.mNotifyLength, mMtu - ATT_HEADER_SIZE));
+		final byte[] value = new byte[length];
+		long period = Math.max(1, 1000000000L / target.mNotifyRate);
+		mNotifications.put(target.mUuid, mExecutor.scheduleAtFixedRate(new Runnable() {
+			private int mSequence;
+			private final Random mRandom = new Random();
+			/** センサー値を模した3軸の値 */
+			private final int[] mAxes = new int[3];
+
+			@Override
+			public void run() {
+				if (mClosed || !mConnected || !mNotificationEnabled.contains(target.mUuid)) {
+					return;
+				}
+				// 先頭4バイトに通し番号を入れる
+				int sequence = mSequence++;
+				value[0] = (byte) sequence;
+				value[1] = (byte) (sequence >>> 8);
+				value[2] = (byte) (sequence >>> 16);
+				value[3] = (byte) (sequence >>> 24);
+				if (!framed) {
+					mListener.onCharacteristicChanged(SimulatedGattLink.this, target.mUuid, value);
+					return;
+				}
+				// 残りはゆっくり変化する3軸の16bit値(LE)を並べる
+				for (int i = 4; i + 1 < value.length; i += 2) {
+					int axis = (i - 4) / 2 % 3;
+					mAxes[axis] += mRandom.nextInt(7) - 3;
+					value[i] = (byte) mAxes[axis];
+					value[i + 1] = (byte) (mAxes[axis] >> 8);
+				}
+				// 1回分のデータを1メッセージとして分割して送る(合意していれば圧縮する)
+				int codec = ChooseCodec();
+				byte[] encoded = PayloadCodecs.Encode(codec, value);
+				if (encoded == null) {
+					NotifyMessage(target.mUuid, value, 0);
+				} else {
+					NotifyMessage(target.mUuid, encoded, MessageFrame.WithCodec(0, codec));
+				}
+			}
+		}, period, period, TimeUnit.NANOSECONDS));
+	}
+
+	/**
+	 * メッセージをフレーム形式で分割して通知する(シミュレータスレッド)
+	 * @param characteristic
+	 * @param message
+	 * @param flags
+	 */
+	private void NotifyMessage(UUID characteristic, byte[] message, int flags) {
+		PayloadFragmenter fragmenter = new PayloadFragmenter(message, mMtu - ATT_HEADER_SIZE,
+				mMessageSequence++ & 0xFF, flags);
+		while (fragmenter.HasNext()) {
+			mListener.onCharacteristicChanged(SimulatedGattLink.this, characteristic, fragmenter.Next());
+		}
+	}
+
+	/**
+	 * 書き込まれた値を処理する(シミュレータスレッド)
+	 * 圧縮方式の通知を受け取ったら、合意した方式を記録して必要なら返事を通知する
+	 * @param target
+	 * @param value
+	 */
+	private void OnWritten(SimulatedPeripheral.Characteristic target, byte[] value) {
+		int codecs = mPeripheral.GetCodecs();
+		if (!mPeripheral.IsFramed() || codecs == 0 || value.length < MessageFrame.FIRST_HEADER_SIZE) {
+			return;
+		}
+		int flags = MessageFrame.GetFlags(value);
+		int single = MessageFrame.FLAG_FIRST | MessageFrame.FLAG_LAST;
+		int header = MessageFrame.FIRST_HEADER_SIZE;
+		if ((flags & MessageFrame.FLAG_CONTROL) == 0 || (flags & single) != single
+				|| !PayloadCodecs.IsOffer(value, header, value.length - header)) {
+			return;
+		}
+		mPeerCodecs = value[header + 1] & codecs;
+		if (value[header + 2] != 0 && mNotificationEnabled.contains(target.mUuid)) {
+			NotifyMessage(target.mUuid, PayloadCodecs.CreateOffer(codecs, false), MessageFrame.FLAG_CONTROL);
+		}
+	}
+
+	/**
+	 * 通知に使う圧縮方式を選ぶ(センサー値向けの差分を優先する)
+	 * @return
+	 */
+	private int ChooseCodec() {
+		if (PayloadCodecs.IsAvailable(mPeerCodecs, PayloadCodecs.CODEC_DELTA_VARINT)) {
+			return PayloadCodecs.CODEC_DELTA_VARINT;
+		}
+		if (PayloadCodecs.IsAvailable(mPeerCodecs, PayloadCodecs.CODEC_LZ)) {
+			return PayloadCodecs.CODEC_LZ;
+		}
+		return PayloadCodecs.CODEC_NONE;
+	}
+
+	/**
+	 * 通知を停止する(シミュレータスレッド)
+	 * @param characteristic
+	 */
+	private void StopNotification(UUID characteristic) {
+		ScheduledFuture<?> future = mNotifications.remove(characteristic);
+		if (future != null) {
+			future.cancel(false);
+		}
+	}
+
+	/**
+	 * 全ての通知を停止する(シミュレータスレッド)
+	 */
+	private void StopAllNotifications() {
+		for (ScheduledFuture<?> future : mNotifications.values()) {
+			future.cancel(false);
+		}
+		mNotifications.clear();
+	}
+
+	/**
+	 * 遅延を取得する
+	 * @return
+	 */
+	private long Latency() {
+		if (mPeripheral == null) {
+			return 0;
+		}
+		return (long) (mPeripheral.GetLatency() * PRIORITY_LATENCY_SCALES[mConnectionPriority]);
+	}
+
+	/**
+	 * シミュレータスレッドで実行する
+	 * 接続を閉じた後はコールバックを呼ばない
+	 * @param task
+	 * @param delay ms
+	 */
+	private void Schedule(final Runnable task, long delay) {
+		if (mExecutor.isShutdown()) {
+			return;
+		}
+		mExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!mClosed) {
+					task.run();
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+}
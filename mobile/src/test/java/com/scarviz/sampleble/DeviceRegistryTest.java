@@ -0,0 +1,100 @@
+package com.scarviz.sampleble;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DeviceRegistryのテスト
+ */
+public class DeviceRegistryTest {
+	private static final String ADDRESS_A = "00:11:22:33:44:01";
+	private static final String ADDRESS_B = "00:11:22:33:44:02";
+	private static final String ADDRESS_C = "00:11:22:33:44:03";
+
+	@Test
+	public void AddressToKey() {
+		assertEquals(0x001122334401L, DeviceRegistry.AddressToKey(ADDRESS_A));
+		assertEquals(0xAABBCCDDEEFFL, DeviceRegistry.AddressToKey("aa:bb:cc:DD:EE:FF"));
+	}
+
+	@Test
+	public void UpdateKeepsOrderAndCounts() {
+		DeviceRegistry registry = new DeviceRegistry(1000, 10);
+		assertTrue(registry.Update(ADDRESS_A, "a", -40, 0));
+		assertTrue(registry.Update(ADDRESS_B, null, -50, 1));
+		assertFalse(registry.Update(ADDRESS_A, null, -45, 2));
+
+		assertEquals(2, registry.Size());
+		// 表示順は見つかった順のまま
+		assertEquals(ADDRESS_A, registry.Get(0).mAddress);
+		assertEquals("a", registry.Get(0).mName);
+		assertEquals(-45, registry.Get(0).mRssi);
+		assertEquals(2, registry.Get(0).mCount);
+		assertEquals(ADDRESS_B, registry.Get(1).mAddress);
+	}
+
+	@Test
+	public void EvictsLeastRecentlySeenWhenFull() {
+		DeviceRegistry registry = new DeviceRegistry(1000, 2);
+		registry.Update(ADDRESS_A, null, -40, 0);
+		registry.Update(ADDRESS_B, null, -40, 1);
+		// Aを見つけ直したので、最も古いのはB
+		registry.Update(ADDRESS_A, null, -40, 2);
+		registry.Update(ADDRESS_C, null, -40, 3);
+
+		assertEquals(2, registry.Size());
+		assertEquals(ADDRESS_A, registry.Get(0).mAddress);
+		assertEquals(ADDRESS_C, registry.Get(1).mAddress);
+	}
+
+	@Test
+	public void EvictsAfterTtl() {
+		DeviceRegistry registry = new DeviceRegistry(1000, 10);
+		registry.Update(ADDRESS_A, null, -40, 0);
+		registry.Update(ADDRESS_B, null, -40, 500);
+		registry.Update(ADDRESS_C, null, -40, 900);
+
+		assertEquals(0, registry.Evict(999));
+		assertEquals(1, registry.Evict(1000));
+		assertEquals(2, registry.Size());
+		assertEquals(ADDRESS_B, registry.Get(0).mAddress);
+
+		assertEquals(2, registry.Evict(2000));
+		assertEquals(0, registry.Size());
+	}
+
+	@Test
+	public void ReaddedAfterEviction() {
+		DeviceRegistry registry = new DeviceRegistry(1000, 10);
+		registry.Update(ADDRESS_A, null, -40, 0);
+		registry.Evict(1000);
+
+		assertTrue(registry.Update(ADDRESS_A, null, -40, 1500));
+		assertEquals(1, registry.Size());
+		assertEquals(1, registry.Get(0).mCount);
+	}
+
+	@Test
+	public void ManyDevicesStayFindable() {
+		// 取り除いた後も、同じ位置から続く機器を引けること
+		DeviceRegistry registry = new DeviceRegistry(1000, 50);
+		for (int i = 0; i < 500; i++) {
+			assertTrue(registry.Update(AddressOf(i), null, -40, i));
+			for (int j = Math.max(0, i - 49); j <= i; j++) {
+				assertFalse(registry.Update(AddressOf(j), null, -40, i));
+			}
+		}
+		assertEquals(50, registry.Size());
+		assertEquals(50, registry.Evict(2000));
+		assertEquals(0, registry.Size());
+	}
+
+	private static String AddressOf(int i) {
+		return String.format(Locale.US, "00:11:22:33:%02X:%02X", i >> 8, i & 0xFF);
+	}
+}
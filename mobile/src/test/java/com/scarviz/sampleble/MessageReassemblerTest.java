@@ -0,0 +1,280 @@
+package com.scarviz.sampleble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MessageReassemblerのテスト
+ * PayloadFragmenterで分割したフレームを組み立て直す
+ */
+public class MessageReassemblerTest {
+	/** 1回の書き込みの最大長(既定MTUのATTペイロード長) */
+	private static final int CHUNK_SIZE = 20;
+
+	private final List<Integer> mSequences = new ArrayList<Integer>();
+	private final List<byte[]> mMessages = new ArrayList<byte[]>();
+	private int mLost;
+	private int mCorrupted;
+	private MessageReassembler mReassembler;
+
+	@Before
+	public void SetUp() {
+		mReassembler = new MessageReassembler(new MessageReassembler.OnMessageListener() {
+			@Override
+			public void onMessage(int sequence, int flags, byte[] data, int offset, int length) {
+				mSequences.add(sequence);
+				mMessages.add(Arrays.copyOfRange(data, offset, offset + length));
+			}
+
+			@Override
+			public void onMessageLost(int count, int corrupted) {
+				mLost += count;
+				mCorrupted += corrupted;
+			}
+		});
+	}
+
+	@Test
+	public void SingleFrame() {
+		byte[] message = Message(10, 1);
+		Offer(Frames(message, 0));
+
+		assertEquals(1, mMessages.size());
+		assertArrayEquals(message, mMessages.get(0));
+		assertEquals(0, mLost);
+	}
+
+	@Test
+	public void MultipleFrames() {
+		byte[] message = Message(100, 2);
+		List<byte[]> frames = Frames(message, 0);
+		// 先頭フレームは12byte、以降は16byteずつ
+		assertEquals(7, frames.size());
+		Offer(frames);
+
+		assertEquals(1, mMessages.size());
+		assertArrayEquals(message, mMessages.get(0));
+		assertEquals(1, mReassembler.GetMessages());
+	}
+
+	@Test
+	public void EmptyMessage() {
+		List<byte[]> frames = Frames(new byte[0], 0);
+		assertEquals(1, frames.size());
+		assertEquals(MessageFrame.FIRST_HEADER_SIZE, frames.get(0).length);
+		Offer(frames);
+
+		assertEquals(1, mMessages.size());
+		assertEquals(0, mMessages.get(0).length);
+		assertEquals(0, mLost);
+	}
+
+	@Test
+	public void FramesReorderedWithinMessage() {
+		byte[] message = Message(100, 3);
+		List<byte[]> frames = Frames(message, 0);
+		List<byte[]> reordered = new ArrayList<byte[]>();
+		for (int i = frames.size() - 1; 0 <= i; i--) {
+			reordered.add(frames.get(i));
+		}
+		Offer(reordered);
+
+		assertEquals(1, mMessages.size());
+		assertArrayEquals(message, mMessages.get(0));
+	}
+
+	@Test
+	public void MessagesReorderedWithinWindow() {
+		byte[] first = Message(50, 4);
+		byte[] second = Message(50, 5);
+		byte[] third = Message(50, 6);
+		// 2通目が最後に届く
+		Offer(Frames(first, 0));
+		Offer(Frames(third, 2));
+		Offer(Frames(second, 1));
+
+		assertEquals(Arrays.asList(0, 2, 1), mSequences);
+		assertArrayEquals(second, mMessages.get(2));
+		assertEquals(0, mLost);
+	}
+
+	@Test
+	public void MessageLostBeyondWindow() {
+		List<byte[]> missing = Frames(Message(50, 7), 1);
+		Offer(Frames(Message(10, 8), 0));
+		// 1通目の先頭フレームだけ届き、入れ替わりを待つ幅を超えてメッセージが続く
+		mReassembler.Offer(missing.get(0), missing.get(0).length);
+		for (int sequence = 2; sequence <= 1 + MessageReassembler.REORDER_WINDOW; sequence++) {
+			Offer(Frames(Message(10, sequence), sequence));
+		}
+
+		assertEquals(1, mLost);
+		assertEquals(0, mCorrupted);
+		assertEquals(1, mReassembler.GetLostMessages());
+
+		// 失われたものとした後に届いた残りのフレームは捨てる
+		Offer(missing.subList(1, missing.size()));
+		assertEquals(1 + MessageReassembler.REORDER_WINDOW, mMessages.size());
+	}
+
+	@Test
+	public void SequenceWraps() {
+		int count = 300;
+		for (int i = 0; i < count; i++) {
+			Offer(Frames(Message(30, i), (250 + i) & 0xFF));
+		}
+
+		assertEquals(count, mMessages.size());
+		assertEquals(0, mLost);
+		assertEquals(Integer.valueOf(255), mSequences.get(5));
+		assertEquals(Integer.valueOf(0), mSequences.get(6));
+		assertArrayEquals(Message(30, count - 1), mMessages.get(count - 1));
+	}
+
+	@Test
+	public void ReorderAcrossWrap() {
+		Offer(Frames(Message(30, 0), 254));
+		Offer(Frames(Message(30, 1), 255));
+		Offer(Frames(Message(30, 3), 1));
+		Offer(Frames(Message(30, 2), 0));
+
+		assertEquals(Arrays.asList(254, 255, 1, 0), mSequences);
+		assertEquals(0, mLost);
+	}
+
+	@Test
+	public void DuplicateIgnored() {
+		List<byte[]> frames = Frames(Message(50, 9), 0);
+		Offer(frames);
+		Offer(frames);
+
+		assertEquals(1, mMessages.size());
+		assertEquals(0, mLost);
+	}
+
+	@Test
+	public void CrcMismatchSingleFrame() {
+		List<byte[]> frames = Frames(Message(10, 10), 0);
+		frames.get(0)[MessageFrame.FIRST_HEADER_SIZE] ^= 0x01;
+		Offer(frames);
+
+		assertEquals(0, mMessages.size());
+		assertEquals(1, mLost);
+		assertEquals(1, mCorrupted);
+		assertEquals(1, mReassembler.GetCorruptedMessages());
+	}
+
+	@Test
+	public void CrcMismatchMultipleFrames() {
+		List<byte[]> frames = Frames(Message(100, 11), 0);
+		byte[] last = frames.get(frames.size() - 1);
+		last[last.length - 1] ^= 0x01;
+		Offer(frames);
+		Offer(Frames(Message(10, 12), 1));
+
+		assertEquals(Arrays.asList(1), mSequences);
+		assertEquals(1, mLost);
+		assertEquals(1, mCorrupted);
+	}
+
+	@Test
+	public void OverlappingFragments() {
+		// 同じメッセージを別の長さで分割したフレームは範囲が重なる
+		byte[] message = Message(100, 15);
+		List<byte[]> small = Frames(message, 0);
+		List<byte[]> large = new ArrayList<byte[]>();
+		PayloadFragmenter fragmenter = new PayloadFragmenter(message, CHUNK_SIZE * 2, 0);
+		while (fragmenter.HasNext()) {
+			large.add(fragmenter.Next());
+		}
+		Offer(small.subList(0, small.size() - 1));
+		Offer(large.subList(1, large.size()));
+
+		assertEquals(0, mMessages.size());
+		assertEquals(1, mLost);
+		assertEquals(1, mCorrupted);
+	}
+
+	@Test
+	public void FragmentBeyondLength() {
+		List<byte[]> frames = Frames(Message(100, 16), 0);
+		List<byte[]> longer = Frames(Message(200, 16), 0);
+		Offer(frames.subList(0, 1));
+		Offer(longer.subList(longer.size() - 1, longer.size()));
+
+		assertEquals(0, mMessages.size());
+		assertEquals(1, mCorrupted);
+	}
+
+	@Test
+	public void FirstFrameShorterThanReceived() {
+		List<byte[]> frames = Frames(Message(100, 17), 0);
+		List<byte[]> longer = Frames(Message(200, 17), 0);
+		Offer(longer.subList(longer.size() - 1, longer.size()));
+		Offer(frames);
+
+		assertEquals(0, mMessages.size());
+		assertEquals(1, mCorrupted);
+	}
+
+	@Test
+	public void InvalidFrame() {
+		mReassembler.Offer(new byte[MessageFrame.HEADER_SIZE - 1], MessageFrame.HEADER_SIZE - 1);
+
+		assertEquals(1, mReassembler.GetInvalidFrames());
+		assertEquals(0, mMessages.size());
+	}
+
+	@Test
+	public void FlushDropsPending() {
+		List<byte[]> frames = Frames(Message(100, 13), 0);
+		mReassembler.Offer(frames.get(0), frames.get(0).length);
+
+		assertEquals(1, mReassembler.Flush());
+		// 数え直した後は別の通し番号から始まってもよい
+		Offer(Frames(Message(10, 14), 100));
+		assertEquals(Arrays.asList(100), mSequences);
+	}
+
+	/**
+	 * テスト用のメッセージを生成する
+	 * @param length
+	 * @param seed
+	 * @return
+	 */
+	private static byte[] Message(int length, int seed) {
+		byte[] message = new byte[length];
+		for (int i = 0; i < length; i++) {
+			message[i] = (byte) (seed * 31 + i);
+		}
+		return message;
+	}
+
+	/**
+	 * メッセージをフレームに分割する
+	 * @param message
+	 * @param sequence
+	 * @return
+	 */
+	private static List<byte[]> Frames(byte[] message, int sequence) {
+		List<byte[]> frames = new ArrayList<byte[]>();
+		PayloadFragmenter fragmenter = new PayloadFragmenter(message, CHUNK_SIZE, sequence);
+		while (fragmenter.HasNext()) {
+			frames.add(fragmenter.Next());
+		}
+		return frames;
+	}
+
+	private void Offer(List<byte[]> frames) {
+		for (byte[] frame : frames) {
+			mReassembler.Offer(frame, frame.length);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.scarviz.sampleble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * NotificationRingBufferのテスト
+ */
+public class NotificationRingBufferTest {
+	/**
+	 * 読み出した通知を記録する
+	 */
+	private static class Recorder implements NotificationRingBuffer.Consumer {
+		final List<Integer> mDeviceIds = new ArrayList<Integer>();
+		final List<Integer> mCharacteristics = new ArrayList<Integer>();
+		final List<Long> mTimestamps = new ArrayList<Long>();
+		final List<byte[]> mPayloads = new ArrayList<byte[]>();
+
+		@Override
+		public void onNotification(int deviceId, int characteristic, long timestamp, byte[] payload, int length) {
+			mDeviceIds.add(deviceId);
+			mCharacteristics.add(characteristic);
+			mTimestamps.add(timestamp);
+			mPayloads.add(Arrays.copyOf(payload, length));
+		}
+	}
+
+	@Test
+	public void CapacityRoundedUp() {
+		assertEquals(8, new NotificationRingBuffer(5).Capacity());
+		assertEquals(8, new NotificationRingBuffer(8).Capacity());
+		assertEquals(2, new NotificationRingBuffer(0).Capacity());
+	}
+
+	@Test
+	public void OfferAndDrain() {
+		NotificationRingBuffer buffer = new NotificationRingBuffer(4);
+		assertTrue(buffer.Offer(1, 2, 100, new byte[] {9, 1, 2, 3}, 1, 2));
+		assertTrue(buffer.Offer(3, 4, 200, new byte[] {5}, 0, 1));
+		assertEquals(2, buffer.Size());
+
+		Recorder recorder = new Recorder();
+		assertEquals(2, buffer.Drain(recorder, 10));
+		assertEquals(Arrays.asList(1, 3), recorder.mDeviceIds);
+		assertEquals(Arrays.asList(2, 4), recorder.mCharacteristics);
+		assertEquals(Arrays.asList(100L, 200L), recorder.mTimestamps);
+		assertArrayEquals(new byte[] {1, 2}, recorder.mPayloads.get(0));
+		assertArrayEquals(new byte[] {5}, recorder.mPayloads.get(1));
+		assertEquals(0, buffer.Size());
+	}
+
+	@Test
+	public void FullDropsNewest() {
+		NotificationRingBuffer buffer = new NotificationRingBuffer(4);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.Offer(i, i, new byte[] {(byte) i}));
+		}
+		assertFalse(buffer.Offer(4, 4, new byte[] {4}));
+		assertFalse(buffer.Offer(5, 5, new byte[] {5}));
+
+		assertEquals(6, buffer.GetOfferedCount());
+		assertEquals(2, buffer.GetDroppedCount());
+		assertEquals(4, buffer.Size());
+
+		// 捨てたのは新しい通知で、溜まっていたものは残る
+		Recorder recorder = new Recorder();
+		assertEquals(4, buffer.Drain(recorder, 10));
+		assertEquals(Arrays.asList(0, 1, 2, 3), recorder.mDeviceIds);
+
+		// 空いたら再び書き込める
+		assertTrue(buffer.Offer(6, 6, new byte[] {6}));
+		assertEquals(2, buffer.GetDroppedCount());
+	}
+
+	@Test
+	public void DrainLimitedByBatch() {
+		NotificationRingBuffer buffer = new NotificationRingBuffer(8);
+		for (int i = 0; i < 5; i++) {
+			buffer.Offer(i, i, new byte[] {(byte) i});
+		}
+		Recorder recorder = new Recorder();
+
+		assertEquals(3, buffer.Drain(recorder, 3));
+		assertEquals(2, buffer.Size());
+		assertEquals(2, buffer.Drain(recorder, 3));
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4), recorder.mDeviceIds);
+	}
+
+	@Test
+	public void WrapsAroundAndGrowsSlot() {
+		NotificationRingBuffer buffer = new NotificationRingBuffer(2);
+		Recorder recorder = new Recorder();
+		byte[] large = new byte[200];
+		Arrays.fill(large, (byte) 7);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(buffer.Offer(i, i, i == 7 ? large : new byte[] {(byte) i}));
+			buffer.Drain(recorder, 1);
+		}
+
+		assertEquals(10, recorder.mPayloads.size());
+		assertArrayEquals(large, recorder.mPayloads.get(7));
+		assertArrayEquals(new byte[] {8}, recorder.mPayloads.get(8));
+		assertEquals(0, buffer.GetDroppedCount());
+	}
+}
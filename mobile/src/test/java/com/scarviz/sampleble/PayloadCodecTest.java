@@ -0,0 +1,112 @@
+package com.scarviz.sampleble;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DeltaVarintCodecとLzBlockCodecのテスト
+ */
+public class PayloadCodecTest {
+	@Test
+	public void DeltaVarintRoundTrip() {
+		PayloadCodec codec = new DeltaVarintCodec();
+		RoundTrip(codec, new byte[0]);
+		RoundTrip(codec, new byte[] {1});
+		RoundTrip(codec, Sensor(64, 3));
+		RoundTrip(codec, Sensor(1001, 3));
+		RoundTrip(codec, Random(257, 1));
+	}
+
+	@Test
+	public void DeltaVarintCompressesSensorData() {
+		byte[] data = Sensor(600, 3);
+		byte[] encoded = PayloadCodecs.Encode(PayloadCodecs.CODEC_DELTA_VARINT, data);
+
+		assertNotNull(encoded);
+		assertTrue(encoded.length < data.length * 2 / 3);
+	}
+
+	@Test
+	public void LzRoundTrip() {
+		PayloadCodec codec = new LzBlockCodec();
+		RoundTrip(codec, new byte[0]);
+		RoundTrip(codec, new byte[] {1});
+		RoundTrip(codec, Sensor(600, 3));
+		RoundTrip(codec, Random(4096, 2));
+		byte[] repeated = new byte[5000];
+		Arrays.fill(repeated, (byte) 0x55);
+		RoundTrip(codec, repeated);
+	}
+
+	@Test
+	public void LzCompressesRepeatedData() {
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) "temperature=21.5;".charAt(i % 17);
+		}
+		byte[] encoded = PayloadCodecs.Encode(PayloadCodecs.CODEC_LZ, data);
+
+		assertNotNull(encoded);
+		assertTrue(encoded.length < data.length / 4);
+	}
+
+	@Test
+	public void TruncatedInputRejected() {
+		for (PayloadCodec codec : new PayloadCodec[] {new DeltaVarintCodec(), new LzBlockCodec()}) {
+			byte[] data = Sensor(300, 3);
+			byte[] encoded = new byte[codec.MaxEncodedLength(data.length)];
+			int length = codec.Encode(data, 0, data.length, encoded, 0);
+			byte[] decoded = new byte[data.length];
+
+			assertEquals(-1, codec.Decode(encoded, 0, length / 2, decoded, 0));
+		}
+	}
+
+	/**
+	 * 符号化して復号し、元に戻ることを確かめる
+	 * 前後に余白のある位置で符号化・復号する
+	 * @param codec
+	 * @param data
+	 */
+	private static void RoundTrip(PayloadCodec codec, byte[] data) {
+		byte[] src = new byte[data.length + 6];
+		System.arraycopy(data, 0, src, 3, data.length);
+		byte[] encoded = new byte[codec.MaxEncodedLength(data.length) + 5];
+		int length = codec.Encode(src, 3, data.length, encoded, 5);
+		assertTrue(length <= codec.MaxEncodedLength(data.length));
+		assertEquals(data.length, PayloadCodecs.DecodedLength(encoded, 5, length));
+
+		byte[] decoded = new byte[data.length + 2];
+		assertEquals(data.length, codec.Decode(encoded, 5, length, decoded, 2));
+		assertArrayEquals(data, Arrays.copyOfRange(decoded, 2, 2 + data.length));
+	}
+
+	/**
+	 * ゆっくり変化する複数チャンネルの16bitセンサー値を生成する
+	 * @param samples
+	 * @param channels
+	 * @return
+	 */
+	private static byte[] Sensor(int samples, int channels) {
+		byte[] data = new byte[samples * 2];
+		for (int i = 0; i < samples; i++) {
+			int value = (int) (1000 * Math.sin((i / channels) / 20.0 + i % channels)) + i % channels * 3000;
+			data[i * 2] = (byte) value;
+			data[i * 2 + 1] = (byte) (value >> 8);
+		}
+		return data;
+	}
+
+	private static byte[] Random(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,71 @@
+package com.scarviz.sampleble;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ReconnectPolicyのテスト
+ */
+public class ReconnectPolicyTest {
+	/**
+	 * 揺らさない乱数(常に0を返す)
+	 */
+	private static final Random NO_JITTER = new Random() {
+		@Override
+		public double nextDouble() {
+			return 0;
+		}
+	};
+
+	@Test
+	public void BackoffDoublesUpToMax() {
+		ReconnectPolicy policy = new ReconnectPolicy(500, 30000, 0.5, 10);
+
+		assertEquals(500, policy.NextDelay(0, NO_JITTER));
+		assertEquals(1000, policy.NextDelay(1, NO_JITTER));
+		assertEquals(16000, policy.NextDelay(5, NO_JITTER));
+		assertEquals(30000, policy.NextDelay(6, NO_JITTER));
+		assertEquals(30000, policy.NextDelay(9, NO_JITTER));
+	}
+
+	@Test
+	public void GivesUpAfterMaxAttempts() {
+		ReconnectPolicy policy = new ReconnectPolicy(500, 30000, 0.5, 3);
+
+		assertEquals(3, policy.GetMaxAttempts());
+		assertTrue(0 < policy.NextDelay(2, NO_JITTER));
+		assertEquals(-1, policy.NextDelay(3, NO_JITTER));
+	}
+
+	@Test
+	public void LargeAttemptDoesNotOverflow() {
+		ReconnectPolicy policy = new ReconnectPolicy(500, 30000, 0, 100);
+
+		assertEquals(30000, policy.NextDelay(40, NO_JITTER));
+		assertEquals(30000, policy.NextDelay(99, NO_JITTER));
+	}
+
+	@Test
+	public void JitterShortensWithinRange() {
+		ReconnectPolicy policy = new ReconnectPolicy(1000, 30000, 0.5, 10);
+		Random random = new Random(1);
+		for (int i = 0; i < 1000; i++) {
+			long delay = policy.NextDelay(2, random);
+			assertTrue(delay + " out of range", 2000 <= delay && delay <= 4000);
+		}
+	}
+
+	@Test
+	public void ArgumentsClamped() {
+		ReconnectPolicy policy = new ReconnectPolicy(0, -1, 2, 5);
+
+		// 最小1ms、上限は1回目以上、揺らしは最大で全体
+		assertEquals(1, policy.NextDelay(0, NO_JITTER));
+		assertEquals(1, policy.NextDelay(4, NO_JITTER));
+		assertTrue(0 <= policy.NextDelay(0, new Random(1)));
+	}
+}
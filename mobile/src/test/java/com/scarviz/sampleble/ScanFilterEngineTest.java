@@ -0,0 +1,114 @@
+package com.scarviz.sampleble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ScanFilterEngineのテスト
+ */
+public class ScanFilterEngineTest {
+	/** Heart Rate(0x180D)をBase UUIDに展開したもの */
+	private static final UUID HEART_RATE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+	private static final UUID OTHER_SERVICE = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+
+	/** Flags、16bitサービスUUID(0x180D)、ローカル名"Sensor"、メーカー固有データ2つ(0x004C、0x0059) */
+	private static final byte[] SCAN_RECORD = {
+			2, 0x01, 0x06,
+			3, 0x03, 0x0D, 0x18,
+			7, 0x09, 'S', 'e', 'n', 's', 'o', 'r',
+			3, (byte) 0xFF, 0x4C, 0x00,
+			5, (byte) 0xFF, 0x59, 0x00, 0x12, 0x34,
+			0, 0};
+
+	@Test
+	public void EmptyPassesAll() {
+		ScanFilterEngine engine = Engine();
+
+		assertTrue(engine.IsEmpty());
+		assertTrue(engine.Match(-100, null));
+	}
+
+	@Test
+	public void RssiFloor() {
+		ScanFilterEngine engine = Engine(new ScanFilter().SetRssiFloor(-70));
+
+		assertTrue(engine.Match(-70, SCAN_RECORD));
+		assertFalse(engine.Match(-71, SCAN_RECORD));
+	}
+
+	@Test
+	public void ServiceUuid() {
+		assertTrue(Engine(new ScanFilter().SetServiceUuid(HEART_RATE)).Match(-50, SCAN_RECORD));
+		assertFalse(Engine(new ScanFilter().SetServiceUuid(OTHER_SERVICE)).Match(-50, SCAN_RECORD));
+	}
+
+	@Test
+	public void NamePrefix() {
+		assertTrue(Engine(new ScanFilter().SetNamePrefix("Sens")).Match(-50, SCAN_RECORD));
+		assertFalse(Engine(new ScanFilter().SetNamePrefix("Other")).Match(-50, SCAN_RECORD));
+	}
+
+	@Test
+	public void ManufacturerId() {
+		assertTrue(Engine(new ScanFilter().SetManufacturerId(0x0059)).Match(-50, SCAN_RECORD));
+		assertFalse(Engine(new ScanFilter().SetManufacturerId(0x0006)).Match(-50, SCAN_RECORD));
+	}
+
+	@Test
+	public void ManufacturerInSecondStructure() {
+		// 先頭のメーカー固有データ(0x004C)だけでなく、続くもの(0x0059)も評価する
+		assertTrue(Engine(new ScanFilter().SetManufacturerId(0x004C)).Match(-50, SCAN_RECORD));
+		assertTrue(Engine(new ScanFilter().SetManufacturerData(0x0059, new byte[] {0x12, 0x34}, null))
+				.Match(-50, SCAN_RECORD));
+	}
+
+	@Test
+	public void ManufacturerDataWithMask() {
+		assertTrue(Engine(new ScanFilter().SetManufacturerData(0x0059, new byte[] {0x12, 0x34}, null))
+				.Match(-50, SCAN_RECORD));
+		assertFalse(Engine(new ScanFilter().SetManufacturerData(0x0059, new byte[] {0x12, 0x35}, null))
+				.Match(-50, SCAN_RECORD));
+		assertTrue(Engine(new ScanFilter().SetManufacturerData(0x0059, new byte[] {0x12, 0x30},
+				new byte[] {(byte) 0xFF, (byte) 0xF0})).Match(-50, SCAN_RECORD));
+		assertFalse(Engine(new ScanFilter().SetManufacturerData(0x0059, new byte[] {0x12, 0x34, 0x56}, null))
+				.Match(-50, SCAN_RECORD));
+		// データが短いメーカー(0x004C)には一致しない
+		assertFalse(Engine(new ScanFilter().SetManufacturerData(0x004C, new byte[] {0x12}, null))
+				.Match(-50, SCAN_RECORD));
+	}
+
+	@Test
+	public void AllConditionsOfFilterRequired() {
+		ScanFilterEngine engine = Engine(new ScanFilter().SetServiceUuid(HEART_RATE).SetNamePrefix("Other"));
+
+		assertFalse(engine.Match(-50, SCAN_RECORD));
+	}
+
+	@Test
+	public void AnyFilterMatches() {
+		ScanFilterEngine engine = Engine(
+				new ScanFilter().SetNamePrefix("Other"),
+				new ScanFilter().SetServiceUuid(HEART_RATE).SetRssiFloor(-60));
+
+		assertTrue(engine.Match(-50, SCAN_RECORD));
+		assertFalse(engine.Match(-65, SCAN_RECORD));
+	}
+
+	@Test
+	public void MissingScanRecord() {
+		assertFalse(Engine(new ScanFilter().SetNamePrefix("Sens")).Match(-50, null));
+		assertTrue(Engine(new ScanFilter().SetRssiFloor(-60)).Match(-50, null));
+	}
+
+	private static ScanFilterEngine Engine(ScanFilter... filters) {
+		List<ScanFilter> list = new ArrayList<ScanFilter>(Arrays.asList(filters));
+		return new ScanFilterEngine(list);
+	}
+}
@@ -0,0 +1,260 @@
+package com.scarviz.sampleble;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.os.Build;
+
+import java.util.UUID;
+
+/**
+ * 実機のGATT接続
+ * BluetoothGattとBluetoothGattCallbackをBleGattLink/BleGattListenerに変換する
+ */
+public class AndroidGattLink implements BleGattLink {
+	private final String mAddress;
+	private final BleGattListener mListener;
+	private BluetoothGatt mBluetoothGatt;
+
+	/**
+	 * コンストラクタ
+	 * @param address
+	 * @param listener
+	 */
+	AndroidGattLink(String address, BleGattListener listener) {
+		mAddress = address;
+		mListener = listener;
+	}
+
+	/**
+	 * 接続を開始する
+	 * @param context
+	 * @param device
+	 * @param autoConnect
+	 * @return
+	 */
+	boolean Connect(Context context, BluetoothDevice device, boolean autoConnect) {
+		mBluetoothGatt = device.connectGatt(context, autoConnect, mBleGattCallback);
+		return mBluetoothGatt != null;
+	}
+
+	@Override
+	public String GetAddress() {
+		return mAddress;
+	}
+
+	@Override
+	public boolean DiscoverServices() {
+		BluetoothGatt gatt = mBluetoothGatt;
+		return gatt != null && gatt.discoverServices();
+	}
+
+	@Override
+	public boolean HasService(UUID service) {
+		BluetoothGatt gatt = mBluetoothGatt;
+		return gatt != null && gatt.getService(service) != null;
+	}
+
+	@Override
+	public boolean HasCharacteristic(UUID service, UUID characteristic) {
+		return GetCharacteristic(service, characteristic) != null;
+	}
+
+	@Override
+	public GattAttributeTable GetAttributes() {
+		BluetoothGatt gatt = mBluetoothGatt;
+		if (gatt == null) {
+			return null;
+		}
+		GattAttributeTable table = new GattAttributeTable();
+		for (BluetoothGattService service : gatt.getServices()) {
+			table.AddService(service.getUuid());
+			for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+				GattAttributeTable.Characteristic added = table.AddCharacteristic(service.getUuid(),
+						characteristic.getUuid(), characteristic.getProperties());
+				for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+					added.mDescriptors.add(descriptor.getUuid());
+				}
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * BluetoothGattは検索で得たハンドルでしか属性を操作できないので、
+	 * 同じBluetoothGattで再接続して検索結果が残っている場合だけキャッシュを使える
+	 * (ペアリング済みの機器はスタック側のキャッシュで検索自体が速く終わる)
+	 * @param table
+	 * @return
+	 */
+	@Override
+	public boolean UseAttributes(GattAttributeTable table) {
+		BluetoothGatt gatt = mBluetoothGatt;
+		if (gatt == null || gatt.getServices().isEmpty()) {
+			return false;
+		}
+		for (GattAttributeTable.Characteristic characteristic : table.GetCharacteristics()) {
+			if (GetCharacteristic(characteristic.mService, characteristic.mUuid) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean SetCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+		BluetoothGattCharacteristic target = GetCharacteristic(service, characteristic);
+		return target != null && mBluetoothGatt.setCharacteristicNotification(target, enable);
+	}
+
+	@Override
+	public boolean ReadCharacteristic(UUID service, UUID characteristic) {
+		BluetoothGattCharacteristic target = GetCharacteristic(service, characteristic);
+		return target != null && mBluetoothGatt.readCharacteristic(target);
+	}
+
+	@Override
+	public boolean WriteCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+		BluetoothGattCharacteristic target = GetCharacteristic(service, characteristic);
+		if (target == null) {
+			return false;
+		}
+		// キャラクタリスティックの値は共有されるので実行直前に設定する
+		target.setValue(value);
+		target.setWriteType(writeType);
+		return mBluetoothGatt.writeCharacteristic(target);
+	}
+
+	@Override
+	public boolean WriteDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+		BluetoothGattCharacteristic target = GetCharacteristic(service, characteristic);
+		if (target == null) {
+			return false;
+		}
+		BluetoothGattDescriptor targetDescriptor = target.getDescriptor(descriptor);
+		if (targetDescriptor == null) {
+			return false;
+		}
+		targetDescriptor.setValue(value);
+		return mBluetoothGatt.writeDescriptor(targetDescriptor);
+	}
+
+	/**
+	 * MTUの要求はAndroid 5.0以降
+	 * @param mtu
+	 * @return
+	 */
+	@Override
+	public boolean RequestMtu(int mtu) {
+		BluetoothGatt gatt = mBluetoothGatt;
+		if (gatt == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+			return false;
+		}
+		return gatt.requestMtu(mtu);
+	}
+
+	/**
+	 * 接続優先度の要求はAndroid 5.0以降
+	 * 値はBluetoothGatt.CONNECTION_PRIORITY_*と同じ
+	 * @param priority
+	 * @return
+	 */
+	@Override
+	public boolean RequestConnectionPriority(int priority) {
+		BluetoothGatt gatt = mBluetoothGatt;
+		if (gatt == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+			return false;
+		}
+		return gatt.requestConnectionPriority(priority);
+	}
+
+	/**
+	 * BluetoothGatt.connectはautoConnectで再接続する
+	 * @return
+	 */
+	@Override
+	public boolean Reconnect() {
+		BluetoothGatt gatt = mBluetoothGatt;
+		return gatt != null && gatt.connect();
+	}
+
+	@Override
+	public void Disconnect() {
+		BluetoothGatt gatt = mBluetoothGatt;
+		if (gatt != null) {
+			gatt.disconnect();
+		}
+	}
+
+	@Override
+	public void Close() {
+		BluetoothGatt gatt = mBluetoothGatt;
+		if (gatt != null) {
+			mBluetoothGatt = null;
+			gatt.close();
+		}
+	}
+
+	/**
+	 * キャラクタリスティックを取得する
+	 * @param service
+	 * @param characteristic
+	 * @return 見つからない場合null
+	 */
+	private BluetoothGattCharacteristic GetCharacteristic(UUID service, UUID characteristic) {
+		BluetoothGatt gatt = mBluetoothGatt;
+		if (gatt == null) {
+			return null;
+		}
+		BluetoothGattService targetService = gatt.getService(service);
+		if (targetService == null) {
+			return null;
+		}
+		return targetService.getCharacteristic(characteristic);
+	}
+
+	/**
+	 * GATTコールバック
+	 */
+	private final BluetoothGattCallback mBleGattCallback = new BluetoothGattCallback() {
+		@Override
+		public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+			mListener.onConnectionStateChange(AndroidGattLink.this, status, newState);
+		}
+
+		@Override
+		public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+			mListener.onServicesDiscovered(AndroidGattLink.this, status);
+		}
+
+		@Override
+		public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+			mListener.onCharacteristicRead(AndroidGattLink.this, characteristic.getUuid(), characteristic.getValue(), status);
+		}
+
+		@Override
+		public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+			mListener.onCharacteristicWrite(AndroidGattLink.this, characteristic.getUuid(), status);
+		}
+
+		@Override
+		public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+			mListener.onDescriptorWrite(AndroidGattLink.this, descriptor.getCharacteristic().getUuid(),
+					descriptor.getUuid(), status);
+		}
+
+		@Override
+		public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+			mListener.onMtuChanged(AndroidGattLink.this, mtu, status);
+		}
+
+		@Override
+		public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+			mListener.onCharacteristicChanged(AndroidGattLink.this, characteristic.getUuid(), characteristic.getValue());
+		}
+	};
+}
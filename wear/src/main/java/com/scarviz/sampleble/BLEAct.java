@@ -2,16 +2,13 @@ package com.scarviz.sampleble;
 
 import android.app.Activity;
 import android.app.ActivityManager;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Message;
+import android.os.Looper;
 import android.support.wearable.view.WatchViewStub;
 import android.view.View;
 import android.widget.AdapterView;
@@ -19,7 +16,6 @@ import android.widget.Button;
 import android.widget.CompoundButton;
 import android.widget.ListView;
 import android.widget.Switch;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import java.lang.ref.WeakReference;
@@ -28,17 +24,18 @@ import java.util.List;
 public class BLEAct extends Activity {
 	private BTService mBoundService;
 	private boolean mIsBound;
-	private BTServiceHandler mBTServiceHandler;
+	private BTServiceListener mBTServiceListener;
 
 	private DeviceListAdapter mDeviceListAdapter;
 
 	private Button mBtnBleSearch, mBtnTest;
 	private Switch mSwService;
-	private TextView mTextView;
+	private ListView mConsole;
 	private ListView mBleList;
 
-	private final static char NEW_LINE = '\n';
-	private final static int MAX_LINE = 2;
+	private EventConsoleAdapter mEventConsole;
+	/** コンソールに保持するイベント数 */
+	private final static int MAX_EVENTS = 64;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -50,7 +47,7 @@ public class BLEAct extends Activity {
             public void onLayoutInflated(WatchViewStub stub) {
 				mBtnBleSearch = (Button) stub.findViewById(R.id.btnBleSearch);
 				mSwService = (Switch) stub.findViewById(R.id.swService);
-				mTextView = (TextView) stub.findViewById(R.id.text);
+				mConsole = (ListView) stub.findViewById(R.id.console);
 				mBleList = (ListView) stub.findViewById(R.id.list);
 				mBtnTest = (Button) stub.findViewById(R.id.btnBleTest);
 
@@ -61,10 +58,11 @@ public class BLEAct extends Activity {
 							return;
 						}
 
+						mScanBatcher.Clear();
 						mDeviceListAdapter.clear();
 						mDeviceListAdapter.notifyDataSetChanged();
 
-						mBoundService.ScanDevice(mLeScanCallback);
+						mBoundService.ScanDevice(mScanBatcher);
 					}
 				});
 
@@ -88,8 +86,7 @@ public class BLEAct extends Activity {
 							return;
 						}
 
-						BluetoothDevice device = mDeviceListAdapter.getDevice(i);
-						mBoundService.Connect(device.getAddress());
+						mBoundService.Connect(mDeviceListAdapter.getAddress(i));
 					}
 				});
 
@@ -102,7 +99,7 @@ public class BLEAct extends Activity {
 							mBoundService.sendMessage("Test Message");
 							Toast.makeText(BLEAct.this, "Send Message", Toast.LENGTH_SHORT).show();
 						} else {
-							SetText("BlueTooth Not Connected");
+							AddEvent(BluetoothStatus.FAILURE, null, "BlueTooth Not Connected");
 						}
 					}
 				});
@@ -110,6 +107,21 @@ public class BLEAct extends Activity {
 				mDeviceListAdapter = new DeviceListAdapter(BLEAct.this);
 				mBleList.setAdapter(mDeviceListAdapter);
 
+				mEventConsole = new EventConsoleAdapter(BLEAct.this, MAX_EVENTS);
+				mConsole.setAdapter(mEventConsole);
+				// イベントをタップするとその機器のイベントだけ表示する(もう一度タップで解除)
+				mConsole.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+					@Override
+					public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
+						String address = mEventConsole.getEvent(i).mAddress;
+						if (address == null || address.equals(mEventConsole.getFilterAddress())) {
+							mEventConsole.setFilter(null, null);
+						} else {
+							mEventConsole.setFilter(address, null);
+						}
+					}
+				});
+
 				if(isRunning){
 					StartService();
 				}
@@ -120,6 +132,11 @@ public class BLEAct extends Activity {
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
+		mScanBatcher.Clear();
+		if (mDeviceListAdapter != null) {
+			mDeviceListAdapter.stopEviction();
+		}
+		UnsubscribeService();
 		if(mIsBound) {
 			unbindService(mConnection);
 		}
@@ -148,10 +165,10 @@ public class BLEAct extends Activity {
 	 */
 	private boolean IsEnabledBluetooth() {
 		if (mBoundService == null || !mIsBound){
-			SetText("Service Not Bound");
+			AddEvent(BluetoothStatus.FAILURE, null, "Service Not Bound");
 			return false;
 		} else if (!mBoundService.IsEnabledBluetooth()) {
-			SetText("BlueTooth Not Enable");
+			AddEvent(BluetoothStatus.FAILURE, null, "BlueTooth Not Enable");
 			return false;
 		}
 
@@ -177,6 +194,7 @@ public class BLEAct extends Activity {
 		if (IsEnabledBluetooth()){
 			mBoundService.DisConnect();
 		}
+		UnsubscribeService();
 
 		unbindService(mConnection);
 		Intent intent = new Intent(this, BTService.class);
@@ -199,107 +217,152 @@ public class BLEAct extends Activity {
 		public void onServiceConnected(ComponentName name, IBinder service) {
 			mBoundService = ((BTService.BTServicelBinder)service).getService();
 			if(mBoundService == null) {
-				SetText("Service Not Bound");
+				AddEvent(BluetoothStatus.FAILURE, null, "Service Not Bound");
 				return;
 			}
 
-			mBTServiceHandler = new BTServiceHandler(BLEAct.this);
-			mBoundService.SetHandlerAct(mBTServiceHandler);
+			// 画面の更新はメインスレッドで受け取る
+			UnsubscribeService();
+			mBTServiceListener = new BTServiceListener(BLEAct.this);
+			mBoundService.Subscribe(mBTServiceListener, Looper.getMainLooper());
 		}
 	};
 
 	/**
-	 * メッセージを設定する
-	 * @param mes
+	 * BTServiceのイベントの購読をやめる
 	 */
-	private void SetText(String mes){
-		StringBuilder sb = new StringBuilder();
-		// 最初の行にメッセージを追加
-		sb.append(mes);
-
-		// 過去のメッセージ
-		String text = mTextView.getText().toString();
-		String[] textAry = text.split(String.valueOf(NEW_LINE));
-		int len = textAry.length;
-		// 行数が最大行以上の場合
-		if(MAX_LINE <= len){
-			len--;
+	private void UnsubscribeService(){
+		if (mBoundService != null && mBTServiceListener != null) {
+			mBoundService.Unsubscribe(mBTServiceListener);
 		}
+		mBTServiceListener = null;
+	}
 
-		// 過去のメッセージを追加していく
-		for(int i = 0; i < len; i++){
-			sb.append(NEW_LINE);
-			sb.append(textAry[i]);
-		}
+	/**
+	 * コンソールにイベントを追加する
+	 * @param status
+	 * @param address
+	 * @param mes
+	 */
+	private void AddEvent(int status, String address, String mes){
+		mEventConsole.addEvent(status, address, mes);
+	}
 
-		mTextView.setText(sb.toString());
+	/**
+	 * 機器アドレス付きのメッセージをコンソールに追加する
+	 * @param status
+	 * @param obj "アドレス メッセージ"形式のメッセージ
+	 */
+	private void AddResultEvent(int status, Object obj){
+		if (obj == null) {
+			return;
+		}
+		String mes = obj.toString();
+		AddEvent(status, ConsoleEventBuffer.ExtractAddress(mes), mes);
 	}
 
 	/**
 	 * BLE機器のスキャンのコールバック
+	 * 結果は1フレームに1回まとめて受け取る
 	 */
-	private BluetoothAdapter.LeScanCallback mLeScanCallback =
-			new BluetoothAdapter.LeScanCallback() {
+	private ScanResultBatcher mScanBatcher = new ScanResultBatcher(0,
+			new ScanResultBatcher.OnScanBatchListener() {
 				//　デバイスが発見された時
 				@Override
-				public void onLeScan(final BluetoothDevice device, final int rssi, final byte[] scanRecord) {
-					runOnUiThread(new Runnable() {
-						@Override
-						public void run() {
-							mDeviceListAdapter.addDevice(device);
-							mDeviceListAdapter.notifyDataSetChanged();
-						}
-					});
+				public void onScanBatch(String[] addresses, String[] names, int[] rssis, byte[][] scanRecords, int count) {
+					boolean changed = false;
+					for (int i = 0; i < count; i++) {
+						changed |= mDeviceListAdapter.addDevice(addresses[i], names[i], rssis[i], scanRecords[i]);
+					}
+					// 件数が変わった時だけ一覧全体を作り直し、それ以外は更新された行だけ描画する
+					if (changed) {
+						mDeviceListAdapter.notifyDataSetChanged();
+					} else {
+						mDeviceListAdapter.refreshChangedRows(mBleList);
+					}
 				}
-			};
+			});
 
 	/**
-	 * BTServiceのハンドラ
+	 * BTServiceのイベントのリスナー
 	 */
-	private static class BTServiceHandler extends Handler {
+	private static class BTServiceListener implements BluetoothEventBus.OnBluetoothEventListener {
 		WeakReference<BLEAct> ref;
 
-		public BTServiceHandler(BLEAct r) {
+		public BTServiceListener(BLEAct r) {
 			ref = new WeakReference<BLEAct>(r);
 		}
 
 		@Override
-		public void handleMessage(Message msg) {
+		public void onBluetoothEvent(BluetoothEvent event) {
 			final BLEAct act = ref.get();
 			if (act == null) {
 				return;
 			}
 
-			switch (msg.what) {
+			int id = event.GetId();
+			Object obj = event.GetObject();
+			switch (id) {
 				case BluetoothStatus.START_SCAN:
-					act.SetText("Start Scan");
+					act.AddEvent(id, null, "Start Scan");
+					// スキャン中は広告が途絶えた機器を定期的に消す
+					if (act.mDeviceListAdapter != null) {
+						act.mDeviceListAdapter.startEviction();
+					}
 					break;
 				case BluetoothStatus.STOP_SCAN:
-					act.SetText("Stop Scan");
+					act.AddEvent(id, null, "Stop Scan");
+					if (act.mDeviceListAdapter != null) {
+						act.mDeviceListAdapter.stopEviction();
+					}
+					break;
+				case BluetoothStatus.FIRST_DEVICE:
+					act.AddEvent(id, null, "First Device " + obj + " ms");
 					break;
 				case BluetoothStatus.CONNECTING:
-					act.SetText("Connecting...");
+					act.AddEvent(id, ToAddress(obj), WithAddress("Connecting...", obj));
 					break;
 				case BluetoothStatus.CONNECTED:
-					act.SetText("Connected. Discover Services");
+					act.AddEvent(id, ToAddress(obj), WithAddress("Connected. Discover Services", obj));
 					break;
 				case BluetoothStatus.DISCONNECTED:
-					act.SetText("DisConnected");
+					act.AddEvent(id, ToAddress(obj), WithAddress("DisConnected", obj));
 					break;
-				case BluetoothStatus.SUCCESS:
-					if(msg.obj != null){
-						act.SetText(msg.obj.toString());
-					}
+				case BluetoothStatus.RECONNECTING:
+					act.AddEvent(id, ToAddress(obj), WithAddress("Reconnecting...", obj));
 					break;
+				case BluetoothStatus.SUCCESS:
 				case BluetoothStatus.FAILURE:
-					if(msg.obj != null){
-						act.SetText(msg.obj.toString());
-					}
+				case BluetoothStatus.SEND_COMPLETE:
+				case BluetoothStatus.NOTIFY_MES:
+				case BluetoothStatus.RELAY_MES:
+					act.AddResultEvent(id, obj);
 					break;
 				default:
-					super.handleMessage(msg);
 					break;
 			}
 		}
+
+		/**
+		 * 機器アドレスを取得する
+		 * @param address
+		 * @return
+		 */
+		private static String ToAddress(Object address) {
+			return address == null ? null : address.toString();
+		}
+
+		/**
+		 * メッセージに機器アドレスを付ける
+		 * @param mes
+		 * @param address
+		 * @return
+		 */
+		private static String WithAddress(String mes, Object address) {
+			if (address == null) {
+				return mes;
+			}
+			return mes + " " + address;
+		}
 	}
 }
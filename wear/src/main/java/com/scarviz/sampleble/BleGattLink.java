@@ -0,0 +1,146 @@
+package com.scarviz.sampleble;
+
+import java.util.UUID;
+
+/**
+ * GATT接続のインタフェース
+ * 要求の結果はBleGattListenerへ非同期に通知する
+ * ステータス等の値はAndroidのBluetoothGatt/BluetoothGattCharacteristicと同じ
+ */
+public interface BleGattLink {
+	/** ステータス：成功 */
+	int GATT_SUCCESS = 0;
+	/** ステータス：失敗 */
+	int GATT_FAILURE = 0x101;
+	/** ステータス：接続監視タイムアウト(電波が途切れた) */
+	int GATT_CONNECTION_TIMEOUT = 0x08;
+	/** ステータス：接続できなかった(Androidの133) */
+	int GATT_ERROR = 0x85;
+
+	/** 接続状態：切断 */
+	int STATE_DISCONNECTED = 0;
+	/** 接続状態：接続 */
+	int STATE_CONNECTED = 2;
+
+	/** 接続優先度：バランス */
+	int CONNECTION_PRIORITY_BALANCED = 0;
+	/** 接続優先度：高(短い接続間隔) */
+	int CONNECTION_PRIORITY_HIGH = 1;
+	/** 接続優先度：省電力(長い接続間隔) */
+	int CONNECTION_PRIORITY_LOW_POWER = 2;
+
+	/** 書き込み種別：応答なし */
+	int WRITE_TYPE_NO_RESPONSE = 1;
+	/** 書き込み種別：応答あり */
+	int WRITE_TYPE_DEFAULT = 2;
+
+	/**
+	 * 機器アドレスを取得する
+	 * @return
+	 */
+	String GetAddress();
+
+	/**
+	 * サービスを検索する
+	 * @return 要求を発行できた場合true
+	 */
+	boolean DiscoverServices();
+
+	/**
+	 * サービスがあるかどうか(検索後)
+	 * @param service
+	 * @return
+	 */
+	boolean HasService(UUID service);
+
+	/**
+	 * キャラクタリスティックがあるかどうか(検索後)
+	 * @param service
+	 * @param characteristic
+	 * @return
+	 */
+	boolean HasCharacteristic(UUID service, UUID characteristic);
+
+	/**
+	 * 検索で見つかった属性の一覧を取得する(検索後)
+	 * @return 検索していない場合null
+	 */
+	GattAttributeTable GetAttributes();
+
+	/**
+	 * キャッシュした属性をサービス検索の代わりに使う
+	 * 使えない場合はDiscoverServicesで検索すること
+	 * @param table
+	 * @return 検索せずに属性を操作できる場合true
+	 */
+	boolean UseAttributes(GattAttributeTable table);
+
+	/**
+	 * 通知の受け取りを設定する(ローカルの設定のみ。CCCDの書き込みは別に行う)
+	 * @param service
+	 * @param characteristic
+	 * @param enable
+	 * @return
+	 */
+	boolean SetCharacteristicNotification(UUID service, UUID characteristic, boolean enable);
+
+	/**
+	 * キャラクタリスティックを読み取る
+	 * @param service
+	 * @param characteristic
+	 * @return 要求を発行できた場合true
+	 */
+	boolean ReadCharacteristic(UUID service, UUID characteristic);
+
+	/**
+	 * キャラクタリスティックに書き込む
+	 * @param service
+	 * @param characteristic
+	 * @param value
+	 * @param writeType WRITE_TYPE_DEFAULT / WRITE_TYPE_NO_RESPONSE
+	 * @return 要求を発行できた場合true
+	 */
+	boolean WriteCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType);
+
+	/**
+	 * Descriptorに書き込む
+	 * @param service
+	 * @param characteristic
+	 * @param descriptor
+	 * @param value
+	 * @return 要求を発行できた場合true
+	 */
+	boolean WriteDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value);
+
+	/**
+	 * MTUを要求する(結果はonMtuChangedで通知する)
+	 * @param mtu
+	 * @return 要求を発行できた場合true。対応していない場合false
+	 */
+	boolean RequestMtu(int mtu);
+
+	/**
+	 * 接続優先度(接続間隔)を要求する
+	 * 結果は通知されない(実際の接続間隔は機器側が決める)
+	 * @param priority CONNECTION_PRIORITY_HIGH等
+	 * @return 要求を発行できた場合true。対応していない場合false
+	 */
+	boolean RequestConnectionPriority(int priority);
+
+	/**
+	 * 同じ接続で再接続する
+	 * 機器が見つかるまでバックグラウンドで待ち(autoConnect)、検索した属性はそのまま使える
+	 * @return 要求を発行できた場合true
+	 */
+	boolean Reconnect();
+
+	/**
+	 * 切断する(結果はonConnectionStateChangeで通知する)
+	 */
+	void Disconnect();
+
+	/**
+	 * 接続を閉じる(以降コールバックは呼ばれない)
+	 */
+	void Close();
+}
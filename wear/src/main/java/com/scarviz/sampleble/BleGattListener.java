@@ -0,0 +1,67 @@
+package com.scarviz.sampleble;
+
+import java.util.UUID;
+
+/**
+ * GATT接続のリスナー
+ * BleGattLinkのコールバックスレッドで呼ばれる
+ */
+public interface BleGattListener {
+	/**
+	 * 接続状態変更時処理
+	 * @param link
+	 * @param status
+	 * @param newState BleGattLink.STATE_CONNECTED / STATE_DISCONNECTED
+	 */
+	void onConnectionStateChange(BleGattLink link, int status, int newState);
+
+	/**
+	 * Service発見時処理
+	 * @param link
+	 * @param status
+	 */
+	void onServicesDiscovered(BleGattLink link, int status);
+
+	/**
+	 * 読み取り処理
+	 * @param link
+	 * @param characteristic
+	 * @param value
+	 * @param status
+	 */
+	void onCharacteristicRead(BleGattLink link, UUID characteristic, byte[] value, int status);
+
+	/**
+	 * 書き込み処理
+	 * @param link
+	 * @param characteristic
+	 * @param status
+	 */
+	void onCharacteristicWrite(BleGattLink link, UUID characteristic, int status);
+
+	/**
+	 * Descriptor書き込み処理
+	 * @param link
+	 * @param characteristic Descriptorを持つキャラクタリスティック
+	 * @param descriptor
+	 * @param status
+	 */
+	void onDescriptorWrite(BleGattLink link, UUID characteristic, UUID descriptor, int status);
+
+	/**
+	 * MTU変更時処理
+	 * @param link
+	 * @param mtu 機器と合意したMTU
+	 * @param status
+	 */
+	void onMtuChanged(BleGattLink link, int mtu, int status);
+
+	/**
+	 * キャラクタリスティック変更時処理
+	 * valueはこの呼び出しの間だけ有効
+	 * @param link
+	 * @param characteristic
+	 * @param value
+	 */
+	void onCharacteristicChanged(BleGattLink link, UUID characteristic, byte[] value);
+}
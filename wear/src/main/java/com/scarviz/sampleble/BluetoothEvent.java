@@ -0,0 +1,56 @@
+package com.scarviz.sampleble;
+
+import android.os.SystemClock;
+
+/**
+ * Bluetoothイベント
+ * BluetoothEventBusで購読者へ配る。購読者間で共有するので変更しないこと
+ */
+public class BluetoothEvent {
+	private final int mId;
+	private final Object mObj;
+	private final long mTime;
+
+	/**
+	 * コンストラクタ
+	 * @param id BluetoothStatusの値
+	 * @param obj 付加情報(機器アドレス、メッセージ等)
+	 */
+	public BluetoothEvent(int id, Object obj) {
+		mId = id;
+		mObj = obj;
+		mTime = SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * イベントIDを取得する
+	 * @return BluetoothStatusの値
+	 */
+	public int GetId() {
+		return mId;
+	}
+
+	/**
+	 * 付加情報を取得する
+	 * @return
+	 */
+	public Object GetObject() {
+		return mObj;
+	}
+
+	/**
+	 * 付加情報を文字列で取得する
+	 * @return 付加情報がない場合null
+	 */
+	public String GetText() {
+		return mObj == null ? null : mObj.toString();
+	}
+
+	/**
+	 * 発生時刻(elapsedRealtime, ms)を取得する
+	 * @return
+	 */
+	public long GetTime() {
+		return mTime;
+	}
+}
@@ -0,0 +1,127 @@
+package com.scarviz.sampleble;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bluetoothイベントバス
+ * 発行したイベントを購読者ごとに指定したスレッド(Looper)へ1回で配る
+ * Looperを指定しない購読者には発行したスレッドでそのまま配る(記録等の軽い処理向け)
+ */
+public class BluetoothEventBus {
+	/**
+	 * イベントのリスナー
+	 */
+	public interface OnBluetoothEventListener {
+		/**
+		 * イベント受信時処理
+		 * @param event
+		 */
+		void onBluetoothEvent(BluetoothEvent event);
+	}
+
+	/**
+	 * 購読者
+	 */
+	private static class Subscriber implements Handler.Callback {
+		final OnBluetoothEventListener mListener;
+		/** 配送先のHandler(発行したスレッドで配る場合null) */
+		final Handler mHandler;
+		/** 受け取るイベントID(全て受け取る場合null) */
+		final int[] mIds;
+		/** 購読をやめた後に届いたイベントは配らない */
+		volatile boolean mActive = true;
+
+		Subscriber(OnBluetoothEventListener listener, Looper looper, int[] ids) {
+			mListener = listener;
+			mHandler = looper == null ? null : new Handler(looper, this);
+			mIds = ids == null || ids.length == 0 ? null : ids.clone();
+		}
+
+		boolean Accepts(int id) {
+			if (mIds == null) {
+				return true;
+			}
+			for (int i : mIds) {
+				if (i == id) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void Deliver(BluetoothEvent event) {
+			if (mHandler == null) {
+				mListener.onBluetoothEvent(event);
+			} else {
+				Message.obtain(mHandler, event.GetId(), event).sendToTarget();
+			}
+		}
+
+		@Override
+		public boolean handleMessage(Message msg) {
+			if (mActive) {
+				mListener.onBluetoothEvent((BluetoothEvent) msg.obj);
+			}
+			return true;
+		}
+	}
+
+	private final CopyOnWriteArrayList<Subscriber> mSubscribers = new CopyOnWriteArrayList<Subscriber>();
+
+	/**
+	 * 購読する
+	 * @param listener
+	 * @param looper 配送先のスレッド(nullの場合は発行したスレッドで配る)
+	 * @param ids 受け取るイベントID(省略した場合は全て)
+	 */
+	public void Subscribe(OnBluetoothEventListener listener, Looper looper, int... ids) {
+		mSubscribers.add(new Subscriber(listener, looper, ids));
+	}
+
+	/**
+	 * 購読をやめる
+	 * 配送待ちのイベントも配らない
+	 * @param listener
+	 */
+	public void Unsubscribe(OnBluetoothEventListener listener) {
+		for (Subscriber subscriber : mSubscribers) {
+			if (subscriber.mListener == listener) {
+				subscriber.mActive = false;
+				if (subscriber.mHandler != null) {
+					subscriber.mHandler.removeCallbacksAndMessages(null);
+				}
+				mSubscribers.remove(subscriber);
+			}
+		}
+	}
+
+	/**
+	 * 購読者がいるかどうか
+	 * @return
+	 */
+	public boolean HasSubscribers() {
+		return !mSubscribers.isEmpty();
+	}
+
+	/**
+	 * イベントを発行する(任意のスレッドから呼べる)
+	 * @param id BluetoothStatusの値
+	 * @param obj 付加情報
+	 */
+	public void Publish(int id, Object obj) {
+		BluetoothEvent event = null;
+		for (Subscriber subscriber : mSubscribers) {
+			if (!subscriber.Accepts(id)) {
+				continue;
+			}
+			if (event == null) {
+				event = new BluetoothEvent(id, obj);
+			}
+			subscriber.Deliver(event);
+		}
+	}
+}
@@ -16,6 +16,14 @@ public class BluetoothStatus {
 	public final static int DISCONNECTED = 0x1005;
 	/** Notifyメッセージ */
 	public final static int NOTIFY_MES = 0x1006;
+	/** 送信完了 */
+	public final static int SEND_COMPLETE = 0x1007;
+	/** 最初の機器発見 */
+	public final static int FIRST_DEVICE = 0x1008;
+	/** 再接続中 */
+	public final static int RECONNECTING = 0x1009;
+	/** 中継されたメッセージ */
+	public final static int RELAY_MES = 0x100A;
 
 	/** 成功 */
 	public final static int SUCCESS = 0x0000;
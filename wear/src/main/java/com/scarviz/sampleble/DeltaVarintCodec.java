@@ -0,0 +1,122 @@
+package com.scarviz.sampleble;
+
+/**
+ * 差分+varint圧縮クラス
+ * データを16bit(LE)の符号付き値の並びとみなし、同じチャンネルの1つ前の値との差をzigzag符号化してvarintで書く
+ * 3軸の値を交互に並べたデータ等のため、チャンネル数(差を取る間隔)は先頭の値から見積もって選ぶ
+ * ゆっくり変化するセンサー値は1値あたり1byte程度になる
+ * 形式：元の長さ(varint) チャンネル数(1) 差分(varint)×(長さ/2) [長さが奇数の場合は最後の1byteをそのまま]
+ */
+public class DeltaVarintCodec implements PayloadCodec {
+	/** チャンネル数の最大 */
+	private static final int MAX_CHANNELS = 8;
+	/** チャンネル数の見積もりに使う値の数 */
+	private static final int ESTIMATE_SAMPLES = 48;
+
+	@Override
+	public int GetId() {
+		return PayloadCodecs.CODEC_DELTA_VARINT;
+	}
+
+	/**
+	 * 差分は17bitなので1値あたり最大3byte
+	 * @param length
+	 * @return
+	 */
+	@Override
+	public int MaxEncodedLength(int length) {
+		return 5 + 1 + length / 2 * 3 + 1;
+	}
+
+	@Override
+	public int Encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+		int position = PayloadCodecs.WriteVarint(dst, dstOffset, length);
+		int samples = length / 2;
+		int channels = ChooseChannels(src, offset, samples);
+		dst[position++] = (byte) channels;
+		for (int i = 0; i < samples; i++) {
+			int delta = Sample(src, offset, i) - (i < channels ? 0 : Sample(src, offset, i - channels));
+			position = PayloadCodecs.WriteVarint(dst, position, delta << 1 ^ delta >> 31);
+		}
+		if ((length & 1) != 0) {
+			dst[position++] = src[offset + length - 1];
+		}
+		return position - dstOffset;
+	}
+
+	@Override
+	public int Decode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+		int end = offset + length;
+		long header = PayloadCodecs.ReadVarint(src, offset, end);
+		if (header < 0) {
+			return -1;
+		}
+		int decodedLength = PayloadCodecs.VarintValue(header);
+		int position = offset + PayloadCodecs.VarintSize(header);
+		if (end <= position) {
+			return -1;
+		}
+		int channels = src[position++];
+		if (channels < 1 || MAX_CHANNELS < channels) {
+			return -1;
+		}
+		int out = dstOffset;
+		int samples = decodedLength / 2;
+		for (int i = 0; i < samples; i++) {
+			long result = PayloadCodecs.ReadVarint(src, position, end);
+			if (result < 0) {
+				return -1;
+			}
+			position += PayloadCodecs.VarintSize(result);
+			int zigzag = PayloadCodecs.VarintValue(result);
+			int value = (zigzag >>> 1 ^ -(zigzag & 1)) + (i < channels ? 0 : Sample(dst, dstOffset, i - channels));
+			dst[out++] = (byte) value;
+			dst[out++] = (byte) (value >> 8);
+		}
+		if ((decodedLength & 1) != 0) {
+			if (end <= position) {
+				return -1;
+			}
+			dst[out++] = src[position++];
+		}
+		return position == end ? decodedLength : -1;
+	}
+
+	/**
+	 * 差分が最も小さくなるチャンネル数を選ぶ
+	 * 先頭ESTIMATE_SAMPLES個の値について、差分のビット数の合計を比べる
+	 * @param src
+	 * @param offset
+	 * @param samples
+	 * @return
+	 */
+	private static int ChooseChannels(byte[] src, int offset, int samples) {
+		int best = 1;
+		int bestCost = Integer.MAX_VALUE;
+		int end = Math.min(samples, ESTIMATE_SAMPLES + MAX_CHANNELS);
+		for (int channels = 1; channels <= MAX_CHANNELS && channels < end; channels++) {
+			int cost = 0;
+			for (int i = MAX_CHANNELS; i < end; i++) {
+				int delta = Sample(src, offset, i) - Sample(src, offset, i - channels);
+				cost += 32 - Integer.numberOfLeadingZeros(delta << 1 ^ delta >> 31);
+			}
+			if (cost < bestCost) {
+				best = channels;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * 16bit値(LE)を読み込む
+	 * @param data
+	 * @param offset
+	 * @param index
+	 * @return
+	 */
+	private static int Sample(byte[] data, int offset, int index) {
+		int i = offset + index * 2;
+		return (short) ((data[i] & 0xFF) | data[i + 1] << 8);
+	}
+}
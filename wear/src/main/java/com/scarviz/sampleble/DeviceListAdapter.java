@@ -1,47 +1,125 @@
 package com.scarviz.sampleble;
 
 import android.app.Activity;
-import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
-
 public class DeviceListAdapter extends BaseAdapter {
-	private ArrayList<BluetoothDevice> mLeDevices;
+	/** この時間(ms)広告がない機器は一覧から消す */
+	private final static long DEVICE_TTL = 30000;
+	/** 一覧に保持する最大の機器数 */
+	private final static int MAX_DEVICES = 500;
+	/** 広告が途絶えた機器を消す間隔(ms)。広告が届かなくても消えるよう定期的に行う */
+	private final static long EVICT_INTERVAL = DEVICE_TTL / 4;
+
+	private DeviceRegistry mRegistry;
+	private AdvertisementRecord mAdvertisement = new AdvertisementRecord();
 	private LayoutInflater mInflator;
+	/** 定期的に機器を消すためのHandler(メインスレッド) */
+	private final Handler mEvictHandler = new Handler();
+	private boolean mEvicting;
 
 	public DeviceListAdapter(Activity act) {
 		super();
-		mLeDevices = new ArrayList<BluetoothDevice>();
+		mRegistry = new DeviceRegistry(DEVICE_TTL, MAX_DEVICES);
 		mInflator = act.getLayoutInflater();
 	}
 
-	public void addDevice(BluetoothDevice device) {
-		if(!mLeDevices.contains(device)) {
-			mLeDevices.add(device);
+	/**
+	 * 機器を追加する
+	 * @param address
+	 * @param name
+	 * @param rssi
+	 * @param scanRecord
+	 * @return 一覧の件数や並びが変わった場合true
+	 */
+	public boolean addDevice(String address, String name, int rssi, byte[] scanRecord) {
+		long now = SystemClock.elapsedRealtime();
+		AdvertisementRecord advertisement = null;
+		if (scanRecord != null) {
+			mAdvertisement.Wrap(scanRecord);
+			advertisement = mAdvertisement;
+		}
+		boolean added = mRegistry.Update(address, name, rssi, advertisement, now);
+		int evicted = mRegistry.Evict(now);
+		return added || 0 < evicted;
+	}
+
+	/**
+	 * 広告が途絶えた機器の定期的な削除を開始する(スキャン開始時)
+	 */
+	public void startEviction() {
+		if (mEvicting) {
+			return;
 		}
+		mEvicting = true;
+		mEvictHandler.postDelayed(mEvictRunnable, EVICT_INTERVAL);
 	}
 
-	public BluetoothDevice getDevice(int position) {
-		return mLeDevices.get(position);
+	/**
+	 * 広告が途絶えた機器の定期的な削除を止める(スキャン終了時)
+	 */
+	public void stopEviction() {
+		mEvicting = false;
+		mEvictHandler.removeCallbacks(mEvictRunnable);
+	}
+
+	/**
+	 * 広告が途絶えた機器を消す
+	 */
+	private final Runnable mEvictRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (0 < mRegistry.Evict(SystemClock.elapsedRealtime())) {
+				notifyDataSetChanged();
+			}
+			if (mEvicting) {
+				mEvictHandler.postDelayed(this, EVICT_INTERVAL);
+			}
+		}
+	};
+
+	/**
+	 * 表示中の行のうち、更新された機器の行だけ描画し直す
+	 * 件数や並びが変わっていない場合にnotifyDataSetChangedの代わりに使う
+	 * @param listView
+	 */
+	public void refreshChangedRows(ListView listView) {
+		int first = listView.getFirstVisiblePosition();
+		int childCount = listView.getChildCount();
+		for (int i = 0; i < childCount; i++) {
+			int position = first + i;
+			if (mRegistry.Size() <= position) {
+				break;
+			}
+			if (mRegistry.Get(position).mChanged) {
+				getView(position, listView.getChildAt(i), listView);
+			}
+		}
+	}
+
+	public String getAddress(int position) {
+		return mRegistry.Get(position).mAddress;
 	}
 
 	public void clear() {
-		mLeDevices.clear();
+		mRegistry.Clear();
 	}
 
 	@Override
 	public int getCount() {
-		return mLeDevices.size();
+		return mRegistry.Size();
 	}
 
 	@Override
 	public Object getItem(int i) {
-		return mLeDevices.get(i);
+		return mRegistry.Get(i);
 	}
 
 	@Override
@@ -58,6 +136,7 @@ public class DeviceListAdapter extends BaseAdapter {
 			viewHolder = new ViewHolder();
 			viewHolder.deviceAddress = (TextView) view.findViewById(R.id.device_address);
 			viewHolder.deviceName = (TextView) view.findViewById(R.id.device_name);
+			viewHolder.deviceRssi = (TextView) view.findViewById(R.id.device_rssi);
 			view.setTag(viewHolder);
 		}
 		//　初回以外はインフレートしない。
@@ -65,13 +144,18 @@ public class DeviceListAdapter extends BaseAdapter {
 			viewHolder = (ViewHolder) view.getTag();
 		}
 		//　各値をセット
-		BluetoothDevice device = mLeDevices.get(i);
-		final String deviceName = device.getName();
+		DeviceRegistry.DeviceRecord record = mRegistry.Get(i);
+		record.mChanged = false;
+		String deviceName = record.mName;
+		if (deviceName == null || deviceName.length() == 0) {
+			deviceName = record.mAdvertisedName;
+		}
 		if (deviceName != null && deviceName.length() > 0)
 			viewHolder.deviceName.setText(deviceName);
 		else
 			viewHolder.deviceName.setText("unknown_device");
-		viewHolder.deviceAddress.setText("アドレス："+device.getAddress());
+		viewHolder.deviceAddress.setText("アドレス："+record.mAddress);
+		viewHolder.deviceRssi.setText("RSSI："+record.mRssi+" dBm ("+record.mCount+")");
 
 		return view;
 	}
@@ -82,5 +166,6 @@ public class DeviceListAdapter extends BaseAdapter {
 	static class ViewHolder {
 		TextView deviceName;
 		TextView deviceAddress;
+		TextView deviceRssi;
 	}
 }
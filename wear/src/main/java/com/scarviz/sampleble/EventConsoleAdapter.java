@@ -0,0 +1,119 @@
+package com.scarviz.sampleble;
+
+import android.app.Activity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * イベントコンソールのアダプター
+ * 最新のイベントを先頭に表示する。文字列の組み立ては表示中の行だけ行う
+ */
+public class EventConsoleAdapter extends BaseAdapter {
+	private ConsoleEventBuffer mBuffer;
+	private LayoutInflater mInflator;
+	private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+	private final Date mDate = new Date();
+
+	/**
+	 * コンストラクタ
+	 * @param act
+	 * @param capacity 保持するイベント数
+	 */
+	public EventConsoleAdapter(Activity act, int capacity) {
+		super();
+		mBuffer = new ConsoleEventBuffer(capacity);
+		mInflator = act.getLayoutInflater();
+	}
+
+	/**
+	 * イベントを追加する
+	 * @param status
+	 * @param address
+	 * @param text
+	 */
+	public void addEvent(int status, String address, String text) {
+		mBuffer.Add(status, address, System.currentTimeMillis(), text);
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * 表示するイベントを絞り込む
+	 * @param address nullの場合は全ての機器
+	 * @param statuses nullの場合は全てのステータス
+	 */
+	public void setFilter(String address, int[] statuses) {
+		mBuffer.SetFilter(address, statuses);
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * 絞り込み中の機器を取得する
+	 * @return
+	 */
+	public String getFilterAddress() {
+		return mBuffer.GetFilterAddress();
+	}
+
+	public ConsoleEventBuffer.Event getEvent(int position) {
+		return mBuffer.Get(position);
+	}
+
+	public void clear() {
+		mBuffer.Clear();
+		notifyDataSetChanged();
+	}
+
+	@Override
+	public int getCount() {
+		return mBuffer.Size();
+	}
+
+	@Override
+	public Object getItem(int i) {
+		return mBuffer.Get(i);
+	}
+
+	@Override
+	public long getItemId(int i) {
+		return i;
+	}
+
+	@Override
+	public View getView(int i, View view, ViewGroup viewGroup) {
+		ViewHolder viewHolder;
+		// 初回（リストがNull）の時、Viewをインフレート
+		if (view == null) {
+			view = mInflator.inflate(R.layout.listitem_event, null);
+			viewHolder = new ViewHolder();
+			viewHolder.eventTime = (TextView) view.findViewById(R.id.event_time);
+			viewHolder.eventText = (TextView) view.findViewById(R.id.event_text);
+			view.setTag(viewHolder);
+		}
+		//　初回以外はインフレートしない。
+		else {
+			viewHolder = (ViewHolder) view.getTag();
+		}
+		//　各値をセット
+		ConsoleEventBuffer.Event event = mBuffer.Get(i);
+		mDate.setTime(event.mTime);
+		viewHolder.eventTime.setText(mTimeFormat.format(mDate));
+		viewHolder.eventText.setText(event.mText);
+
+		return view;
+	}
+
+	/**
+	 * Viewを一時保存するクラス
+	 */
+	static class ViewHolder {
+		TextView eventTime;
+		TextView eventText;
+	}
+}
@@ -0,0 +1,486 @@
+package com.scarviz.sampleble;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GATT計測クラス
+ * 機器1台分の操作ごとの遅延ヒストグラムとカウンタを保持する
+ * 再接続しても同じ機器なら同じインスタンスに積み上げる
+ */
+public class GattMetrics {
+	/** 計測対象：接続(connectGattから接続完了まで) */
+	public final static int METRIC_CONNECT = 0;
+	/** 計測対象：サービス検索 */
+	public final static int METRIC_DISCOVERY = 1;
+	/** 計測対象：キャラクタリスティック読み取り */
+	public final static int METRIC_READ = 2;
+	/** 計測対象：キャラクタリスティック書き込み */
+	public final static int METRIC_WRITE = 3;
+	/** 計測対象：Descriptor書き込み */
+	public final static int METRIC_WRITE_DESCRIPTOR = 4;
+	/** 計測対象：通知の受信から処理まで */
+	public final static int METRIC_NOTIFY_DELIVERY = 5;
+	private final static int METRIC_COUNT = 6;
+
+	private final static String[] METRIC_NAMES = {
+			"connect", "discovery", "read", "write", "writeDescriptor", "notifyDelivery"
+	};
+
+	private final String mAddress;
+	private final LatencyHistogram[] mHistograms = new LatencyHistogram[METRIC_COUNT];
+
+	private final AtomicLong mConnects = new AtomicLong();
+	private final AtomicLong mDisconnects = new AtomicLong();
+	private final AtomicLong mOperationFailures = new AtomicLong();
+	private final AtomicLong mOperationTimeouts = new AtomicLong();
+	private final AtomicLong mNotifications = new AtomicLong();
+	private final AtomicLong mDroppedNotifications = new AtomicLong();
+	private final AtomicLong mBytesIn = new AtomicLong();
+	private final AtomicLong mBytesOut = new AtomicLong();
+	private final AtomicLong mAttributeCacheHits = new AtomicLong();
+	private final AtomicLong mReconnectAttempts = new AtomicLong();
+	/** 機器と合意したMTU */
+	private volatile int mMtu = GattConnection.DEFAULT_MTU;
+	/** 最後に要求した接続優先度と、要求を受け付けたかどうか */
+	private volatile int mConnectionPriority = -1;
+	private volatile boolean mConnectionPriorityAccepted;
+	private volatile int mLinkProfile = -1;
+	private final AtomicLong mLinkProfileChanges = new AtomicLong();
+	private final AtomicLong mMessages = new AtomicLong();
+	private final AtomicLong mLostMessages = new AtomicLong();
+	private final AtomicLong mCorruptedMessages = new AtomicLong();
+	/** 圧縮して送ったデータの圧縮前/後のバイト数 */
+	private final AtomicLong mEncodedRawBytes = new AtomicLong();
+	private final AtomicLong mEncodedBytes = new AtomicLong();
+	/** 圧縮されて届いたデータの圧縮前/後のバイト数 */
+	private final AtomicLong mDecodedRawBytes = new AtomicLong();
+	private final AtomicLong mDecodedBytes = new AtomicLong();
+
+	/** 通知の計測を始めた時刻(ns) */
+	private final long mCreated;
+
+	/**
+	 * コンストラクタ
+	 * @param address
+	 * @param now 作成時刻(ns)
+	 */
+	GattMetrics(String address, long now) {
+		mAddress = address;
+		mCreated = now;
+		for (int i = 0; i < METRIC_COUNT; i++) {
+			mHistograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * GATT操作種別から計測対象を取得する
+	 * @param operationType
+	 * @return 計測対象外の場合-1
+	 */
+	static int MetricOf(int operationType) {
+		switch (operationType) {
+			case GattOperation.TYPE_READ_CHARACTERISTIC:
+				return METRIC_READ;
+			case GattOperation.TYPE_WRITE_CHARACTERISTIC:
+				return METRIC_WRITE;
+			case GattOperation.TYPE_WRITE_DESCRIPTOR:
+				return METRIC_WRITE_DESCRIPTOR;
+			default:
+				return -1;
+		}
+	}
+
+	/**
+	 * 遅延を記録する
+	 * @param metric
+	 * @param nanos
+	 */
+	void Record(int metric, long nanos) {
+		if (0 <= metric) {
+			mHistograms[metric].Record(nanos);
+		}
+	}
+
+	/**
+	 * GATT操作の完了を記録する
+	 * @param operation
+	 * @param success
+	 * @param nanos
+	 */
+	void OnOperationComplete(GattOperation operation, boolean success, long nanos) {
+		if (!success) {
+			mOperationFailures.incrementAndGet();
+			return;
+		}
+		Record(MetricOf(operation.GetType()), nanos);
+		if (operation.GetType() == GattOperation.TYPE_WRITE_CHARACTERISTIC) {
+			mBytesOut.addAndGet(operation.GetValueLength());
+		}
+	}
+
+	/**
+	 * GATT操作のタイムアウトを記録する
+	 */
+	void OnOperationTimeout() {
+		mOperationTimeouts.incrementAndGet();
+	}
+
+	/**
+	 * 接続完了を記録する
+	 * @param nanos
+	 */
+	void OnConnected(long nanos) {
+		mConnects.incrementAndGet();
+		Record(METRIC_CONNECT, nanos);
+	}
+
+	/**
+	 * 属性キャッシュを使ってサービス検索を省いたことを記録する
+	 */
+	void OnAttributeCacheHit() {
+		mAttributeCacheHits.incrementAndGet();
+	}
+
+	/**
+	 * 再接続の試みを記録する
+	 */
+	void OnReconnectAttempt() {
+		mReconnectAttempts.incrementAndGet();
+	}
+
+	/**
+	 * 機器と合意したMTUを記録する
+	 * @param mtu
+	 */
+	void OnMtuChanged(int mtu) {
+		mMtu = mtu;
+	}
+
+	/**
+	 * 接続優先度の要求を記録する
+	 * @param priority
+	 * @param accepted
+	 */
+	void OnConnectionPriority(int priority, boolean accepted) {
+		mConnectionPriority = priority;
+		mConnectionPriorityAccepted = accepted;
+	}
+
+	/**
+	 * 接続プロファイルの適用を記録する
+	 * @param profile
+	 */
+	void OnLinkProfile(int profile) {
+		if (0 <= mLinkProfile && mLinkProfile != profile) {
+			mLinkProfileChanges.incrementAndGet();
+		}
+		mLinkProfile = profile;
+	}
+
+	/**
+	 * 切断を記録する
+	 */
+	void OnDisconnected() {
+		mDisconnects.incrementAndGet();
+	}
+
+	/**
+	 * 通知の処理を記録する(読み出し側スレッド)
+	 * @param length
+	 * @param delivery 受信から処理までの時間(ns)
+	 */
+	void OnNotification(int length, long delivery) {
+		mNotifications.incrementAndGet();
+		mBytesIn.addAndGet(length);
+		mHistograms[METRIC_NOTIFY_DELIVERY].Record(delivery);
+	}
+
+	/**
+	 * 組み立てたメッセージを記録する(読み出し側スレッド)
+	 */
+	void OnMessage() {
+		mMessages.incrementAndGet();
+	}
+
+	/**
+	 * 失われたメッセージを記録する(読み出し側スレッド)
+	 * @param count
+	 * @param corrupted countのうちCRCまたは長さが合わなかった数
+	 */
+	void OnMessagesLost(int count, int corrupted) {
+		mLostMessages.addAndGet(count);
+		mCorruptedMessages.addAndGet(corrupted);
+	}
+
+	/**
+	 * 圧縮して送ったデータを記録する
+	 * @param rawLength 圧縮前
+	 * @param encodedLength 圧縮後
+	 */
+	void OnEncoded(int rawLength, int encodedLength) {
+		mEncodedRawBytes.addAndGet(rawLength);
+		mEncodedBytes.addAndGet(encodedLength);
+	}
+
+	/**
+	 * 圧縮されて届いたデータを記録する(読み出し側スレッド)
+	 * @param encodedLength 圧縮後
+	 * @param rawLength 復号後
+	 */
+	void OnDecoded(int encodedLength, int rawLength) {
+		mDecodedBytes.addAndGet(encodedLength);
+		mDecodedRawBytes.addAndGet(rawLength);
+	}
+
+	/**
+	 * バッファ満杯で捨てた通知を記録する
+	 */
+	void OnNotificationDropped() {
+		mDroppedNotifications.incrementAndGet();
+	}
+
+	/**
+	 * 機器アドレスを取得する
+	 * @return
+	 */
+	public String GetAddress() {
+		return mAddress;
+	}
+
+	/**
+	 * 遅延ヒストグラムを取得する
+	 * @param metric METRIC_CONNECT等
+	 * @return
+	 */
+	public LatencyHistogram GetHistogram(int metric) {
+		return mHistograms[metric];
+	}
+
+	/**
+	 * 接続回数を取得する
+	 * @return
+	 */
+	public long GetConnects() {
+		return mConnects.get();
+	}
+
+	/**
+	 * 切断回数を取得する
+	 * @return
+	 */
+	public long GetDisconnects() {
+		return mDisconnects.get();
+	}
+
+	/**
+	 * 失敗したGATT操作の数を取得する
+	 * @return
+	 */
+	public long GetOperationFailures() {
+		return mOperationFailures.get();
+	}
+
+	/**
+	 * タイムアウトしたGATT操作の数を取得する
+	 * @return
+	 */
+	public long GetOperationTimeouts() {
+		return mOperationTimeouts.get();
+	}
+
+	/**
+	 * 処理した通知の数を取得する
+	 * @return
+	 */
+	public long GetNotifications() {
+		return mNotifications.get();
+	}
+
+	/**
+	 * バッファ満杯で捨てた通知の数を取得する
+	 * @return
+	 */
+	public long GetDroppedNotifications() {
+		return mDroppedNotifications.get();
+	}
+
+	/**
+	 * 受信したバイト数を取得する
+	 * @return
+	 */
+	public long GetBytesIn() {
+		return mBytesIn.get();
+	}
+
+	/**
+	 * 送信したバイト数を取得する
+	 * @return
+	 */
+	public long GetBytesOut() {
+		return mBytesOut.get();
+	}
+
+	/**
+	 * 属性キャッシュでサービス検索を省いた回数を取得する
+	 * 実機では検索結果が残った同じBluetoothGattで自動再接続した場合だけ数える(新しい接続では必ず検索する)
+	 * @return
+	 */
+	public long GetAttributeCacheHits() {
+		return mAttributeCacheHits.get();
+	}
+
+	/**
+	 * 再接続を試みた回数を取得する
+	 * @return
+	 */
+	public long GetReconnectAttempts() {
+		return mReconnectAttempts.get();
+	}
+
+	/**
+	 * 組み立てたメッセージの数を取得する
+	 * @return
+	 */
+	public long GetMessages() {
+		return mMessages.get();
+	}
+
+	/**
+	 * 失われたメッセージの数を取得する(壊れていたものを含む)
+	 * @return
+	 */
+	public long GetLostMessages() {
+		return mLostMessages.get();
+	}
+
+	/**
+	 * CRCまたは長さが合わなかったメッセージの数を取得する
+	 * @return
+	 */
+	public long GetCorruptedMessages() {
+		return mCorruptedMessages.get();
+	}
+
+	/**
+	 * 圧縮して送ったデータの圧縮前のバイト数を取得する
+	 * @return
+	 */
+	public long GetEncodedRawBytes() {
+		return mEncodedRawBytes.get();
+	}
+
+	/**
+	 * 圧縮して送ったデータの圧縮後のバイト数を取得する
+	 * @return
+	 */
+	public long GetEncodedBytes() {
+		return mEncodedBytes.get();
+	}
+
+	/**
+	 * 圧縮されて届いたデータの復号後のバイト数を取得する
+	 * @return
+	 */
+	public long GetDecodedRawBytes() {
+		return mDecodedRawBytes.get();
+	}
+
+	/**
+	 * 圧縮されて届いたデータの圧縮後のバイト数を取得する
+	 * @return
+	 */
+	public long GetDecodedBytes() {
+		return mDecodedBytes.get();
+	}
+
+	/**
+	 * 機器と合意したMTUを取得する
+	 * @return
+	 */
+	public int GetMtu() {
+		return mMtu;
+	}
+
+	/**
+	 * 最後に要求した接続優先度を取得する
+	 * @return 要求していない場合-1
+	 */
+	public int GetConnectionPriority() {
+		return mConnectionPriority;
+	}
+
+	/**
+	 * 最後の接続優先度の要求を受け付けたかどうか
+	 * @return
+	 */
+	public boolean IsConnectionPriorityAccepted() {
+		return mConnectionPriorityAccepted;
+	}
+
+	/**
+	 * 適用中の接続プロファイルを取得する
+	 * @return 適用していない場合-1
+	 */
+	public int GetLinkProfile() {
+		return mLinkProfile;
+	}
+
+	/**
+	 * 接続プロファイルを切り替えた回数を取得する
+	 * @return
+	 */
+	public long GetLinkProfileChanges() {
+		return mLinkProfileChanges.get();
+	}
+
+	/**
+	 * 計測開始からの通知の平均受信レート(件/秒)を取得する
+	 * @param now 現在時刻(ns)
+	 * @return
+	 */
+	public double GetNotificationRate(long now) {
+		long elapsed = now - mCreated;
+		return elapsed <= 0 ? 0 : mNotifications.get() * 1000000000.0 / elapsed;
+	}
+
+	/**
+	 * 計測結果を文字列にする
+	 * @param now 現在時刻(ns)
+	 * @return
+	 */
+	public String GetReport(long now) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(mAddress)
+				.append(" connects=").append(GetConnects())
+				.append(" disconnects=").append(GetDisconnects())
+				.append(" reconnects=").append(GetReconnectAttempts())
+				.append(" failures=").append(GetOperationFailures())
+				.append(" timeouts=").append(GetOperationTimeouts())
+				.append(" discoverySkipped=").append(GetAttributeCacheHits())
+				.append("\n mtu=").append(GetMtu())
+				.append(" priority=").append(GetConnectionPriority())
+				.append(GetConnectionPriority() < 0 || IsConnectionPriorityAccepted() ? "" : "(rejected)")
+				.append(" profile=").append(0 <= GetLinkProfile() ? LinkProfile.NameOf(GetLinkProfile()) : "-")
+				.append(" profileChanges=").append(GetLinkProfileChanges())
+				.append("\n notify=").append(GetNotifications())
+				.append(" (").append(String.format("%.1f", GetNotificationRate(now))).append("/s)")
+				.append(" dropped=").append(GetDroppedNotifications())
+				.append(" in=").append(GetBytesIn()).append("B")
+				.append(" out=").append(GetBytesOut()).append("B");
+		if (0 < GetMessages() || 0 < GetLostMessages()) {
+			sb.append("\n messages=").append(GetMessages())
+					.append(" lost=").append(GetLostMessages())
+					.append(" corrupted=").append(GetCorruptedMessages());
+		}
+		if (0 < GetEncodedRawBytes() || 0 < GetDecodedRawBytes()) {
+			sb.append("\n compressed out=").append(GetEncodedRawBytes()).append("->").append(GetEncodedBytes()).append("B")
+					.append(" in=").append(GetDecodedBytes()).append("->").append(GetDecodedRawBytes()).append("B");
+		}
+		for (int i = 0; i < METRIC_COUNT; i++) {
+			if (0 < mHistograms[i].GetCount()) {
+				sb.append("\n ").append(METRIC_NAMES[i]).append(": ").append(mHistograms[i]);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,139 @@
+package com.scarviz.sampleble;
+
+import android.util.Log;
+
+/**
+ * 接続プロファイルクラス
+ * 接続後に要求するMTUと接続優先度(接続間隔)を決め、
+ * 送受信量に応じてプロファイルを切り替える
+ */
+public class LinkProfile {
+	private final static String TAG = "LinkProfile";
+
+	/** プロファイル：高スループット(大きいMTU、短い接続間隔) */
+	public final static int PROFILE_HIGH_THROUGHPUT = 0;
+	/** プロファイル：バランス */
+	public final static int PROFILE_BALANCED = 1;
+	/** プロファイル：省電力(長い接続間隔) */
+	public final static int PROFILE_LOW_POWER = 2;
+
+	private final static String[] PROFILE_NAMES = {"highThroughput", "balanced", "lowPower"};
+
+	/** プロファイルごとに要求するMTU(517はATTの最大値) */
+	private static final int[] MTUS = {517, 185, GattConnection.DEFAULT_MTU};
+	/** プロファイルごとの接続優先度 */
+	private static final int[] PRIORITIES = {
+			BleGattLink.CONNECTION_PRIORITY_HIGH,
+			BleGattLink.CONNECTION_PRIORITY_BALANCED,
+			BleGattLink.CONNECTION_PRIORITY_LOW_POWER
+	};
+
+	/** この送受信量(bytes/sec)を超えたら1段階高スループットにする */
+	private static final long[] BUSY_RATES = {Long.MAX_VALUE, 4000, 400};
+	/** この送受信量(bytes/sec)を下回る期間が続いたら1段階省電力にする */
+	private static final long[] IDLE_RATES = {1000, 100, -1};
+	/** この数の期間連続で送受信量が少なければ1段階省電力にする */
+	private static final int IDLE_PERIODS = 3;
+
+	private volatile int mProfile;
+	private final boolean mAdaptive;
+	private int mIdlePeriods;
+	private long mLastBytes = -1;
+	private long mLastTime;
+
+	/**
+	 * コンストラクタ
+	 * @param profile PROFILE_HIGH_THROUGHPUT / PROFILE_BALANCED / PROFILE_LOW_POWER
+	 * @param adaptive 送受信量に応じてプロファイルを切り替えるかどうか
+	 */
+	public LinkProfile(int profile, boolean adaptive) {
+		mProfile = Math.max(PROFILE_HIGH_THROUGHPUT, Math.min(PROFILE_LOW_POWER, profile));
+		mAdaptive = adaptive;
+	}
+
+	/**
+	 * プロファイルを取得する
+	 * @return
+	 */
+	public int GetProfile() {
+		return mProfile;
+	}
+
+	/**
+	 * 送受信量に応じて切り替えるかどうか
+	 * @return
+	 */
+	public boolean IsAdaptive() {
+		return mAdaptive;
+	}
+
+	/**
+	 * 要求するMTUを取得する
+	 * @return
+	 */
+	public int GetMtu() {
+		return MTUS[mProfile];
+	}
+
+	/**
+	 * 要求する接続優先度を取得する
+	 * @return BleGattLink.CONNECTION_PRIORITY_HIGH等
+	 */
+	public int GetConnectionPriority() {
+		return PRIORITIES[mProfile];
+	}
+
+	/**
+	 * プロファイル名を取得する
+	 * @param profile
+	 * @return
+	 */
+	public static String NameOf(int profile) {
+		return PROFILE_NAMES[profile];
+	}
+
+	/**
+	 * 送受信量の計測をやり直す(接続し直した時)
+	 */
+	public void Reset() {
+		mLastBytes = -1;
+		mIdlePeriods = 0;
+	}
+
+	/**
+	 * 前回からの送受信量でプロファイルを見直す
+	 * @param totalBytes 送受信したバイト数の累計
+	 * @param now 現在時刻(ms)
+	 * @return プロファイルを切り替えた場合true
+	 */
+	public boolean Adapt(long totalBytes, long now) {
+		long lastBytes = mLastBytes;
+		long elapsed = now - mLastTime;
+		mLastBytes = totalBytes;
+		mLastTime = now;
+		if (!mAdaptive || lastBytes < 0 || elapsed <= 0) {
+			return false;
+		}
+
+		long rate = (totalBytes - lastBytes) * 1000 / elapsed;
+		int profile = mProfile;
+		if (BUSY_RATES[profile] < rate) {
+			mIdlePeriods = 0;
+			profile = Math.max(PROFILE_HIGH_THROUGHPUT, profile - 1);
+		} else if (rate < IDLE_RATES[profile]) {
+			mIdlePeriods++;
+			if (IDLE_PERIODS <= mIdlePeriods) {
+				mIdlePeriods = 0;
+				profile = Math.min(PROFILE_LOW_POWER, profile + 1);
+			}
+		} else {
+			mIdlePeriods = 0;
+		}
+		if (profile == mProfile) {
+			return false;
+		}
+		Log.d(TAG, NameOf(mProfile) + " -> " + NameOf(profile) + " (" + rate + " bytes/sec)");
+		mProfile = profile;
+		return true;
+	}
+}
@@ -0,0 +1,48 @@
+package com.scarviz.sampleble;
+
+/**
+ * 同じプロセス内の中継の送受信路(試験用)
+ * ConnectでつないだLoopbackRelayTransportへ、送ったスレッドでそのまま渡す
+ */
+public class LoopbackRelayTransport implements RelayTransport {
+	private volatile LoopbackRelayTransport mPeer;
+	private volatile OnReceiveListener mListener;
+
+	/**
+	 * 2つの送受信路を互いにつなぐ
+	 * @param a
+	 * @param b
+	 */
+	public static void Connect(LoopbackRelayTransport a, LoopbackRelayTransport b) {
+		a.mPeer = b;
+		b.mPeer = a;
+	}
+
+	@Override
+	public boolean Send(byte[] batch) {
+		LoopbackRelayTransport peer = mPeer;
+		if (peer == null) {
+			return false;
+		}
+		OnReceiveListener listener = peer.mListener;
+		if (listener != null) {
+			// 実機と同じく送った配列とは別の配列で渡す
+			listener.onRelayReceived(batch.clone());
+		}
+		return true;
+	}
+
+	@Override
+	public void SetListener(OnReceiveListener listener) {
+		mListener = listener;
+	}
+
+	@Override
+	public void Close() {
+		LoopbackRelayTransport peer = mPeer;
+		mPeer = null;
+		if (peer != null) {
+			peer.mPeer = null;
+		}
+	}
+}
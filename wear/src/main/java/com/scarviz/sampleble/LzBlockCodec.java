@@ -0,0 +1,175 @@
+package com.scarviz.sampleble;
+
+import java.util.Arrays;
+
+/**
+ * LZ方式のブロック圧縮クラス
+ * 4byte以上の繰り返しを直前64KB以内の位置への参照に置き換える(LZ4のブロック形式に近い)
+ * 形式：元の長さ(varint) シーケンス...
+ * シーケンス：トークン(上位4bit：リテラル長、下位4bit：一致長-4。15の場合は続くbyteを255未満になるまで足す)
+ *            リテラル 一致位置までの距離(2, LE) [最後のシーケンスはリテラルのみ]
+ * 符号化はハッシュ表を使い回すので同期する
+ */
+public class LzBlockCodec implements PayloadCodec {
+	/** 一致とみなす最小の長さ */
+	private static final int MIN_MATCH = 4;
+	/** 参照できる最大の距離 */
+	private static final int MAX_DISTANCE = 0xFFFF;
+	private static final int HASH_BITS = 12;
+
+	/** 4byteのハッシュから最後に現れた位置への表 */
+	private final int[] mHashTable = new int[1 << HASH_BITS];
+
+	@Override
+	public int GetId() {
+		return PayloadCodecs.CODEC_LZ;
+	}
+
+	@Override
+	public int MaxEncodedLength(int length) {
+		return 5 + 1 + length + length / 255 + 1;
+	}
+
+	@Override
+	public synchronized int Encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+		int position = PayloadCodecs.WriteVarint(dst, dstOffset, length);
+		Arrays.fill(mHashTable, -1);
+		int end = offset + length;
+		int anchor = offset;
+		int i = offset;
+		while (i + MIN_MATCH <= end) {
+			int hash = Read32(src, i) * -1640531535 >>> (32 - HASH_BITS);
+			int candidate = mHashTable[hash];
+			mHashTable[hash] = i;
+			if (candidate < 0 || MAX_DISTANCE < i - candidate || Read32(src, candidate) != Read32(src, i)) {
+				i++;
+				continue;
+			}
+			int match = MIN_MATCH;
+			while (i + match < end && src[candidate + match] == src[i + match]) {
+				match++;
+			}
+			position = WriteSequence(src, anchor, i - anchor, dst, position, i - candidate, match);
+			i += match;
+			anchor = i;
+		}
+		position = WriteSequence(src, anchor, end - anchor, dst, position, 0, 0);
+		return position - dstOffset;
+	}
+
+	@Override
+	public int Decode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+		int end = offset + length;
+		long header = PayloadCodecs.ReadVarint(src, offset, end);
+		if (header < 0) {
+			return -1;
+		}
+		int decodedLength = PayloadCodecs.VarintValue(header);
+		int position = offset + PayloadCodecs.VarintSize(header);
+		int out = dstOffset;
+		int outEnd = dstOffset + decodedLength;
+		while (position < end) {
+			int token = src[position++] & 0xFF;
+			// リテラル
+			int literal = token >>> 4;
+			if (literal == 15) {
+				int b;
+				do {
+					if (end <= position) {
+						return -1;
+					}
+					b = src[position++] & 0xFF;
+					literal += b;
+				} while (b == 255);
+			}
+			if (end - position < literal || outEnd - out < literal) {
+				return -1;
+			}
+			System.arraycopy(src, position, dst, out, literal);
+			position += literal;
+			out += literal;
+			if (position == end) {
+				break;
+			}
+
+			// 一致(重なる場合があるので1byteずつコピーする)
+			if (end - position < 2) {
+				return -1;
+			}
+			int distance = (src[position] & 0xFF) | (src[position + 1] & 0xFF) << 8;
+			position += 2;
+			int match = token & 0x0F;
+			if (match == 15) {
+				int b;
+				do {
+					if (end <= position) {
+						return -1;
+					}
+					b = src[position++] & 0xFF;
+					match += b;
+				} while (b == 255);
+			}
+			match += MIN_MATCH;
+			if (distance == 0 || out - dstOffset < distance || outEnd - out < match) {
+				return -1;
+			}
+			for (int from = out - distance, to = out + match; out < to; ) {
+				dst[out++] = dst[from++];
+			}
+		}
+		return out == outEnd ? decodedLength : -1;
+	}
+
+	/**
+	 * シーケンスを書き込む
+	 * @param src
+	 * @param literalOffset
+	 * @param literal リテラル長
+	 * @param dst
+	 * @param position
+	 * @param distance
+	 * @param match 一致長(最後のシーケンスは0)
+	 * @return 書き込んだ後の位置
+	 */
+	private static int WriteSequence(byte[] src, int literalOffset, int literal, byte[] dst, int position,
+									 int distance, int match) {
+		int tokenPosition = position++;
+		int token = Math.min(literal, 15) << 4;
+		if (15 <= literal) {
+			position = WriteLength(dst, position, literal - 15);
+		}
+		System.arraycopy(src, literalOffset, dst, position, literal);
+		position += literal;
+		if (match != 0) {
+			token |= Math.min(match - MIN_MATCH, 15);
+			dst[position++] = (byte) distance;
+			dst[position++] = (byte) (distance >>> 8);
+			if (15 <= match - MIN_MATCH) {
+				position = WriteLength(dst, position, match - MIN_MATCH - 15);
+			}
+		}
+		dst[tokenPosition] = (byte) token;
+		return position;
+	}
+
+	/**
+	 * 15を超えた長さを書き込む
+	 * @param dst
+	 * @param position
+	 * @param length
+	 * @return
+	 */
+	private static int WriteLength(byte[] dst, int position, int length) {
+		while (255 <= length) {
+			dst[position++] = (byte) 255;
+			length -= 255;
+		}
+		dst[position++] = (byte) length;
+		return position;
+	}
+
+	private static int Read32(byte[] src, int offset) {
+		return (src[offset] & 0xFF) | (src[offset + 1] & 0xFF) << 8
+				| (src[offset + 2] & 0xFF) << 16 | (src[offset + 3] & 0xFF) << 24;
+	}
+}
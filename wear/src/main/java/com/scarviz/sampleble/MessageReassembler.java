@@ -0,0 +1,322 @@
+package com.scarviz.sampleble;
+
+/**
+ * メッセージ組み立てクラス
+ * MessageFrame形式で分割されて届いたフレームからメッセージを組み立てる
+ * 通し番号がREORDER_WINDOW以内の入れ替わりは待ち合わせ、それより古いまま揃わないメッセージは失われたものとする
+ * 最初に届いたフレームより前の通し番号のフレームは捨てる
+ * 1接続につき1インスタンスを使い、同じスレッドから呼ぶこと(スレッドセーフではない)
+ */
+public class MessageReassembler {
+	/** 入れ替わりを待つ通し番号の幅 */
+	public static final int REORDER_WINDOW = 8;
+
+	/** 通し番号の状態：未受信 */
+	private static final byte STATE_UNSEEN = 0;
+	/** 通し番号の状態：組み立て中 */
+	private static final byte STATE_PENDING = 1;
+	/** 通し番号の状態：完了(受け渡し済み、または失われた) */
+	private static final byte STATE_DONE = 2;
+
+	/**
+	 * 組み立て結果のリスナー
+	 */
+	public interface OnMessageListener {
+		/**
+		 * メッセージが揃った時
+		 * dataはこの呼び出しの間だけ有効
+		 * @param sequence
+		 * @param flags 先頭フレームのフラグ(MessageFrame.FLAG_CONTROL、圧縮方式)
+		 * @param data
+		 * @param offset
+		 * @param length
+		 */
+		void onMessage(int sequence, int flags, byte[] data, int offset, int length);
+
+		/**
+		 * メッセージが失われた時
+		 * @param count 失われたメッセージの数
+		 * @param corrupted CRCまたは長さが合わなかった数(countに含む)
+		 */
+		void onMessageLost(int count, int corrupted);
+	}
+
+	/**
+	 * 組み立て中のメッセージ
+	 */
+	private static class Partial {
+		byte[] mData = new byte[64];
+		/** メッセージ長(先頭フレームが届くまで-1) */
+		int mLength;
+		int mCrc;
+		/** 先頭フレームのフラグ */
+		int mFlags;
+		/** 受け取ったバイト数(断片は重ならないので、メッセージ長と一致すれば全て揃っている) */
+		int mReceived;
+		/** 受け取った断片の最も後ろの終端 */
+		int mEnd;
+		/** 受け取った断片の範囲(開始位置の昇順で、互いに重ならない) */
+		int[] mStarts = new int[8];
+		int[] mEnds = new int[8];
+		int mFragments;
+
+		void Reset() {
+			mLength = -1;
+			mReceived = 0;
+			mEnd = 0;
+			mFragments = 0;
+		}
+
+		/**
+		 * 断片を加える
+		 * 受け取り済みの断片と同じ範囲なら重複として何もしない
+		 * @param offset
+		 * @param frame
+		 * @param from
+		 * @param length
+		 * @return 受け取り済みの断片と範囲が重なる場合false
+		 */
+		boolean Put(int offset, byte[] frame, int from, int length) {
+			int end = offset + length;
+			int index = 0;
+			while (index < mFragments && mStarts[index] < offset) {
+				index++;
+			}
+			if (index < mFragments && mStarts[index] == offset && mEnds[index] == end) {
+				return true;
+			}
+			if ((0 < index && offset < mEnds[index - 1]) || (index < mFragments && mStarts[index] < end)) {
+				return false;
+			}
+
+			if (mData.length < end) {
+				byte[] grown = new byte[Math.max(mData.length * 2, end)];
+				System.arraycopy(mData, 0, grown, 0, mData.length);
+				mData = grown;
+			}
+			System.arraycopy(frame, from, mData, offset, length);
+			if (mStarts.length == mFragments) {
+				int[] starts = new int[mFragments * 2];
+				int[] ends = new int[mFragments * 2];
+				System.arraycopy(mStarts, 0, starts, 0, mFragments);
+				System.arraycopy(mEnds, 0, ends, 0, mFragments);
+				mStarts = starts;
+				mEnds = ends;
+			}
+			System.arraycopy(mStarts, index, mStarts, index + 1, mFragments - index);
+			System.arraycopy(mEnds, index, mEnds, index + 1, mFragments - index);
+			mStarts[index] = offset;
+			mEnds[index] = end;
+			mFragments++;
+			mReceived += length;
+			mEnd = Math.max(mEnd, end);
+			return true;
+		}
+
+		boolean IsComplete() {
+			return 0 <= mLength && mReceived == mLength;
+		}
+	}
+
+	private final OnMessageListener mListener;
+	/** 通し番号ごとの状態と組み立て中のメッセージ(通し番号は8bitで一巡する) */
+	private final byte[] mStates = new byte[256];
+	private final Partial[] mPartials = new Partial[256];
+	private boolean mStarted;
+	/** まだ完了していない最も古い通し番号 */
+	private int mNextSequence;
+	/** 受け取った最も新しい通し番号 */
+	private int mNewestSequence;
+
+	private long mMessages;
+	private long mLostMessages;
+	private long mCorruptedMessages;
+	private long mInvalidFrames;
+
+	/**
+	 * コンストラクタ
+	 * @param listener
+	 */
+	public MessageReassembler(OnMessageListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * フレームを受け取る
+	 * @param frame
+	 * @param length
+	 */
+	public void Offer(byte[] frame, int length) {
+		if (length < MessageFrame.HEADER_SIZE) {
+			mInvalidFrames++;
+			return;
+		}
+		int flags = MessageFrame.GetFlags(frame);
+		int header = MessageFrame.HeaderSize(flags);
+		int sequence = MessageFrame.GetSequence(frame);
+		int offset = MessageFrame.GetOffset(frame);
+		int payload = length - header;
+		if (payload < 0 || MessageFrame.MAX_MESSAGE_LENGTH < offset + payload) {
+			mInvalidFrames++;
+			return;
+		}
+
+		if (!mStarted) {
+			mStarted = true;
+			mNextSequence = sequence;
+			mNewestSequence = sequence;
+		}
+		int distance = (sequence - mNextSequence) & 0xFF;
+		if (128 <= distance || mStates[sequence] == STATE_DONE) {
+			// 失われたものとした後に届いた古いフレーム、または受け渡し済みのメッセージの重複
+			return;
+		}
+		if (((sequence - mNewestSequence) & 0xFF) < 128) {
+			mNewestSequence = sequence;
+		}
+
+		// 1フレームで完結するメッセージはコピーせずに渡す
+		int position = flags & (MessageFrame.FLAG_FIRST | MessageFrame.FLAG_LAST);
+		if (position == (MessageFrame.FLAG_FIRST | MessageFrame.FLAG_LAST) && offset == 0
+				&& mStates[sequence] == STATE_UNSEEN) {
+			if (MessageFrame.GetLength(frame) == payload
+					&& MessageFrame.GetCrc(frame) == MessageFrame.Crc16(frame, header, payload)) {
+				mStates[sequence] = STATE_DONE;
+				mMessages++;
+				mListener.onMessage(sequence, flags, frame, header, payload);
+			} else {
+				Lose(sequence, true);
+			}
+			Slide();
+			return;
+		}
+
+		Partial partial = mPartials[sequence];
+		if (partial == null) {
+			partial = new Partial();
+			mPartials[sequence] = partial;
+		}
+		if (mStates[sequence] == STATE_UNSEEN) {
+			partial.Reset();
+			mStates[sequence] = STATE_PENDING;
+		}
+		// 先頭フレームはオフセット0で、受け取り済みの断片を含む長さでなければならない
+		// メッセージ長が分かった後は、それを超える断片や範囲が重なる断片が届けば壊れたものとする
+		boolean first = (flags & MessageFrame.FLAG_FIRST) != 0;
+		int messageLength = first ? MessageFrame.GetLength(frame) : partial.mLength;
+		if ((first && (offset != 0 || messageLength < partial.mEnd
+					|| (0 <= partial.mLength && partial.mLength != messageLength)))
+				|| (0 <= messageLength && messageLength < offset + payload)
+				|| !partial.Put(offset, frame, header, payload)) {
+			Lose(sequence, true);
+			Slide();
+			return;
+		}
+		if (first) {
+			partial.mLength = messageLength;
+			partial.mCrc = MessageFrame.GetCrc(frame);
+			partial.mFlags = flags;
+		}
+		if (partial.IsComplete()) {
+			if (partial.mCrc == MessageFrame.Crc16(partial.mData, 0, partial.mLength)) {
+				mStates[sequence] = STATE_DONE;
+				mMessages++;
+				mListener.onMessage(sequence, partial.mFlags, partial.mData, 0, partial.mLength);
+			} else {
+				Lose(sequence, true);
+			}
+		}
+		Slide();
+	}
+
+	/**
+	 * 組み立て中のメッセージを全て失われたものとする(再接続時)
+	 * 次のフレームから通し番号を数え直す。リスナーには通知しない
+	 * @return 失われたメッセージの数
+	 */
+	public int Flush() {
+		if (!mStarted) {
+			return 0;
+		}
+		int lost = 0;
+		int end = (mNewestSequence + 1) & 0xFF;
+		for (int sequence = mNextSequence; sequence != end; sequence = (sequence + 1) & 0xFF) {
+			if (mStates[sequence] != STATE_DONE) {
+				lost++;
+			}
+			mStates[sequence] = STATE_UNSEEN;
+		}
+		mStarted = false;
+		mLostMessages += lost;
+		return lost;
+	}
+
+	/**
+	 * 揃ったメッセージの数を取得する
+	 * @return
+	 */
+	public long GetMessages() {
+		return mMessages;
+	}
+
+	/**
+	 * 失われたメッセージの数を取得する(壊れていたものを含む)
+	 * @return
+	 */
+	public long GetLostMessages() {
+		return mLostMessages;
+	}
+
+	/**
+	 * CRCまたは長さが合わなかったメッセージの数を取得する
+	 * @return
+	 */
+	public long GetCorruptedMessages() {
+		return mCorruptedMessages;
+	}
+
+	/**
+	 * ヘッダが不正で捨てたフレームの数を取得する
+	 * @return
+	 */
+	public long GetInvalidFrames() {
+		return mInvalidFrames;
+	}
+
+	/**
+	 * メッセージを失われたものとする
+	 * @param sequence
+	 * @param corrupted
+	 */
+	private void Lose(int sequence, boolean corrupted) {
+		mStates[sequence] = STATE_DONE;
+		mLostMessages++;
+		if (corrupted) {
+			mCorruptedMessages++;
+		}
+		mListener.onMessageLost(1, corrupted ? 1 : 0);
+	}
+
+	/**
+	 * 完了した通し番号と、入れ替わりを待つ幅を超えて古くなった通し番号を片付ける
+	 */
+	private void Slide() {
+		int lost = 0;
+		while (mNextSequence != ((mNewestSequence + 1) & 0xFF)) {
+			byte state = mStates[mNextSequence];
+			if (state != STATE_DONE) {
+				if (((mNewestSequence - mNextSequence) & 0xFF) < REORDER_WINDOW) {
+					break;
+				}
+				lost++;
+			}
+			// 一巡した時に使えるよう未受信に戻す
+			mStates[mNextSequence] = STATE_UNSEEN;
+			mNextSequence = (mNextSequence + 1) & 0xFF;
+		}
+		if (0 < lost) {
+			mLostMessages += lost;
+			mListener.onMessageLost(lost, 0);
+		}
+	}
+}
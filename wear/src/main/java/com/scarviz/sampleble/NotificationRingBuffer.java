@@ -0,0 +1,180 @@
+package com.scarviz.sampleble;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通知リングバッファクラス
+ * 書き込み1スレッド(GATTのコールバックスレッド)、読み出し1スレッドのロックフリーなリングバッファ
+ * 各スロットの配列は使い回し、受信データはコピーして保持する
+ * 満杯の場合は新しい通知を捨てて(drop newest)破棄数を数える。書き込み側は決して待たない
+ */
+public class NotificationRingBuffer {
+	/** スロットの初期サイズ(デフォルトMTUのATTペイロード長) */
+	private static final int INITIAL_SLOT_SIZE = 20;
+
+	/**
+	 * 読み出し処理
+	 */
+	public interface Consumer {
+		/**
+		 * 通知1件の処理
+		 * payloadはこの呼び出しの間だけ有効
+		 * @param deviceId
+		 * @param characteristic キャラクタリスティックの番号(GattProfile.IndexOf)
+		 * @param timestamp
+		 * @param payload
+		 * @param length
+		 */
+		void onNotification(int deviceId, int characteristic, long timestamp, byte[] payload, int length);
+	}
+
+	private final int mMask;
+	private final byte[][] mPayloads;
+	private final int[] mLengths;
+	private final long[] mTimestamps;
+	private final int[] mDeviceIds;
+	private final int[] mCharacteristics;
+
+	/** 次に読み出す位置(読み出し側だけが更新) */
+	private final AtomicLong mHead = new AtomicLong();
+	/** 次に書き込む位置(書き込み側だけが更新) */
+	private final AtomicLong mTail = new AtomicLong();
+	/** 書き込み側が最後に見た読み出し位置 */
+	private long mCachedHead;
+
+	private final AtomicLong mOffered = new AtomicLong();
+	private final AtomicLong mDropped = new AtomicLong();
+
+	/**
+	 * コンストラクタ
+	 * @param capacity 2のべき乗に切り上げる
+	 */
+	public NotificationRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mMask = size - 1;
+		mPayloads = new byte[size][];
+		mLengths = new int[size];
+		mTimestamps = new long[size];
+		mDeviceIds = new int[size];
+		mCharacteristics = new int[size];
+		for (int i = 0; i < size; i++) {
+			mPayloads[i] = new byte[INITIAL_SLOT_SIZE];
+		}
+	}
+
+	/**
+	 * 通知を書き込む(書き込み側スレッド)
+	 * @param deviceId
+	 * @param timestamp
+	 * @param data
+	 * @return 満杯で捨てた場合false
+	 */
+	public boolean Offer(int deviceId, long timestamp, byte[] data) {
+		return Offer(deviceId, timestamp, data, 0, data.length);
+	}
+
+	/**
+	 * 通知を書き込む(書き込み側スレッド)
+	 * @param deviceId
+	 * @param timestamp
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return 満杯で捨てた場合false
+	 */
+	public boolean Offer(int deviceId, long timestamp, byte[] data, int offset, int length) {
+		return Offer(deviceId, 0, timestamp, data, offset, length);
+	}
+
+	/**
+	 * 通知を書き込む(書き込み側スレッド)
+	 * @param deviceId
+	 * @param characteristic キャラクタリスティックの番号(GattProfile.IndexOf)
+	 * @param timestamp
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return 満杯で捨てた場合false
+	 */
+	public boolean Offer(int deviceId, int characteristic, long timestamp, byte[] data, int offset, int length) {
+		mOffered.lazySet(mOffered.get() + 1);
+		long tail = mTail.get();
+		if (mMask < tail - mCachedHead) {
+			mCachedHead = mHead.get();
+			if (mMask < tail - mCachedHead) {
+				mDropped.lazySet(mDropped.get() + 1);
+				return false;
+			}
+		}
+
+		int slot = (int) tail & mMask;
+		byte[] payload = mPayloads[slot];
+		if (payload.length < length) {
+			// MTUが大きくなった場合だけスロットを広げる
+			payload = new byte[length];
+			mPayloads[slot] = payload;
+		}
+		System.arraycopy(data, offset, payload, 0, length);
+		mLengths[slot] = length;
+		mTimestamps[slot] = timestamp;
+		mDeviceIds[slot] = deviceId;
+		mCharacteristics[slot] = characteristic;
+		// スロットの内容を書き終えてから公開する
+		mTail.lazySet(tail + 1);
+		return true;
+	}
+
+	/**
+	 * 溜まっている通知をまとめて読み出す(読み出し側スレッド)
+	 * @param consumer
+	 * @param maxBatch 1回に読み出す最大数
+	 * @return 読み出した数
+	 */
+	public int Drain(Consumer consumer, int maxBatch) {
+		long head = mHead.get();
+		long available = mTail.get() - head;
+		int count = (int) Math.min(available, maxBatch);
+		for (int i = 0; i < count; i++) {
+			int slot = (int) (head + i) & mMask;
+			consumer.onNotification(mDeviceIds[slot], mCharacteristics[slot], mTimestamps[slot],
+					mPayloads[slot], mLengths[slot]);
+		}
+		if (0 < count) {
+			// 読み終えたスロットをまとめて書き込み側へ返す
+			mHead.lazySet(head + count);
+		}
+		return count;
+	}
+
+	/**
+	 * 溜まっている通知の数を取得する
+	 * @return
+	 */
+	public int Size() {
+		return (int) (mTail.get() - mHead.get());
+	}
+
+	/**
+	 * 容量を取得する
+	 * @return
+	 */
+	public int Capacity() {
+		return mMask + 1;
+	}
+
+	/**
+	 * 書き込もうとした通知の総数を取得する
+	 * @return
+	 */
+	public long GetOfferedCount() {
+		return mOffered.get();
+	}
+
+	/**
+	 * 満杯で捨てた通知の数を取得する
+	 * @return
+	 */
+	public long GetDroppedCount() {
+		return mDropped.get();
+	}
+}
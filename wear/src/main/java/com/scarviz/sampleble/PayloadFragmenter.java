@@ -0,0 +1,131 @@
+package com.scarviz.sampleble;
+
+import java.util.Arrays;
+
+/**
+ * ペイロード分割クラス
+ * 送信データを1回の書き込みに収まる大きさに先頭から順に切り出す
+ * フレーム形式の場合は分割データごとにMessageFrameのヘッダを付ける
+ * 長さ0のメッセージはフレーム形式の場合だけ、データなしのフレームを1つ(FLAG_FIRST|FLAG_LAST)切り出す
+ * (通し番号を使うので、送らないと受信側で失われたメッセージになる)
+ */
+public class PayloadFragmenter {
+	private final byte[] mData;
+	private final int mChunkSize;
+	private final boolean mFramed;
+	private final int mSequence;
+	/** 全フレームに付けるフラグ(圧縮方式、制御メッセージ) */
+	private final int mFlags;
+	private final int mCrc;
+	private int mOffset;
+	/** 1つ以上切り出したかどうか */
+	private boolean mStarted;
+
+	/**
+	 * コンストラクタ
+	 * @param data
+	 * @param chunkSize 1回の書き込みの最大長(MTU-3)
+	 */
+	public PayloadFragmenter(byte[] data, int chunkSize) {
+		mData = data;
+		mChunkSize = Math.max(1, chunkSize);
+		mFramed = false;
+		mSequence = 0;
+		mFlags = 0;
+		mCrc = 0;
+	}
+
+	/**
+	 * コンストラクタ(フレーム形式)
+	 * @param data MessageFrame.MAX_MESSAGE_LENGTHまで
+	 * @param chunkSize 1回の書き込みの最大長(MTU-3)。ヘッダ込み
+	 * @param sequence メッセージ通し番号
+	 */
+	public PayloadFragmenter(byte[] data, int chunkSize, int sequence) {
+		this(data, chunkSize, sequence, 0);
+	}
+
+	/**
+	 * コンストラクタ(フレーム形式)
+	 * @param data MessageFrame.MAX_MESSAGE_LENGTHまで
+	 * @param chunkSize 1回の書き込みの最大長(MTU-3)。ヘッダ込み
+	 * @param sequence メッセージ通し番号
+	 * @param flags 全フレームに付けるフラグ(MessageFrame.FLAG_CONTROL、MessageFrame.WithCodecで設定した圧縮方式)
+	 */
+	public PayloadFragmenter(byte[] data, int chunkSize, int sequence, int flags) {
+		if (MessageFrame.MAX_MESSAGE_LENGTH < data.length) {
+			throw new IllegalArgumentException("message too long: " + data.length);
+		}
+		mData = data;
+		// 先頭フレームにも1byte以上のデータが入るようにする
+		mChunkSize = Math.max(MessageFrame.FIRST_HEADER_SIZE + 1, chunkSize);
+		mFramed = true;
+		mSequence = sequence;
+		mFlags = flags & ~(MessageFrame.FLAG_FIRST | MessageFrame.FLAG_LAST);
+		mCrc = MessageFrame.Crc16(data, 0, data.length);
+	}
+
+	/**
+	 * 分割数を計算する
+	 * @param length
+	 * @param chunkSize
+	 * @return
+	 */
+	public static int ChunkCount(int length, int chunkSize) {
+		chunkSize = Math.max(1, chunkSize);
+		return (length + chunkSize - 1) / chunkSize;
+	}
+
+	/**
+	 * 残りのデータがあるかどうか
+	 * @return
+	 */
+	public boolean HasNext() {
+		return mOffset < mData.length || (mFramed && !mStarted);
+	}
+
+	/**
+	 * 次の分割データを切り出す
+	 * @return 残りがない場合null
+	 */
+	public byte[] Next() {
+		if (!HasNext()) {
+			return null;
+		}
+		mStarted = true;
+		if (!mFramed) {
+			int end = Math.min(mOffset + mChunkSize, mData.length);
+			byte[] chunk = Arrays.copyOfRange(mData, mOffset, end);
+			mOffset = end;
+			return chunk;
+		}
+
+		int flags = mOffset == 0 ? mFlags | MessageFrame.FLAG_FIRST : mFlags;
+		int payload = Math.min(mChunkSize - MessageFrame.HeaderSize(flags), mData.length - mOffset);
+		if (mOffset + payload == mData.length) {
+			flags |= MessageFrame.FLAG_LAST;
+		}
+		int header = MessageFrame.HeaderSize(flags);
+		byte[] frame = new byte[header + payload];
+		MessageFrame.WriteHeader(frame, flags, mSequence, mOffset, mData.length, mCrc);
+		System.arraycopy(mData, mOffset, frame, header, payload);
+		mOffset += payload;
+		return frame;
+	}
+
+	/**
+	 * 切り出し済みのバイト数を取得する(ヘッダを除く)
+	 * @return
+	 */
+	public int GetOffset() {
+		return mOffset;
+	}
+
+	/**
+	 * 1回の書き込みの最大長を取得する
+	 * @return
+	 */
+	public int GetChunkSize() {
+		return mChunkSize;
+	}
+}
@@ -0,0 +1,58 @@
+package com.scarviz.sampleble;
+
+import java.util.Random;
+
+/**
+ * 再接続の方針クラス
+ * 切断されてから再接続を試みるまでの待ち時間を指数バックオフで決める
+ * 複数の機器が同時に切れても同じ時刻に再接続が集中しないよう、待ち時間を揺らす
+ */
+public class ReconnectPolicy {
+	/** 標準の方針：0.5秒から倍々で最大30秒、10回まで */
+	public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(500, 30000, 0.5, 10);
+
+	private final long mBaseDelay;
+	private final long mMaxDelay;
+	private final double mJitter;
+	private final int mMaxAttempts;
+
+	/**
+	 * コンストラクタ
+	 * @param baseDelay 1回目の待ち時間(ms)
+	 * @param maxDelay 待ち時間の上限(ms)
+	 * @param jitter 待ち時間を縮める最大の割合(0～1)
+	 * @param maxAttempts 再接続を試みる最大回数
+	 */
+	public ReconnectPolicy(long baseDelay, long maxDelay, double jitter, int maxAttempts) {
+		mBaseDelay = Math.max(1, baseDelay);
+		mMaxDelay = Math.max(mBaseDelay, maxDelay);
+		mJitter = Math.max(0, Math.min(1, jitter));
+		mMaxAttempts = maxAttempts;
+	}
+
+	/**
+	 * 次の再接続までの待ち時間を計算する
+	 * @param attempt これまでに試みた回数(0から)
+	 * @param random
+	 * @return 待ち時間(ms)。上限回数に達した場合-1
+	 */
+	public long NextDelay(int attempt, Random random) {
+		if (mMaxAttempts <= attempt) {
+			return -1;
+		}
+		// 上限に達したらそれ以上倍にしない(シフトの桁あふれも防ぐ)
+		long delay = mMaxDelay;
+		if (attempt < 31 && (mBaseDelay << attempt) < mMaxDelay) {
+			delay = mBaseDelay << attempt;
+		}
+		return delay - (long) (delay * mJitter * random.nextDouble());
+	}
+
+	/**
+	 * 再接続を試みる最大回数を取得する
+	 * @return
+	 */
+	public int GetMaxAttempts() {
+		return mMaxAttempts;
+	}
+}
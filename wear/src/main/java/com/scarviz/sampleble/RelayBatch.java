@@ -0,0 +1,126 @@
+package com.scarviz.sampleble;
+
+import java.nio.charset.Charset;
+
+/**
+ * 中継データ形式クラス
+ * 複数の受信データをまとめ、圧縮して1回で送るための形式を定義する
+ *
+ * ヘッダ(2byte)：版(1) 圧縮方式(1, PayloadCodecs.CODEC_*)
+ * 本体(圧縮方式に従って符号化)：
+ *   最初のデータの時刻(8, LE, System.currentTimeMillis) 機器アドレス数(varint) [長さ(varint) アドレス(UTF-8)]...
+ *   データ数(varint) [機器アドレスの番号(varint) 前のデータからの経過時間ms(varint) 長さ(varint) データ]...
+ */
+public class RelayBatch {
+	/** 版 */
+	public static final int VERSION = 1;
+	/** ヘッダ長 */
+	public static final int HEADER_SIZE = 2;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * データの読み出しリスナー
+	 */
+	public interface OnRecordListener {
+		/**
+		 * データ読み出し時処理
+		 * dataはこの呼び出しの間だけ有効
+		 * @param address 機器アドレス
+		 * @param time 受信時刻(System.currentTimeMillis)
+		 * @param data
+		 * @param offset
+		 * @param length
+		 */
+		void onRecord(String address, long time, byte[] data, int offset, int length);
+	}
+
+	private RelayBatch() {
+	}
+
+	/**
+	 * まとめたデータを読み出す
+	 * @param batch
+	 * @param listener
+	 * @return 読み出したデータ数。形式が不正な場合-1(不正な箇所より前のデータは通知済み)
+	 */
+	public static int Decode(byte[] batch, OnRecordListener listener) {
+		if (batch == null || batch.length < HEADER_SIZE || batch[0] != VERSION) {
+			return -1;
+		}
+		int codec = batch[1];
+		byte[] body = batch;
+		int position = HEADER_SIZE;
+		int end = batch.length;
+		if (codec != PayloadCodecs.CODEC_NONE) {
+			PayloadCodec decoder = PayloadCodecs.Get(codec);
+			int length = PayloadCodecs.DecodedLength(batch, HEADER_SIZE, end - HEADER_SIZE);
+			if (decoder == null || length < 0) {
+				return -1;
+			}
+			body = new byte[length];
+			if (decoder.Decode(batch, HEADER_SIZE, end - HEADER_SIZE, body, 0) < 0) {
+				return -1;
+			}
+			position = 0;
+			end = length;
+		}
+
+		if (end - position < 8) {
+			return -1;
+		}
+		long time = 0;
+		for (int i = 7; 0 <= i; i--) {
+			time = time << 8 | (body[position + i] & 0xFF);
+		}
+		position += 8;
+
+		long result = PayloadCodecs.ReadVarint(body, position, end);
+		if (result < 0) {
+			return -1;
+		}
+		position += PayloadCodecs.VarintSize(result);
+		String[] addresses = new String[PayloadCodecs.VarintValue(result)];
+		for (int i = 0; i < addresses.length; i++) {
+			result = PayloadCodecs.ReadVarint(body, position, end);
+			if (result < 0) {
+				return -1;
+			}
+			position += PayloadCodecs.VarintSize(result);
+			int length = PayloadCodecs.VarintValue(result);
+			if (end - position < length) {
+				return -1;
+			}
+			addresses[i] = new String(body, position, length, UTF8);
+			position += length;
+		}
+
+		result = PayloadCodecs.ReadVarint(body, position, end);
+		if (result < 0) {
+			return -1;
+		}
+		position += PayloadCodecs.VarintSize(result);
+		int count = PayloadCodecs.VarintValue(result);
+		// 機器アドレスの番号、経過時間、長さ
+		int[] fields = new int[3];
+		for (int i = 0; i < count; i++) {
+			for (int f = 0; f < fields.length; f++) {
+				result = PayloadCodecs.ReadVarint(body, position, end);
+				if (result < 0) {
+					return -1;
+				}
+				position += PayloadCodecs.VarintSize(result);
+				fields[f] = PayloadCodecs.VarintValue(result);
+			}
+			int index = fields[0];
+			int length = fields[2];
+			if (addresses.length <= index || end - position < length) {
+				return -1;
+			}
+			time += fields[1];
+			listener.onRecord(addresses[index], time, body, position, length);
+			position += length;
+		}
+		return position == end ? count : -1;
+	}
+}
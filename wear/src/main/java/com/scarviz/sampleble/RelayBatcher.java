@@ -0,0 +1,185 @@
+package com.scarviz.sampleble;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 中継データまとめ送りクラス
+ * 受信したデータをRelayBatch形式で溜め、一定量または一定時間ごとに圧縮して送受信路へ送る
+ * 1回ごとに送る場合に比べ、送信の固定費と圧縮の効きをまとめたデータ全体で稼ぐ
+ */
+public class RelayBatcher {
+	private final static String TAG = "RelayBatcher";
+	/** 1回に送る本体の目安(これを超えたら送る) */
+	public static final int MAX_BATCH_BYTES = 8 * 1024;
+	/** 最初のデータを溜めてから送るまでの最大時間(ms) */
+	public static final long FLUSH_INTERVAL = 1000;
+
+	private final Handler mHandler;
+	private final RelayTransport mTransport;
+	private final int mCodec;
+
+	/** 溜めているデータ(機器アドレスの番号、経過時間、長さ、データの並び) */
+	private byte[] mRecords = new byte[1024];
+	private int mLength;
+	private int mCount;
+	private final ArrayList<String> mAddresses = new ArrayList<String>();
+	/** 最初のデータの時刻(System.currentTimeMillis) */
+	private long mBaseTime;
+	/** 最初のデータの受信時刻(elapsedRealtimeNanos) */
+	private long mBaseNanos;
+	/** 前のデータの経過時間(ms) */
+	private long mLastElapsed;
+
+	private long mBatches;
+	private long mFailedBatches;
+	private long mSentRecords;
+	private long mRawBytes;
+	private long mSentBytes;
+
+	/**
+	 * コンストラクタ
+	 * @param handler 一定時間後の送信に使うHandler(Addを呼ぶスレッドと同じにする)
+	 * @param transport
+	 * @param codec 圧縮方式(PayloadCodecs.CODEC_*)
+	 */
+	public RelayBatcher(Handler handler, RelayTransport transport, int codec) {
+		mHandler = handler;
+		mTransport = transport;
+		mCodec = codec;
+	}
+
+	/**
+	 * データを追加する
+	 * @param address 機器アドレス
+	 * @param timestamp 受信時刻(elapsedRealtimeNanos)
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	public synchronized void Add(String address, long timestamp, byte[] data, int offset, int length) {
+		if (0 < mCount && MAX_BATCH_BYTES < mLength + length) {
+			FlushLocked();
+		}
+		if (mCount == 0) {
+			mBaseTime = System.currentTimeMillis();
+			mBaseNanos = timestamp;
+			mLastElapsed = 0;
+			mHandler.postDelayed(mFlushRunnable, FLUSH_INTERVAL);
+		}
+		int index = mAddresses.indexOf(address);
+		if (index < 0) {
+			index = mAddresses.size();
+			mAddresses.add(address);
+		}
+		long elapsed = Math.max(mLastElapsed, (timestamp - mBaseNanos) / 1000000);
+		int delta = (int) Math.min(Integer.MAX_VALUE, elapsed - mLastElapsed);
+		mLastElapsed = elapsed;
+
+		Ensure(15 + length);
+		mLength = PayloadCodecs.WriteVarint(mRecords, mLength, index);
+		mLength = PayloadCodecs.WriteVarint(mRecords, mLength, delta);
+		mLength = PayloadCodecs.WriteVarint(mRecords, mLength, length);
+		System.arraycopy(data, offset, mRecords, mLength, length);
+		mLength += length;
+		mCount++;
+		if (MAX_BATCH_BYTES <= mLength) {
+			FlushLocked();
+		}
+	}
+
+	/**
+	 * 溜めているデータをすぐに送る
+	 */
+	public synchronized void Flush() {
+		FlushLocked();
+	}
+
+	/**
+	 * 送ったまとめ数、データ数、圧縮前後のバイト数を文字列で取得する
+	 * @return
+	 */
+	public synchronized String GetReport() {
+		return "relay batches=" + mBatches + " failed=" + mFailedBatches + " records=" + mSentRecords
+				+ " bytes=" + mRawBytes + "->" + mSentBytes + "B";
+	}
+
+	/**
+	 * 一定時間後の送信処理
+	 */
+	private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			Flush();
+		}
+	};
+
+	/**
+	 * 溜めているデータをRelayBatch形式にして送る
+	 */
+	private void FlushLocked() {
+		mHandler.removeCallbacks(mFlushRunnable);
+		if (mCount == 0) {
+			return;
+		}
+
+		// 本体：時刻、機器アドレス表、データ
+		byte[][] addresses = new byte[mAddresses.size()][];
+		int size = 8 + 5 + 5 + mLength;
+		for (int i = 0; i < addresses.length; i++) {
+			addresses[i] = mAddresses.get(i).getBytes(RelayBatch.UTF8);
+			size += 5 + addresses[i].length;
+		}
+		byte[] body = new byte[size];
+		int position = 0;
+		for (int i = 0; i < 8; i++) {
+			body[position++] = (byte) (mBaseTime >>> (i * 8));
+		}
+		position = PayloadCodecs.WriteVarint(body, position, addresses.length);
+		for (byte[] address : addresses) {
+			position = PayloadCodecs.WriteVarint(body, position, address.length);
+			System.arraycopy(address, 0, body, position, address.length);
+			position += address.length;
+		}
+		position = PayloadCodecs.WriteVarint(body, position, mCount);
+		System.arraycopy(mRecords, 0, body, position, mLength);
+		position += mLength;
+
+		// 小さくならない場合は圧縮しない
+		byte[] encoded = PayloadCodecs.Encode(mCodec, Arrays.copyOf(body, position));
+		int codec = encoded == null ? PayloadCodecs.CODEC_NONE : mCodec;
+		int payload = encoded == null ? position : encoded.length;
+		byte[] batch = new byte[RelayBatch.HEADER_SIZE + payload];
+		batch[0] = RelayBatch.VERSION;
+		batch[1] = (byte) codec;
+		System.arraycopy(encoded == null ? body : encoded, 0, batch, RelayBatch.HEADER_SIZE, payload);
+
+		if (mTransport.Send(batch)) {
+			mBatches++;
+			mSentRecords += mCount;
+			mRawBytes += position;
+			mSentBytes += batch.length;
+		} else {
+			Log.d(TAG, "relay failure: " + mCount + " records");
+			mFailedBatches++;
+		}
+		mLength = 0;
+		mCount = 0;
+		mAddresses.clear();
+	}
+
+	/**
+	 * データの領域を広げる
+	 * @param extra
+	 */
+	private void Ensure(int extra) {
+		if (mRecords.length < mLength + extra) {
+			byte[] grown = new byte[Math.max(mRecords.length * 2, mLength + extra)];
+			System.arraycopy(mRecords, 0, grown, 0, mLength);
+			mRecords = grown;
+		}
+	}
+}
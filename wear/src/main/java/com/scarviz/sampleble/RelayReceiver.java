@@ -0,0 +1,81 @@
+package com.scarviz.sampleble;
+
+import android.util.Log;
+
+/**
+ * 中継データ受信クラス(ウォッチ側)
+ * 送受信路から届いたまとめたデータを読み出し、機器ごとの最後のデータをRELAY_MESとして発行する
+ */
+public class RelayReceiver implements RelayTransport.OnReceiveListener, RelayBatch.OnRecordListener {
+	private final static String TAG = "RelayReceiver";
+
+	private final BluetoothEventBus mEventBus;
+
+	/** 読み出し中のまとめの最後のデータ(onRelayReceivedの中だけで使う) */
+	private String mLastAddress;
+	private byte[] mLast = new byte[64];
+	private int mLastLength;
+	private int mCount;
+
+	private long mBatches;
+	private long mRecords;
+	private long mInvalidBatches;
+
+	/**
+	 * コンストラクタ
+	 * @param eventBus 受信したデータの発行先
+	 */
+	public RelayReceiver(BluetoothEventBus eventBus) {
+		mEventBus = eventBus;
+	}
+
+	/**
+	 * まとめたデータの受信時処理
+	 * @param batch
+	 */
+	@Override
+	public synchronized void onRelayReceived(byte[] batch) {
+		mLastAddress = null;
+		mLastLength = 0;
+		mCount = 0;
+		if (RelayBatch.Decode(batch, this) < 0) {
+			Log.d(TAG, "invalid batch: " + batch.length + " bytes");
+			mInvalidBatches++;
+		} else {
+			mBatches++;
+		}
+		if (mCount == 0) {
+			return;
+		}
+		mRecords += mCount;
+		String text = new String(mLast, 0, mLastLength, RelayBatch.UTF8);
+		String mes = mLastAddress + " " + (text.isEmpty() ? "Notify is empty" : text);
+		if (1 < mCount) {
+			mes += " (" + mCount + " relayed)";
+		}
+		mEventBus.Publish(BluetoothStatus.RELAY_MES, mes);
+	}
+
+	/**
+	 * データ読み出し時処理
+	 * 文字列にするのは最後のデータだけなので、ここではコピーしておくだけにする
+	 */
+	@Override
+	public void onRecord(String address, long time, byte[] data, int offset, int length) {
+		if (mLast.length < length) {
+			mLast = new byte[length];
+		}
+		System.arraycopy(data, offset, mLast, 0, length);
+		mLastLength = length;
+		mLastAddress = address;
+		mCount++;
+	}
+
+	/**
+	 * 受け取ったまとめ数、データ数を文字列で取得する
+	 * @return
+	 */
+	public synchronized String GetReport() {
+		return "relay received batches=" + mBatches + " records=" + mRecords + " invalid=" + mInvalidBatches;
+	}
+}
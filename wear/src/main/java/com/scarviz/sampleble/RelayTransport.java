@@ -0,0 +1,38 @@
+package com.scarviz.sampleble;
+
+/**
+ * 中継の送受信路のインタフェース
+ * スマートフォンからウォッチへRelayBatcherでまとめたデータを送る
+ * 実機はWearableRelayTransport(Wearable Data Layer)、試験は同じプロセス内のLoopbackRelayTransportを使う
+ */
+public interface RelayTransport {
+	/**
+	 * 受信リスナー
+	 */
+	interface OnReceiveListener {
+		/**
+		 * まとめたデータの受信時処理(送受信路のスレッド)
+		 * @param batch
+		 */
+		void onRelayReceived(byte[] batch);
+	}
+
+	/**
+	 * まとめたデータを送る
+	 * 結果は待たない
+	 * @param batch
+	 * @return 送り先がない等で送れなかった場合false
+	 */
+	boolean Send(byte[] batch);
+
+	/**
+	 * 受信リスナーを設定する
+	 * @param listener
+	 */
+	void SetListener(OnReceiveListener listener);
+
+	/**
+	 * 送受信路を閉じる
+	 */
+	void Close();
+}
@@ -0,0 +1,76 @@
+package com.scarviz.sampleble;
+
+import java.util.UUID;
+
+/**
+ * スキャンフィルタ定義クラス
+ * 設定した条件は全て満たす必要がある(AND)
+ * 複数のフィルタはScanFilterEngineでまとめてOR条件として評価する
+ */
+public class ScanFilter {
+	/** RSSIの下限なし */
+	public static final int NO_RSSI_FLOOR = Integer.MIN_VALUE;
+
+	UUID mServiceUuid;
+	String mNamePrefix;
+	int mManufacturerId = -1;
+	byte[] mManufacturerData;
+	byte[] mManufacturerMask;
+	int mRssiFloor = NO_RSSI_FLOOR;
+
+	/**
+	 * サービスUUIDを条件にする
+	 * @param serviceUuid
+	 * @return
+	 */
+	public ScanFilter SetServiceUuid(UUID serviceUuid) {
+		mServiceUuid = serviceUuid;
+		return this;
+	}
+
+	/**
+	 * ローカル名の前方一致を条件にする
+	 * @param namePrefix
+	 * @return
+	 */
+	public ScanFilter SetNamePrefix(String namePrefix) {
+		mNamePrefix = namePrefix;
+		return this;
+	}
+
+	/**
+	 * メーカーIDを条件にする
+	 * @param manufacturerId
+	 * @return
+	 */
+	public ScanFilter SetManufacturerId(int manufacturerId) {
+		return SetManufacturerData(manufacturerId, null, null);
+	}
+
+	/**
+	 * メーカーIDとメーカー固有データ(メーカーIDの後ろ)を条件にする
+	 * @param manufacturerId
+	 * @param data
+	 * @param mask dataと同じ長さ。nullの場合は全ビット比較する
+	 * @return
+	 */
+	public ScanFilter SetManufacturerData(int manufacturerId, byte[] data, byte[] mask) {
+		if (data != null && mask != null && data.length != mask.length) {
+			throw new IllegalArgumentException("mask length must match data length");
+		}
+		mManufacturerId = manufacturerId;
+		mManufacturerData = data;
+		mManufacturerMask = mask;
+		return this;
+	}
+
+	/**
+	 * RSSIの下限を条件にする
+	 * @param rssiFloor
+	 * @return
+	 */
+	public ScanFilter SetRssiFloor(int rssiFloor) {
+		mRssiFloor = rssiFloor;
+		return this;
+	}
+}
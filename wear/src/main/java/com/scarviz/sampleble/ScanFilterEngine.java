@@ -0,0 +1,196 @@
+package com.scarviz.sampleble;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * スキャンフィルタ評価クラス
+ * ScanFilterの一覧を一度だけ配列にコンパイルし、スキャンのコールバックスレッドで評価する
+ * コンパイル後は変更されないので、複数スレッドから同時に評価してよい
+ */
+public class ScanFilterEngine {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** スレッドごとのアドバタイズデータ解析器 */
+	private static final ThreadLocal<AdvertisementRecord> sAdvertisement = new ThreadLocal<AdvertisementRecord>() {
+		@Override
+		protected AdvertisementRecord initialValue() {
+			return new AdvertisementRecord();
+		}
+	};
+
+	private final int mCount;
+	/** 全フィルタの中で最も低いRSSIの下限 */
+	private final int mMinRssiFloor;
+	private final int[] mRssiFloors;
+	private final boolean[] mHasServiceUuid;
+	private final long[] mServiceUuidMsb;
+	private final long[] mServiceUuidLsb;
+	private final byte[][] mNamePrefixes;
+	private final int[] mManufacturerIds;
+	private final byte[][] mManufacturerData;
+	private final byte[][] mManufacturerMasks;
+	/** フィルタごとにアドバタイズデータの解析が必要かどうか */
+	private final boolean[] mFilterNeedsParse;
+	/** アドバタイズデータの解析が必要なフィルタがあるかどうか */
+	private final boolean mNeedsParse;
+
+	/**
+	 * コンストラクタ
+	 * @param filters 空の場合は全て通す
+	 */
+	public ScanFilterEngine(List<ScanFilter> filters) {
+		mCount = filters.size();
+		mRssiFloors = new int[mCount];
+		mHasServiceUuid = new boolean[mCount];
+		mServiceUuidMsb = new long[mCount];
+		mServiceUuidLsb = new long[mCount];
+		mNamePrefixes = new byte[mCount][];
+		mManufacturerIds = new int[mCount];
+		mManufacturerData = new byte[mCount][];
+		mManufacturerMasks = new byte[mCount][];
+		mFilterNeedsParse = new boolean[mCount];
+
+		int minRssiFloor = mCount == 0 ? ScanFilter.NO_RSSI_FLOOR : Integer.MAX_VALUE;
+		boolean needsParse = false;
+		for (int i = 0; i < mCount; i++) {
+			ScanFilter filter = filters.get(i);
+			mRssiFloors[i] = filter.mRssiFloor;
+			minRssiFloor = Math.min(minRssiFloor, filter.mRssiFloor);
+			if (filter.mServiceUuid != null) {
+				mHasServiceUuid[i] = true;
+				mServiceUuidMsb[i] = filter.mServiceUuid.getMostSignificantBits();
+				mServiceUuidLsb[i] = filter.mServiceUuid.getLeastSignificantBits();
+			}
+			if (filter.mNamePrefix != null) {
+				mNamePrefixes[i] = filter.mNamePrefix.getBytes(UTF8);
+			}
+			mManufacturerIds[i] = filter.mManufacturerId;
+			if (filter.mManufacturerData != null) {
+				mManufacturerData[i] = filter.mManufacturerData.clone();
+				if (filter.mManufacturerMask != null) {
+					mManufacturerMasks[i] = filter.mManufacturerMask.clone();
+				}
+			}
+			mFilterNeedsParse[i] = mHasServiceUuid[i] || mNamePrefixes[i] != null || 0 <= mManufacturerIds[i];
+			needsParse |= mFilterNeedsParse[i];
+		}
+		mMinRssiFloor = minRssiFloor;
+		mNeedsParse = needsParse;
+	}
+
+	/**
+	 * フィルタが空かどうか
+	 * @return
+	 */
+	public boolean IsEmpty() {
+		return mCount == 0;
+	}
+
+	/**
+	 * スキャン結果がいずれかのフィルタに一致するかどうか
+	 * @param rssi
+	 * @param scanRecord
+	 * @return
+	 */
+	public boolean Match(int rssi, byte[] scanRecord) {
+		if (mCount == 0) {
+			return true;
+		}
+		// 解析する前にRSSIだけで落とせるものを落とす
+		if (rssi < mMinRssiFloor) {
+			return false;
+		}
+
+		AdvertisementRecord advertisement = null;
+		if (mNeedsParse && scanRecord != null) {
+			advertisement = sAdvertisement.get();
+			advertisement.Wrap(scanRecord);
+		}
+
+		for (int i = 0; i < mCount; i++) {
+			if (MatchFilter(i, rssi, advertisement)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 1つのフィルタを評価する
+	 * @param i
+	 * @param rssi
+	 * @param advertisement
+	 * @return
+	 */
+	private boolean MatchFilter(int i, int rssi, AdvertisementRecord advertisement) {
+		if (rssi < mRssiFloors[i]) {
+			return false;
+		}
+		if (!mFilterNeedsParse[i]) {
+			return true;
+		}
+		if (advertisement == null) {
+			return false;
+		}
+		if (mHasServiceUuid[i] && !advertisement.HasServiceUuid(mServiceUuidMsb[i], mServiceUuidLsb[i])) {
+			return false;
+		}
+		if (mNamePrefixes[i] != null && !advertisement.LocalNameStartsWith(mNamePrefixes[i])) {
+			return false;
+		}
+		if (0 <= mManufacturerIds[i] && !MatchManufacturer(i, advertisement)) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * メーカー固有データを評価する
+	 * メーカー固有データのAD構造が複数ある場合は、いずれか1つが合えばよい
+	 * @param i
+	 * @param advertisement
+	 * @return
+	 */
+	private boolean MatchManufacturer(int i, AdvertisementRecord advertisement) {
+		for (int index = advertisement.FindManufacturerData(); 0 <= index;
+			 index = advertisement.FindManufacturerData(index + 1)) {
+			if (MatchManufacturer(i, advertisement, index)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * メーカー固有データのAD構造1つを評価する
+	 * @param i
+	 * @param advertisement
+	 * @param index AD構造の位置
+	 * @return
+	 */
+	private boolean MatchManufacturer(int i, AdvertisementRecord advertisement, int index) {
+		byte[] raw = advertisement.GetData();
+		int off = advertisement.GetOffset(index);
+		if (AdvertisementRecord.ReadLE(raw, off, 2) != mManufacturerIds[i]) {
+			return false;
+		}
+
+		byte[] data = mManufacturerData[i];
+		if (data == null) {
+			return true;
+		}
+		if (advertisement.GetLength(index) - 2 < data.length) {
+			return false;
+		}
+		byte[] mask = mManufacturerMasks[i];
+		off += 2;
+		for (int j = 0; j < data.length; j++) {
+			int m = mask == null ? 0xFF : mask[j];
+			if (((raw[off + j] ^ data[j]) & m) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,328 @@
+package com.scarviz.sampleble;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * セッション記録クラス
+ * 受信した通知と接続状態を、メモリマップした固定長のセグメントファイルに追記する
+ * 書き込みはマップ済みの領域へのコピーだけで、ディスクへの反映はバックグラウンドのスレッドで行う
+ * 次のセグメントもバックグラウンドで先に用意するので、記録側がファイルI/Oを待つことはない
+ * (用意が間に合わなかった場合は、ファイルを作らずにそのレコードを記録できなかったものとして数える)
+ * 反映スレッドはロックをフィールドの受け渡しの間だけ取り、ファイルI/Oはロックの外で行う
+ *
+ * ファイル形式(リトルエンディアン)
+ * ヘッダ: MAGIC(4) VERSION(4) セグメント番号(4) 予約(4)
+ * レコード: 長さ(4) 種別(1) 時刻ns(8) 機器ID(4) UUID上位(8) UUID下位(8) 引数(4) データ(長さ - RECORD_HEADER_SIZE)
+ * 長さが0のレコードでセグメントの終わりとする
+ */
+public class SessionRecorder {
+	private final static String TAG = "SessionRecorder";
+
+	/** ファイルの識別子("BLES") */
+	public static final int MAGIC = 0x424C4553;
+	public static final int VERSION = 1;
+	public static final int FILE_HEADER_SIZE = 16;
+	/** レコードの長さフィールドの後ろの固定部分のサイズ */
+	public static final int RECORD_HEADER_SIZE = 1 + 8 + 4 + 8 + 8 + 4;
+	/** 1セグメントのサイズ */
+	public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+	/** ファイル名の拡張子 */
+	public static final String SEGMENT_SUFFIX = ".bles";
+
+	/** レコード種別：通知(引数なし、データは受信値) */
+	public static final byte RECORD_NOTIFICATION = 1;
+	/** レコード種別：接続状態変更(引数は新しい状態、データは機器アドレス) */
+	public static final byte RECORD_CONNECTION_STATE = 2;
+	/** レコード種別：サービス検索完了(引数はステータス) */
+	public static final byte RECORD_SERVICES_DISCOVERED = 3;
+
+	/** ディスクへ反映する間隔(ms) */
+	private static final long FLUSH_INTERVAL = 1000;
+
+	private final File mDir;
+	private final String mName;
+	private final int mSegmentSize;
+
+	private MappedByteBuffer mSegment;
+	private int mSegmentIndex;
+	/** バックグラウンドで用意した次のセグメント */
+	private MappedByteBuffer mPrepared;
+	/** 書き終えてまだディスクへ反映していないセグメント(反映スレッドだけが反映する) */
+	private final ArrayList<MappedByteBuffer> mRetired = new ArrayList<MappedByteBuffer>();
+	private boolean mClosed;
+
+	private long mRecords;
+	private long mBytes;
+	private long mFailures;
+
+	private final Thread mFlusher;
+
+	/**
+	 * コンストラクタ
+	 * 最初のセグメントを作成し、反映スレッドを開始する
+	 * @param dir 保存先ディレクトリ
+	 * @param name セッション名(ファイル名の先頭に付ける)
+	 * @param segmentSize
+	 * @throws IOException
+	 */
+	public SessionRecorder(File dir, String name, int segmentSize) throws IOException {
+		if (segmentSize < FILE_HEADER_SIZE + 4 + RECORD_HEADER_SIZE + 4) {
+			throw new IllegalArgumentException("segment size too small: " + segmentSize);
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create " + dir);
+		}
+		mDir = dir;
+		mName = name;
+		mSegmentSize = segmentSize;
+		mSegment = MapSegment(0);
+
+		mFlusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				FlushLoop();
+			}
+		}, "SessionRecorder");
+		mFlusher.setDaemon(true);
+		mFlusher.start();
+	}
+
+	/**
+	 * セグメントのファイルを取得する
+	 * @param dir
+	 * @param name
+	 * @param index
+	 * @return
+	 */
+	public static File SegmentFile(File dir, String name, int index) {
+		return new File(dir, name + "-" + String.format("%04d", index) + SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * 通知を記録する
+	 * @param deviceId
+	 * @param uuidMsb キャラクタリスティックUUIDの上位
+	 * @param uuidLsb キャラクタリスティックUUIDの下位
+	 * @param timestamp
+	 * @param data
+	 * @param length
+	 * @return 記録できなかった場合false
+	 */
+	public boolean RecordNotification(int deviceId, long uuidMsb, long uuidLsb, long timestamp,
+									  byte[] data, int length) {
+		return Record(RECORD_NOTIFICATION, deviceId, uuidMsb, uuidLsb, timestamp, 0, data, length);
+	}
+
+	/**
+	 * レコードを書き込む
+	 * @param type
+	 * @param deviceId
+	 * @param uuidMsb
+	 * @param uuidLsb
+	 * @param timestamp
+	 * @param arg
+	 * @param data nullの場合はデータなし
+	 * @param length
+	 * @return 記録できなかった場合false
+	 */
+	public synchronized boolean Record(byte type, int deviceId, long uuidMsb, long uuidLsb, long timestamp,
+									   int arg, byte[] data, int length) {
+		if (mClosed) {
+			return false;
+		}
+		int size = 4 + RECORD_HEADER_SIZE + length;
+		// 終端の長さ0を書く分を残しておく
+		if (mSegment.remaining() < size + 4) {
+			if (mSegmentSize < FILE_HEADER_SIZE + size + 4 || !NextSegment()) {
+				mFailures++;
+				return false;
+			}
+		}
+		MappedByteBuffer segment = mSegment;
+		segment.putInt(RECORD_HEADER_SIZE + length);
+		segment.put(type);
+		segment.putLong(timestamp);
+		segment.putInt(deviceId);
+		segment.putLong(uuidMsb);
+		segment.putLong(uuidLsb);
+		segment.putInt(arg);
+		if (0 < length) {
+			segment.put(data, 0, length);
+		}
+		mRecords++;
+		mBytes += size;
+		return true;
+	}
+
+	/**
+	 * 記録したレコード数を取得する
+	 * @return
+	 */
+	public synchronized long GetRecordCount() {
+		return mRecords;
+	}
+
+	/**
+	 * 記録したバイト数を取得する
+	 * @return
+	 */
+	public synchronized long GetByteCount() {
+		return mBytes;
+	}
+
+	/**
+	 * 記録できなかったレコード数を取得する
+	 * @return
+	 */
+	public synchronized long GetFailureCount() {
+		return mFailures;
+	}
+
+	/**
+	 * 記録を終了する
+	 * 反映スレッドを止め、書き込んだ内容をディスクへ反映する
+	 */
+	public void Close() {
+		synchronized (this) {
+			if (mClosed) {
+				return;
+			}
+			mClosed = true;
+			notifyAll();
+		}
+		try {
+			mFlusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// 反映スレッドは止まり、以降は記録されないのでロックの外で反映する
+		MappedByteBuffer[] retired;
+		MappedByteBuffer segment;
+		boolean prepared;
+		int index;
+		synchronized (this) {
+			retired = mRetired.toArray(new MappedByteBuffer[mRetired.size()]);
+			mRetired.clear();
+			segment = mSegment;
+			prepared = mPrepared != null;
+			mPrepared = null;
+			index = mSegmentIndex;
+		}
+		for (MappedByteBuffer buffer : retired) {
+			buffer.force();
+		}
+		segment.force();
+		// 用意したが使わなかったセグメントは消す
+		if (prepared) {
+			SegmentFile(mDir, mName, index + 1).delete();
+		}
+	}
+
+	/**
+	 * 次のセグメントへ切り替える(ロック取得済み)
+	 * ファイルI/Oは行わず、書き終えたセグメントの反映は反映スレッドに任せる
+	 * @return 次のセグメントの用意が間に合っていない場合false
+	 */
+	private boolean NextSegment() {
+		MappedByteBuffer next = mPrepared;
+		if (next == null) {
+			// 記録側では作らず、反映スレッドにすぐ用意させる
+			notifyAll();
+			return false;
+		}
+		mPrepared = null;
+		mRetired.add(mSegment);
+		mSegment = next;
+		mSegmentIndex++;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * セグメントのファイルを作成してマップする
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 */
+	private MappedByteBuffer MapSegment(int index) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(SegmentFile(mDir, mName, index), "rw");
+		try {
+			MappedByteBuffer segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+			segment.order(ByteOrder.LITTLE_ENDIAN);
+			segment.putInt(MAGIC);
+			segment.putInt(VERSION);
+			segment.putInt(index);
+			segment.putInt(0);
+			return segment;
+		} finally {
+			// マップした領域はファイルを閉じても有効
+			file.close();
+		}
+	}
+
+	/**
+	 * 反映スレッドの処理
+	 * 一定間隔で書き込み中のセグメントを反映し、次のセグメントを先に用意しておく
+	 */
+	private void FlushLoop() {
+		while (true) {
+			MappedByteBuffer segment;
+			MappedByteBuffer[] retired;
+			boolean prepare;
+			int nextIndex;
+			synchronized (this) {
+				if (mClosed) {
+					return;
+				}
+				segment = mSegment;
+				retired = mRetired.toArray(new MappedByteBuffer[mRetired.size()]);
+				mRetired.clear();
+				prepare = mPrepared == null;
+				nextIndex = mSegmentIndex + 1;
+			}
+
+			// 次のセグメントを先に用意し、切り替えで記録を落とさないようにする
+			boolean failed = false;
+			if (prepare) {
+				try {
+					MappedByteBuffer prepared = MapSegment(nextIndex);
+					synchronized (this) {
+						if (!mClosed && mPrepared == null && mSegmentIndex + 1 == nextIndex) {
+							mPrepared = prepared;
+						}
+					}
+				} catch (IOException e) {
+					Log.e(TAG, "cannot prepare segment " + nextIndex, e);
+					failed = true;
+				}
+			}
+			for (MappedByteBuffer buffer : retired) {
+				buffer.force();
+			}
+			segment.force();
+
+			synchronized (this) {
+				if (mClosed) {
+					return;
+				}
+				// 反映している間に切り替わっていれば、待たずに次を用意する(作れなかった場合は間隔を空ける)
+				if (mPrepared == null && !failed) {
+					continue;
+				}
+				try {
+					wait(FLUSH_INTERVAL);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+}
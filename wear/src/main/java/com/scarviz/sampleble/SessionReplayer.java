@@ -0,0 +1,160 @@
+package com.scarviz.sampleble;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * セッション再生クラス
+ * SessionReaderで読み込んだレコードを、記録時の間隔(または速度を変えて)GattEventHandlerへ渡す
+ * Android APIを使わないので、通常のJVM上でも処理経路の最大スループットを測れる
+ */
+public class SessionReplayer {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/** 速度：待たずに全て流す */
+	public static final double SPEED_UNLIMITED = 0;
+	/** 速度：記録時と同じ */
+	public static final double SPEED_REALTIME = 1;
+
+	private final SessionReader mReader;
+	private final GattEventHandler mHandler;
+	private final double mSpeed;
+	private volatile boolean mStopped;
+
+	/** 機器IDごとのアドレス */
+	private final HashMap<Integer, String> mAddresses = new HashMap<Integer, String>();
+
+	private long mRecords;
+	private long mNotifications;
+	private long mBytes;
+	private long mElapsed;
+
+	/**
+	 * コンストラクタ
+	 * @param reader
+	 * @param handler
+	 * @param speed 再生速度の倍率。SPEED_UNLIMITED(0以下)の場合は待たない
+	 */
+	public SessionReplayer(SessionReader reader, GattEventHandler handler, double speed) {
+		mReader = reader;
+		mHandler = handler;
+		mSpeed = speed;
+	}
+
+	/**
+	 * 最後まで(またはStopが呼ばれるまで)再生する
+	 * 呼び出したスレッドでGattEventHandlerを呼ぶ
+	 * @throws IOException
+	 */
+	public void Run() throws IOException {
+		long start = System.nanoTime();
+		long firstTimestamp = 0;
+		boolean first = true;
+		try {
+			while (!mStopped && mReader.Next()) {
+				long timestamp = mReader.GetTimestamp();
+				if (first) {
+					firstTimestamp = timestamp;
+					first = false;
+				}
+				if (0 < mSpeed) {
+					WaitUntil(start + (long) ((timestamp - firstTimestamp) / mSpeed));
+				}
+				Dispatch();
+				mRecords++;
+			}
+		} finally {
+			mElapsed = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * 再生を止める(他のスレッドから呼ぶ)
+	 */
+	public void Stop() {
+		mStopped = true;
+	}
+
+	/**
+	 * 再生したレコード数を取得する
+	 * @return
+	 */
+	public long GetRecordCount() {
+		return mRecords;
+	}
+
+	/**
+	 * 再生した通知の数を取得する
+	 * @return
+	 */
+	public long GetNotificationCount() {
+		return mNotifications;
+	}
+
+	/**
+	 * 再生した通知のバイト数を取得する
+	 * @return
+	 */
+	public long GetByteCount() {
+		return mBytes;
+	}
+
+	/**
+	 * 再生にかかった時間(ns)を取得する
+	 * @return
+	 */
+	public long GetElapsed() {
+		return mElapsed;
+	}
+
+	/**
+	 * 1秒あたりの通知数を取得する
+	 * @return
+	 */
+	public double GetNotificationsPerSecond() {
+		return mElapsed <= 0 ? 0 : mNotifications * 1000000000.0 / mElapsed;
+	}
+
+	/**
+	 * 読み込んだレコードを渡す
+	 */
+	private void Dispatch() {
+		SessionReader reader = mReader;
+		int deviceId = reader.GetDeviceId();
+		switch (reader.GetType()) {
+			case SessionRecorder.RECORD_NOTIFICATION:
+				mNotifications++;
+				mBytes += reader.GetLength();
+				mHandler.onNotification(deviceId, reader.GetUuidMsb(), reader.GetUuidLsb(),
+						reader.GetTimestamp(), reader.GetData(), reader.GetLength());
+				break;
+			case SessionRecorder.RECORD_CONNECTION_STATE:
+				String address = mAddresses.get(deviceId);
+				if (address == null) {
+					address = new String(reader.GetData(), 0, reader.GetLength(), ASCII);
+					mAddresses.put(deviceId, address);
+				}
+				mHandler.onConnectionStateChange(deviceId, address, reader.GetArg());
+				break;
+			case SessionRecorder.RECORD_SERVICES_DISCOVERED:
+				mHandler.onServicesDiscovered(deviceId, reader.GetArg());
+				break;
+			default:
+				// 新しい形式のレコードは読み飛ばす
+				break;
+		}
+	}
+
+	/**
+	 * 指定した時刻まで待つ
+	 * @param deadline System.nanoTimeの値
+	 */
+	private void WaitUntil(long deadline) {
+		long remaining;
+		while (!mStopped && 0 < (remaining = deadline - System.nanoTime())) {
+			LockSupport.parkNanos(remaining);
+		}
+	}
+}
@@ -0,0 +1,371 @@
+package com.scarviz.sampleble;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * シミュレータの周辺機器クラス
+ * SimulatedBleRadioで使う機器の設定(サービス、キャラクタリスティック、通知レート、遅延、MTU)を保持する
+ * 設定はSimulatedBleRadioに追加する前に行うこと
+ */
+public class SimulatedPeripheral {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** プロパティ：読み取り */
+	public static final int PROPERTY_READ = 0x02;
+	/** プロパティ：応答なし書き込み */
+	public static final int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+	/** プロパティ：書き込み */
+	public static final int PROPERTY_WRITE = 0x08;
+	/** プロパティ：通知 */
+	public static final int PROPERTY_NOTIFY = 0x10;
+
+	/** プロパティ：指示 */
+	public static final int PROPERTY_INDICATE = 0x20;
+
+	/** Client Characteristic Configuration Descriptor */
+	static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+	/** アドバタイズデータの最大長 */
+	private static final int MAX_ADVERTISEMENT = 31;
+
+	/**
+	 * キャラクタリスティック
+	 */
+	static class Characteristic {
+		final UUID mService;
+		final UUID mUuid;
+		final int mProperties;
+		/** 現在の値(シミュレータのスレッドだけが更新する) */
+		byte[] mValue;
+		/** 通知のレート(回/秒)。0の場合は通知しない */
+		int mNotifyRate;
+		/** 通知のデータ長 */
+		int mNotifyLength;
+
+		Characteristic(UUID service, UUID uuid, int properties, byte[] value) {
+			mService = service;
+			mUuid = uuid;
+			mProperties = properties;
+			mValue = value;
+		}
+	}
+
+	private final String mAddress;
+	private final String mName;
+	private final ArrayList<Characteristic> mCharacteristics = new ArrayList<Characteristic>();
+	private int mRssi = -60;
+	private long mAdvertisingInterval = 100;
+	private long mLatency = 15;
+	/** 機器が受け付ける最大のMTU(ATTのデフォルトは23) */
+	private int mMtu = 23;
+	private boolean mBonded;
+	private boolean mFramed;
+	/** 対応する圧縮方式のビットマスク(0の場合は圧縮方式の通知に返事をしない) */
+	private int mCodecs;
+	/** この時刻(System.nanoTime)まで圏外 */
+	private volatile long mOutOfRangeUntil;
+	private byte[] mScanRecord;
+
+	/**
+	 * コンストラクタ
+	 * @param address XX:XX:XX:XX:XX:XX形式
+	 * @param name ローカル名(nullの場合はアドバタイズしない)
+	 */
+	public SimulatedPeripheral(String address, String name) {
+		mAddress = address;
+		mName = name;
+	}
+
+	/**
+	 * キャラクタリスティックを追加する
+	 * @param service
+	 * @param characteristic
+	 * @param properties PROPERTY_READ等の組み合わせ
+	 * @param value 初期値
+	 * @return
+	 */
+	public SimulatedPeripheral AddCharacteristic(UUID service, UUID characteristic, int properties, byte[] value) {
+		mCharacteristics.add(new Characteristic(service, characteristic, properties,
+				value == null ? new byte[0] : value.clone()));
+		mScanRecord = null;
+		return this;
+	}
+
+	/**
+	 * 通知を設定する
+	 * 通知はCCCDに書き込まれてから送り始める
+	 * @param service
+	 * @param characteristic
+	 * @param rate 回/秒
+	 * @param length 1回のデータ長(フレーム形式でない場合はMTU-3まで)
+	 * @return
+	 */
+	public SimulatedPeripheral SetNotification(UUID service, UUID characteristic, int rate, int length) {
+		Characteristic target = Find(service, characteristic);
+		if (target == null || (target.mProperties & PROPERTY_NOTIFY) == 0) {
+			throw new IllegalArgumentException("no notify characteristic: " + characteristic);
+		}
+		target.mNotifyRate = rate;
+		target.mNotifyLength = length;
+		return this;
+	}
+
+	/**
+	 * RSSIを設定する
+	 * @param rssi
+	 * @return
+	 */
+	public SimulatedPeripheral SetRssi(int rssi) {
+		mRssi = rssi;
+		return this;
+	}
+
+	/**
+	 * アドバタイズ間隔(ms)を設定する
+	 * @param interval
+	 * @return
+	 */
+	public SimulatedPeripheral SetAdvertisingInterval(long interval) {
+		mAdvertisingInterval = interval;
+		return this;
+	}
+
+	/**
+	 * 要求から応答までの遅延(ms)を設定する
+	 * @param latency
+	 * @return
+	 */
+	public SimulatedPeripheral SetLatency(long latency) {
+		mLatency = latency;
+		return this;
+	}
+
+	/**
+	 * 機器が受け付ける最大のMTUを設定する
+	 * 接続直後は23で、要求されたらこの値までのMTUを合意する
+	 * @param mtu
+	 * @return
+	 */
+	public SimulatedPeripheral SetMtu(int mtu) {
+		mMtu = mtu;
+		return this;
+	}
+
+	/**
+	 * ペアリング済みかどうかを設定する
+	 * @param bonded
+	 * @return
+	 */
+	public SimulatedPeripheral SetBonded(boolean bonded) {
+		mBonded = bonded;
+		return this;
+	}
+
+	/**
+	 * 通知をMessageFrame形式で送るかどうかを設定する
+	 * フレーム形式の場合、通知のデータ長はMTUを超えてもよい(分割して送る)
+	 * @param framed
+	 * @return
+	 */
+	public SimulatedPeripheral SetFramed(boolean framed) {
+		mFramed = framed;
+		return this;
+	}
+
+	/**
+	 * 対応する圧縮方式を設定する(フレーム形式の場合のみ)
+	 * @param codecs PayloadCodecs.CODEC_*のビットマスク
+	 * @return
+	 */
+	public SimulatedPeripheral SetCodecs(int codecs) {
+		mCodecs = codecs;
+		return this;
+	}
+
+	/**
+	 * 機器アドレスを取得する
+	 * @return
+	 */
+	public String GetAddress() {
+		return mAddress;
+	}
+
+	/**
+	 * ローカル名を取得する
+	 * @return
+	 */
+	public String GetName() {
+		return mName;
+	}
+
+	/**
+	 * RSSIを取得する
+	 * @return
+	 */
+	public int GetRssi() {
+		return mRssi;
+	}
+
+	/**
+	 * アドバタイズ間隔(ms)を取得する
+	 * @return
+	 */
+	public long GetAdvertisingInterval() {
+		return mAdvertisingInterval;
+	}
+
+	/**
+	 * 遅延(ms)を取得する
+	 * @return
+	 */
+	public long GetLatency() {
+		return mLatency;
+	}
+
+	/**
+	 * 機器が受け付ける最大のMTUを取得する
+	 * @return
+	 */
+	public int GetMtu() {
+		return mMtu;
+	}
+
+	/**
+	 * ペアリング済みかどうか
+	 * @return
+	 */
+	public boolean IsBonded() {
+		return mBonded;
+	}
+
+	/**
+	 * 通知をMessageFrame形式で送るかどうか
+	 * @return
+	 */
+	public boolean IsFramed() {
+		return mFramed;
+	}
+
+	/**
+	 * 対応する圧縮方式を取得する
+	 * @return
+	 */
+	public int GetCodecs() {
+		return mCodecs;
+	}
+
+	/**
+	 * 一定時間圏外にする
+	 * @param duration ms
+	 */
+	void SetOutOfRange(long duration) {
+		mOutOfRangeUntil = System.nanoTime() + duration * 1000000L;
+	}
+
+	/**
+	 * 圏内に戻るまでの時間を取得する
+	 * @return ms。圏内の場合0
+	 */
+	long GetOutOfRangeRemaining() {
+		long remaining = mOutOfRangeUntil - System.nanoTime();
+		return remaining <= 0 ? 0 : (remaining + 999999) / 1000000;
+	}
+
+	/**
+	 * サービスがあるかどうか
+	 * @param service
+	 * @return
+	 */
+	boolean HasService(UUID service) {
+		for (Characteristic characteristic : mCharacteristics) {
+			if (characteristic.mService.equals(service)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * キャラクタリスティックを取得する
+	 * @param service
+	 * @param characteristic
+	 * @return 見つからない場合null
+	 */
+	Characteristic Find(UUID service, UUID characteristic) {
+		for (Characteristic target : mCharacteristics) {
+			if (target.mService.equals(service) && target.mUuid.equals(characteristic)) {
+				return target;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 属性テーブルを取得する
+	 * 通知できるキャラクタリスティックにはCCCDを付ける
+	 * @return
+	 */
+	GattAttributeTable GetAttributes() {
+		GattAttributeTable table = new GattAttributeTable();
+		for (Characteristic characteristic : mCharacteristics) {
+			GattAttributeTable.Characteristic added = table.AddCharacteristic(characteristic.mService,
+					characteristic.mUuid, characteristic.mProperties);
+			if ((characteristic.mProperties & (PROPERTY_NOTIFY | PROPERTY_INDICATE)) != 0) {
+				added.mDescriptors.add(CLIENT_CHARACTERISTIC_CONFIG);
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * アドバタイズデータを取得する
+	 * フラグ、最初のサービスの128bit UUID、ローカル名(入る分だけ)を含める
+	 * @return
+	 */
+	synchronized byte[] GetScanRecord() {
+		if (mScanRecord != null) {
+			return mScanRecord;
+		}
+		byte[] record = new byte[MAX_ADVERTISEMENT];
+		int off = 0;
+		record[off++] = 2;
+		record[off++] = (byte) AdvertisementRecord.TYPE_FLAGS;
+		record[off++] = 0x06;
+		if (!mCharacteristics.isEmpty()) {
+			UUID service = mCharacteristics.get(0).mService;
+			record[off++] = 17;
+			record[off++] = (byte) AdvertisementRecord.TYPE_UUID128_COMPLETE;
+			off = PutLE(record, off, service.getLeastSignificantBits());
+			off = PutLE(record, off, service.getMostSignificantBits());
+		}
+		if (mName != null) {
+			byte[] name = mName.getBytes(UTF8);
+			int length = Math.min(name.length, MAX_ADVERTISEMENT - off - 2);
+			if (0 < length) {
+				record[off++] = (byte) (length + 1);
+				record[off++] = (byte) (length == name.length
+						? AdvertisementRecord.TYPE_NAME_COMPLETE
+						: AdvertisementRecord.TYPE_NAME_SHORT);
+				System.arraycopy(name, 0, record, off, length);
+			}
+		}
+		mScanRecord = record;
+		return record;
+	}
+
+	/**
+	 * リトルエンディアンで8バイト書き込む
+	 * @param data
+	 * @param off
+	 * @param value
+	 * @return 次の位置
+	 */
+	private static int PutLE(byte[] data, int off, long value) {
+		for (int i = 0; i < 8; i++) {
+			data[off++] = (byte) (value >>> (8 * i));
+		}
+		return off;
+	}
+}
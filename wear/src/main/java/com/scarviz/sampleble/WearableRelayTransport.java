@@ -0,0 +1,138 @@
+package com.scarviz.sampleble;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.List;
+
+/**
+ * Wearable Data Layer(MessageApi)を使う中継の送受信路
+ * 接続中の全てのノードへ送り、RELAY_PATHのメッセージだけを受け取る
+ */
+public class WearableRelayTransport implements RelayTransport {
+	private final static String TAG = "WearableRelayTransport";
+	/** 中継メッセージのパス */
+	public static final String RELAY_PATH = "/sampleble/relay";
+
+	private final GoogleApiClient mClient;
+	private volatile OnReceiveListener mListener;
+	/** 送り先のノードID(接続時と送れなかった時に取り直す) */
+	private volatile String[] mNodes = new String[0];
+
+	/**
+	 * コンストラクタ
+	 * Google Play開発者サービスへの接続を開始する
+	 * @param context
+	 */
+	public WearableRelayTransport(Context context) {
+		mClient = new GoogleApiClient.Builder(context)
+				.addApi(Wearable.API)
+				.addConnectionCallbacks(mConnectionCallbacks)
+				.addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
+					@Override
+					public void onConnectionFailed(ConnectionResult result) {
+						Log.d(TAG, "connection failed: " + result.getErrorCode());
+					}
+				})
+				.build();
+		mClient.connect();
+	}
+
+	@Override
+	public boolean Send(byte[] batch) {
+		String[] nodes = mNodes;
+		if (!mClient.isConnected() || nodes.length == 0) {
+			RefreshNodes();
+			return false;
+		}
+		for (String node : nodes) {
+			Wearable.MessageApi.sendMessage(mClient, node, RELAY_PATH, batch)
+					.setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+						@Override
+						public void onResult(MessageApi.SendMessageResult result) {
+							if (!result.getStatus().isSuccess()) {
+								Log.d(TAG, "send failure: " + result.getStatus().getStatusCode());
+								RefreshNodes();
+							}
+						}
+					});
+		}
+		return true;
+	}
+
+	@Override
+	public void SetListener(OnReceiveListener listener) {
+		mListener = listener;
+	}
+
+	@Override
+	public void Close() {
+		if (mClient.isConnected()) {
+			Wearable.MessageApi.removeListener(mClient, mMessageListener);
+		}
+		mClient.disconnect();
+	}
+
+	/**
+	 * 接続中のノードを取り直す
+	 */
+	private void RefreshNodes() {
+		if (!mClient.isConnected()) {
+			return;
+		}
+		Wearable.NodeApi.getConnectedNodes(mClient).setResultCallback(
+				new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+					@Override
+					public void onResult(NodeApi.GetConnectedNodesResult result) {
+						List<Node> nodes = result.getNodes();
+						String[] ids = new String[nodes.size()];
+						for (int i = 0; i < ids.length; i++) {
+							ids[i] = nodes.get(i).getId();
+						}
+						mNodes = ids;
+						Log.d(TAG, "connected nodes: " + ids.length);
+					}
+				});
+	}
+
+	/**
+	 * 接続のコールバック
+	 */
+	private final GoogleApiClient.ConnectionCallbacks mConnectionCallbacks = new GoogleApiClient.ConnectionCallbacks() {
+		@Override
+		public void onConnected(Bundle connectionHint) {
+			Log.d(TAG, "connected");
+			Wearable.MessageApi.addListener(mClient, mMessageListener);
+			RefreshNodes();
+		}
+
+		@Override
+		public void onConnectionSuspended(int cause) {
+			Log.d(TAG, "connection suspended: " + cause);
+			mNodes = new String[0];
+		}
+	};
+
+	/**
+	 * メッセージ受信のリスナー
+	 */
+	private final MessageApi.MessageListener mMessageListener = new MessageApi.MessageListener() {
+		@Override
+		public void onMessageReceived(MessageEvent messageEvent) {
+			OnReceiveListener listener = mListener;
+			if (listener != null && RELAY_PATH.equals(messageEvent.getPath())) {
+				listener.onRelayReceived(messageEvent.getData());
+			}
+		}
+	};
+}